@@ -4,12 +4,13 @@ import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 import static com.lazerycode.jmeter.analyzer.config.Environment.HTTPSAMPLE_ELEMENT_NAME;
 import static com.lazerycode.jmeter.analyzer.config.Environment.SAMPLE_ELEMENT_NAME;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -17,19 +18,34 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.xml.sax.SAXException;
 
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
 import com.lazerycode.jmeter.analyzer.config.Environment;
 import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
+import com.lazerycode.jmeter.analyzer.parser.MergeStrategy;
+import com.lazerycode.jmeter.analyzer.parser.NestedSamples;
+import com.lazerycode.jmeter.analyzer.parser.ResultFormat;
+import com.lazerycode.jmeter.analyzer.statistics.SampleRetention;
+import com.lazerycode.jmeter.analyzer.statistics.Throughput;
+import com.lazerycode.jmeter.analyzer.util.FileUtil;
+import com.lazerycode.jmeter.analyzer.util.ParallelGZIPInputStream;
+import com.lazerycode.jmeter.analyzer.util.PrefixedLog;
 import com.lazerycode.jmeter.analyzer.writer.ChartWriter;
 import com.lazerycode.jmeter.analyzer.writer.DetailsToCsvWriter;
 import com.lazerycode.jmeter.analyzer.writer.DetailsToHtmlWriter;
@@ -44,7 +60,7 @@ import com.lazerycode.jmeter.checker.ResultChecker;
 import freemarker.template.TemplateException;
 
 /**
- * Analyzes JMeter XML test report file and generates a report
+ * Analyzes JMeter XML or CSV test report file and generates a report
  *
  * @author Dennis Homann, Arne Franken, Peter Kaul
  */
@@ -53,8 +69,10 @@ import freemarker.template.TemplateException;
 public class AnalyzeMojo extends AbstractMojo {
 
   /**
-   * An AntPath-Style pattern matching a JMeter XML result file to analyze. Must be a fully qualified path.
+   * An AntPath-Style pattern matching a JMeter XML or CSV result file to analyze. Must be a fully qualified path.
    * File may be GZiped, must end in .gz then.
+   * CSV files must contain a header line. Files ending with .csv are parsed as CSV, files ending with .xml as XML.
+   * The format of all other files (e.g. .jtl) is determined by their content.
    */
   @Parameter(required = true)
   private String source;
@@ -73,6 +91,98 @@ public class AnalyzeMojo extends AbstractMojo {
   @Parameter(defaultValue = "50000")
   private int maxSamples = Environment.DEFAULT_MAXSAMPLES;
 
+  /**
+   * How samples are reduced when more than {@link #maxSamples} samples are kept: AVERAGE neighbouring samples pairwise
+   * or keep a RESERVOIR of real samples, the minimum, the maximum and a randomly chosen sample of consecutive samples,
+   * so that spikes remain visible in the charts, or aggregate samples into TIME_BUCKETS of a fixed interval that is
+   * widened as needed, so that the charts show average, minimum and maximum per interval.
+   * defaultValue = "AVERAGE"
+   */
+  @Parameter(defaultValue = "AVERAGE")
+  private SampleRetention sampleRetention = SampleRetention.AVERAGE;
+
+  /**
+   * Length in ms of the intervals in which requests are counted for the throughput chart and the peak requests per
+   * second. Requests are counted exactly, no matter how samples are compressed.
+   * At most {@link Throughput#DEFAULT_MAX_INTERVALS} intervals are kept per group, if the requests span more, the
+   * resolution is doubled as often as needed. Must be at least 1.
+   * defaultValue = "1000"
+   */
+  @Parameter(defaultValue = "1000")
+  private long throughputResolution = Throughput.DEFAULT_RESOLUTION;
+
+  /**
+   * Number of significant digits (1 to 5) of the response durations and active threads counted to compute quantiles.
+   * The values are then bucketed log-linearly, so that the memory used for quantiles is fixed no matter how long the
+   * test runs. Quantiles have a relative error below 10^-histogramSignificantDigits, which is reported with every
+   * quantile. 0 to count every distinct value exactly.
+   * defaultValue = "0"
+   */
+  @Parameter(defaultValue = "0")
+  private int histogramSignificantDigits = 0;
+
+  /**
+   * Number of threads used to parse a single result file.
+   * If greater than 1, uncompressed files are split into segments which are parsed in parallel. The results are the
+   * same as with a single thread. GZiped files are inflated by background threads, the members of a multi-member
+   * GZiped file in parallel.
+   * defaultValue = "1"
+   */
+  @Parameter(defaultValue = "1")
+  private int parserThreads = 1;
+
+  /**
+   * Number of threads that aggregate the samples while the result file is read and decompressed.
+   * Samples are distributed to the threads by request group / thread group. Applies to all files that are not split
+   * by {@link #parserThreads}, e.g. GZiped files. Throughput of all stages is logged.
+   * defaultValue = "0" (samples are aggregated by the thread that reads the file)
+   */
+  @Parameter(defaultValue = "0")
+  private int pipelineWorkers = 0;
+
+  /**
+   * Samples of XML results that are nested in other samples (e.g. by transaction controllers) to aggregate:
+   * ALL samples, TOP_LEVEL samples only (their content is skipped unparsed, which is fastest for results with response
+   * data) or LEAF samples only (samples that don't contain other samples).
+   * XML files are split by {@link #parserThreads} only for ALL.
+   * defaultValue = "ALL"
+   */
+  @Parameter(defaultValue = "ALL")
+  private NestedSamples nestedSamples = NestedSamples.ALL;
+
+  /**
+   * If true, uncompressed result files are analyzed while JMeter is still writing them, e.g. during a long running
+   * test. The summary is rendered periodically from the results parsed so far, charts and details are rendered at
+   * the end. Samples are aggregated by the thread that reads the file.
+   * defaultValue = "false"
+   */
+  @Parameter(defaultValue = "false")
+  private boolean follow = false;
+
+  /**
+   * Minimum time in ms between two renderings of intermediate results in follow mode.
+   * defaultValue = "60000"
+   */
+  @Parameter(defaultValue = "60000")
+  private long followInterval = Environment.DEFAULT_FOLLOW_INTERVAL;
+
+  /**
+   * Time in ms after which a followed result file is considered complete if it doesn't grow anymore.
+   * defaultValue = "60000"
+   */
+  @Parameter(defaultValue = "60000")
+  private long followTimeout = Environment.DEFAULT_FOLLOW_TIMEOUT;
+
+  /**
+   * Minimum time in ms between two checkpoints of the aggregated results of an uncompressed result file, 0 disables
+   * checkpoints. An aborted analysis is resumed at the last checkpoint, samples appended to a result file that has
+   * been analyzed before are merged into the results of the last run. Not used in follow mode or with
+   * {@link #pipelineWorkers}.
+   * defaultValue = "0"
+   */
+  @Parameter(defaultValue = "0")
+  private long checkpointInterval = 0;
+
   /**
    * Modify configuration of chart (height, width...).
    */
@@ -88,6 +198,44 @@ public class AnalyzeMojo extends AbstractMojo {
   @Parameter(defaultValue = "false")
   private boolean processAllFilesFound;
 
+  /**
+   * Number of result files that are analyzed, rendered and checked at the same time if {@link #processAllFilesFound}
+   * is true. Log messages are prefixed with the name of the result file, console output and remote resources are
+   * handled in the order of the result files. All files are checked before the build fails.
+   * defaultValue = "1"
+   */
+  @Parameter(defaultValue = "1")
+  private int fileThreads = 1;
+
+  /**
+   * Number of writers that render the results of a single result file at the same time, e.g. the charts while the
+   * HTML details are written. The files written are the same as with a single thread, the time every writer took is
+   * logged.
+   * defaultValue = "1" (writers are called one after another)
+   */
+  @Parameter(defaultValue = "1")
+  private int writerThreads = 1;
+
+  /**
+   * True, if all files found by pattern used in ${source} are the result files of the load generators of a single
+   * distributed test. Their results are merged according to {@link #mergeStrategy} into the results of a single test,
+   * which are written as "summary". Not used with {@link #follow} and {@link #checkpointInterval}.
+   * defaultValue = "false"
+   */
+  @Parameter(defaultValue = "false")
+  private boolean mergeResultFiles;
+
+  /**
+   * How the files are merged if {@link #mergeResultFiles} is true: STREAM reads the files at the same time and merges
+   * their samples in order of their timestamps, memory doesn't grow with the size of the files. FOLD analyzes every
+   * file on its own by {@link #fileThreads} threads and merges the results, memory grows with the number of samples.
+   * FOLD gives exact statistics and charts no matter in which order the samples of a file are, STREAM only if the
+   * samples of every file are in order of their timestamps.
+   * defaultValue = "STREAM"
+   */
+  @Parameter(defaultValue = "STREAM")
+  private MergeStrategy mergeStrategy = MergeStrategy.STREAM;
+
   /**
    * True, if the directory structure relative to {@link #source} should be preserved during output.
    * defaultValue = "false" for backward compatibility
@@ -185,6 +333,12 @@ public class AnalyzeMojo extends AbstractMojo {
     getLog().info("-------------------------------------------------------");
     getLog().info(" ");
 
+    // charts are rendered off-screen. AWT reads this property only once, so it must be set before the first chart.
+    // An explicit -Djava.awt.headless is respected.
+    if (System.getProperty("java.awt.headless") == null) {
+      System.setProperty("java.awt.headless", "true");
+    }
+
     initializeEnvironment();
     try {
 
@@ -204,28 +358,54 @@ public class AnalyzeMojo extends AbstractMojo {
         new HtmlIndexWriter().write(resultDataFiles);
         getLog().info("End index.");
 
-        for (int dataFileIdentifier = 0; dataFileIdentifier < resultDataFiles.length; dataFileIdentifier++) {
+        List<File> files = new ArrayList<File>();
+        for (Resource resultDataFile : resultDataFiles) {
+          files.add(resultDataFile.getFile());
 
-          //Drop out of the loop after processing first file if we only want to process the first file found.
-          if (dataFileIdentifier == 1 && !processAllFilesFound) {
+          //Drop out of the loop after the first file if we only want to process the first file found.
+          if (!processAllFilesFound && !mergeResultFiles) {
             break;
           }
+        }
 
-          File resultDataFile = resultDataFiles[dataFileIdentifier].getFile();
-          getLog().info("Analysing '" + resultDataFile.getName() + "'...");
+        if (mergeResultFiles) {
+          getLog().info("Merging " + files.size() + " files...");
 
-          Map<String, AggregatedResponses> jmeterResults = analyze(resultDataFile, rootPath);
+          ResultAnalyzer reportAnalyser = new ResultAnalyzer(null, null);
+          Map<String, AggregatedResponses> jmeterResults = reportAnalyser.merge(files, fileThreads);
 
-          getLog().info("Results Generated for '" + resultDataFile.getName() + "'.");
+          getLog().info("Results Generated for " + files.size() + " files.");
           getLog().info(" ");
 
-          getLog().info("Checking '" + resultDataFile.getName() + "'...");
+          getLog().info("Checking merged results...");
 
-          check(jmeterResults);
+          new ResultChecker().check(jmeterResults);
 
-          getLog().info("Results Checked for '" + resultDataFile.getName() + "'.");
+          getLog().info("Results Checked.");
           getLog().info(" ");
         }
+        else if (fileThreads > 1 && files.size() > 1) {
+          analyzeConcurrently(files, rootPath);
+        }
+        else {
+          for (File resultDataFile : files) {
+
+            getLog().info("Analysing '" + resultDataFile.getName() + "'...");
+
+            AnalysisContext context = newContext(resultDataFile, rootPath, getLog(), null);
+            Map<String, AggregatedResponses> jmeterResults = analyze(resultDataFile, context, true);
+
+            getLog().info("Results Generated for '" + resultDataFile.getName() + "'.");
+            getLog().info(" ");
+
+            getLog().info("Checking '" + resultDataFile.getName() + "'...");
+
+            new ResultChecker().check(context, jmeterResults);
+
+            getLog().info("Results Checked for '" + resultDataFile.getName() + "'.");
+            getLog().info(" ");
+          }
+        }
       }
     } catch (MojoFailureException mfe) {
       throw mfe;
@@ -242,6 +422,10 @@ public class AnalyzeMojo extends AbstractMojo {
    */
   private void initializeEnvironment() throws MojoExecutionException {
 
+    if(throughputResolution < 1) {
+      throw new MojoExecutionException("throughputResolution must be at least 1ms, but is " + throughputResolution);
+    }
+
     if(writers != null) {
       //<writers> property was configured by user, use configured Writer implementations
 
@@ -271,6 +455,17 @@ public class AnalyzeMojo extends AbstractMojo {
     ENVIRONMENT.setGenerateDetails(writers.contains(new DetailsToHtmlWriter()));
 
     ENVIRONMENT.setMaxSamples(maxSamples);
+    ENVIRONMENT.setSampleRetention(sampleRetention);
+    ENVIRONMENT.setThroughputResolution(throughputResolution);
+    ENVIRONMENT.setHistogramSignificantDigits(histogramSignificantDigits);
+    ENVIRONMENT.setParserThreads(parserThreads);
+    ENVIRONMENT.setWriterThreads(writerThreads);
+    ENVIRONMENT.setPipelineWorkers(pipelineWorkers);
+    ENVIRONMENT.setNestedSamples(nestedSamples);
+    ENVIRONMENT.setMergeStrategy(mergeStrategy);
+    ENVIRONMENT.setFollowInterval(followInterval);
+    ENVIRONMENT.setFollowTimeout(followTimeout);
+    ENVIRONMENT.setCheckpointInterval(checkpointInterval);
     ENVIRONMENT.setRemoteResources(remoteResources);
     ENVIRONMENT.setRemoteResourcesFromUntilDateFormat(remoteResourcesFromUntilDateFormat);
     ENVIRONMENT.setRequestGroups(requestGroups);
@@ -285,47 +480,143 @@ public class AnalyzeMojo extends AbstractMojo {
   }
 
   /**
-   * Analyze given file.
+   * Analyze, render and check result files with {@link #fileThreads} threads.
+   * Console output of the files is buffered and written in the order of the files, so is the output of downloaded
+   * remote resources.
+   *
+   * @param files the files to analyze
+   * @param rootPath the root path of the files
+   * @throws MojoFailureException if the check of at least one file fails
+   */
+  private void analyzeConcurrently(List<File> files, String rootPath) throws Exception {
+
+    getLog().info("Analysing " + files.size() + " files with " + fileThreads + " threads...");
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(fileThreads, files.size()));
+    try {
+      List<FileAnalysis> analyses = new ArrayList<FileAnalysis>();
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (File resultDataFile : files) {
+        FileAnalysis analysis = new FileAnalysis(resultDataFile, rootPath);
+        analyses.add(analysis);
+        results.add(executor.submit(analysis));
+      }
+
+      List<String> failedFiles = new ArrayList<String>();
+      for (int i = 0; i < analyses.size(); i++) {
+        FileAnalysis analysis = analyses.get(i);
+        get(results.get(i));
+
+        analysis.flushConsole();
+        new ResultAnalyzer(analysis.context, false).readResources(analysis.start, analysis.end);
+
+        if (analysis.failure != null) {
+          failedFiles.add(analysis.resultDataFile.getName());
+        }
+      }
+
+      if (!failedFiles.isEmpty()) {
+        throw new MojoFailureException("Check is incorrect for " + failedFiles.size() + " of " + files.size()
+                                       + " files: " + failedFiles);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Wait for the analysis of a file
+   */
+  private static void get(Future<Void> result) throws Exception {
+    try {
+      result.get();
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Create the context to analyze a file in
    *
    * @param resultDataFile the file to analyze
    * @param rootPath the root path of the resultDataFile
+   * @param log the log for messages about the file
+   * @param console the stream for console output, null for System.out
    */
-  private Map<String, AggregatedResponses> analyze(File resultDataFile, String rootPath) throws IOException, SAXException, TemplateException {
+  private AnalysisContext newContext(File resultDataFile, String rootPath, Log log, PrintStream console) {
+
+    String resultDataFileName = resultDataFile.getName();
 
-    Reader resultData;
-    if (resultDataFile.getName().endsWith(".gz")) {
-      resultData = new InputStreamReader(new GZIPInputStream(new FileInputStream(resultDataFile)));
+    String relativePath = null;
+    if (preserveDirectories) {
+      //get relative path from source pattern to the resultDataFile
+      relativePath = resultDataFile.getAbsolutePath().replace(rootPath, "").replace(resultDataFileName, "");
+    }
+
+    //only use data file name, do not use file extension
+    resultDataFileName = resultDataFileName.substring(0, resultDataFileName.lastIndexOf('.'));
+
+    return new AnalysisContext(resultDataFileName, relativePath, log, console);
+  }
+
+  /**
+   * Analyze given file.
+   *
+   * @param resultDataFile the file to analyze
+   * @param context the context to analyze the file in
+   * @param readResources false, if remote resources are downloaded by the caller
+   */
+  private Map<String, AggregatedResponses> analyze(File resultDataFile, AnalysisContext context, boolean readResources)
+      throws IOException, SAXException, TemplateException {
+
+    boolean compressed = resultDataFile.getName().endsWith(".gz");
+
+    InputStream resultData;
+    if (compressed) {
+      if (parserThreads > 1) {
+        resultData = new BufferedInputStream(new ParallelGZIPInputStream(resultDataFile, parserThreads));
+      }
+      else {
+        resultData = new BufferedInputStream(new GZIPInputStream(new FileInputStream(resultDataFile)));
+      }
     }
     else {
-      resultData = new FileReader(resultDataFile);
+      resultData = new BufferedInputStream(new FileInputStream(resultDataFile));
     }
 
     try {
 
-      String resultDataFileName = resultDataFile.getName();
+      ResultAnalyzer reportAnalyser = new ResultAnalyzer(context, readResources);
 
-      String relativePath = null;
-      if (preserveDirectories) {
-        //get relative path from source pattern to the resultDataFile
-        relativePath = resultDataFile.getAbsolutePath().replace(rootPath, "").replace(resultDataFileName, "");
+      if (!compressed && follow) {
+        // parse while JMeter is writing the file. The file may still be empty, so the format is detected once
+        // JMeter has written the first bytes.
+        return reportAnalyser.follow(resultDataFile, null);
       }
 
-      //only use data file name, do not use file extension
-      resultDataFileName = resultDataFileName.substring(0, resultDataFileName.lastIndexOf('.'));
+      ResultFormat format = ResultFormat.detect(resultDataFile.getName(), resultData);
 
-      ResultAnalyzer reportAnalyser = new ResultAnalyzer(relativePath, resultDataFileName);
+      if (!compressed && (parserThreads > 1 || checkpointInterval > 0)) {
+        // uncompressed files can be split and parsed in parallel and parsing can be resumed at an offset
+        return reportAnalyser.analyze(resultDataFile, format);
+      }
 
-      return reportAnalyser.analyze(resultData);
+      return reportAnalyser.analyze(resultData, format);
     }
     finally {
       resultData.close();
     }
   }
 
-  private void check(Map<String, AggregatedResponses> jmeterResults) throws MojoFailureException {
-      new ResultChecker().check(jmeterResults);
-  }
-
   //--------------------------------------------------------------------------------------------------------------------
 
   /**
@@ -345,4 +636,64 @@ public class AnalyzeMojo extends AbstractMojo {
 
   }
 
+  /**
+   * Analyzes, renders and checks a file on a thread of {@link #analyzeConcurrently(List, String)}
+   */
+  private class FileAnalysis implements Callable<Void> {
+
+    private final File resultDataFile;
+    private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+    private final AnalysisContext context;
+
+    // set if the check failed
+    private MojoFailureException failure;
+
+    // time span of the results, for the remote resources. The results themselves are released when the task ends,
+    // so that finished files don't stay in memory while waiting for earlier files.
+    private long start;
+    private long end;
+
+    FileAnalysis(File resultDataFile, String rootPath) {
+      this.resultDataFile = resultDataFile;
+      this.context = newContext(resultDataFile, rootPath,
+                                new PrefixedLog(getLog(), "[" + resultDataFile.getName() + "] "),
+                                new PrintStream(console, true));
+    }
+
+    @Override
+    public Void call() throws Exception {
+
+      Log log = context.getLog();
+      log.info("Analysing...");
+
+      Map<String, AggregatedResponses> jmeterResults = analyze(resultDataFile, context, false);
+
+      log.info("Results Generated.");
+      log.info("Checking...");
+
+      try {
+        new ResultChecker().check(context, jmeterResults);
+        log.info("Results Checked.");
+      }
+      catch (MojoFailureException e) {
+        log.error(e.getMessage());
+        failure = e;
+      }
+
+      long[] startEnd = FileUtil.getStartEnd(jmeterResults.values());
+      start = startEnd[0];
+      end = startEnd[1];
+      return null;
+    }
+
+    /**
+     * Write the buffered console output to System.out
+     */
+    void flushConsole() throws IOException {
+      context.getConsole().flush();
+      console.writeTo(System.out);
+      System.out.flush();
+    }
+  }
+
 }
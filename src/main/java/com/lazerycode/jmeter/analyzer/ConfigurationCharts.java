@@ -13,6 +13,12 @@ public class ConfigurationCharts {
 
     private int height = 500;
 
+    private int threads = 1;
+
+    private int maxRenderingMemory = 64;
+
+    private int pointsPerPixel = 2;
+
     public int getWidth() {
         return width;
     }
@@ -29,4 +35,37 @@ public class ConfigurationCharts {
         height = pHeight;
     }
 
+    /**
+     * @return number of charts rendered at the same time
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int pThreads) {
+        threads = pThreads;
+    }
+
+    /**
+     * @return memory in MB that the images of charts rendered at the same time may use
+     */
+    public int getMaxRenderingMemory() {
+        return maxRenderingMemory;
+    }
+
+    public void setMaxRenderingMemory(int pMaxRenderingMemory) {
+        maxRenderingMemory = pMaxRenderingMemory;
+    }
+
+    /**
+     * @return maximum number of points of a series per pixel of the chart width, 0 to draw all points
+     */
+    public int getPointsPerPixel() {
+        return pointsPerPixel;
+    }
+
+    public void setPointsPerPixel(int pPointsPerPixel) {
+        pointsPerPixel = pPointsPerPixel;
+    }
+
 }
@@ -1,16 +1,30 @@
 package com.lazerycode.jmeter.analyzer;
 
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
 import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
 import com.lazerycode.jmeter.analyzer.parser.JMeterResultParser;
+import com.lazerycode.jmeter.analyzer.parser.ResultFormat;
 import com.lazerycode.jmeter.analyzer.util.FileUtil;
+import com.lazerycode.jmeter.analyzer.writer.DetailsWriterBase;
+import com.lazerycode.jmeter.analyzer.writer.TextWriterBase;
 import com.lazerycode.jmeter.analyzer.writer.Writer;
+import com.lazerycode.jmeter.analyzer.writer.WriterBase;
 import freemarker.template.TemplateException;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 
@@ -24,12 +38,23 @@ import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 public class ResultAnalyzer {
 
   private static final String FILENAME_DEFAULT = "summary";
-  private String fileName;
-  private final String resultDataFileRelativePath;
+  private final AnalysisContext context;
+  private final boolean readResources;
 
   public ResultAnalyzer(String resultDataFileRelativePath, String fileName) {
-    this.fileName = fileName != null ? fileName : FILENAME_DEFAULT;
-    this.resultDataFileRelativePath = resultDataFileRelativePath;
+    this(new AnalysisContext(fileName != null ? fileName : FILENAME_DEFAULT, resultDataFileRelativePath), true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param context the analysis of a single result file
+   * @param readResources false, if the caller downloads the remote resources with {@link #readResources(Map)}, e.g.
+   *        in a defined order if several result files are analyzed concurrently
+   */
+  public ResultAnalyzer(AnalysisContext context, boolean readResources) {
+    this.context = context;
+    this.readResources = readResources;
   }
 
   /**
@@ -38,24 +63,261 @@ public class ResultAnalyzer {
    * @param jmeterResult The jmeter XML result file
    */
   public Map<String, AggregatedResponses> analyze(Reader jmeterResult) throws IOException, TemplateException, SAXException {
+    return analyze(jmeterResult, ResultFormat.XML);
+  }
 
-    Map<String, AggregatedResponses> testResults = new JMeterResultParser().aggregate(jmeterResult);
+  /**
+   * Analyzes a JMeter results file
+   *
+   * @param jmeterResult The jmeter result file
+   * @param format The format of the result file
+   */
+  public Map<String, AggregatedResponses> analyze(Reader jmeterResult, ResultFormat format) throws IOException, TemplateException, SAXException {
+    return write(new JMeterResultParser(context).aggregate(jmeterResult, format));
+  }
 
-    for(Writer writer : ENVIRONMENT.getWriters()) {
-      writer.setFileName(fileName);
-      writer.setResultDataFileRelativePath(resultDataFileRelativePath);
-      writer.write(testResults);
-    }
+  /**
+   * Analyzes a JMeter results file.
+   * Reading the raw bytes allows XML results to be parsed by a specialized scanner.
+   *
+   * @param jmeterResult The jmeter result file
+   * @param format The format of the result file
+   */
+  public Map<String, AggregatedResponses> analyze(InputStream jmeterResult, ResultFormat format) throws IOException, TemplateException, SAXException {
+    return write(new JMeterResultParser(context).aggregate(jmeterResult, format));
+  }
+
+  /**
+   * Analyzes an uncompressed JMeter results file.
+   * The file may be parsed by several threads, see {@link com.lazerycode.jmeter.analyzer.config.Environment#getParserThreads()}.
+   * If {@link com.lazerycode.jmeter.analyzer.config.Environment#getCheckpointInterval() checkpoints} are enabled,
+   * parsing continues at the checkpoint of a previous run.
+   *
+   * @param jmeterResult The jmeter result file
+   * @param format The format of the result file
+   */
+  public Map<String, AggregatedResponses> analyze(File jmeterResult, ResultFormat format) throws IOException, TemplateException, SAXException {
+    File checkpointFile = ENVIRONMENT.getCheckpointInterval() > 0 ? getCheckpointFile() : null;
+    return write(new JMeterResultParser(context).aggregate(jmeterResult, format, checkpointFile));
+  }
+
+  /**
+   * Analyzes the result files of the load generators of a distributed test as a single test, see
+   * {@link JMeterResultParser#merge(List, int)}
+   *
+   * @param jmeterResults the jmeter result files
+   * @param threads maximal number of files to parse at the same time
+   */
+  public Map<String, AggregatedResponses> merge(List<File> jmeterResults, int threads) throws IOException, TemplateException, SAXException {
+    return write(new JMeterResultParser(context).merge(jmeterResults, threads));
+  }
+
+  /**
+   * Analyzes an uncompressed JMeter results file while JMeter is still writing it.
+   * Intermediate results are rendered by the summary writers periodically, see
+   * {@link JMeterResultParser#follow(File, ResultFormat, JMeterResultParser.IntermediateResultsListener)}.
+   * The final results are handed to all writers.
+   *
+   * @param jmeterResult The jmeter result file
+   * @param format The format of the result file, null to detect it once JMeter has written the first bytes
+   */
+  public Map<String, AggregatedResponses> follow(File jmeterResult, ResultFormat format) throws IOException, TemplateException, SAXException {
+
+    JMeterResultParser.IntermediateResultsListener listener = new JMeterResultParser.IntermediateResultsListener() {
+      @Override
+      public void update(Map<String, AggregatedResponses> results) throws IOException {
+        try {
+          writeSummary(results);
+        }
+        catch (TemplateException e) {
+          throw new IOException("Rendering intermediate results failed: " + e.getMessage());
+        }
+      }
+    };
+
+    return write(new JMeterResultParser(context).follow(jmeterResult, format, listener));
+  }
+
+  /**
+   * Downloads the {@link com.lazerycode.jmeter.analyzer.config.Environment#getRemoteResources() remote resources}
+   * for the time span of the results
+   *
+   * @param testResults the aggregated results
+   */
+  public void readResources(Map<String, AggregatedResponses> testResults) throws IOException {
+    long[] startEnd = FileUtil.getStartEnd(testResults.values());
+    readResources(startEnd[0], startEnd[1]);
+  }
+
+  /**
+   * Downloads the {@link com.lazerycode.jmeter.analyzer.config.Environment#getRemoteResources() remote resources}
+   * for a time span
+   *
+   * @param start start of the results, see {@link FileUtil#getStartEnd(java.util.Collection)}
+   * @param end end of the results
+   */
+  public void readResources(long start, long end) throws IOException {
 
-    // --- download resources
     Properties remoteResources = ENVIRONMENT.getRemoteResources();
     if (remoteResources != null) {
       FileUtil.readResources(remoteResources, ENVIRONMENT.getTargetDirectory(),
-              resultDataFileRelativePath, testResults.values(),
+              context.getResultDataFileRelativePath(), start, end,
               ENVIRONMENT.getRemoteResourcesFromUntilDateFormat());
     }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * @return the file to store checkpoints in, below the target directory
+   */
+  private File getCheckpointFile() {
+
+    File directory = ENVIRONMENT.getTargetDirectory();
+    String relativePath = context.getResultDataFileRelativePath();
+    if (ENVIRONMENT.isPreserveDirectories() && relativePath != null && relativePath.length() > 0) {
+      directory = new File(directory, relativePath);
+    }
+
+    return new File(directory, context.getFileName() + ".checkpoint");
+  }
+
+  /**
+   * Hands intermediate results to the writers that render summaries (no charts or details)
+   *
+   * @param testResults the intermediate results
+   */
+  private void writeSummary(Map<String, AggregatedResponses> testResults) throws IOException, TemplateException {
+
+    for(Writer writer : ENVIRONMENT.getWriters()) {
+      if (writer instanceof TextWriterBase && !(writer instanceof DetailsWriterBase)) {
+        write(writer, testResults);
+      }
+    }
+  }
+
+  /**
+   * Hands the results to all writers and downloads remote resources.
+   * The writers are called by {@link com.lazerycode.jmeter.analyzer.config.Environment#getWriterThreads()} threads.
+   *
+   * @param testResults the aggregated results
+   */
+  private Map<String, AggregatedResponses> write(Map<String, AggregatedResponses> testResults) throws IOException, TemplateException {
+
+    List<Writer> writers = ENVIRONMENT.getWriters();
+    int threads = Math.min(ENVIRONMENT.getWriterThreads(), writers.size());
+    if (threads > 1) {
+      writeConcurrently(writers, testResults, threads);
+    }
+    else {
+      for(Writer writer : writers) {
+        writeTimed(writer, testResults);
+      }
+    }
+
+    // --- download resources
+    if (readResources) {
+      readResources(testResults);
+    }
 
     return testResults;
   }
 
+  /**
+   * Hands the results to all writers, several writers at the same time.
+   * All writers are waited for, so that no file is left half written. The failure of the first failed writer (in the
+   * order of the writers) is thrown then.
+   *
+   * @param writers the writers
+   * @param testResults the results
+   * @param threads number of writers to call at the same time
+   */
+  private void writeConcurrently(List<Writer> writers, final Map<String, AggregatedResponses> testResults, int threads)
+      throws IOException, TemplateException {
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (final Writer writer : writers) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            writeTimed(writer, testResults);
+            return null;
+          }
+        }));
+      }
+
+      Throwable failure = null;
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while writing results");
+        }
+        catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      if (failure instanceof TemplateException) {
+        throw (TemplateException) failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure != null) {
+        throw new IllegalStateException("Writing results failed", failure);
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Hands the results to a writer and logs the time it took
+   *
+   * @param writer the writer
+   * @param testResults the results
+   */
+  private void writeTimed(Writer writer, Map<String, AggregatedResponses> testResults) throws IOException, TemplateException {
+
+    long start = System.currentTimeMillis();
+    write(writer, testResults);
+    context.getLog().info(writer.getClass().getSimpleName() + " took " + (System.currentTimeMillis() - start) + " ms");
+  }
+
+  /**
+   * Hands the results to a writer.
+   * The writers are shared by all analyses, so a copy for this analysis is used. Writers that can't be copied are
+   * used by one analysis at a time.
+   *
+   * @param writer the writer
+   * @param testResults the results
+   */
+  private void write(Writer writer, Map<String, AggregatedResponses> testResults) throws IOException, TemplateException {
+
+    if (writer instanceof WriterBase) {
+      ((WriterBase) writer).forContext(context).write(testResults);
+      return;
+    }
+
+    synchronized (writer) {
+      writer.setFileName(context.getFileName());
+      writer.setResultDataFileRelativePath(context.getResultDataFileRelativePath());
+      writer.write(testResults);
+    }
+  }
+
 }
@@ -0,0 +1,77 @@
+package com.lazerycode.jmeter.analyzer.config;
+
+import java.io.PrintStream;
+
+import org.apache.maven.plugin.logging.Log;
+
+import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
+
+/**
+ * Describes the analysis of a single result file: the names of the generated files, the log and the console.
+ * Settings shared by all result files are read from {@link Environment#ENVIRONMENT}, which is initialized before the
+ * first file is analyzed and not changed afterwards.
+ *
+ * Immutable, so that several result files can be analyzed concurrently, each with its own context.
+ */
+public class AnalysisContext {
+
+  private final String fileName;
+  private final String resultDataFileRelativePath;
+  private final Log log;
+  private final PrintStream console;
+
+  /**
+   * Constructor.
+   * Messages are written to the log of the Environment, console output to System.out
+   *
+   * @param fileName name of the analyzed file without extension, used to name the generated files
+   * @param resultDataFileRelativePath relative path below the target directory to create the files in, may be null
+   */
+  public AnalysisContext(String fileName, String resultDataFileRelativePath) {
+    this(fileName, resultDataFileRelativePath, null, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param fileName name of the analyzed file without extension, used to name the generated files
+   * @param resultDataFileRelativePath relative path below the target directory to create the files in, may be null
+   * @param log the log for messages about the analyzed file, null for the log of the Environment
+   * @param console the stream for console output, null for System.out
+   */
+  public AnalysisContext(String fileName, String resultDataFileRelativePath, Log log, PrintStream console) {
+    this.fileName = fileName;
+    this.resultDataFileRelativePath = resultDataFileRelativePath;
+    this.log = log;
+    this.console = console;
+  }
+
+  /**
+   * @return name of the analyzed file without extension
+   */
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * @return relative path below the target directory to create the files in, may be null
+   */
+  public String getResultDataFileRelativePath() {
+    return resultDataFileRelativePath;
+  }
+
+  /**
+   * @return the log for messages about the analyzed file
+   */
+  public Log getLog() {
+    return log != null ? log : ENVIRONMENT.getLog();
+  }
+
+  /**
+   * @return the stream for console output
+   */
+  public PrintStream getConsole() {
+    return console != null ? console : System.out;
+  }
+
+}
@@ -1,16 +1,27 @@
 package com.lazerycode.jmeter.analyzer.config;
 
+import com.lazerycode.jmeter.analyzer.AnalyzeMojo;
 import com.lazerycode.jmeter.analyzer.CheckResult;
 import com.lazerycode.jmeter.analyzer.ConfigurationCharts;
 import com.lazerycode.jmeter.analyzer.RequestGroup;
+import com.lazerycode.jmeter.analyzer.parser.MergeStrategy;
+import com.lazerycode.jmeter.analyzer.parser.NestedSamples;
+import com.lazerycode.jmeter.analyzer.statistics.SampleRetention;
+import com.lazerycode.jmeter.analyzer.statistics.Throughput;
 import com.lazerycode.jmeter.analyzer.writer.Writer;
 
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.TemplateLoader;
 import freemarker.ext.beans.BeansWrapper;
 import freemarker.template.Configuration;
 
 import org.apache.maven.plugin.logging.Log;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -40,6 +51,9 @@ public enum Environment {
 
   public static final int DEFAULT_MAXSAMPLES = 50000;
 
+  public static final long DEFAULT_FOLLOW_INTERVAL = 60000;
+  public static final long DEFAULT_FOLLOW_TIMEOUT = 60000;
+
   public static final String ISO8601_FORMAT = "yyyyMMdd'T'HHmmssZ";
 
 
@@ -64,6 +78,17 @@ public enum Environment {
   private Set<String> sampleNames;
   private List<RequestGroup> requestGroups;
   private int maxSamples = DEFAULT_MAXSAMPLES;
+  private int histogramSignificantDigits = 0;
+  private SampleRetention sampleRetention = SampleRetention.AVERAGE;
+  private long throughputResolution = Throughput.DEFAULT_RESOLUTION;
+  private int parserThreads = 1;
+  private int writerThreads = 1;
+  private int pipelineWorkers = 0;
+  private NestedSamples nestedSamples = NestedSamples.ALL;
+  private MergeStrategy mergeStrategy = MergeStrategy.STREAM;
+  private long followInterval = DEFAULT_FOLLOW_INTERVAL;
+  private long followTimeout = DEFAULT_FOLLOW_TIMEOUT;
+  private long checkpointInterval = 0;
   private Configuration configuration;
   private File targetDirectory;
   private Log log;
@@ -84,6 +109,17 @@ public enum Environment {
     this.remoteResources = null;
     this.requestGroups = null;
     this.maxSamples = DEFAULT_MAXSAMPLES;
+    this.histogramSignificantDigits = 0;
+    this.sampleRetention = SampleRetention.AVERAGE;
+    this.throughputResolution = Throughput.DEFAULT_RESOLUTION;
+    this.parserThreads = 1;
+    this.writerThreads = 1;
+    this.pipelineWorkers = 0;
+    this.nestedSamples = NestedSamples.ALL;
+    this.mergeStrategy = MergeStrategy.STREAM;
+    this.followInterval = DEFAULT_FOLLOW_INTERVAL;
+    this.followTimeout = DEFAULT_FOLLOW_TIMEOUT;
+    this.checkpointInterval = 0;
     this.configuration = null;
     this.targetDirectory = null;
     this.remoteResourcesFromUntilDateFormat = ISO8601_FORMAT;
@@ -147,6 +183,94 @@ public enum Environment {
     this.maxSamples = maxSamples;
   }
 
+  public int getHistogramSignificantDigits() {
+    return histogramSignificantDigits;
+  }
+
+  public void setHistogramSignificantDigits(int histogramSignificantDigits) {
+    this.histogramSignificantDigits = histogramSignificantDigits;
+  }
+
+  public SampleRetention getSampleRetention() {
+    return sampleRetention;
+  }
+
+  public void setSampleRetention(SampleRetention sampleRetention) {
+    this.sampleRetention = sampleRetention;
+  }
+
+  public long getThroughputResolution() {
+    return throughputResolution;
+  }
+
+  public void setThroughputResolution(long throughputResolution) {
+    this.throughputResolution = throughputResolution;
+  }
+
+  public int getParserThreads() {
+    return parserThreads;
+  }
+
+  public void setParserThreads(int parserThreads) {
+    this.parserThreads = parserThreads;
+  }
+
+  public int getWriterThreads() {
+    return writerThreads;
+  }
+
+  public void setWriterThreads(int writerThreads) {
+    this.writerThreads = writerThreads;
+  }
+
+  public int getPipelineWorkers() {
+    return pipelineWorkers;
+  }
+
+  public void setPipelineWorkers(int pipelineWorkers) {
+    this.pipelineWorkers = pipelineWorkers;
+  }
+
+  public NestedSamples getNestedSamples() {
+    return nestedSamples;
+  }
+
+  public void setNestedSamples(NestedSamples nestedSamples) {
+    this.nestedSamples = nestedSamples;
+  }
+
+  public MergeStrategy getMergeStrategy() {
+    return mergeStrategy;
+  }
+
+  public void setMergeStrategy(MergeStrategy mergeStrategy) {
+    this.mergeStrategy = mergeStrategy;
+  }
+
+  public long getFollowInterval() {
+    return followInterval;
+  }
+
+  public void setFollowInterval(long followInterval) {
+    this.followInterval = followInterval;
+  }
+
+  public long getFollowTimeout() {
+    return followTimeout;
+  }
+
+  public void setFollowTimeout(long followTimeout) {
+    this.followTimeout = followTimeout;
+  }
+
+  public long getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  public void setCheckpointInterval(long checkpointInterval) {
+    this.checkpointInterval = checkpointInterval;
+  }
+
   public Configuration getConfiguration() {
     return configuration;
   }
@@ -176,12 +300,27 @@ public enum Environment {
   }
 
   /**
-   * Initialize Freemarker Configuration
+   * Initialize Freemarker Configuration.
+   * Templates are loaded from the {@link #getTemplateDirectory() template directory} if they exist there, from the
+   * classpath otherwise. The template directory must be set before.
    */
   public void initializeFreemarkerConfiguration() {
 
     configuration = new Configuration();
 
+    //the loaders are configured once, so that templates can be loaded by several threads
+    List<TemplateLoader> loaders = new ArrayList<TemplateLoader>();
+    if(templateDirectory != null && templateDirectory.isDirectory()) {
+      try {
+        loaders.add(new FileTemplateLoader(templateDirectory));
+      }
+      catch (IOException e) {
+        throw new IllegalArgumentException("Template directory " + templateDirectory + " can't be read", e);
+      }
+    }
+    loaders.add(new ClassTemplateLoader(AnalyzeMojo.class, "templates"));
+    configuration.setTemplateLoader(new MultiTemplateLoader(loaders.toArray(new TemplateLoader[loaders.size()])));
+
     //make maps work in Freemarker when map key is not a String
     BeansWrapper beansWrapper = BeansWrapper.getDefaultInstance();
     beansWrapper.setSimpleMapWrapper(true);
@@ -1,8 +1,12 @@
 package com.lazerycode.jmeter.analyzer.parser;
 
 import com.lazerycode.jmeter.analyzer.statistics.Samples;
+import com.lazerycode.jmeter.analyzer.statistics.Throughput;
 
+import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -11,7 +15,9 @@ import java.util.Set;
  *
  * @author Arne Franken, Peter Kaul
  */
-public class AggregatedResponses {
+public class AggregatedResponses implements Serializable {
+
+  private static final long serialVersionUID = 2L;
 
   /**
    * Timestamp when the test has started
@@ -29,9 +35,14 @@ public class AggregatedResponses {
   private Samples size;
 
   /**
-   * size of the responses splitted by uri
+   * ids of the uris
    */
-  private Map<String, Samples> sizeByUri;
+  private LabelDictionary labels;
+
+  /**
+   * size of the responses splitted by uri id
+   */
+  private Map<Integer, Samples> sizeByUri;
 
   /**
    * duration of the responses
@@ -44,9 +55,14 @@ public class AggregatedResponses {
   private Samples activeThreads;
 
   /**
-   * duration of the responses splitted by uri
+   * exact number of requests per interval
    */
-  private Map<String, Samples> durationByUri;
+  private Throughput throughput;
+
+  /**
+   * duration of the responses splitted by uri id
+   */
+  private Map<Integer, Samples> durationByUri;
 
   /**
    * aggregated status codes of responses
@@ -54,9 +70,9 @@ public class AggregatedResponses {
   private StatusCodes statusCodes;
 
   /**
-   * uri of the response splitted by http status code
+   * uri ids of the response splitted by http status code
    */
-  private Map<Integer, Set<String>> uriByStatusCode;
+  private Map<Integer, BitSet> uriByStatusCode;
 
 
 
@@ -132,6 +148,17 @@ public class AggregatedResponses {
     this.activeThreads = activeThreads;
   }
 
+  /**
+   * @return exact number of requests and failed requests per interval
+   */
+  public Throughput getThroughput() {
+    return throughput;
+  }
+
+  protected void setThroughput(Throughput throughput) {
+    this.throughput = throughput;
+  }
+
   /**
    * @return aggregated status codes of responses
    */
@@ -143,42 +170,148 @@ public class AggregatedResponses {
     this.statusCodes = statusCodes;
   }
 
+  protected LabelDictionary getLabels() {
+    return labels;
+  }
+
+  protected void setLabels(LabelDictionary labels) {
+    this.labels = labels;
+  }
+
   /**
-   * @return a mapping from uri to sample data
+   * @return a mapping from uri to sample data, read only
    */
   public Map<String, Samples> getSizeByUri() {
+    return sizeByUri == null ? null : labels.asLabelMap(sizeByUri);
+  }
+
+  /**
+   * @return a mapping from uri id to sample data
+   */
+  protected Map<Integer, Samples> getSizeByUriId() {
     return sizeByUri;
   }
 
-  protected void setSizeByUri(Map<String, Samples> sizeByUri) {
+  protected void setSizeByUriId(Map<Integer, Samples> sizeByUri) {
     this.sizeByUri = sizeByUri;
   }
 
   /**
-   * @return a mapping from uri to sample data
+   * @return a mapping from uri to sample data, read only
    */
   public Map<String, Samples> getDurationByUri() {
+    return durationByUri == null ? null : labels.asLabelMap(durationByUri);
+  }
+
+  /**
+   * @return a mapping from uri id to sample data
+   */
+  protected Map<Integer, Samples> getDurationByUriId() {
     return durationByUri;
   }
 
-  protected void setDurationByUri(Map<String, Samples> durationByUri) {
+  protected void setDurationByUriId(Map<Integer, Samples> durationByUri) {
     this.durationByUri = durationByUri;
   }
 
   /**
    *
-   * @return a mapping from status code to uri
+   * @return a mapping from status code to uri, read only
    */
   public Map<Integer, Set<String>> getUriByStatusCode() {
+    if( uriByStatusCode == null ) {
+      return null;
+    }
+    Map<Integer, Set<String>> result = new HashMap<Integer, Set<String>>();
+    for( Map.Entry<Integer, BitSet> entry : uriByStatusCode.entrySet() ) {
+      result.put(entry.getKey(), labels.asLabelSet(entry.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * @return a mapping from status code to uri ids
+   */
+  protected Map<Integer, BitSet> getUriIdsByStatusCode() {
     return uriByStatusCode;
   }
 
-  protected void setUriByStatusCode(Map<Integer, Set<String>> uriByStatusCode) {
+  protected void setUriIdsByStatusCode(Map<Integer, BitSet> uriByStatusCode) {
     this.uriByStatusCode = uriByStatusCode;
   }
 
   //--------------------------------------------------------------------------------------------------------------------
 
+  /**
+   * Creates a finished copy of the responses aggregated so far. This instance may aggregate more responses.
+   *
+   * @return the finished copy
+   */
+  protected AggregatedResponses snapshot() {
+
+    AggregatedResponses copy = new AggregatedResponses();
+    copy.setLabels(labels);
+    copy.setStart(start);
+    copy.setEnd(end);
+    copy.setSize(size.snapshot());
+    copy.setDuration(duration.snapshot());
+    copy.setActiveThreads(activeThreads.snapshot());
+    copy.setThroughput(throughput.copy());
+    copy.setStatusCodes(statusCodes.copy());
+
+    Map<Integer, BitSet> uriIdsByStatusCode = new HashMap<Integer, BitSet>();
+    for( Map.Entry<Integer, BitSet> entry : uriByStatusCode.entrySet() ) {
+      uriIdsByStatusCode.put(entry.getKey(), (BitSet) entry.getValue().clone());
+    }
+    copy.setUriIdsByStatusCode(uriIdsByStatusCode);
+
+    copy.setSizeByUriId(snapshot(sizeByUri));
+    copy.setDurationByUriId(snapshot(durationByUri));
+
+    return copy;
+  }
+
+  /**
+   * Merges the responses of another instance, e.g. the responses of another load generator of a distributed test.
+   * Status codes and uris are combined, samples are merged as described by {@link Samples#merge(Samples)}.
+   *
+   * @param other the responses to merge, must use the same label dictionary and collect all samples uncompressed.
+   *        Must not be used afterwards.
+   */
+  public void merge(AggregatedResponses other) {
+
+    if( other.labels != labels ) {
+      throw new IllegalArgumentException("Only responses with the same label dictionary can be merged");
+    }
+
+    statusCodes.add(other.statusCodes);
+
+    for( Map.Entry<Integer, BitSet> entry : other.uriByStatusCode.entrySet() ) {
+      BitSet uriIds = uriByStatusCode.get(entry.getKey());
+      if( uriIds == null ) {
+        uriByStatusCode.put(entry.getKey(), entry.getValue());
+      }
+      else {
+        uriIds.or(entry.getValue());
+      }
+    }
+
+    activeThreads.merge(other.activeThreads);
+    throughput.addAll(other.throughput);
+    duration.merge(other.duration);
+    size.merge(other.size);
+
+    merge(sizeByUri, other.sizeByUri);
+    merge(durationByUri, other.durationByUri);
+
+    if( other.start != 0 && (start == 0 || other.start < start) ) {
+      start = other.start;
+    }
+    if( other.end > end ) {
+      end = other.end;
+    }
+  }
+
   /**
    * Mark collecting of samples as "finished"
    */
@@ -206,4 +339,32 @@ public class AggregatedResponses {
     }
 
   }
+
+  //====================================================================================================================
+
+  private static void merge(Map<Integer, Samples> samplesByUri, Map<Integer, Samples> otherSamplesByUri) {
+    if( samplesByUri == null || otherSamplesByUri == null ) {
+      return;
+    }
+    for( Map.Entry<Integer, Samples> entry : otherSamplesByUri.entrySet() ) {
+      Samples samples = samplesByUri.get(entry.getKey());
+      if( samples == null ) {
+        samplesByUri.put(entry.getKey(), entry.getValue());
+      }
+      else {
+        samples.merge(entry.getValue());
+      }
+    }
+  }
+
+  private Map<Integer, Samples> snapshot(Map<Integer, Samples> samplesByUri) {
+    if( samplesByUri == null ) {
+      return null;
+    }
+    Map<Integer, Samples> copy = new HashMap<Integer, Samples>();
+    for( Map.Entry<Integer, Samples> entry : samplesByUri.entrySet() ) {
+      copy.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return copy;
+  }
 }
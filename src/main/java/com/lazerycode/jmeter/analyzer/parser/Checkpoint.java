@@ -0,0 +1,72 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Unfinished results of a {@link ResultAggregator} at a safe point of a result file, see
+ * {@link CheckpointedResultParser}.
+ */
+class Checkpoint implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String configuration;
+  private final long position;
+  private final long headChecksum;
+  private final long tailChecksum;
+  private final long parsedCount;
+  private final LabelDictionary labels;
+  private final Map<String, AggregatedResponses> results;
+
+  /**
+   * Constructor
+   *
+   * @param configuration the configuration that affects aggregation
+   * @param position byte offset of the safe point in the result file
+   * @param headChecksum checksum of the beginning of the result file
+   * @param tailChecksum checksum of the bytes of the result file just before the position
+   * @param parsedCount number of samples added to the results
+   * @param labels the dictionary of the results
+   * @param results the unfinished results
+   */
+  public Checkpoint(String configuration, long position, long headChecksum, long tailChecksum, long parsedCount,
+                    LabelDictionary labels, Map<String, AggregatedResponses> results) {
+    this.configuration = configuration;
+    this.position = position;
+    this.headChecksum = headChecksum;
+    this.tailChecksum = tailChecksum;
+    this.parsedCount = parsedCount;
+    this.labels = labels;
+    this.results = results;
+  }
+
+  public String getConfiguration() {
+    return configuration;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public long getHeadChecksum() {
+    return headChecksum;
+  }
+
+  public long getTailChecksum() {
+    return tailChecksum;
+  }
+
+  public long getParsedCount() {
+    return parsedCount;
+  }
+
+  public LabelDictionary getLabels() {
+    return labels;
+  }
+
+  public Map<String, AggregatedResponses> getResults() {
+    return results;
+  }
+
+}
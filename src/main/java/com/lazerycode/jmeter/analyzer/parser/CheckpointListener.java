@@ -0,0 +1,28 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.IOException;
+
+/**
+ * Takes checkpoints while a result file is parsed.
+ * Parsers offer a checkpoint at every safe point, i.e. whenever all samples before the current position have been
+ * handed to the {@link SampleListener} and parsing could be resumed at that position.
+ */
+interface CheckpointListener {
+
+  /**
+   * Called at every safe point, must be cheap
+   *
+   * @return true, if a checkpoint should be taken at this safe point
+   */
+  boolean isDue();
+
+  /**
+   * Take a checkpoint
+   *
+   * @param position byte offset in the result file at which parsing can be resumed
+   *
+   * @throws IOException if the checkpoint can't be written
+   */
+  void checkpoint(long position) throws IOException;
+
+}
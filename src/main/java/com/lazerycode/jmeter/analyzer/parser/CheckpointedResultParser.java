@@ -0,0 +1,407 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.apache.maven.plugin.logging.Log;
+import org.xml.sax.SAXException;
+
+import com.lazerycode.jmeter.analyzer.RequestGroup;
+
+/**
+ * Parses an uncompressed result file and periodically writes a {@link Checkpoint} of the aggregated results, so that
+ * an aborted analysis can be resumed, and only the samples that have been appended to the file since the last run
+ * need to be parsed.
+ *
+ * A checkpoint holds the unfinished results (all counters, histograms and results per uri), the byte offset of the
+ * safe point it has been taken at and checksums of the file content before that offset. A checkpoint is only used if
+ * the file content up to the offset and the configuration that affects aggregation haven't changed, otherwise the
+ * file is parsed from the beginning. When the file has been parsed completely, a final checkpoint is taken after the
+ * last sample.
+ *
+ * XML documents that can't be handled by the {@link JtlScanner} and CSV files in a multi byte platform charset other
+ * than UTF-8 can't be checkpointed.
+ */
+class CheckpointedResultParser {
+
+  /**
+   * Number of bytes at the beginning of the file and before the offset of a checkpoint that must be unchanged
+   */
+  private static final int CHECKSUM_SIZE = 4096;
+
+  /**
+   * Maximal length of a CSV header line
+   */
+  static final int MAX_HEADER_SIZE = 64 * 1024;
+
+  private final File checkpointFile;
+  private final long interval;
+  private final int threads;
+  private final Set<String> nodeNames;
+  private final NestedSamples nestedSamples;
+  private final Log log;
+
+  /**
+   * Constructor.
+   * Parser threads, node names and handling of nested samples configured from Environment
+   *
+   * @param checkpointFile the file to store the checkpoint in
+   * @param interval minimal time in ms between two checkpoints
+   * @param log the log for progress messages
+   */
+  public CheckpointedResultParser(File checkpointFile, long interval, Log log) {
+    this.checkpointFile = checkpointFile;
+    this.interval = interval;
+    this.log = log;
+    this.threads = ENVIRONMENT.getParserThreads();
+    this.nodeNames = ENVIRONMENT.getSampleNames();
+    this.nestedSamples = ENVIRONMENT.getNestedSamples();
+  }
+
+  /**
+   * Parses the file, starting at the last checkpoint if there is a valid one
+   *
+   * @param file uncompressed JMeter result file
+   * @param format the format of the result file
+   *
+   * @return the aggregated, unfinished results or null if the file can't be checkpointed
+   *
+   * @throws IOException If reading fails or a checkpoint can't be written
+   * @throws SAXException If parsing fails
+   */
+  public ResultAggregator parse(File file, ResultFormat format) throws IOException, SAXException {
+
+    Resumable resumable = format == ResultFormat.CSV ? newCsv(file) : newXml(file);
+    if( resumable == null ) {
+      return null;
+    }
+
+    String configuration = getConfiguration(format);
+
+    Checkpoint checkpoint = load(file, configuration);
+    ResultAggregator aggregator = newAggregator(checkpoint);
+    long start = checkpoint != null ? checkpoint.getPosition() : 0;
+
+    if( threads > 1 ) {
+      ParallelResultParser parallel = new ParallelResultParser(threads, nodeNames, nestedSamples);
+      if( parallel.parse(file, format, aggregator, start, new Checkpoints(file, configuration, aggregator, start)) ) {
+        return aggregator;
+      }
+
+      // the aggregator may hold the results of some segments, continue sequentially at the last valid checkpoint
+      checkpoint = load(file, configuration);
+      aggregator = newAggregator(checkpoint);
+      start = checkpoint != null ? checkpoint.getPosition() : 0;
+    }
+
+    start = Math.max(start, resumable.getDataStart());
+
+    FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(start);
+      resumable.parse(in, aggregator, start, new Checkpoints(file, configuration, aggregator, start));
+    }
+    finally {
+      in.close();
+    }
+
+    return aggregator;
+  }
+
+  //====================================================================================================================
+
+  /**
+   * @return the configuration that affects the aggregated results
+   */
+  private String getConfiguration(ResultFormat format) {
+
+    StringBuilder configuration = new StringBuilder();
+    configuration.append("format=").append(format);
+    if( format == ResultFormat.CSV ) {
+      configuration.append(";charset=").append(Charset.defaultCharset().name());
+    }
+    configuration.append(";maxSamples=").append(ENVIRONMENT.getMaxSamples());
+    configuration.append(";histogramSignificantDigits=").append(ENVIRONMENT.getHistogramSignificantDigits());
+    configuration.append(";sampleRetention=").append(ENVIRONMENT.getSampleRetention());
+    configuration.append(";throughputResolution=").append(ENVIRONMENT.getThroughputResolution());
+    configuration.append(";details=").append(ENVIRONMENT.isGenerateDetails());
+    configuration.append(";nestedSamples=").append(nestedSamples);
+    configuration.append(";sampleNames=").append(new TreeSet<String>(nodeNames));
+
+    List<RequestGroup> requestGroups = ENVIRONMENT.getRequestGroups();
+    if( requestGroups != null ) {
+      configuration.append(";requestGroups=");
+      for( RequestGroup requestGroup : requestGroups ) {
+        configuration.append(requestGroup.getName()).append('=').append(requestGroup.getPattern()).append(',');
+      }
+    }
+
+    return configuration.toString();
+  }
+
+  /**
+   * @return a new aggregator that continues at the checkpoint
+   */
+  private ResultAggregator newAggregator(Checkpoint checkpoint) {
+    if( checkpoint == null ) {
+      return new ResultAggregator(new LabelDictionary(), log);
+    }
+    ResultAggregator aggregator = new ResultAggregator(checkpoint.getLabels(), log);
+    aggregator.restore(checkpoint.getResults(), checkpoint.getParsedCount());
+    return aggregator;
+  }
+
+  /**
+   * Read the checkpoint
+   *
+   * @return the checkpoint or null if there is no valid checkpoint for the file
+   */
+  private Checkpoint load(File file, String configuration) throws IOException {
+
+    if( !checkpointFile.isFile() ) {
+      return null;
+    }
+
+    Checkpoint checkpoint;
+    ObjectInputStream in = null;
+    try {
+      in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)));
+      checkpoint = (Checkpoint) in.readObject();
+    }
+    catch (IOException e) {
+      log.warn("Ignoring unreadable checkpoint '" + checkpointFile + "': " + e);
+      return null;
+    }
+    catch (ClassNotFoundException e) {
+      log.warn("Ignoring unreadable checkpoint '" + checkpointFile + "': " + e);
+      return null;
+    }
+    finally {
+      if( in != null ) {
+        in.close();
+      }
+    }
+
+    String reason = null;
+    long position = checkpoint.getPosition();
+    if( !configuration.equals(checkpoint.getConfiguration()) ) {
+      reason = "configuration has changed";
+    }
+    else if( file.length() < position ) {
+      reason = "result file is shorter than the checkpoint";
+    }
+    else if( checksum(file, 0, Math.min(position, CHECKSUM_SIZE)) != checkpoint.getHeadChecksum() ||
+             checksum(file, Math.max(0, position - CHECKSUM_SIZE), position) != checkpoint.getTailChecksum() ) {
+      reason = "result file has changed";
+    }
+
+    if( reason != null ) {
+      log.info("Ignoring checkpoint '" + checkpointFile + "', " + reason);
+      return null;
+    }
+
+    log.info("Resuming at byte " + position + " after " + checkpoint.getParsedCount() + " entries from checkpoint '"
+                  + checkpointFile + "'");
+    return checkpoint;
+  }
+
+  /**
+   * @return CRC32 of the bytes of the file between start and end
+   */
+  private static long checksum(File file, long start, long end) throws IOException {
+
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[(int) (end - start)];
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      randomAccessFile.seek(start);
+      randomAccessFile.readFully(buffer);
+    }
+    finally {
+      randomAccessFile.close();
+    }
+    crc.update(buffer);
+    return crc.getValue();
+  }
+
+  /**
+   * @return an XML result that can be resumed or null if the document can't be handled by the scanner
+   */
+  private Resumable newXml(File file) throws IOException {
+
+    InputStream in = new BufferedInputStream(new FileInputStream(file), JtlScanner.PROLOG_SIZE);
+    final String charset;
+    try {
+      charset = JtlScanner.detectCharset(in);
+    }
+    finally {
+      in.close();
+    }
+    if( charset == null ) {
+      return null;
+    }
+
+    return new Resumable() {
+
+      @Override
+      public long getDataStart() {
+        return 0;
+      }
+
+      @Override
+      public void parse(InputStream in, ResultAggregator aggregator, long start, CheckpointListener checkpoints)
+          throws IOException, SAXException {
+        new JtlScanner(aggregator, nodeNames, charset, nestedSamples).scan(in, start, checkpoints);
+      }
+    };
+  }
+
+  /**
+   * @return a CSV result that can be resumed or null if byte offsets can't be determined for the platform charset
+   */
+  private Resumable newCsv(File file) throws IOException {
+
+    final Charset charset = Charset.defaultCharset();
+    if( !CsvParser.supportsCheckpoints(charset) ) {
+      return null;
+    }
+
+    // segments are parsed after the header line has been read, as done for parallel parsing
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      int b;
+      while( (b = in.read()) >= 0 && b != '\n' ) {
+        if( line.size() == MAX_HEADER_SIZE ) {
+          throw new IOException("CSV header line is too long");
+        }
+        line.write(b);
+      }
+    }
+    finally {
+      in.close();
+    }
+    final String header = new String(line.toByteArray(), charset.name());
+    final long dataStart = line.size() + 1;
+
+    return new Resumable() {
+
+      @Override
+      public long getDataStart() {
+        return dataStart;
+      }
+
+      @Override
+      public void parse(InputStream in, ResultAggregator aggregator, long start, CheckpointListener checkpoints)
+          throws IOException {
+        CsvParser headerParser = new CsvParser(aggregator);
+        headerParser.readHeader(header);
+        new CsvParser(aggregator, headerParser).parseSegment(new InputStreamReader(in, charset), charset, start, checkpoints);
+      }
+    };
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Format specific parsing from an offset
+   */
+  private interface Resumable {
+
+    /**
+     * @return offset of the first sample
+     */
+    long getDataStart();
+
+    /**
+     * Parse from an offset to the end of the file
+     */
+    void parse(InputStream in, ResultAggregator aggregator, long start, CheckpointListener checkpoints)
+        throws IOException, SAXException;
+  }
+
+  /**
+   * Writes checkpoints of an aggregator
+   */
+  private class Checkpoints implements CheckpointListener {
+
+    private final File file;
+    private final String configuration;
+    private final ResultAggregator aggregator;
+
+    // position of the current checkpoint
+    private long position;
+    private long next;
+
+    Checkpoints(File file, String configuration, ResultAggregator aggregator, long position) {
+      this.file = file;
+      this.configuration = configuration;
+      this.aggregator = aggregator;
+      this.position = position;
+      this.next = System.currentTimeMillis() + interval;
+    }
+
+    @Override
+    public boolean isDue() {
+      return System.currentTimeMillis() >= next;
+    }
+
+    @Override
+    public void checkpoint(long position) throws IOException {
+
+      if( position <= this.position ) {
+        // nothing new
+        return;
+      }
+
+      long started = System.currentTimeMillis();
+
+      Checkpoint checkpoint = new Checkpoint(configuration, position,
+                                             checksum(file, 0, Math.min(position, CHECKSUM_SIZE)),
+                                             checksum(file, Math.max(0, position - CHECKSUM_SIZE), position),
+                                             aggregator.getParsedCount(), aggregator.getLabels(), aggregator.getResults());
+
+      File directory = checkpointFile.getAbsoluteFile().getParentFile();
+      if( !directory.mkdirs() && !directory.exists() ) {
+        throw new IOException("Cannot create directories: " + directory.getAbsolutePath());
+      }
+
+      // replace the previous checkpoint only if the new one is complete
+      File temporary = new File(checkpointFile.getPath() + ".tmp");
+      ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+      try {
+        out.writeObject(checkpoint);
+      }
+      finally {
+        out.close();
+      }
+      if( (checkpointFile.exists() && !checkpointFile.delete()) || !temporary.renameTo(checkpointFile) ) {
+        throw new IOException("Failed to replace checkpoint: " + checkpointFile.getAbsolutePath());
+      }
+
+      this.position = position;
+      this.next = System.currentTimeMillis() + interval;
+
+      log.info("Checkpoint at byte " + position + " after " + aggregator.getParsedCount() + " entries written in "
+                    + (System.currentTimeMillis() - started) + " ms");
+    }
+  }
+
+}
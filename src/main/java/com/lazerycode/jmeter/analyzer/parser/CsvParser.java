@@ -0,0 +1,516 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for JMeter CSV result files.
+ * Columns are mapped by the names in the header line, only the columns needed for aggregation are tokenized.
+ * Feeds every sample into a {@link SampleListener}, just as the XML parser does.
+ *
+ * Example from JMeter results file:
+ * <pre>
+ * timeStamp,elapsed,label,responseCode,responseMessage,threadName,dataType,success,failureMessage,bytes,allThreads
+ * 1305278457847,1,/sample/url/path.html,404,Not Found,homepage 4-1,text,false,,0,1
+ * </pre>
+ */
+class CsvParser {
+
+  static final String COLUMN_TIMESTAMP = "timeStamp";
+  static final String COLUMN_ELAPSED = "elapsed";
+  static final String COLUMN_LABEL = "label";
+  static final String COLUMN_RESPONSE_CODE = "responseCode";
+  static final String COLUMN_THREAD_NAME = "threadName";
+  static final String COLUMN_SUCCESS = "success";
+  static final String COLUMN_BYTES = "bytes";
+  static final String COLUMN_ALL_THREADS = "allThreads";
+
+  /**
+   * Columns that are used for aggregation, index in this array is the field index
+   */
+  private static final String[] FIELDS = {
+          COLUMN_TIMESTAMP, COLUMN_ELAPSED, COLUMN_LABEL, COLUMN_RESPONSE_CODE,
+          COLUMN_THREAD_NAME, COLUMN_SUCCESS, COLUMN_BYTES, COLUMN_ALL_THREADS };
+
+  private static final int TIMESTAMP = 0;
+  private static final int ELAPSED = 1;
+  private static final int LABEL = 2;
+  private static final int RESPONSE_CODE = 3;
+  private static final int THREAD_NAME = 4;
+  private static final int SUCCESS = 5;
+  private static final int BYTES = 6;
+  private static final int ALL_THREADS = 7;
+
+  /**
+   * Delimiters supported by JMeter (jmeter.save.saveservice.default_delimiter), in order of preference
+   */
+  private static final char[] DELIMITERS = { ',', ';', '\t', '|' };
+
+  private static final char QUOTE = '"';
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final SampleListener listener;
+
+  // field index for every column, -1 if the column is not needed
+  private int[] fieldByColumn;
+  private char delimiter;
+
+  // values of the fields of the current record
+  private final StringBuilder[] values = new StringBuilder[FIELDS.length];
+  private final boolean[] present = new boolean[FIELDS.length];
+
+  private long lineNumber = 1;
+
+  // null if no checkpoints are taken
+  private CheckpointListener checkpoints;
+  private boolean utf8;
+
+  // byte offset of the current buffer in the result file, only maintained for checkpoints
+  private long bytePosition;
+
+  /**
+   * Constructor
+   *
+   * @param listener the listener to feed the samples to
+   */
+  public CsvParser(SampleListener listener) {
+    this.listener = listener;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = new StringBuilder();
+    }
+  }
+
+  /**
+   * Constructor for parsing a segment of a CSV result that doesn't contain the header line.
+   *
+   * @param listener the listener to feed the samples to
+   * @param header parser that has already read the header line
+   */
+  public CsvParser(SampleListener listener, CsvParser header) {
+    this(listener);
+    this.fieldByColumn = header.fieldByColumn;
+    this.delimiter = header.delimiter;
+  }
+
+  /**
+   * Parse a CSV result. The first line must be the header line.
+   *
+   * @param reader the CSV result
+   *
+   * @throws IOException if reading fails or the header line is invalid
+   */
+  public void parse(Reader reader) throws IOException {
+
+    char[] buffer = new char[BUFFER_SIZE];
+    int length = fill(reader, buffer);
+    if (length <= 0) {
+      // empty file
+      return;
+    }
+
+    int position = readHeader(buffer, length);
+    if (position < 0) {
+      // header only
+      return;
+    }
+
+    parseRecords(reader, buffer, position, length);
+  }
+
+  /**
+   * Interprets the header line of a CSV result, so that segments can be parsed afterwards.
+   *
+   * @param header the header line
+   *
+   * @throws IOException if the header line is invalid
+   *
+   * @see #parseSegment(Reader)
+   */
+  public void readHeader(String header) throws IOException {
+    if (header.length() > 0 && header.charAt(0) == '\uFEFF') {
+      // skip byte order mark
+      header = header.substring(1);
+    }
+    mapColumns(getColumns(header.trim()));
+  }
+
+  /**
+   * Parse a segment of a CSV result. The segment must start at the beginning of a record and must not contain the
+   * header line.
+   *
+   * @param reader the segment
+   *
+   * @throws IOException if reading fails or the segment ends inside a quoted value, i.e. the segment doesn't end
+   *         at the end of a record
+   */
+  public void parseSegment(Reader reader) throws IOException {
+
+    if (fieldByColumn == null) {
+      throw new IllegalStateException("Header line has not been read");
+    }
+
+    char[] buffer = new char[BUFFER_SIZE];
+    int length = reader.read(buffer);
+    if (length > 0 && parseRecords(reader, buffer, 0, length)) {
+      throw new IOException("Segment ends inside a quoted value");
+    }
+  }
+
+  /**
+   * Parse a segment of a CSV result like {@link #parseSegment(Reader)} and offer a checkpoint at the end of every
+   * record. At the end, a final checkpoint is taken if the last record is terminated by a line end.
+   *
+   * @param reader the segment, decoding a {@link #supportsCheckpoints(Charset) supported} charset
+   * @param charset the charset of the reader
+   * @param offset byte offset of the segment in the result file
+   * @param checkpoints offered a checkpoint at the end of every record
+   *
+   * @throws IOException if reading fails or the segment ends inside a quoted value
+   */
+  public void parseSegment(Reader reader, Charset charset, long offset, CheckpointListener checkpoints) throws IOException {
+
+    if (!supportsCheckpoints(charset)) {
+      throw new IllegalArgumentException("Byte offsets can't be determined for " + charset);
+    }
+    this.checkpoints = checkpoints;
+    this.utf8 = "UTF-8".equals(charset.name());
+    this.bytePosition = offset;
+
+    parseSegment(reader);
+  }
+
+  /**
+   * @param charset the charset of a CSV result
+   *
+   * @return true, if the byte offsets of records can be determined, i.e. for UTF-8 and single byte charsets
+   */
+  static boolean supportsCheckpoints(Charset charset) {
+    return "UTF-8".equals(charset.name()) || charset.newEncoder().maxBytesPerChar() == 1.0f;
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Read until the buffer contains a line end, the buffer is full or the end of the reader has been reached
+   *
+   * @return number of characters read
+   */
+  private int fill(Reader reader, char[] buffer) throws IOException {
+    int length = 0;
+    int read;
+    while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) > 0) {
+      for (int i = length; i < length + read; i++) {
+        if (buffer[i] == '\n') {
+          return length + read;
+        }
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  /**
+   * Reads and interprets the header line. The header line is expected to be in the first buffer.
+   *
+   * @return position of the first character after the header line
+   */
+  private int readHeader(char[] buffer, int length) throws IOException {
+
+    int start = 0;
+    if (buffer[0] == '\uFEFF') {
+      // skip byte order mark
+      start = 1;
+    }
+
+    int end = start;
+    while (end < length && buffer[end] != '\n') {
+      end++;
+    }
+    if (end == length && length == buffer.length) {
+      throw new IOException("CSV header line is too long");
+    }
+
+    String header = new String(buffer, start, end - start).trim();
+    mapColumns(getColumns(header));
+
+    return end < length ? end + 1 : -1;
+  }
+
+  /**
+   * Determine the delimiter and split the header line into columns
+   */
+  private String[] getColumns(String header) throws IOException {
+
+    for (char candidate : DELIMITERS) {
+      String[] split = header.split(java.util.regex.Pattern.quote(String.valueOf(candidate)), -1);
+      if (Arrays.asList(split).contains(COLUMN_TIMESTAMP)) {
+        delimiter = candidate;
+        return split;
+      }
+    }
+
+    throw new IOException("Not a JMeter CSV result file with header line, column '" + COLUMN_TIMESTAMP
+            + "' not found in first line: " + header);
+  }
+
+  /**
+   * Assign field indices to columns
+   */
+  private void mapColumns(String[] columns) throws IOException {
+
+    fieldByColumn = new int[columns.length];
+    Arrays.fill(fieldByColumn, -1);
+
+    for (int column = 0; column < columns.length; column++) {
+      String name = columns[column].trim();
+      for (int field = 0; field < FIELDS.length; field++) {
+        if (FIELDS[field].equals(name) && isNeeded(field)) {
+          fieldByColumn[column] = field;
+        }
+      }
+    }
+
+    assertColumn(columns, COLUMN_LABEL);
+    if (listener.isGroupedByThreadName()) {
+      assertColumn(columns, COLUMN_THREAD_NAME);
+    }
+  }
+
+  /**
+   * @return true if the field must be tokenized
+   */
+  private boolean isNeeded(int field) {
+    return field != THREAD_NAME || listener.isGroupedByThreadName();
+  }
+
+  private void assertColumn(String[] columns, String name) throws IOException {
+    for (String column : columns) {
+      if (name.equals(column.trim())) {
+        return;
+      }
+    }
+    throw new IOException("Column '" + name + "' not found in CSV header line");
+  }
+
+  /**
+   * Tokenize all records and hand them to the listener
+   *
+   * @return true, if the data ends inside a quoted value
+   */
+  private boolean parseRecords(Reader reader, char[] buffer, int position, int length) throws IOException {
+
+    int column = 0;
+    int field = fieldByColumn.length > 0 ? fieldByColumn[0] : -1;
+    boolean inQuotes = false;
+    boolean quoteInQuotes = false;
+    boolean fieldStart = true;
+    boolean emptyRecord = true;
+
+    clearRecord();
+
+    do {
+      for (int i = position; i < length; i++) {
+        char c = buffer[i];
+
+        if (quoteInQuotes) {
+          // previous character was a quote inside a quoted field
+          quoteInQuotes = false;
+          if (c == QUOTE) {
+            // escaped quote
+            if (field >= 0) {
+              values[field].append(QUOTE);
+            }
+            continue;
+          }
+          // closing quote
+          inQuotes = false;
+        }
+
+        if (inQuotes) {
+          if (c == QUOTE) {
+            quoteInQuotes = true;
+          }
+          else {
+            if (c == '\n') {
+              lineNumber++;
+            }
+            if (field >= 0) {
+              values[field].append(c);
+            }
+          }
+        }
+        else if (c == delimiter) {
+          column++;
+          field = column < fieldByColumn.length ? fieldByColumn[column] : -1;
+          fieldStart = true;
+          emptyRecord = false;
+        }
+        else if (c == '\n') {
+          if (!emptyRecord) {
+            emitRecord();
+          }
+          lineNumber++;
+          column = 0;
+          field = fieldByColumn.length > 0 ? fieldByColumn[0] : -1;
+          fieldStart = true;
+          emptyRecord = true;
+          if (checkpoints != null && checkpoints.isDue()) {
+            checkpoints.checkpoint(bytePosition + countBytes(buffer, 0, i + 1));
+          }
+        }
+        else if (c == '\r') {
+          // ignore, line ends are determined by '\n'
+        }
+        else if (c == QUOTE && fieldStart) {
+          inQuotes = true;
+          fieldStart = false;
+          emptyRecord = false;
+          if (field >= 0) {
+            present[field] = true;
+          }
+        }
+        else {
+          fieldStart = false;
+          emptyRecord = false;
+          if (field >= 0) {
+            present[field] = true;
+            values[field].append(c);
+          }
+        }
+      }
+
+      if (checkpoints != null) {
+        bytePosition += countBytes(buffer, 0, length);
+      }
+      position = 0;
+      length = reader.read(buffer);
+    }
+    while (length > 0);
+
+    if (!emptyRecord) {
+      // last record is not terminated by a line end
+      emitRecord();
+    }
+    else if (checkpoints != null) {
+      checkpoints.checkpoint(bytePosition);
+    }
+
+    return inQuotes && !quoteInQuotes;
+  }
+
+  /**
+   * Hand the current record to the listener
+   */
+  private void emitRecord() throws IOException {
+
+    if (!present[TIMESTAMP]) {
+      throw new IOException("Missing " + COLUMN_TIMESTAMP + " in line " + lineNumber);
+    }
+    long timestamp = parseNumber(values[TIMESTAMP]);
+    if (timestamp == Long.MIN_VALUE) {
+      throw new IOException("Invalid " + COLUMN_TIMESTAMP + " '" + values[TIMESTAMP] + "' in line " + lineNumber
+              + ". Only timestamps in milliseconds are supported.");
+    }
+
+    String uri = values[LABEL].toString();
+    String threadName = present[THREAD_NAME] ? values[THREAD_NAME].toString() : null;
+    boolean success = "true".equalsIgnoreCase(values[SUCCESS].toString());
+
+    long duration = getLong(ELAPSED);
+    long bytes = getLong(BYTES);
+    long activeThreads = getLong(ALL_THREADS);
+
+    int responseCode;
+    long code = present[RESPONSE_CODE] ? parseNumber(values[RESPONSE_CODE]) : Long.MIN_VALUE;
+    if (code != Long.MIN_VALUE && code >= Integer.MIN_VALUE && code <= Integer.MAX_VALUE) {
+      responseCode = (int) code;
+    }
+    else {
+      responseCode = ResultAggregator.parseResponseCode(present[RESPONSE_CODE] ? values[RESPONSE_CODE].toString() : null,
+                                                       listener.getLog());
+    }
+
+    listener.add(uri, threadName, timestamp, bytes, duration, activeThreads, responseCode, success);
+
+    clearRecord();
+  }
+
+  /**
+   * @return the value of the given field or -1 if the field is not available
+   */
+  private long getLong(int field) {
+    if (!present[field]) {
+      return -1;
+    }
+    long result = parseNumber(values[field]);
+    if (result == Long.MIN_VALUE) {
+      // not a number, let the default implementation report this
+      result = ResultAggregator.parseLong(values[field].toString(), listener.getLog());
+    }
+    return result;
+  }
+
+  /**
+   * @return number of bytes that encode the characters
+   */
+  private int countBytes(char[] buffer, int start, int end) {
+    if (!utf8) {
+      return end - start;
+    }
+    int bytes = 0;
+    for (int i = start; i < end; i++) {
+      char c = buffer[i];
+      if (c < 0x80) {
+        bytes++;
+      }
+      else if (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+        // a surrogate pair is encoded in 4 bytes
+        bytes += 2;
+      }
+      else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  private void clearRecord() {
+    for (int i = 0; i < values.length; i++) {
+      values[i].setLength(0);
+      present[i] = false;
+    }
+  }
+
+  /**
+   * Parse a decimal number without creating a String
+   *
+   * @return the number or {@link Long#MIN_VALUE} if the value is not a number
+   */
+  static long parseNumber(CharSequence value) {
+
+    int length = value.length();
+    int i = 0;
+    boolean negative = false;
+    if (length > 0 && value.charAt(0) == '-') {
+      negative = true;
+      i++;
+    }
+    // up to 18 digits can't overflow
+    if (length == i || length - i > 18) {
+      return Long.MIN_VALUE;
+    }
+
+    long result = 0;
+    for (; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return Long.MIN_VALUE;
+      }
+      result = result * 10 + (c - '0');
+    }
+
+    return negative ? -result : result;
+  }
+}
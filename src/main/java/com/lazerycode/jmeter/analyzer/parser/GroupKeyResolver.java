@@ -0,0 +1,104 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.lazerycode.jmeter.analyzer.RequestGroup;
+
+/**
+ * Determines the key of the {@link AggregatedResponses} a sample belongs to.
+ * The keys of recent labels / thread names are cached, so that a repeated label costs a single lookup.
+ * Thread safe.
+ */
+class GroupKeyResolver {
+
+  /**
+   * Maximum number of cached keys. The cache is cleared when it's full.
+   */
+  static final int MAX_CACHE_SIZE = 100000;
+
+  private static final String DEFAULT_KEY = "default";
+
+  private final List<RequestGroup> pathPatterns;
+  private final RequestGroupMatcher matcher;
+
+  // key by label or by thread name
+  private final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+  /**
+   * Constructor.
+   *
+   * @param pathPatterns A number of ANT patterns. If set then samples are grouped by uris matching these patterns.
+   *        If not set then the threadgroup is used
+   */
+  public GroupKeyResolver(List<RequestGroup> pathPatterns) {
+    this.pathPatterns = pathPatterns;
+    this.matcher = isGroupedByThreadName() ? null : new RequestGroupMatcher(pathPatterns);
+  }
+
+  /**
+   * @return true, if samples are grouped by thread group name and the thread name is needed to compute the key
+   */
+  public boolean isGroupedByThreadName() {
+    return pathPatterns == null || pathPatterns.isEmpty();
+  }
+
+  /**
+   * Returns a key for a sample.
+   * If a path pattern is configured, either a matching path or "default" will be returned.
+   * If no path pattern is configured, the name of the threadgroup will be used.
+   *
+   * @param uri the sample label
+   * @param threadName the sample thread name
+   * @return the key
+   */
+  public String getKey(String uri, String threadName) {
+
+    String name = matcher != null ? uri : threadName;
+    String key = cache.get(name);
+    if( key == null ) {
+      key = resolveKey(name);
+      if( cache.size() >= MAX_CACHE_SIZE ) {
+        cache.clear();
+      }
+      cache.put(name, key);
+    }
+    return key;
+  }
+
+  //====================================================================================================================
+
+  /**
+   * @param name the sample label if grouped by request groups, the thread name otherwise
+   * @return the key
+   */
+  private String resolveKey(String name) {
+
+    String key;
+    if( matcher != null ) {
+
+      // try to find a pattern key
+      key = matcher.getGroupName(name);
+
+      if( key == null ) {
+        // no pattern found. use default
+        key = DEFAULT_KEY;
+      }
+    }
+    else {
+
+      // use threadgroup name as a key
+      key = name;
+
+      //key is now "threadgroupname int-int"
+      int threadGroupSeparator = key.indexOf(' ');
+      if( threadGroupSeparator > -1) {
+        // cut off trailing threadno
+        key = key.substring(0, threadGroupSeparator);
+      }
+    }
+
+    return key;
+  }
+
+}
@@ -1,46 +1,86 @@
 package com.lazerycode.jmeter.analyzer.parser;
 
 import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
-import static com.lazerycode.jmeter.analyzer.parser.StatusCodes.HTTPCODE_CONNECTIONERROR;
-import static com.lazerycode.jmeter.analyzer.parser.StatusCodes.HTTPCODE_ERROR;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.maven.plugin.logging.Log;
-import org.springframework.util.AntPathMatcher;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import com.lazerycode.jmeter.analyzer.RequestGroup;
-import com.lazerycode.jmeter.analyzer.statistics.Samples;
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
+import com.lazerycode.jmeter.analyzer.util.FollowInputStream;
 
 /**
- * Parses a JMeter xml result and provides {@link AggregatedResponses aggregated results}
+ * Parses a JMeter xml or csv result and provides {@link AggregatedResponses aggregated results}
  *
  * @author Dennis Homann, Arne Franken, Peter Kaul
  */
 public class JMeterResultParser {
 
   /**
-   * number of parsed items after which a log message is written
+   * Receives intermediate results while a result file is {@link #follow followed}
    */
-  private static final int LOGMESSAGE_ITEMS = 10000;
+  public interface IntermediateResultsListener {
+
+    /**
+     * Called on the parsing thread
+     *
+     * @param results finished copies of the results aggregated so far
+     *
+     * @throws IOException to abort parsing
+     */
+    void update(Map<String, AggregatedResponses> results) throws IOException;
+  }
+
+  private final AnalysisContext context;
+
+  private PipelineStatistics pipelineStatistics;
+
+  /**
+   * Constructor.
+   * Messages are written to the log of the Environment
+   */
+  public JMeterResultParser() {
+    this(null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param context the analysis of the parsed file, provides the log for progress messages. May be null.
+   */
+  public JMeterResultParser(AnalysisContext context) {
+    this.context = context;
+  }
 
   /**
-   * Parses a JMeter Result XML file and provides a {@link AggregatedResponses} for every {@link Parser#getKey key}
+   * Parses a JMeter Result XML file and provides a {@link AggregatedResponses} for every
+   * {@link GroupKeyResolver#getKey key}
    *
    * @param reader the JMeter xml file
    *
@@ -50,386 +90,530 @@ public class JMeterResultParser {
    * @throws SAXException  If parsing fails
    */
   public Map<String, AggregatedResponses> aggregate(Reader reader) throws IOException, SAXException {
+    return aggregate(reader, ResultFormat.XML);
+  }
 
-    SAXParser saxParser;
-    try {
+  /**
+   * Parses a JMeter Result file of the given format and provides a {@link AggregatedResponses} for every
+   * {@link GroupKeyResolver#getKey key}
+   *
+   * @param reader the JMeter result file
+   * @param format the format of the result file
+   *
+   * @return The AggregatedResponses for every thread group
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  public Map<String, AggregatedResponses> aggregate(Reader reader, ResultFormat format) throws IOException, SAXException {
 
-      saxParser = SAXParserFactory.newInstance().newSAXParser();
-    }
-    catch (ParserConfigurationException e) {
+    ResultAggregator aggregator = newAggregator();
 
-      throw new IllegalStateException("Parser could not be created ", e);
+    if (format == ResultFormat.CSV) {
+      new CsvParser(aggregator).parse(reader);
+    }
+    else {
+      newSAXParser().parse(new InputSource(reader), new Parser(aggregator));
     }
 
-    Parser parser = new Parser();
-    saxParser.parse(new InputSource(reader), parser);
+    aggregator.finish();
 
-    return parser.getResults();
+    return aggregator.getResults();
   }
 
+  /**
+   * Parses a JMeter Result file of the given format and provides a {@link AggregatedResponses} for every
+   * {@link GroupKeyResolver#getKey key}.
+   * XML results are read with a {@link JtlScanner} working directly on the bytes of the file. Documents that can't
+   * be handled by the scanner (e.g. with a DOCTYPE declaration or an unusual encoding) are parsed with SAX.
+   * If {@link com.lazerycode.jmeter.analyzer.config.Environment#getPipelineWorkers() pipeline workers} are
+   * configured, the samples are aggregated by these workers while the file is read.
+   *
+   * @param in the JMeter result file
+   * @param format the format of the result file
+   *
+   * @return The AggregatedResponses for every thread group
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  public Map<String, AggregatedResponses> aggregate(InputStream in, ResultFormat format) throws IOException, SAXException {
+
+    int workers = ENVIRONMENT.getPipelineWorkers();
+    if (workers > 0) {
+      PipelinedResultParser pipeline = new PipelinedResultParser(workers, getLog());
+      try {
+        return pipeline.aggregate(in, format);
+      }
+      finally {
+        pipelineStatistics = pipeline.getStatistics();
+      }
+    }
 
+    ResultAggregator aggregator = newAggregator();
 
-  // ==================
+    parse(in, format, aggregator);
+
+    aggregator.finish();
+
+    return aggregator.getResults();
+  }
 
   /**
-   * @return the current log
+   * Parses an uncompressed JMeter Result file of the given format and provides a {@link AggregatedResponses} for
+   * every {@link GroupKeyResolver#getKey key}.
+   * If more than one {@link com.lazerycode.jmeter.analyzer.config.Environment#getParserThreads() parser thread} is
+   * configured, the file is split into segments that are parsed in parallel.
+   *
+   * @param file the JMeter result file
+   * @param format the format of the result file
+   *
+   * @return The AggregatedResponses for every thread group
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
    */
-  private static Log getLog() {
-    return ENVIRONMENT.getLog();
+  public Map<String, AggregatedResponses> aggregate(File file, ResultFormat format) throws IOException, SAXException {
+    return aggregate(file, format, null);
   }
 
   /**
-   * Parser does the heavy lifting.
+   * Parses an uncompressed JMeter Result file of the given format like {@link #aggregate(File, ResultFormat)}.
+   * If {@link com.lazerycode.jmeter.analyzer.config.Environment#getCheckpointInterval() checkpoints} are enabled,
+   * the aggregated results are stored in the checkpoint file periodically and after the last sample. Parsing
+   * continues at a valid checkpoint of a previous run, so that only samples after the checkpoint are parsed.
+   *
+   * @param file the JMeter result file
+   * @param format the format of the result file
+   * @param checkpointFile file to store checkpoints in, may be null
+   *
+   * @return The AggregatedResponses for every thread group
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
    */
-  private static class Parser extends DefaultHandler {
-
-    private final AntPathMatcher matcher = new AntPathMatcher();
+  public Map<String, AggregatedResponses> aggregate(File file, ResultFormat format, File checkpointFile) throws IOException, SAXException {
+
+    long checkpointInterval = ENVIRONMENT.getCheckpointInterval();
+    if (checkpointFile != null && checkpointInterval > 0) {
+      ResultAggregator aggregator = new CheckpointedResultParser(checkpointFile, checkpointInterval, getLog()).parse(file, format);
+      if (aggregator != null) {
+        aggregator.finish();
+        return aggregator.getResults();
+      }
+      getLog().info("Checkpoints are not supported for '" + file.getName() + "'");
+    }
 
-    private final int maxSamples;
-    private final List<RequestGroup> pathPatterns;
-    private final boolean sizeByUris;
-    private final boolean durationByUris;
+    int threads = ENVIRONMENT.getParserThreads();
+    if (threads > 1) {
+      ResultAggregator aggregator = newAggregator();
+      if (new ParallelResultParser(threads, ENVIRONMENT.getSampleNames(), ENVIRONMENT.getNestedSamples())
+          .parse(file, format, aggregator, 0, null)) {
+        aggregator.finish();
+        return aggregator.getResults();
+      }
+    }
 
-    private long parsedCount = 0;
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      return aggregate(in, format);
+    }
+    finally {
+      in.close();
+    }
+  }
 
-    private Map<String, AggregatedResponses> results = new LinkedHashMap<String, AggregatedResponses>();
-    private Set<String> nodeNames;
+  /**
+   * Parses the result files of the load generators of a distributed test as a single test, according to the
+   * {@link MergeStrategy} of the environment. GZiped files must end with .gz.
+   * <ul>
+   *   <li>{@link MergeStrategy#STREAM}: the samples of all files are merged in order of their timestamps into a single
+   *   aggregator, see {@link MergingResultParser}. Every file is read by its own thread.</li>
+   *   <li>{@link MergeStrategy#FOLD}: every file is parsed independently and the results are merged, see
+   *   {@link ResultAggregator#merge(ResultAggregator)}. The files are parsed in parallel, each by a single thread.</li>
+   * </ul>
+   *
+   * @param files the JMeter result files, the format of each file is detected
+   * @param threads maximal number of files to parse at the same time with {@link MergeStrategy#FOLD}
+   *
+   * @return The AggregatedResponses for every thread group
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  public Map<String, AggregatedResponses> merge(List<File> files, int threads) throws IOException, SAXException {
 
-    /**
-     * Constructor.
-     * Fields configured from Environment
-     */
-    public Parser() {
-      this(ENVIRONMENT.getMaxSamples(),
-           ENVIRONMENT.getRequestGroups(),
-           ENVIRONMENT.isGenerateDetails(),
-           ENVIRONMENT.isGenerateDetails(),
-           ENVIRONMENT.getSampleNames());
-    }
+    ResultAggregator aggregator = newAggregator();
 
-    /**
-     * Constructor.
-     *
-     * @param maxSamples The maximum number of samples that be stored internally for every metric
-     * @param pathPatterns A number of ANT patterns. If set then the resulting {@link AggregatedResponses} will be
-     *        grouped by uris matching these patterns. If not set then the threadgroup is used
-     * @param sizeByUris true, if the response size shall be counted for each uri separately
-     * @param durationByUris true, if the response duration shall be counted for each uri separately
-     * @param nodeNames Set of node names to process
-     */
-    public Parser(int maxSamples, List<RequestGroup> pathPatterns, boolean sizeByUris, boolean durationByUris, Set<String> nodeNames) {
-      this.maxSamples = maxSamples;
-      this.pathPatterns = pathPatterns;
-      this.sizeByUris = sizeByUris;
-      this.durationByUris = durationByUris;
-      this.nodeNames = nodeNames;
+    if (ENVIRONMENT.getMergeStrategy() == MergeStrategy.FOLD) {
+      fold(files, threads, aggregator);
     }
-
-    /**
-     * @return a mapping from identifier to aggregatedResult
-     */
-    public Map<String, AggregatedResponses> getResults() {
-      return results;
+    else {
+      new MergingResultParser(getLog()).merge(files, aggregator);
     }
+    aggregator.finish();
 
-    @Override
-    public void startElement(String u, String localName, String qName, Attributes attributes) throws SAXException {
-
-      if( nodeNames.contains(localName) || nodeNames.contains(qName) ) {
+    return aggregator.getResults();
+  }
 
-        String uri = attributes.getValue("lb");
-        String timestampString = attributes.getValue("ts");
-        long timestamp = Long.parseLong(timestampString);
+  /**
+   * Parses a JMeter Result file of the given format while JMeter is still writing it and provides a
+   * {@link AggregatedResponses} for every {@link GroupKeyResolver#getKey key}.
+   * Parsing continues at the last consumed offset whenever the file grows, a partially written last sample is parsed
+   * as soon as it is complete. Parsing ends if the file hasn't grown for
+   * {@link com.lazerycode.jmeter.analyzer.config.Environment#getFollowTimeout() the follow timeout}. If the file then
+   * ends inside a sample, e.g. because JMeter stopped while writing it, parsing ends after the last complete sample and
+   * the incomplete tail is ignored with a warning.
+   * Whenever all available data has been parsed, but at most every
+   * {@link com.lazerycode.jmeter.analyzer.config.Environment#getFollowInterval() follow interval}, the listener
+   * receives the intermediate results.
+   *
+   * @param file the JMeter result file, uncompressed
+   * @param format the format of the result file, null to detect it from the file name or, as the file may still be
+   *        empty, from the first bytes written to it
+   * @param listener receives the intermediate results
+   *
+   * @return The AggregatedResponses for every thread group
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  public Map<String, AggregatedResponses> follow(File file, ResultFormat format,
+                                                 final IntermediateResultsListener listener) throws IOException, SAXException {
+
+    final ResultAggregator aggregator = newAggregator();
+    final long interval = ENVIRONMENT.getFollowInterval();
+
+    // the aggregator is not changed while the stream waits for data, so this is a safe point for a snapshot
+    FollowInputStream in = new FollowInputStream(file, ENVIRONMENT.getFollowTimeout(), new FollowInputStream.Listener() {
+
+      private long lastUpdate = System.currentTimeMillis();
+      private long lastCount = 0;
+
+      @Override
+      public void caughtUp() throws IOException {
+        long now = System.currentTimeMillis();
+        if( now - lastUpdate >= interval && aggregator.getParsedCount() > lastCount ) {
+          lastUpdate = now;
+          lastCount = aggregator.getParsedCount();
+          aggregator.getLog().info("Intermediate results after "+lastCount+" entries");
+          listener.update(aggregator.snapshot());
+        }
+      }
+    });
 
-        boolean success = Boolean.valueOf(attributes.getValue("s"));
+    // samples are counted at safe points only, so that an incomplete last sample can be dropped
+    SafePointBuffer samples = new SafePointBuffer(aggregator);
+    try {
+      InputStream input = new BufferedInputStream(in);
+      if( format == null ) {
+        // waits until the first non-whitespace byte has been written
+        format = ResultFormat.detect(file.getName(), input);
+      }
+      follow(input, format, aggregator, samples);
+    }
+    catch (SAXException e) {
+      if( !in.isIdle() ) {
+        throw e;
+      }
+      dropIncompleteTail(file, samples, e);
+    }
+    catch (IOException e) {
+      if( !in.isIdle() ) {
+        throw e;
+      }
+      dropIncompleteTail(file, samples, e);
+    }
+    finally {
+      in.close();
+    }
+    if( samples.getPendingCount() > 0 ) {
+      // last CSV record without line end
+      dropIncompleteTail(file, samples, null);
+    }
 
-        String key = getKey(attributes);
+    aggregator.finish();
 
-        // --- create / provide result container
-        AggregatedResponses resultContainer = getResult(key);
+    return aggregator.getResults();
+  }
 
+  /**
+   * @return throughput of the stages of the last pipelined aggregation or null if no pipeline has been used
+   */
+  public PipelineStatistics getPipelineStatistics() {
+    return pipelineStatistics;
+  }
 
-        // --- parse bytes
-        long bytes = parseLong(attributes, "by");
+  /**
+   * Read all samples of a JMeter Result file
+   *
+   * @param in the JMeter result file
+   * @param format the format of the result file
+   * @param listener the listener to feed the samples to
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  static void parse(InputStream in, ResultFormat format, SampleListener listener) throws IOException, SAXException {
 
-        // --- parse duration
-        long duration = parseLong(attributes, "t");
+    if (format == ResultFormat.CSV) {
+      // JMeter writes CSV results in the platform encoding
+      new CsvParser(listener).parse(new InputStreamReader(in));
+      return;
+    }
 
-        // --- parse active thread for all groups
-        long activeThreads = parseLong(attributes, "na");
+    InputStream input = in.markSupported() ? in : new BufferedInputStream(in);
 
-        // --- parse responseCode
-        int responseCode = getResponseCode(attributes);
+    NestedSamples nestedSamples = ENVIRONMENT.getNestedSamples();
 
-        // ==== add data to the resultContainer
-        addData(resultContainer, uri, timestamp, bytes, duration, activeThreads, responseCode, success);
+    String charset = JtlScanner.detectCharset(input);
+    if (charset != null) {
+      new JtlScanner(listener, ENVIRONMENT.getSampleNames(), charset, nestedSamples).scan(input);
+    }
+    else {
+      // let the XML parser determine the encoding
+      newSAXParser().parse(new InputSource(input), new Parser(listener, ENVIRONMENT.getSampleNames(), nestedSamples));
+    }
+  }
 
+  //====================================================================================================================
 
-        parsedCount++;
+  /**
+   * Read all samples of a followed JMeter Result file, offering the samples to the buffer at every safe point
+   */
+  private static void follow(InputStream in, ResultFormat format, ResultAggregator aggregator,
+                             SafePointBuffer samples) throws IOException, SAXException {
+
+    if (format == ResultFormat.CSV) {
+      // JMeter writes CSV results in the platform encoding
+      Charset charset = Charset.defaultCharset();
+      if (!CsvParser.supportsCheckpoints(charset)) {
+        parse(in, format, aggregator);
+        return;
+      }
 
-        // write a log message every 10000 entries
-        if( parsedCount % LOGMESSAGE_ITEMS == 0 ) {
-          getLog().info("Parsed "+parsedCount+" entries ...");
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) >= 0 && b != '\n') {
+        if (line.size() == CheckpointedResultParser.MAX_HEADER_SIZE) {
+          throw new IOException("CSV header line is too long");
         }
+        line.write(b);
       }
+      if (b < 0) {
+        // no complete header line, so no sample
+        return;
+      }
+      CsvParser headerParser = new CsvParser(samples);
+      headerParser.readHeader(new String(line.toByteArray(), charset.name()));
+      new CsvParser(samples, headerParser).parseSegment(new InputStreamReader(in, charset), charset, line.size() + 1,
+                                                        samples);
+      return;
+    }
 
-      super.startElement(u, localName, qName, attributes);
+    String charset = JtlScanner.detectCharset(in);
+    if (charset != null) {
+      new JtlScanner(samples, ENVIRONMENT.getSampleNames(), charset, ENVIRONMENT.getNestedSamples()).scan(in, 0, samples);
+    }
+    else {
+      // the XML parser only reports complete start tags, an incomplete last sample is never counted
+      parse(in, format, aggregator);
     }
+  }
 
-    @Override
-    public void endDocument() throws SAXException {
-      super.endDocument();
-      //finish collection of responses/samples
-      for( AggregatedResponses responses : results.values() ) {
-        responses.finish();
-      }
-      getLog().info("Finished Parsing "+parsedCount+" entries.");
+  /**
+   * The followed file ended inside a sample, e.g. because JMeter stopped while writing it
+   *
+   * @param cause the parse error caused by the incomplete sample, null if there is none
+   */
+  private void dropIncompleteTail(File file, SafePointBuffer samples, Exception cause) {
+    StringBuilder message = new StringBuilder("'").append(file.getName())
+        .append("' ends inside a sample, ignoring the incomplete last sample");
+    if (samples.getLastSafePoint() > 0) {
+      message.append(" after byte ").append(samples.getLastSafePoint());
     }
+    if (cause != null) {
+      message.append(": ").append(cause.getMessage());
+    }
+    getLog().warn(message.toString());
+  }
 
-    //==================================================================================================================
+  private Log getLog() {
+    return context != null ? context.getLog() : ENVIRONMENT.getLog();
+  }
 
-    /**
-     * Add data from httpSample to {@link AggregatedResponses the resultContainer}
-     *
-     * @param resultContainer container to add data to
-     * @param uri uri identifying the resultContainer
-     * @param timestamp httpSample timestamp
-     * @param bytes httpSample bytes
-     * @param duration httpSample duration
-     * @param responseCode httpSample responseCode
-     * @param success httpSample success
-     */
-    private void addData(AggregatedResponses resultContainer, String uri,
-                         long timestamp, long bytes, long duration, long activeThreads, int responseCode, boolean success) {
-
-
-      StatusCodes statusCodes = resultContainer.getStatusCodes();
-      statusCodes.increment(responseCode);
-
-      Map<Integer, Set<String>> uriByStatusCodeMapping = resultContainer.getUriByStatusCode();
-      add(uriByStatusCodeMapping, responseCode, uri);
-
-      Samples activeThreadResult = resultContainer.getActiveThreads();
-      activeThreadResult.addSample(timestamp + duration, activeThreads);
-      
-      // -- register data
-      Samples requestResult = resultContainer.getDuration();
-      Samples bytesResult = resultContainer.getSize();
-      if( !success ) {
-        // || bytes == -1 || duration == -1 || responseCode >= HTTPCODE_ERROR || responseCode == HTTPCODE_CONNECTIONERROR ) {
-        // httpSample is not okay
-        // 4xx (client error) or 5xx (server error)
-        // are ignored, because they often are wanted as test results
-        
-        requestResult.addError(timestamp);
-        bytesResult.addError(timestamp);
-      }
-      else {
+  private ResultAggregator newAggregator() {
+    return new ResultAggregator(new LabelDictionary(), getLog());
+  }
 
-        // httpSample is okay
-        requestResult.addSample(timestamp, duration);
-        bytesResult.addSample(timestamp, bytes);
+  /**
+   * Read all samples of a result file of any format, GZiped or not
+   */
+  static void parse(File file, SampleListener listener) throws IOException, SAXException {
+    InputStream in = new FileInputStream(file);
+    try {
+      if (file.getName().endsWith(".gz")) {
+        in = new GZIPInputStream(in);
       }
-      
-
-      Map<String, Samples> sizeByUriMapping = resultContainer.getSizeByUri();
-      Map<String, Samples> durationByUriMapping = resultContainer.getDurationByUri();
+      in = new BufferedInputStream(in);
+      parse(in, ResultFormat.detect(file.getName(), in), listener);
+    }
+    finally {
+      in.close();
+    }
+  }
 
-      add(sizeByUriMapping, uri, timestamp, bytes, success);
-      add(durationByUriMapping, uri, timestamp, duration, success);
+  /**
+   * Parse every file into a partial aggregator of its own and append the merged partial results to the aggregator
+   */
+  private void fold(List<File> files, int threads, final ResultAggregator aggregator) throws IOException, SAXException {
 
-      //set start and end time
-      if( resultContainer.getStart() == 0 ) {
-        resultContainer.setStart(timestamp);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+    try {
+      List<Future<ResultAggregator>> parts = new ArrayList<Future<ResultAggregator>>();
+      for (final File file : files) {
+        parts.add(executor.submit(new Callable<ResultAggregator>() {
+          @Override
+          public ResultAggregator call() throws Exception {
+            ResultAggregator part = aggregator.newPartial();
+            parse(file, part);
+            getLog().info("Parsed " + part.getParsedCount() + " entries of '" + file.getName() + "'");
+            return part;
+          }
+        }));
       }
-      resultContainer.setEnd(timestamp);
-
-    }
 
-    /**
-     * Create / provide {@link AggregatedResponses result container}
-     *
-     * @param key identifier
-     *
-     * @return the aggregated response matching the key
-     */
-    private AggregatedResponses getResult(String key) {
-
-      AggregatedResponses resultContainer = results.get(key);
-      if(resultContainer == null) {
-
-        //initialize new AggregatedResponses
-        resultContainer = new AggregatedResponses();
-        resultContainer.setActiveThreads(new Samples(maxSamples, true));
-        resultContainer.setDuration(new Samples(maxSamples, true));
-        resultContainer.setSize(new Samples(maxSamples, false));
-        resultContainer.setStatusCodes(new StatusCodes());
-        resultContainer.setUriByStatusCode(new HashMap<Integer, Set<String>>());
-        if( sizeByUris ) {
-          resultContainer.setSizeByUri(new HashMap<String, Samples>());
+      ResultAggregator merged = null;
+      for (Future<ResultAggregator> part : parts) {
+        if (merged == null) {
+          merged = get(part);
         }
-        if( durationByUris ) {
-          resultContainer.setDurationByUri(new HashMap<String, Samples>());
+        else {
+          merged.merge(get(part));
         }
-
-        results.put(key,resultContainer);
       }
-
-      return resultContainer;
+      if (merged != null) {
+        aggregator.append(merged);
+      }
     }
+    finally {
+      executor.shutdownNow();
+    }
+  }
 
-    /**
-     * Get the reponse code from the {@link Attributes}
-     * Response code in <httpSample> element may not be an Integer, this is a safeguard against that.
-     *
-     * @param atts attributes to extract the response code from
-     * @return a valid response code
-     */
-    private int getResponseCode(Attributes atts) {
-
-      int responseCode;
-      String responseCodeString = atts.getValue("rc");
-      try {
-
-        responseCode = Integer.valueOf(responseCodeString);
+  /**
+   * Wait for the results of a file, exceptions are rethrown
+   */
+  private static ResultAggregator get(Future<ResultAggregator> result) throws IOException, SAXException {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
       }
-      catch (Exception e) {
-        getLog().warn("Error parsing response code '"+responseCodeString+"'");
-        responseCode = HTTPCODE_CONNECTIONERROR;
+      if (cause instanceof SAXException) {
+        throw (SAXException) cause;
       }
-
-      return responseCode;
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException("Parsing failed", cause);
     }
+  }
 
-    /**
-     * Returns a key for the attributes.
-     * If a path pattern is configured, either a matching path or "default" will be returned.
-     * If no path pattern is configured, the name of the threadgroup will be used.
-     *
-     * @param attributes attributes to extract the key from
-     * @return the key
-     */
-    private String getKey(Attributes attributes) {
+  private static SAXParser newSAXParser() throws SAXException {
+    try {
 
-      String key = null;
-      if( pathPatterns != null && !pathPatterns.isEmpty()) {
+      return SAXParserFactory.newInstance().newSAXParser();
+    }
+    catch (ParserConfigurationException e) {
 
-        // try to find a pattern key
-        String uri = attributes.getValue("lb");
-        for( RequestGroup requestGroup : pathPatterns ) {
+      throw new IllegalStateException("Parser could not be created ", e);
+    }
+  }
 
-          if( matcher.match(requestGroup.getPattern(), uri) ) {
-            // found a pattern
-            key = requestGroup.getName();
-            break;
-          }
-        }
+  // ==================
 
-        if( key == null ) {
-          // no pattern found. use default
-          key = "default";
-        }
-      }
-      else {
+  /**
+   * Parser reads the samples from the XML and hands them to a {@link SampleListener}
+   */
+  private static class Parser extends DefaultHandler {
 
-        // use threadgroup name as a key
-        key = attributes.getValue("tn");
+    private final SampleListener listener;
+    private final Set<String> nodeNames;
 
-        //key is now "threadgroupname int-int"
-        int threadGroupSeparator = key.indexOf(' ');
-        if( threadGroupSeparator > -1) {
-          // cut off trailing threadno
-          key = key.substring(0, threadGroupSeparator);
-        }
-      }
+    // null if all samples are needed
+    private final NestedSampleFilter filter;
 
-      return key;
+    /**
+     * Constructor.
+     * Node names and handling of nested samples configured from Environment
+     *
+     * @param listener the listener to feed the samples to
+     */
+    public Parser(SampleListener listener) {
+      this(listener, ENVIRONMENT.getSampleNames(), ENVIRONMENT.getNestedSamples());
     }
 
     /**
-     * Add #timestamp and matching #value to (new) Samples object matching the given #uri to given Map #uriSamples
+     * Constructor.
      *
-     * @param uriSamples map to add the Samples to
-     * @param uri the uri identifying the Samples object
-     * @param timestamp the timestamp
-     * @param value the value
-     * @deprecated This method ignores errors. Use {@link #add(Map, String, long, long, boolean)} instead
-     * @see #add(Map, String, long, long, boolean)
+     * @param listener the listener to feed the samples to
+     * @param nodeNames Set of node names to process
+     * @param nestedSamples the nested samples to process
      */
-    private void add(Map<String, Samples> uriSamples, String uri, long timestamp, long value) {
+    public Parser(SampleListener listener, Set<String> nodeNames, NestedSamples nestedSamples) {
+      this.filter = nestedSamples == NestedSamples.ALL ? null : new NestedSampleFilter(listener, nestedSamples);
+      this.listener = filter != null ? filter : listener;
+      this.nodeNames = nodeNames;
+    }
 
-      if( uriSamples != null ) {
+    @Override
+    public void startElement(String u, String localName, String qName, Attributes attributes) throws SAXException {
 
-        Samples samples = uriSamples.get(uri);
+      if( nodeNames.contains(localName) || nodeNames.contains(qName) ) {
 
-        if( samples == null ) {
-          // no Sample was previously stored for the uri.
-          samples = new Samples(0, false); // 0 = don't collect samples. This is important, otherwise a OOM may occur if the result set is big
+        String uri = attributes.getValue("lb");
+        String timestampString = attributes.getValue("ts");
+        long timestamp = Long.parseLong(timestampString);
 
-          uriSamples.put(uri, samples);
-        }
+        boolean success = Boolean.valueOf(attributes.getValue("s"));
 
-        samples.addSample(timestamp, value);
-      }
-    }
-    
-    /**
-     * Add #timestamp and matching #value to (new) Samples object matching the given #uri to given Map #uriSamples.
-     * If #success is false, only an error is added to the Sample.
-     *
-     * @param uriSamples map to add the Samples to
-     * @param uri the uri identifying the Samples object
-     * @param timestamp the timestamp
-     * @param value the value
-     * @param success indicates whether the sample was successful of failed
-     */
-    private void add(Map<String, Samples> uriSamples, String uri, long timestamp, long value, boolean success) {
+        // --- parse bytes
+        long bytes = ResultAggregator.parseLong(attributes.getValue("by"), listener.getLog());
 
-        if( uriSamples != null ) {
+        // --- parse duration
+        long duration = ResultAggregator.parseLong(attributes.getValue("t"), listener.getLog());
 
-          Samples samples = uriSamples.get(uri);
+        // --- parse active thread for all groups
+        long activeThreads = ResultAggregator.parseLong(attributes.getValue("na"), listener.getLog());
 
-          if( samples == null ) {
-            // no Sample was previously stored for the uri.
-            samples = new Samples(0, false); // 0 = don't collect samples. This is important, otherwise a OOM may occur if the result set is big
+        // --- parse responseCode
+        int responseCode = ResultAggregator.parseResponseCode(attributes.getValue("rc"), listener.getLog());
 
-            uriSamples.put(uri, samples);
-          }
-          
-          if(success) {
-            samples.addSample(timestamp, value);
-          }
-          else {
-            samples.addError(timestamp);
-          }
-        }
+        listener.add(uri, attributes.getValue("tn"), timestamp, bytes, duration, activeThreads, responseCode, success);
       }
 
-    private void  add(Map<Integer, Set<String>> uriByStatusCode, Integer code, String uri){
-      if(uriByStatusCode != null){
-
-        Set<String> uriSet = uriByStatusCode.get(code);
+      super.startElement(u, localName, qName, attributes);
+    }
 
-        if(uriSet == null){
-          uriSet = new HashSet<String>();
-          uriByStatusCode.put(code, uriSet);
-        }
+    @Override
+    public void endElement(String u, String localName, String qName) throws SAXException {
 
-        uriSet.add(uri);
+      if( filter != null && (nodeNames.contains(localName) || nodeNames.contains(qName)) ) {
+        filter.sampleEnd();
       }
-    }
 
-    private long parseLong(Attributes attributes, String qName) {
-      long result = -1;
-      String valueString = attributes.getValue(qName);
-      if (null != valueString) {
-        try {
-          result = Long.parseLong(valueString);
-        } catch (Exception e) {
-          getLog().warn("Error parsing bytes: '" + valueString + "'");
-        }
-      }
-      return result;
+      super.endElement(u, localName, qName);
     }
 
   }
@@ -0,0 +1,945 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Set;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Specialized scanner for the flat shape of JMeter XML result files.
+ *
+ * Works directly on the bytes of the result file. Every start tag with one of the configured
+ * {@link com.lazerycode.jmeter.analyzer.config.Environment#HTTPSAMPLE_ELEMENT_NAME sample names} is handed to a
+ * {@link SampleListener}, exactly as the SAX based parser does. Numeric attributes are parsed without creating
+ * Strings, text content (e.g. response data) is skipped without decoding it.
+ * Nested samples are selected according to a {@link NestedSamples} mode. If only top level samples are needed,
+ * the content of a sample is skipped without looking at anything but tag starts.
+ *
+ * Documents that can't be handled by this scanner (e.g. because of a DOCTYPE declaration or an unsupported
+ * encoding) are detected by {@link #detectCharset(InputStream)} and must be parsed with SAX instead.
+ *
+ * Scanning may start at any sample element, e.g. to resume at a {@link CheckpointListener checkpoint}. Safe points
+ * are the end of every sample start tag, or the end of every top level sample if nested samples are filtered.
+ */
+class JtlScanner {
+
+  static final String UTF_8 = "UTF-8";
+  static final String ISO_8859_1 = "ISO-8859-1";
+
+  /**
+   * Number of bytes that is inspected by {@link #detectCharset(InputStream)}
+   */
+  static final int PROLOG_SIZE = 8 * 1024;
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private static final byte[] XML_DECLARATION = bytes("<?xml");
+  private static final byte[] COMMENT_START = bytes("<!--");
+  private static final byte[] COMMENT_END = bytes("-->");
+  private static final byte[] CDATA_START = bytes("<![CDATA[");
+  private static final byte[] CDATA_END = bytes("]]>");
+  private static final byte[] PI_END = bytes("?>");
+
+  // attributes of a sample that are used for aggregation
+  private static final byte[][] ATTRIBUTES = {
+          bytes("t"), bytes("ts"), bytes("by"), bytes("na"), bytes("rc"), bytes("s"), bytes("lb"), bytes("tn") };
+  private static final int T = 0;
+  private static final int TS = 1;
+  private static final int BY = 2;
+  private static final int NA = 3;
+  private static final int RC = 4;
+  private static final int S = 5;
+  private static final int LB = 6;
+  private static final int TN = 7;
+
+  private static final byte[] TRUE = bytes("true");
+
+  private final SampleListener listener;
+  private final byte[][] nodeNames;
+  private final int maxNodeNameLength;
+  private final boolean latin1;
+
+  // null if all samples are needed
+  private final NestedSampleFilter filter;
+  private final boolean topLevelOnly;
+
+  private InputStream in;
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+
+  // offset of the buffer in the document
+  private long offset;
+
+  // null if no checkpoints are taken
+  private CheckpointListener checkpoints;
+  private long lastSafePoint;
+
+  // positions of the attribute values of the current tag, -1 if the attribute is not available
+  private final int[] valueStart = new int[ATTRIBUTES.length];
+  private final int[] valueEnd = new int[ATTRIBUTES.length];
+
+  /**
+   * Constructor
+   *
+   * @param listener the listener to feed the samples to
+   * @param nodeNames Set of node names to process
+   * @param charset charset of the document as returned by {@link #detectCharset(InputStream)}
+   */
+  public JtlScanner(SampleListener listener, Set<String> nodeNames, String charset) {
+    this(listener, nodeNames, charset, NestedSamples.ALL);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param listener the listener to feed the samples to
+   * @param nodeNames Set of node names to process
+   * @param charset charset of the document as returned by {@link #detectCharset(InputStream)}
+   * @param nestedSamples the nested samples to process
+   */
+  public JtlScanner(SampleListener listener, Set<String> nodeNames, String charset, NestedSamples nestedSamples) {
+    this.filter = nestedSamples == NestedSamples.ALL ? null : new NestedSampleFilter(listener, nestedSamples);
+    this.topLevelOnly = nestedSamples == NestedSamples.TOP_LEVEL;
+    this.listener = filter != null ? filter : listener;
+    this.latin1 = ISO_8859_1.equals(charset);
+    this.nodeNames = new byte[nodeNames.size()][];
+    int i = 0;
+    int length = 0;
+    for (String nodeName : nodeNames) {
+      this.nodeNames[i] = encode(nodeName, charset);
+      length = Math.max(length, this.nodeNames[i].length);
+      i++;
+    }
+    this.maxNodeNameLength = length;
+  }
+
+  /**
+   * Inspects the beginning of the document and determines whether the document can be handled by the scanner.
+   *
+   * @param in the document. Must support {@link InputStream#mark(int)}, will be reset.
+   *
+   * @return the charset to use or null if the document must be parsed by a generic XML parser
+   *
+   * @throws IOException if reading fails
+   */
+  static String detectCharset(InputStream in) throws IOException {
+
+    if (!in.markSupported()) {
+      throw new IllegalArgumentException("InputStream must support mark()");
+    }
+
+    byte[] prolog = new byte[PROLOG_SIZE];
+    int length = 0;
+    String charset = null;
+    in.mark(PROLOG_SIZE);
+    try {
+      int read;
+      // stop as soon as the root element is found, a file that is still being written may be shorter than the prolog
+      while (charset == null && length < prolog.length && (read = in.read(prolog, length, prolog.length - length)) > 0) {
+        length += read;
+        charset = detectCharset(prolog, length);
+      }
+    }
+    finally {
+      in.reset();
+    }
+
+    return charset;
+  }
+
+  /**
+   * Scan the document
+   *
+   * @param in the document
+   *
+   * @throws IOException if reading fails
+   * @throws SAXException if the document is malformed
+   */
+  public void scan(InputStream in) throws IOException, SAXException {
+    scan(in, 0, null);
+  }
+
+  /**
+   * Scan the document, starting at the given offset.
+   * At the end, a final checkpoint is taken after the last sample, unless no sample has been found.
+   *
+   * @param in the document, positioned at the offset
+   * @param offset offset of the input in the document, must be 0 or the start of an element
+   * @param checkpoints offered a checkpoint at every safe point, may be null
+   *
+   * @throws IOException if reading fails
+   * @throws SAXException if the document is malformed
+   */
+  public void scan(InputStream in, long offset, CheckpointListener checkpoints) throws IOException, SAXException {
+
+    this.in = in;
+    this.position = 0;
+    this.limit = 0;
+    this.offset = offset;
+    this.checkpoints = checkpoints;
+    this.lastSafePoint = offset;
+
+    fill();
+    if (offset == 0) {
+      skipByteOrderMark();
+    }
+
+    while (findTagStart()) {
+
+      if (!ensureAvailable(2)) {
+        throw new SAXException("Unexpected end of document");
+      }
+
+      byte next = buffer[position + 1];
+      if (next == '?') {
+        skipPast(PI_END);
+      }
+      else if (next == '!') {
+        if (startsWith(COMMENT_START)) {
+          skipPast(COMMENT_END);
+        }
+        else if (startsWith(CDATA_START)) {
+          skipPast(CDATA_END);
+        }
+        else {
+          throw new SAXException("Unsupported markup declaration in JMeter result");
+        }
+      }
+      else if (next == '/') {
+        // end tag
+        boolean sampleEnd = filter != null && isNodeNameAt(position + 2);
+        position = findTagEnd() + 1;
+        if (sampleEnd) {
+          filter.sampleEnd();
+          safePoint();
+        }
+      }
+      else {
+        startTag();
+      }
+    }
+
+    if (checkpoints != null && lastSafePoint > offset) {
+      checkpoints.checkpoint(lastSafePoint);
+    }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Inspects the prolog of the document
+   *
+   * @return the charset or null if the document can't be handled
+   */
+  private static String detectCharset(byte[] prolog, int length) {
+
+    int i = 0;
+    if (length >= 3 && (prolog[0] & 0xFF) == 0xEF && (prolog[1] & 0xFF) == 0xBB && (prolog[2] & 0xFF) == 0xBF) {
+      // UTF-8 byte order mark
+      i = 3;
+    }
+
+    String charset = UTF_8;
+    if (startsWith(prolog, i, length, XML_DECLARATION)) {
+      int end = indexOf(prolog, i, length, PI_END);
+      if (end < 0) {
+        return null;
+      }
+      String declaration = decode(prolog, i, end, ISO_8859_1);
+      charset = getCharset(declaration);
+      if (charset == null) {
+        return null;
+      }
+      i = end + PI_END.length;
+    }
+
+    // skip comments and processing instructions until the root element starts
+    while (i < length) {
+      byte b = prolog[i];
+      if (isWhitespace(b)) {
+        i++;
+      }
+      else if (startsWith(prolog, i, length, COMMENT_START)) {
+        int end = indexOf(prolog, i, length, COMMENT_END);
+        if (end < 0) {
+          return null;
+        }
+        i = end + COMMENT_END.length;
+      }
+      else if (b == '<' && i + 1 < length && prolog[i + 1] == '?') {
+        int end = indexOf(prolog, i, length, PI_END);
+        if (end < 0) {
+          return null;
+        }
+        i = end + PI_END.length;
+      }
+      else if (b == '<' && i + 1 < length && isNameStart(prolog[i + 1])) {
+        // root element
+        return charset;
+      }
+      else {
+        // DOCTYPE, text or binary content
+        return null;
+      }
+    }
+
+    // no root element found
+    return null;
+  }
+
+  /**
+   * @return the charset declared in the XML declaration, if it is supported. UTF-8 if no encoding is declared.
+   */
+  private static String getCharset(String declaration) {
+
+    int index = declaration.indexOf("encoding");
+    if (index < 0) {
+      return UTF_8;
+    }
+
+    int quote = index + "encoding".length();
+    while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'') {
+      quote++;
+    }
+    if (quote >= declaration.length()) {
+      return null;
+    }
+    int end = declaration.indexOf(declaration.charAt(quote), quote + 1);
+    if (end < 0) {
+      return null;
+    }
+
+    String encoding = declaration.substring(quote + 1, end).trim().toUpperCase();
+    if ("UTF-8".equals(encoding) || "UTF8".equals(encoding) || "US-ASCII".equals(encoding) || "ASCII".equals(encoding)) {
+      return UTF_8;
+    }
+    if ("ISO-8859-1".equals(encoding) || "LATIN1".equals(encoding)) {
+      return ISO_8859_1;
+    }
+    return null;
+  }
+
+  /**
+   * Handle a start tag. The current position is the opening '&lt;'
+   */
+  private void startTag() throws IOException, SAXException {
+
+    int end = findTagEnd();
+
+    int nameStart = position + 1;
+    int nameEnd = nameStart;
+    while (nameEnd < end && !isWhitespace(buffer[nameEnd]) && buffer[nameEnd] != '/') {
+      nameEnd++;
+    }
+
+    if (isNodeName(nameStart, nameEnd)) {
+      parseAttributes(nameEnd, end);
+      addSample();
+
+      boolean empty = buffer[end - 1] == '/';
+      position = end + 1;
+
+      if (filter != null) {
+        if (!empty && topLevelOnly) {
+          skipContent();
+          empty = true;
+        }
+        if (empty) {
+          filter.sampleEnd();
+          safePoint();
+        }
+      }
+      else {
+        safePoint();
+      }
+      return;
+    }
+
+    position = end + 1;
+  }
+
+  /**
+   * The current position is behind a sample. Scanning could be resumed here if no sample is open.
+   */
+  private void safePoint() throws IOException {
+    if (checkpoints != null && (filter == null || filter.getDepth() == 0)) {
+      lastSafePoint = offset + position;
+      if (checkpoints.isDue()) {
+        checkpoints.checkpoint(lastSafePoint);
+      }
+    }
+  }
+
+  /**
+   * Skip the content of the sample that has just been started, including its end tag.
+   * Only tag starts are inspected, as '&lt;' can only occur in markup.
+   */
+  private void skipContent() throws IOException, SAXException {
+
+    int depth = 1;
+    while (depth > 0) {
+
+      if (!findTagStart() || !ensureAvailable(2)) {
+        throw new SAXException("Unexpected end of document");
+      }
+
+      byte next = buffer[position + 1];
+      if (next == '!') {
+        if (startsWith(COMMENT_START)) {
+          skipPast(COMMENT_END);
+        }
+        else if (startsWith(CDATA_START)) {
+          skipPast(CDATA_END);
+        }
+        else {
+          throw new SAXException("Unsupported markup declaration in JMeter result");
+        }
+      }
+      else if (next == '?') {
+        skipPast(PI_END);
+      }
+      else if (next == '/') {
+        if (isNodeNameAt(position + 2)) {
+          depth--;
+          position = findTagEnd() + 1;
+        }
+        else {
+          position += 2;
+        }
+      }
+      else if (isNodeNameAt(position + 1)) {
+        // nested sample
+        int end = findTagEnd();
+        if (buffer[end - 1] != '/') {
+          depth++;
+        }
+        position = end + 1;
+      }
+      else {
+        position++;
+      }
+    }
+  }
+
+  /**
+   * @param start position in the buffer, relative to the current position
+   *
+   * @return true if one of the configured node names starts at the position, followed by the end of the name
+   */
+  private boolean isNodeNameAt(int start) throws IOException {
+
+    int offset = start - position;
+    ensureAvailable(offset + maxNodeNameLength + 1);
+    start = position + offset;
+
+    for (byte[] nodeName : nodeNames) {
+      int end = start + nodeName.length;
+      if (end < limit && startsWith(buffer, start, limit, nodeName)) {
+        byte b = buffer[end];
+        if (isWhitespace(b) || b == '/' || b == '>') {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the bytes are one of the configured node names
+   */
+  private boolean isNodeName(int start, int end) {
+    for (byte[] nodeName : nodeNames) {
+      if (equals(start, end, nodeName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Collect the positions of all needed attribute values between start and end
+   */
+  private void parseAttributes(int start, int end) throws SAXException {
+
+    for (int a = 0; a < ATTRIBUTES.length; a++) {
+      valueStart[a] = -1;
+    }
+
+    int i = start;
+    while (true) {
+      while (i < end && isWhitespace(buffer[i])) {
+        i++;
+      }
+      if (i >= end || buffer[i] == '/') {
+        return;
+      }
+
+      int nameStart = i;
+      while (i < end && buffer[i] != '=' && !isWhitespace(buffer[i])) {
+        i++;
+      }
+      int nameEnd = i;
+      while (i < end && isWhitespace(buffer[i])) {
+        i++;
+      }
+      if (i >= end || buffer[i] != '=') {
+        throw new SAXException("Malformed attribute in JMeter result");
+      }
+      i++;
+      while (i < end && isWhitespace(buffer[i])) {
+        i++;
+      }
+      if (i >= end || (buffer[i] != '"' && buffer[i] != '\'')) {
+        throw new SAXException("Malformed attribute value in JMeter result");
+      }
+      byte quote = buffer[i++];
+      int start1 = i;
+      while (i < end && buffer[i] != quote) {
+        i++;
+      }
+      if (i >= end) {
+        throw new SAXException("Malformed attribute value in JMeter result");
+      }
+
+      int attribute = getAttribute(nameStart, nameEnd);
+      if (attribute >= 0) {
+        valueStart[attribute] = start1;
+        valueEnd[attribute] = i;
+      }
+      i++;
+    }
+  }
+
+  /**
+   * @return the index of the attribute in {@link #ATTRIBUTES} or -1 if the attribute is not needed
+   */
+  private int getAttribute(int start, int end) {
+    int length = end - start;
+    if (length > 2) {
+      return -1;
+    }
+    for (int a = 0; a < ATTRIBUTES.length; a++) {
+      if (equals(start, end, ATTRIBUTES[a])) {
+        return a;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Hand the sample described by the current attributes to the listener
+   */
+  private void addSample() throws SAXException {
+
+    long timestamp = parseNumber(TS);
+    if (timestamp == Long.MIN_VALUE) {
+      // same behaviour as the SAX parser
+      timestamp = Long.parseLong(getString(TS));
+    }
+
+    boolean success = isTrue(S);
+
+    long bytes = getLong(BY);
+    long duration = getLong(T);
+    long activeThreads = getLong(NA);
+
+    int responseCode;
+    long code = parseNumber(RC);
+    if (code != Long.MIN_VALUE && code >= Integer.MIN_VALUE && code <= Integer.MAX_VALUE) {
+      responseCode = (int) code;
+    }
+    else {
+      responseCode = ResultAggregator.parseResponseCode(getString(RC), listener.getLog());
+    }
+
+    String threadName = listener.isGroupedByThreadName() ? getString(TN) : null;
+
+    listener.add(getString(LB), threadName, timestamp, bytes, duration, activeThreads, responseCode, success);
+  }
+
+  /**
+   * @return the value of the given attribute or -1 if the attribute is not available
+   */
+  private long getLong(int attribute) throws SAXException {
+    if (valueStart[attribute] < 0) {
+      return -1;
+    }
+    long result = parseNumber(attribute);
+    if (result == Long.MIN_VALUE) {
+      // not a plain number, let the default implementation handle this
+      result = ResultAggregator.parseLong(getString(attribute), listener.getLog());
+    }
+    return result;
+  }
+
+  /**
+   * Parse a decimal attribute value without creating a String
+   *
+   * @return the number or {@link Long#MIN_VALUE} if the attribute is missing or not a plain number
+   */
+  private long parseNumber(int attribute) {
+
+    int i = valueStart[attribute];
+    if (i < 0) {
+      return Long.MIN_VALUE;
+    }
+    int end = valueEnd[attribute];
+
+    boolean negative = false;
+    if (i < end && buffer[i] == '-') {
+      negative = true;
+      i++;
+    }
+    // up to 18 digits can't overflow
+    if (i == end || end - i > 18) {
+      return Long.MIN_VALUE;
+    }
+
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = buffer[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.MIN_VALUE;
+      }
+      result = result * 10 + digit;
+    }
+
+    return negative ? -result : result;
+  }
+
+  /**
+   * Same as {@link Boolean#valueOf(String)}
+   */
+  private boolean isTrue(int attribute) throws SAXException {
+    int start = valueStart[attribute];
+    if (start < 0) {
+      return false;
+    }
+    int end = valueEnd[attribute];
+    if (end - start == TRUE.length) {
+      for (int i = 0; i < TRUE.length; i++) {
+        if ((buffer[start + i] | 0x20) != TRUE[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+    // entities are a very unlikely case
+    return indexOf(buffer, start, end, (byte) '&') >= 0 && Boolean.valueOf(getString(attribute));
+  }
+
+  /**
+   * Decode an attribute value
+   *
+   * @return the attribute value or null if the attribute is not available
+   */
+  private String getString(int attribute) throws SAXException {
+
+    int start = valueStart[attribute];
+    if (start < 0) {
+      return null;
+    }
+    int end = valueEnd[attribute];
+
+    boolean plain = true;
+    for (int i = start; i < end; i++) {
+      byte b = buffer[i];
+      if (b < 0x20 || b == '&') {
+        // non-ASCII, whitespace that needs to be normalized or an entity
+        plain = false;
+        break;
+      }
+    }
+
+    if (plain) {
+      char[] chars = new char[end - start];
+      for (int i = start; i < end; i++) {
+        chars[i - start] = (char) buffer[i];
+      }
+      return new String(chars);
+    }
+
+    return normalize(decode(buffer, start, end, latin1 ? ISO_8859_1 : UTF_8));
+  }
+
+  /**
+   * Normalize the attribute value as an XML parser would: Resolve entity and character references and replace
+   * whitespace characters by a space.
+   */
+  static String normalize(String value) throws SAXException {
+
+    StringBuilder result = new StringBuilder(value.length());
+
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+
+      if (c == '\r') {
+        // line ends are normalized to '\n' before the attribute value is normalized
+        if (i + 1 < length && value.charAt(i + 1) == '\n') {
+          i++;
+        }
+        result.append(' ');
+      }
+      else if (c == '\n' || c == '\t') {
+        result.append(' ');
+      }
+      else if (c == '&') {
+        int end = value.indexOf(';', i);
+        if (end < 0) {
+          throw new SAXException("Unterminated entity reference in '" + value + "'");
+        }
+        appendReference(result, value.substring(i + 1, end));
+        i = end;
+      }
+      else {
+        result.append(c);
+      }
+    }
+
+    return result.toString();
+  }
+
+  private static void appendReference(StringBuilder result, String reference) throws SAXException {
+
+    if ("amp".equals(reference)) {
+      result.append('&');
+    }
+    else if ("lt".equals(reference)) {
+      result.append('<');
+    }
+    else if ("gt".equals(reference)) {
+      result.append('>');
+    }
+    else if ("quot".equals(reference)) {
+      result.append('"');
+    }
+    else if ("apos".equals(reference)) {
+      result.append('\'');
+    }
+    else if (reference.startsWith("#")) {
+      try {
+        int codePoint = reference.startsWith("#x")
+                ? Integer.parseInt(reference.substring(2), 16)
+                : Integer.parseInt(reference.substring(1));
+        result.appendCodePoint(codePoint);
+      }
+      catch (IllegalArgumentException e) {
+        throw new SAXException("Invalid character reference '&" + reference + ";'");
+      }
+    }
+    else {
+      throw new SAXException("Undeclared entity '&" + reference + ";'");
+    }
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Move the position to the next '&lt;', text content is skipped.
+   *
+   * @return false if the end of the document has been reached
+   */
+  private boolean findTagStart() throws IOException {
+    while (true) {
+      byte[] b = buffer;
+      int i = position;
+      int l = limit;
+      while (i < l) {
+        if (b[i] == '<') {
+          position = i;
+          return true;
+        }
+        i++;
+      }
+      position = l;
+      if (!fill()) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Find the '&gt;' that ends the tag starting at the current position. Attribute values may contain '&gt;'.
+   * Makes sure that the complete tag is available in the buffer.
+   *
+   * @return position of the '&gt;'
+   */
+  private int findTagEnd() throws IOException, SAXException {
+    int i = position + 1;
+    byte quote = 0;
+    while (true) {
+      while (i < limit) {
+        byte b = buffer[i];
+        if (quote != 0) {
+          if (b == quote) {
+            quote = 0;
+          }
+        }
+        else if (b == '"' || b == '\'') {
+          quote = b;
+        }
+        else if (b == '>') {
+          return i;
+        }
+        i++;
+      }
+      int offset = i - position;
+      if (!fill()) {
+        throw new SAXException("Unexpected end of document");
+      }
+      i = position + offset;
+    }
+  }
+
+  /**
+   * Move the position behind the next occurrence of terminator. Skipped content is not kept in the buffer.
+   */
+  private void skipPast(byte[] terminator) throws IOException, SAXException {
+    int from = position;
+    while (true) {
+      int index = indexOf(buffer, from, limit, terminator);
+      if (index >= 0) {
+        position = index + terminator.length;
+        return;
+      }
+      // keep bytes that may be the start of the terminator
+      position = Math.max(from, limit - terminator.length + 1);
+      if (!fill()) {
+        throw new SAXException("Unexpected end of document");
+      }
+      from = position;
+    }
+  }
+
+  private boolean startsWith(byte[] prefix) throws IOException {
+    return ensureAvailable(prefix.length) && startsWith(buffer, position, limit, prefix);
+  }
+
+  private void skipByteOrderMark() {
+    if (limit - position >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+      position = 3;
+    }
+  }
+
+  /**
+   * Make sure that at least count bytes are available after the current position
+   *
+   * @return false if the end of the document is reached before
+   */
+  private boolean ensureAvailable(int count) throws IOException {
+    while (limit - position < count) {
+      if (!fill()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Read more data. Data starting at the current position is kept, the buffer is grown if necessary.
+   *
+   * @return false if the end of the document is reached
+   */
+  private boolean fill() throws IOException {
+
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      limit -= position;
+      offset += position;
+      position = 0;
+    }
+    if (limit == buffer.length) {
+      // a single tag is bigger than the buffer
+      byte[] bigger = new byte[buffer.length * 2];
+      System.arraycopy(buffer, 0, bigger, 0, limit);
+      buffer = bigger;
+    }
+
+    int read = in.read(buffer, limit, buffer.length - limit);
+    if (read <= 0) {
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+  private boolean equals(int start, int end, byte[] value) {
+    if (end - start != value.length) {
+      return false;
+    }
+    for (int i = 0; i < value.length; i++) {
+      if (buffer[start + i] != value[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  private static boolean isNameStart(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == ':' || b < 0;
+  }
+
+  private static boolean startsWith(byte[] data, int start, int limit, byte[] prefix) {
+    if (limit - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (data[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] data, int start, int limit, byte value) {
+    for (int i = start; i < limit; i++) {
+      if (data[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(byte[] data, int start, int limit, byte[] value) {
+    int last = limit - value.length;
+    for (int i = start; i <= last; i++) {
+      if (data[i] == value[0] && startsWith(data, i, limit, value)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] bytes(String value) {
+    return encode(value, ISO_8859_1);
+  }
+
+  private static String decode(byte[] data, int start, int end, String charset) {
+    try {
+      return new String(data, start, end - start, charset);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static byte[] encode(String value, String charset) {
+    try {
+      return value.getBytes(charset);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,264 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Maps every distinct sample label to a compact id, so that the label is stored once no matter how many
+ * {@link AggregatedResponses} refer to it. Ids are assigned in order of first appearance, starting with 0.
+ *
+ * Labels are resolved back by the read only views returned by {@link #asLabelMap(Map)} and {@link #asLabelSet(BitSet)}.
+ * Thread safe, a dictionary may be shared by aggregators on several threads.
+ */
+class LabelDictionary implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Estimated memory of a String without its characters (String and char[] objects)
+   */
+  private static final int STRING_OVERHEAD = 40;
+
+  /**
+   * Estimated memory of a dictionary entry without the label (map node, Integer, array slot)
+   */
+  private static final int ENTRY_OVERHEAD = 56;
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+  private volatile String[] labels = new String[64];
+  private int size;
+
+  /**
+   * Provide the id of a label, a new id is assigned to an unknown label.
+   * The same Integer instance is returned for all calls with the same label, so that maps keyed by the id don't
+   * allocate any keys.
+   *
+   * @param label the label
+   *
+   * @return the id
+   */
+  public Integer getId(String label) {
+    Integer id = ids.get(label);
+    return id != null ? id : register(label);
+  }
+
+  /**
+   * @param label the label
+   *
+   * @return the id of the label or null if the label is unknown
+   */
+  public Integer findId(String label) {
+    return ids.get(label);
+  }
+
+  /**
+   * @param id the id
+   *
+   * @return the label with the given id
+   */
+  public String getLabel(int id) {
+    return labels[id];
+  }
+
+  /**
+   * @return number of distinct labels
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @return estimated memory used by the dictionary in bytes
+   */
+  public synchronized long getEstimatedBytes() {
+    long bytes = 0;
+    for( int i = 0; i < size; i++ ) {
+      bytes += ENTRY_OVERHEAD + STRING_OVERHEAD + 2 * labels[i].length();
+    }
+    return bytes;
+  }
+
+  /**
+   * Write the memory used by the dictionary to the debug log
+   *
+   * @param log the log
+   */
+  public void log(Log log) {
+    if( log.isDebugEnabled() ) {
+      int count = size();
+      long bytes = getEstimatedBytes();
+      log.debug("Label dictionary: " + count + " distinct labels, ~" + bytes + " bytes, ~"
+                + (count == 0 ? 0 : bytes / count) + " bytes per label");
+    }
+  }
+
+  /**
+   * @param map map keyed by label id
+   *
+   * @return read only view of the map, keyed by label
+   */
+  public <V> Map<String, V> asLabelMap(Map<Integer, V> map) {
+    return new LabelMap<V>(map);
+  }
+
+  /**
+   * @param ids set of label ids
+   *
+   * @return read only view of the set, containing labels
+   */
+  public Set<String> asLabelSet(BitSet ids) {
+    return new LabelSet(ids);
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Labels may be registered by other threads while the dictionary is serialized
+   */
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+  }
+
+  private synchronized Integer register(String label) {
+    Integer id = ids.get(label);
+    if( id == null ) {
+      id = size;
+      if( size == labels.length ) {
+        labels = Arrays.copyOf(labels, size * 2);
+      }
+      // the label is visible before the id is published
+      labels[size++] = label;
+      ids.put(label, id);
+    }
+    return id;
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Map keyed by label id, seen as map keyed by label
+   */
+  private class LabelMap<V> extends AbstractMap<String, V> {
+
+    private final Map<Integer, V> map;
+
+    LabelMap(Map<Integer, V> map) {
+      this.map = map;
+    }
+
+    @Override
+    public V get(Object key) {
+      Integer id = key instanceof String ? findId((String) key) : null;
+      return id == null ? null : map.get(id);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      Integer id = key instanceof String ? findId((String) key) : null;
+      return id != null && map.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+      return new AbstractSet<Entry<String, V>>() {
+
+        @Override
+        public Iterator<Entry<String, V>> iterator() {
+          final Iterator<Entry<Integer, V>> entries = map.entrySet().iterator();
+          return new Iterator<Entry<String, V>>() {
+
+            @Override
+            public boolean hasNext() {
+              return entries.hasNext();
+            }
+
+            @Override
+            public Entry<String, V> next() {
+              Entry<Integer, V> entry = entries.next();
+              return new SimpleImmutableEntry<String, V>(getLabel(entry.getKey()), entry.getValue());
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return map.size();
+        }
+      };
+    }
+  }
+
+  /**
+   * Set of label ids, seen as set of labels
+   */
+  private class LabelSet extends AbstractSet<String> {
+
+    private final BitSet ids;
+
+    LabelSet(BitSet ids) {
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      Integer id = o instanceof String ? findId((String) o) : null;
+      return id != null && ids.get(id);
+    }
+
+    @Override
+    public int size() {
+      return ids.cardinality();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+
+        private int next = ids.nextSetBit(0);
+
+        @Override
+        public boolean hasNext() {
+          return next >= 0;
+        }
+
+        @Override
+        public String next() {
+          if( next < 0 ) {
+            throw new NoSuchElementException();
+          }
+          String label = getLabel(next);
+          next = ids.nextSetBit(next + 1);
+          return label;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+}
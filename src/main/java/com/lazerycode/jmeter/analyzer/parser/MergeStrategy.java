@@ -0,0 +1,23 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+/**
+ * How the result files of the load generators of a distributed test are merged into the results of a single test
+ */
+public enum MergeStrategy {
+
+  /**
+   * The samples of all files are merged in order of their timestamps into a single aggregator while the files are
+   * read, see {@link MergingResultParser}. Memory doesn't grow with the size of the files. The results are the same as
+   * for a single file containing the samples of all files in order of their timestamps only if the samples of every
+   * file are in order of their timestamps.
+   */
+  STREAM,
+
+  /**
+   * Every file is analyzed on its own, keeping all of its samples, and the results of all files are folded into the
+   * results of a single test, see {@link ResultAggregator#merge(ResultAggregator)}. Counts, sums, quantiles and the
+   * stored samples are the same as for a single file containing the samples of all files in order of their timestamps,
+   * no matter in which order the samples of every file are. Memory grows with the number of samples.
+   */
+  FOLD
+}
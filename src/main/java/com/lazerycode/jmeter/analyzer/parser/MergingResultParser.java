@@ -0,0 +1,313 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.xml.sax.SAXException;
+
+/**
+ * Merges the samples of the result files of the load generators of a distributed test in order of their timestamps.
+ *
+ * Every file is read by its own thread, which hands batches of samples to the merging thread. The merging thread
+ * repeatedly takes the sample with the lowest timestamp of all files (k-way merge) and adds it to a single listener.
+ * The queues between the threads are bounded, so memory doesn't grow with the size of the files: a file that is
+ * ahead of the others is blocked until their samples have been merged.
+ *
+ * If the samples of every file are in order of their timestamps, the listener receives the samples in the same order
+ * as from a single file containing the samples of all files in order of their timestamps, samples with the same
+ * timestamp in order of the files. JMeter doesn't write the samples in that order when many threads are running. The
+ * listener then still receives every sample, but the samples that are kept or averaged depend on the order in which
+ * they are received. {@link MergeStrategy#FOLD} gives the same results for samples in any order.
+ */
+class MergingResultParser {
+
+  /**
+   * Number of samples handed to the merging thread at once
+   */
+  static final int BATCH_SIZE = 1024;
+
+  /**
+   * Number of batches that may be queued for every file
+   */
+  static final int QUEUE_CAPACITY = 4;
+
+  private static final long TIMEOUT_MILLIS = 100;
+
+  private final Log log;
+
+  /**
+   * Constructor
+   *
+   * @param log the log for progress messages
+   */
+  public MergingResultParser(Log log) {
+    this.log = log;
+  }
+
+  /**
+   * Read the samples of all files and hand them to the listener in order of their timestamps
+   *
+   * @param files the JMeter result files, the format of each file is detected. GZiped files must end with .gz
+   * @param listener receives the merged samples
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  public void merge(List<File> files, SampleListener listener) throws IOException, SAXException {
+
+    if( files.isEmpty() ) {
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(files.size());
+    try {
+      PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(files.size());
+      List<Cursor> started = new ArrayList<Cursor>();
+      for( int i = 0; i < files.size(); i++ ) {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+        Reader reader = new Reader(files.get(i), queue, listener.isGroupedByThreadName());
+        started.add(new Cursor(i, files.get(i), queue, executor.submit(reader)));
+      }
+      for( Cursor cursor : started ) {
+        if( cursor.next() ) {
+          cursors.add(cursor);
+        }
+      }
+
+      while( !cursors.isEmpty() ) {
+        Cursor cursor = cursors.poll();
+        Batch batch = cursor.batch;
+        int i = cursor.index;
+        listener.add(batch.uris[i], batch.threadNames[i], batch.timestamps[i], batch.bytes[i], batch.durations[i],
+                     batch.activeThreads[i], batch.responseCodes[i], batch.success[i]);
+        if( cursor.next() ) {
+          cursors.add(cursor);
+        }
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Wait for the end of a reader, exceptions of the reader are rethrown
+   */
+  private static void get(Future<?> result) throws IOException, SAXException {
+    try {
+      result.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while merging");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if( cause instanceof IOException ) {
+        throw (IOException) cause;
+      }
+      if( cause instanceof SAXException ) {
+        throw (SAXException) cause;
+      }
+      if( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      if( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException("Parsing failed", cause);
+    }
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Batch of samples of a file, stored column by column
+   */
+  private static final class Batch {
+
+    /**
+     * Marks the end of a file
+     */
+    static final Batch END = new Batch(0);
+
+    final String[] uris;
+    final String[] threadNames;
+    final long[] timestamps;
+    final long[] bytes;
+    final long[] durations;
+    final long[] activeThreads;
+    final int[] responseCodes;
+    final boolean[] success;
+    int size;
+
+    Batch(int capacity) {
+      uris = new String[capacity];
+      threadNames = new String[capacity];
+      timestamps = new long[capacity];
+      bytes = new long[capacity];
+      durations = new long[capacity];
+      activeThreads = new long[capacity];
+      responseCodes = new int[capacity];
+      success = new boolean[capacity];
+    }
+
+    boolean isFull() {
+      return size == uris.length;
+    }
+  }
+
+  /**
+   * Reads a file and hands its samples to the merging thread. Blocks while the queue is full.
+   */
+  private final class Reader implements Callable<Void>, SampleListener {
+
+    private final File file;
+    private final BlockingQueue<Batch> queue;
+    private final boolean groupedByThreadName;
+
+    private Batch batch = new Batch(BATCH_SIZE);
+    private long count;
+
+    Reader(File file, BlockingQueue<Batch> queue, boolean groupedByThreadName) {
+      this.file = file;
+      this.queue = queue;
+      this.groupedByThreadName = groupedByThreadName;
+    }
+
+    @Override
+    public Void call() throws IOException, SAXException, InterruptedException {
+      JMeterResultParser.parse(file, this);
+      if( batch.size > 0 ) {
+        queue.put(batch);
+      }
+      queue.put(Batch.END);
+      log.info("Parsed " + count + " entries of '" + file.getName() + "'");
+      return null;
+    }
+
+    @Override
+    public boolean isGroupedByThreadName() {
+      return groupedByThreadName;
+    }
+
+    @Override
+    public Log getLog() {
+      return log;
+    }
+
+    @Override
+    public void add(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+                    int responseCode, boolean success) {
+
+      int i = batch.size++;
+      batch.uris[i] = uri;
+      batch.threadNames[i] = threadName;
+      batch.timestamps[i] = timestamp;
+      batch.bytes[i] = bytes;
+      batch.durations[i] = duration;
+      batch.activeThreads[i] = activeThreads;
+      batch.responseCodes[i] = responseCode;
+      batch.success[i] = success;
+      count++;
+
+      if( batch.isFull() ) {
+        try {
+          queue.put(batch);
+        }
+        catch (InterruptedException e) {
+          // merging has failed
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while parsing", e);
+        }
+        batch = new Batch(BATCH_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Position of the merging thread in the samples of a file, ordered by the timestamp of the current sample and the
+   * order of the files
+   */
+  private static final class Cursor implements Comparable<Cursor> {
+
+    private final int order;
+    private final File file;
+    private final BlockingQueue<Batch> queue;
+    private final Future<Void> reader;
+
+    private Batch batch;
+    private int index;
+
+    Cursor(int order, File file, BlockingQueue<Batch> queue, Future<Void> reader) {
+      this.order = order;
+      this.file = file;
+      this.queue = queue;
+      this.reader = reader;
+    }
+
+    /**
+     * Move to the next sample of the file
+     *
+     * @return false at the end of the file
+     */
+    boolean next() throws IOException, SAXException {
+      if( batch != null && ++index < batch.size ) {
+        return true;
+      }
+      batch = take();
+      index = 0;
+      return batch != Batch.END;
+    }
+
+    @Override
+    public int compareTo(Cursor other) {
+      long timestamp = batch.timestamps[index];
+      long otherTimestamp = other.batch.timestamps[other.index];
+      if( timestamp != otherTimestamp ) {
+        return timestamp < otherTimestamp ? -1 : 1;
+      }
+      return order < other.order ? -1 : (order == other.order ? 0 : 1);
+    }
+
+    /**
+     * Take the next batch of the file, failures of the reader are rethrown
+     */
+    private Batch take() throws IOException, SAXException {
+      try {
+        Batch next;
+        while( (next = queue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) == null ) {
+          if( reader.isDone() ) {
+            // the reader puts the end marker before it is done
+            next = queue.poll();
+            if( next != null ) {
+              break;
+            }
+            get(reader);
+            throw new IllegalStateException("Reading '" + file.getName() + "' stopped unexpectedly");
+          }
+        }
+        return next;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while merging");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Passes only the samples selected by a {@link NestedSamples} mode on to another listener.
+ * Needs to know where a sample ends: {@link #add} is called for the start of a sample, {@link #sampleEnd()} for its
+ * end (immediately after {@link #add} for an empty element).
+ */
+class NestedSampleFilter implements SampleListener {
+
+  private final SampleListener listener;
+  private final NestedSamples mode;
+
+  // number of samples that have been started but not ended
+  private int depth;
+
+  // the innermost sample, as long as it doesn't contain other samples (LEAF only)
+  private boolean pending;
+  private String uri;
+  private String threadName;
+  private long timestamp;
+  private long bytes;
+  private long duration;
+  private long activeThreads;
+  private int responseCode;
+  private boolean success;
+
+  /**
+   * Constructor
+   *
+   * @param listener the listener to feed the selected samples to
+   * @param mode the samples to select
+   */
+  public NestedSampleFilter(SampleListener listener, NestedSamples mode) {
+    this.listener = listener;
+    this.mode = mode;
+  }
+
+  @Override
+  public boolean isGroupedByThreadName() {
+    return listener.isGroupedByThreadName();
+  }
+
+  @Override
+  public Log getLog() {
+    return listener.getLog();
+  }
+
+  @Override
+  public void add(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+                  int responseCode, boolean success) {
+
+    if( mode == NestedSamples.LEAF ) {
+      // the enclosing sample (if pending) isn't a leaf
+      this.pending = true;
+      this.uri = uri;
+      this.threadName = threadName;
+      this.timestamp = timestamp;
+      this.bytes = bytes;
+      this.duration = duration;
+      this.activeThreads = activeThreads;
+      this.responseCode = responseCode;
+      this.success = success;
+    }
+    else if( depth == 0 || mode == NestedSamples.ALL ) {
+      listener.add(uri, threadName, timestamp, bytes, duration, activeThreads, responseCode, success);
+    }
+
+    depth++;
+  }
+
+  /**
+   * The innermost sample that has been started ends
+   */
+  public void sampleEnd() {
+
+    if( pending ) {
+      listener.add(uri, threadName, timestamp, bytes, duration, activeThreads, responseCode, success);
+      pending = false;
+      uri = null;
+      threadName = null;
+    }
+
+    depth--;
+  }
+
+  /**
+   * @return number of samples that have been started but not ended
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+}
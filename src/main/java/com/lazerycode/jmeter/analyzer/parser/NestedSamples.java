@@ -0,0 +1,25 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+/**
+ * Handling of samples that are nested in other samples in XML results, e.g. the samples of a transaction controller
+ * or sub-results of a sampler that downloads embedded resources.
+ */
+public enum NestedSamples {
+
+  /**
+   * Every sample is aggregated, no matter how deeply it is nested
+   */
+  ALL,
+
+  /**
+   * Only samples that are not nested in another sample are aggregated.
+   * The content of these samples (nested samples, assertion results, response data...) is skipped unparsed.
+   */
+  TOP_LEVEL,
+
+  /**
+   * Only samples that don't contain any nested sample are aggregated, e.g. the samples within a transaction but not
+   * the transaction itself
+   */
+  LEAF
+}
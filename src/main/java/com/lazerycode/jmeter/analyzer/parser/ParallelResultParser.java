@@ -0,0 +1,481 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xml.sax.SAXException;
+
+import com.lazerycode.jmeter.analyzer.util.ByteBufferInputStream;
+
+/**
+ * Parses an uncompressed result file with several threads.
+ *
+ * The file is memory mapped and split into segments that start at a sample element (XML) or at a line start (CSV).
+ * Every segment is parsed into a {@link ResultAggregator#newPartial() partial aggregator}. The partial results are
+ * appended in file order, so that the results are identical to parsing the file with a single thread.
+ *
+ * Parsing may start at an offset into an aggregator that already holds the results before that offset, e.g. to
+ * resume at a {@link CheckpointListener checkpoint}. Segment boundaries are safe points.
+ *
+ * A segment boundary that turns out to be invalid (e.g. a sample element inside of a CDATA section or a line break
+ * inside of a quoted CSV value) makes the parsing of the preceding segment fail. In that case, and for files that
+ * can't be handled by the {@link JtlScanner}, the file must be parsed sequentially.
+ */
+class ParallelResultParser {
+
+  /**
+   * Minimal size of a segment. Smaller files are parsed sequentially.
+   */
+  static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+  /**
+   * Maximal size of a segment. Limits the memory needed by the partial results.
+   */
+  static final long MAX_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+  private static final int SEARCH_BUFFER_SIZE = 64 * 1024;
+
+  private final int threads;
+  private final Set<String> nodeNames;
+  private final NestedSamples nestedSamples;
+
+  /**
+   * Constructor
+   *
+   * @param threads number of threads to use
+   * @param nodeNames Set of node names to process
+   * @param nestedSamples the nested samples to process. XML files are parsed in parallel only if all samples are
+   *        processed.
+   */
+  public ParallelResultParser(int threads, Set<String> nodeNames, NestedSamples nestedSamples) {
+    this.threads = threads;
+    this.nodeNames = nodeNames;
+    this.nestedSamples = nestedSamples;
+  }
+
+  /**
+   * Parses the file in parallel
+   *
+   * @param file uncompressed JMeter result file
+   * @param format the format of the result file
+   *
+   * @return the aggregated, unfinished results or null if the file must be parsed sequentially
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException If parsing fails
+   */
+  public ResultAggregator parse(File file, ResultFormat format) throws IOException, SAXException {
+    ResultAggregator aggregator = new ResultAggregator();
+    return parse(file, format, aggregator, 0, null) ? aggregator : null;
+  }
+
+  /**
+   * Parses the file in parallel, starting at an offset
+   *
+   * @param file uncompressed JMeter result file
+   * @param format the format of the result file
+   * @param aggregator receives the results, holds the results before the offset
+   * @param start offset to start at, must be 0 or a safe point
+   * @param checkpoints offered a checkpoint whenever the results of a segment have been appended, may be null.
+   *        A final checkpoint is taken after the last sample of the file.
+   *
+   * @return false if the file must be parsed sequentially. The aggregator may hold the results of some segments then.
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException If parsing fails
+   */
+  public boolean parse(File file, ResultFormat format, ResultAggregator aggregator, long start,
+                       CheckpointListener checkpoints) throws IOException, SAXException {
+
+    long size = file.length();
+    if( size - start < 2 * MIN_SEGMENT_SIZE ) {
+      return false;
+    }
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+
+      Segments segments;
+      if( format == ResultFormat.CSV ) {
+        segments = new CsvSegments(channel, aggregator);
+      }
+      else {
+        if( nestedSamples != NestedSamples.ALL ) {
+          // nesting depth is unknown at a segment boundary
+          return false;
+        }
+        String charset = detectCharset(file);
+        if( charset == null ) {
+          return false;
+        }
+        segments = new XmlSegments(charset);
+      }
+
+      List<Long> boundaries = split(channel, Math.max(segments.getDataStart(), start), size, segments);
+      if( boundaries == null ) {
+        return false;
+      }
+
+      aggregator.getLog().debug("Parsing " + (boundaries.size() - 1) + " segments with " + threads + " threads");
+
+      return parse(channel, boundaries, segments, aggregator, checkpoints);
+    }
+    finally {
+      randomAccessFile.close();
+    }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Determine the segment boundaries
+   *
+   * @return start positions of all segments followed by the file size or null if the file can't be split
+   */
+  private List<Long> split(FileChannel channel, long start, long size, Segments segments) throws IOException {
+
+    long segmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, (size - start) / (threads * 4)));
+
+    List<Long> boundaries = new ArrayList<Long>();
+    boundaries.add(start);
+
+    long position = start + segmentSize;
+    while( position < size ) {
+
+      long boundary = segments.findBoundary(channel, position, size);
+      if( boundary < 0 ) {
+        break;
+      }
+      if( boundary - boundaries.get(boundaries.size() - 1) > Integer.MAX_VALUE ) {
+        // can't be mapped
+        return null;
+      }
+      boundaries.add(boundary);
+      position = boundary + segmentSize;
+    }
+
+    if( size - boundaries.get(boundaries.size() - 1) > Integer.MAX_VALUE ) {
+      return null;
+    }
+    boundaries.add(size);
+
+    return boundaries.size() > 2 ? boundaries : null;
+  }
+
+  /**
+   * Parse all segments and append the partial results to the aggregator in file order
+   *
+   * @return false, if a segment could not be parsed
+   */
+  private boolean parse(final FileChannel channel, List<Long> boundaries, final Segments segments,
+                        final ResultAggregator aggregator, CheckpointListener checkpoints) throws IOException {
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    LinkedList<Future<ResultAggregator>> pending = new LinkedList<Future<ResultAggregator>>();
+    int segmentCount = boundaries.size() - 1;
+    int appended = 0;
+    final LastSafePoint last = new LastSafePoint();
+    try {
+      for( int i = 0; i < segmentCount; i++ ) {
+
+        final long start = boundaries.get(i);
+        final long length = boundaries.get(i + 1) - start;
+        // the last safe point of the file is only known by the parser of the last segment
+        final CheckpointListener lastSafePoint = checkpoints != null && i == segmentCount - 1 ? last : null;
+
+        pending.add(executor.submit(new Callable<ResultAggregator>() {
+          @Override
+          public ResultAggregator call() throws Exception {
+            ResultAggregator partial = aggregator.newPartial();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            segments.parse(new ByteBufferInputStream(buffer), partial, start, lastSafePoint);
+            return partial;
+          }
+        }));
+
+        // limit the number of partial results held in memory
+        if( pending.size() >= 2 * threads ) {
+          if( !appendNext(pending, aggregator) ) {
+            return false;
+          }
+          checkpoint(checkpoints, boundaries, ++appended);
+        }
+      }
+
+      while( !pending.isEmpty() ) {
+        if( !appendNext(pending, aggregator) ) {
+          return false;
+        }
+        checkpoint(checkpoints, boundaries, ++appended);
+      }
+
+      if( checkpoints != null && last.position > boundaries.get(0) ) {
+        checkpoints.checkpoint(last.position);
+      }
+
+      return true;
+    }
+    finally {
+      for( Future<ResultAggregator> future : pending ) {
+        future.cancel(true);
+      }
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Wait for the next partial result and append it to the aggregator
+   *
+   * @return false, if the segment could not be parsed
+   */
+  private boolean appendNext(LinkedList<Future<ResultAggregator>> pending, ResultAggregator aggregator) throws IOException {
+    try {
+      aggregator.append(pending.removeFirst().get());
+      return true;
+    }
+    catch (ExecutionException e) {
+      // the file may be malformed or a segment boundary is invalid. Sequential parsing will tell.
+      aggregator.getLog().debug("Parsing segment failed, parsing sequentially: " + e.getCause());
+      return false;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing");
+    }
+  }
+
+  /**
+   * Offer a checkpoint after a number of segments have been appended. The end of the file is not a safe point, as
+   * a closing root element would be overwritten if JMeter appends more samples.
+   */
+  private void checkpoint(CheckpointListener checkpoints, List<Long> boundaries, int appended) throws IOException {
+    if( checkpoints != null && appended < boundaries.size() - 1 && checkpoints.isDue() ) {
+      checkpoints.checkpoint(boundaries.get(appended));
+    }
+  }
+
+  /**
+   * @return charset as detected by {@link JtlScanner#detectCharset(InputStream)}
+   */
+  private static String detectCharset(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), JtlScanner.PROLOG_SIZE);
+    try {
+      return JtlScanner.detectCharset(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read a part of the file
+   *
+   * @return the buffer, ready to be read. Empty at the end of the file.
+   */
+  private static ByteBuffer read(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+    buffer.clear();
+    while( buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0 ) {
+      // read until the buffer is full or the end of the file has been reached
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Format specific handling of segments
+   */
+  private interface Segments {
+
+    /**
+     * @return position of the first segment
+     */
+    long getDataStart();
+
+    /**
+     * @return the first segment start at or after position or -1 if there is none
+     */
+    long findBoundary(FileChannel channel, long position, long size) throws IOException;
+
+    /**
+     * Parse a single segment
+     *
+     * @param checkpoints receives a final checkpoint after the last sample of the segment, may be null
+     */
+    void parse(InputStream in, ResultAggregator partial, long start, CheckpointListener checkpoints)
+        throws IOException, SAXException;
+  }
+
+  /**
+   * Records the final checkpoint of a segment
+   */
+  private static class LastSafePoint implements CheckpointListener {
+
+    private volatile long position = -1;
+
+    @Override
+    public boolean isDue() {
+      return false;
+    }
+
+    @Override
+    public void checkpoint(long position) {
+      this.position = position;
+    }
+  }
+
+  /**
+   * Segments of an XML result start with a sample element
+   */
+  private class XmlSegments implements Segments {
+
+    private final String charset;
+    private final byte[][] startTags;
+    private final int maxLength;
+
+    XmlSegments(String charset) {
+      this.charset = charset;
+      this.startTags = new byte[nodeNames.size()][];
+      int i = 0;
+      int length = 0;
+      for( String nodeName : nodeNames ) {
+        startTags[i] = JtlScanner.encode("<" + nodeName, charset);
+        length = Math.max(length, startTags[i].length);
+        i++;
+      }
+      this.maxLength = length + 1;
+    }
+
+    @Override
+    public long getDataStart() {
+      // the first segment contains the prolog
+      return 0;
+    }
+
+    @Override
+    public long findBoundary(FileChannel channel, long position, long size) throws IOException {
+
+      ByteBuffer buffer = ByteBuffer.allocate(SEARCH_BUFFER_SIZE);
+      while( position < size ) {
+        read(channel, position, buffer);
+        int limit = buffer.limit();
+        // a start tag may span buffers, it's found in the next buffer then
+        int last = position + limit >= size ? limit : limit - maxLength;
+        for( int i = 0; i < last; i++ ) {
+          if( buffer.get(i) == '<' && isStartTag(buffer, i, limit) ) {
+            return position + i;
+          }
+        }
+        position += Math.max(last, 1);
+      }
+      return -1;
+    }
+
+    private boolean isStartTag(ByteBuffer buffer, int index, int limit) {
+      for( byte[] startTag : startTags ) {
+        int end = index + startTag.length;
+        if( end >= limit ) {
+          continue;
+        }
+        boolean matches = true;
+        for( int i = 1; i < startTag.length && matches; i++ ) {
+          matches = buffer.get(index + i) == startTag[i];
+        }
+        byte next = buffer.get(end);
+        if( matches && (next == ' ' || next == '\t' || next == '\n' || next == '\r' || next == '/' || next == '>') ) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void parse(InputStream in, ResultAggregator partial, long start, CheckpointListener checkpoints)
+        throws IOException, SAXException {
+      new JtlScanner(partial, nodeNames, charset).scan(in, start, checkpoints);
+    }
+  }
+
+  /**
+   * Segments of a CSV result start at the beginning of a line
+   */
+  private static class CsvSegments implements Segments {
+
+    private final CsvParser header;
+    private final long dataStart;
+
+    CsvSegments(FileChannel channel, ResultAggregator aggregator) throws IOException {
+
+      ByteBuffer buffer = read(channel, 0, ByteBuffer.allocate(SEARCH_BUFFER_SIZE));
+      int end = 0;
+      while( end < buffer.limit() && buffer.get(end) != '\n' ) {
+        end++;
+      }
+      if( end == buffer.limit() ) {
+        throw new IOException("CSV header line is too long");
+      }
+
+      byte[] line = new byte[end];
+      buffer.get(line);
+
+      this.header = new CsvParser(aggregator);
+      // same charset as used for sequential parsing
+      this.header.readHeader(new String(line));
+      this.dataStart = end + 1;
+    }
+
+    @Override
+    public long getDataStart() {
+      return dataStart;
+    }
+
+    @Override
+    public long findBoundary(FileChannel channel, long position, long size) throws IOException {
+
+      ByteBuffer buffer = ByteBuffer.allocate(SEARCH_BUFFER_SIZE);
+      while( position < size ) {
+        read(channel, position, buffer);
+        for( int i = 0; i < buffer.limit(); i++ ) {
+          if( buffer.get(i) == '\n' ) {
+            long boundary = position + i + 1;
+            return boundary < size ? boundary : -1;
+          }
+        }
+        position += buffer.limit();
+      }
+      return -1;
+    }
+
+    @Override
+    public void parse(InputStream in, ResultAggregator partial, long start, CheckpointListener checkpoints)
+        throws IOException {
+      Charset charset = Charset.defaultCharset();
+      if( checkpoints != null && CsvParser.supportsCheckpoints(charset) ) {
+        new CsvParser(partial, header).parseSegment(new InputStreamReader(in, charset), charset, start, checkpoints);
+      }
+      else {
+        new CsvParser(partial, header).parseSegment(new InputStreamReader(in));
+      }
+    }
+  }
+
+}
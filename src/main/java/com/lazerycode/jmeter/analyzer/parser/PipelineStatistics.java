@@ -0,0 +1,162 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Throughput of the stages of a pipelined aggregation.
+ * The stage with the highest busy time is the bottleneck, stages waiting most of the time could be given less threads.
+ */
+public class PipelineStatistics {
+
+  private static final double NANOS_PER_SECOND = 1000000000d;
+  private static final long NANOS_PER_MILLI = 1000000;
+
+  private final List<Stage> stages = new ArrayList<Stage>();
+
+  /**
+   * @return all stages in pipeline order
+   */
+  public List<Stage> getStages() {
+    return Collections.unmodifiableList(stages);
+  }
+
+  /**
+   * @return the stage with the highest busy time
+   */
+  public Stage getBottleneck() {
+    Stage bottleneck = null;
+    for( Stage stage : stages ) {
+      if( bottleneck == null || stage.getBusyNanos() > bottleneck.getBusyNanos() ) {
+        bottleneck = stage;
+      }
+    }
+    return bottleneck;
+  }
+
+  /**
+   * Write the throughput of all stages to the log
+   *
+   * @param log the log
+   */
+  public void log(Log log) {
+    for( Stage stage : stages ) {
+      log.info(stage.toString());
+    }
+    Stage bottleneck = getBottleneck();
+    if( bottleneck != null ) {
+      log.info("Pipeline bottleneck: " + bottleneck.getName());
+    }
+  }
+
+  Stage addStage(String name) {
+    Stage stage = new Stage(name);
+    stages.add(stage);
+    return stage;
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Counters of a single stage. Updated by the thread of the stage only.
+   */
+  public static class Stage {
+
+    private final String name;
+    private long records;
+    private long batches;
+    private long bytes;
+    private long busyNanos;
+    private long waitNanos;
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return the name of the stage
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return number of samples processed by the stage
+     */
+    public long getRecords() {
+      return records;
+    }
+
+    /**
+     * @return number of batches of samples handed over to or taken from a queue
+     */
+    public long getBatches() {
+      return batches;
+    }
+
+    /**
+     * @return number of bytes read by the stage, 0 if the stage doesn't read any input
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return time in ns the stage was working
+     */
+    public long getBusyNanos() {
+      return busyNanos;
+    }
+
+    /**
+     * @return time in ns the stage was blocked by a full (producer) or an empty (consumer) queue
+     */
+    public long getWaitNanos() {
+      return waitNanos;
+    }
+
+    /**
+     * @return samples per second of busy time
+     */
+    public long getRecordsPerSecond() {
+      return busyNanos == 0 ? 0 : (long) (records * NANOS_PER_SECOND / busyNanos);
+    }
+
+    void addRecords(long count) {
+      records += count;
+    }
+
+    void addBatch() {
+      batches++;
+    }
+
+    void setBytes(long bytes) {
+      this.bytes = bytes;
+    }
+
+    void addBusyNanos(long nanos) {
+      busyNanos += nanos;
+    }
+
+    void addWaitNanos(long nanos) {
+      waitNanos += nanos;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder();
+      result.append(name).append(": ").append(records).append(" samples in ").append(batches).append(" batches, ")
+            .append(getRecordsPerSecond()).append(" samples/s");
+      if( bytes > 0 ) {
+        result.append(", ").append(bytes).append(" bytes");
+      }
+      result.append(", busy ").append(busyNanos / NANOS_PER_MILLI).append(" ms")
+            .append(", waiting ").append(waitNanos / NANOS_PER_MILLI).append(" ms");
+      return result.toString();
+    }
+  }
+
+}
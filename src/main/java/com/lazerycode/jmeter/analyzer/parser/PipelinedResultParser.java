@@ -0,0 +1,413 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads a result file on the calling thread and aggregates the samples on worker threads.
+ *
+ * The reading stage (decompression and scanning) resolves the {@link GroupKeyResolver#getKey key} of every sample
+ * and hands batches of samples to the worker responsible for the key. Every worker owns the
+ * {@link AggregatedResponses} of its keys, so workers don't share any state. The queues between the stages are
+ * bounded, a reading stage that is faster than the workers is blocked.
+ *
+ * The results are the same as aggregating all samples on a single thread.
+ */
+class PipelinedResultParser {
+
+  /**
+   * number of parsed items after which a log message is written
+   */
+  private static final int LOGMESSAGE_ITEMS = 10000;
+
+  /**
+   * Number of samples handed to a worker at once
+   */
+  static final int BATCH_SIZE = 1024;
+
+  /**
+   * Number of batches that may be queued for a single worker
+   */
+  static final int QUEUE_CAPACITY = 16;
+
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  private final int workers;
+  private final Log log;
+  private final PipelineStatistics statistics = new PipelineStatistics();
+
+  /**
+   * Constructor
+   *
+   * @param workers number of aggregating threads
+   * @param log the log for progress messages
+   */
+  public PipelinedResultParser(int workers, Log log) {
+    this.workers = workers;
+    this.log = log;
+  }
+
+  /**
+   * @return the throughput of all stages
+   */
+  public PipelineStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Parses a JMeter Result file of the given format and provides a {@link AggregatedResponses} for every
+   * {@link GroupKeyResolver#getKey key}
+   *
+   * @param in the JMeter result file
+   * @param format the format of the result file
+   *
+   * @return The AggregatedResponses for every key
+   *
+   * @throws IOException If reading fails
+   * @throws SAXException  If parsing fails
+   */
+  public Map<String, AggregatedResponses> aggregate(InputStream in, ResultFormat format) throws IOException, SAXException {
+
+    PipelineStatistics.Stage readStage = statistics.addStage("read");
+
+    List<Future<ResultAggregator>> results = new ArrayList<Future<ResultAggregator>>();
+    List<BlockingQueue<Batch>> queues = new ArrayList<BlockingQueue<Batch>>();
+
+    LabelDictionary labels = new LabelDictionary();
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      for( int i = 0; i < workers; i++ ) {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+        queues.add(queue);
+        results.add(executor.submit(new Worker(queue, new ResultAggregator(labels, log), statistics.addStage("aggregate-" + (i + 1)))));
+      }
+
+      Dispatcher dispatcher = new Dispatcher(queues, results, readStage, log);
+      CountingInputStream counter = new CountingInputStream(in);
+
+      long start = System.nanoTime();
+      JMeterResultParser.parse(counter, format, dispatcher);
+      dispatcher.close();
+      readStage.addBusyNanos(System.nanoTime() - start - readStage.getWaitNanos());
+      readStage.setBytes(counter.getCount());
+
+      // collect results in order of first appearance
+      List<ResultAggregator> aggregators = new ArrayList<ResultAggregator>();
+      for( Future<ResultAggregator> result : results ) {
+        aggregators.add(get(result));
+      }
+
+      Map<String, AggregatedResponses> aggregatedResponses = new LinkedHashMap<String, AggregatedResponses>();
+      for( Map.Entry<String, Integer> entry : dispatcher.getShards().entrySet() ) {
+        AggregatedResponses responses = aggregators.get(entry.getValue()).getResults().get(entry.getKey());
+        responses.finish();
+        aggregatedResponses.put(entry.getKey(), responses);
+      }
+
+      log.info("Finished Parsing "+readStage.getRecords()+" entries.");
+      labels.log(log);
+      statistics.log(log);
+
+      return aggregatedResponses;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  //====================================================================================================================
+
+
+  /**
+   * Wait for the result of a worker, exceptions of the worker are rethrown
+   */
+  private static ResultAggregator get(Future<ResultAggregator> result) throws IOException {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while aggregating");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      if( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException("Aggregation failed", cause);
+    }
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Batch of samples, stored column by column
+   */
+  private static final class Batch {
+
+    /**
+     * Marks the end of the input
+     */
+    static final Batch END = new Batch(0);
+
+    final String[] keys;
+    final String[] uris;
+    final long[] timestamps;
+    final long[] bytes;
+    final long[] durations;
+    final long[] activeThreads;
+    final int[] responseCodes;
+    final boolean[] success;
+    int size;
+
+    Batch(int capacity) {
+      keys = new String[capacity];
+      uris = new String[capacity];
+      timestamps = new long[capacity];
+      bytes = new long[capacity];
+      durations = new long[capacity];
+      activeThreads = new long[capacity];
+      responseCodes = new int[capacity];
+      success = new boolean[capacity];
+    }
+
+    boolean isFull() {
+      return size == keys.length;
+    }
+  }
+
+  /**
+   * First stage: resolves keys and distributes the samples to the workers
+   */
+  private static final class Dispatcher implements SampleListener {
+
+    private final GroupKeyResolver keyResolver = new GroupKeyResolver(ENVIRONMENT.getRequestGroups());
+    private final List<BlockingQueue<Batch>> queues;
+    private final List<Future<ResultAggregator>> results;
+    private final PipelineStatistics.Stage stage;
+    private final Log log;
+
+    // worker for every key, in order of first appearance
+    private final Map<String, Integer> shards = new LinkedHashMap<String, Integer>();
+    private final Batch[] batches;
+
+    Dispatcher(List<BlockingQueue<Batch>> queues, List<Future<ResultAggregator>> results, PipelineStatistics.Stage stage,
+               Log log) {
+      this.queues = queues;
+      this.results = results;
+      this.stage = stage;
+      this.log = log;
+      this.batches = new Batch[queues.size()];
+      for( int i = 0; i < batches.length; i++ ) {
+        batches[i] = new Batch(BATCH_SIZE);
+      }
+    }
+
+    @Override
+    public boolean isGroupedByThreadName() {
+      return keyResolver.isGroupedByThreadName();
+    }
+
+    @Override
+    public Log getLog() {
+      return log;
+    }
+
+    @Override
+    public void add(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+                    int responseCode, boolean success) {
+
+      String key = keyResolver.getKey(uri, threadName);
+
+      Integer shard = shards.get(key);
+      if( shard == null ) {
+        shard = (key.hashCode() & Integer.MAX_VALUE) % batches.length;
+        shards.put(key, shard);
+      }
+
+      Batch batch = batches[shard];
+      int i = batch.size++;
+      batch.keys[i] = key;
+      batch.uris[i] = uri;
+      batch.timestamps[i] = timestamp;
+      batch.bytes[i] = bytes;
+      batch.durations[i] = duration;
+      batch.activeThreads[i] = activeThreads;
+      batch.responseCodes[i] = responseCode;
+      batch.success[i] = success;
+
+      if( batch.isFull() ) {
+        send(shard, batch);
+        batches[shard] = new Batch(BATCH_SIZE);
+      }
+
+      stage.addRecords(1);
+
+      // write a log message every 10000 entries
+      if( stage.getRecords() % LOGMESSAGE_ITEMS == 0 ) {
+        log.info("Parsed "+stage.getRecords()+" entries ...");
+      }
+    }
+
+    /**
+     * @return the worker for every key, in order of first appearance
+     */
+    Map<String, Integer> getShards() {
+      return shards;
+    }
+
+    /**
+     * Send the remaining samples and signal the end of the input to all workers
+     */
+    void close() {
+      for( int shard = 0; shard < batches.length; shard++ ) {
+        if( batches[shard].size > 0 ) {
+          send(shard, batches[shard]);
+        }
+        send(shard, Batch.END);
+      }
+    }
+
+    /**
+     * Hand a batch to a worker. Blocks while the queue of the worker is full.
+     */
+    private void send(int shard, Batch batch) {
+
+      BlockingQueue<Batch> queue = queues.get(shard);
+      long start = System.nanoTime();
+      try {
+        while( !queue.offer(batch, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) ) {
+          if( results.get(shard).isDone() ) {
+            // the worker has failed, let the caller know why
+            try {
+              get(results.get(shard));
+            }
+            catch (IOException e) {
+              throw new IllegalStateException(e);
+            }
+            throw new IllegalStateException("Aggregation stopped unexpectedly");
+          }
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while parsing", e);
+      }
+      finally {
+        stage.addWaitNanos(System.nanoTime() - start);
+      }
+      if( batch != Batch.END ) {
+        stage.addBatch();
+      }
+    }
+  }
+
+  /**
+   * Second stage: aggregates the samples of a part of the keys
+   */
+  private static final class Worker implements Callable<ResultAggregator> {
+
+    private final BlockingQueue<Batch> queue;
+    private final ResultAggregator aggregator;
+    private final PipelineStatistics.Stage stage;
+
+    Worker(BlockingQueue<Batch> queue, ResultAggregator aggregator, PipelineStatistics.Stage stage) {
+      this.queue = queue;
+      this.aggregator = aggregator;
+      this.stage = stage;
+    }
+
+    @Override
+    public ResultAggregator call() throws InterruptedException {
+      while( true ) {
+
+        long start = System.nanoTime();
+        Batch batch = queue.take();
+        long taken = System.nanoTime();
+        stage.addWaitNanos(taken - start);
+
+        if( batch == Batch.END ) {
+          return aggregator;
+        }
+
+        for( int i = 0; i < batch.size; i++ ) {
+          aggregator.aggregate(batch.keys[i], batch.uris[i], batch.timestamps[i], batch.bytes[i], batch.durations[i],
+                               batch.activeThreads[i], batch.responseCodes[i], batch.success[i]);
+        }
+
+        stage.addRecords(batch.size);
+        stage.addBatch();
+        stage.addBusyNanos(System.nanoTime() - taken);
+      }
+    }
+  }
+
+  /**
+   * Counts the bytes read by the first stage
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if( result >= 0 ) {
+        count++;
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = super.read(b, off, len);
+      if( result > 0 ) {
+        count += result;
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long result = super.skip(n);
+      count += result;
+      return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+}
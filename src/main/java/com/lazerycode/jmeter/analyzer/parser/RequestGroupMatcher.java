@@ -0,0 +1,320 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.lazerycode.jmeter.analyzer.RequestGroup;
+
+/**
+ * Finds the first {@link RequestGroup} whose ANT pattern matches a sample label.
+ *
+ * The patterns are compiled once: they are split into segments, and segments with wildcards are turned into regular
+ * expressions. Patterns are indexed by their first segment if it doesn't contain any wildcard, so that only the
+ * patterns that may match are tried. Matching is the same as {@link org.springframework.util.AntPathMatcher#match}
+ * of Spring 3.2 with the default settings ("/" as separator, trimmed segments).
+ * Thread safe.
+ */
+class RequestGroupMatcher {
+
+  private static final String SEPARATOR = "/";
+  private static final String DOUBLE_WILDCARD = "**";
+  private static final String WILDCARD = "*";
+
+  /**
+   * wildcards within a segment, as used by Spring
+   */
+  private static final Pattern GLOB_PATTERN = Pattern.compile("\\?|\\*|\\{((?:\\{[^/]+?\\}|[^/{}]|\\\\[{}])+?)\\}");
+  private static final String DEFAULT_VARIABLE_PATTERN = "(.*)";
+
+  private static final CompiledPattern[] NONE = new CompiledPattern[0];
+
+  // patterns to try for a label by its first segment, in configuration order
+  private final Map<String, CompiledPattern[]> patternsByFirstSegment = new LinkedHashMap<String, CompiledPattern[]>();
+
+  // patterns to try for labels whose first segment is not in patternsByFirstSegment
+  private final CompiledPattern[] otherPatterns;
+
+  /**
+   * Constructor
+   *
+   * @param requestGroups the request groups in order of precedence
+   */
+  public RequestGroupMatcher(List<RequestGroup> requestGroups) {
+
+    List<CompiledPattern> patterns = new ArrayList<CompiledPattern>();
+    List<CompiledPattern> others = new ArrayList<CompiledPattern>();
+    for( RequestGroup requestGroup : requestGroups ) {
+      CompiledPattern pattern = new CompiledPattern(requestGroup.getName(), requestGroup.getPattern());
+      patterns.add(pattern);
+      if( pattern.getLiteralFirstSegment() == null ) {
+        others.add(pattern);
+      }
+    }
+    this.otherPatterns = others.toArray(NONE);
+
+    for( CompiledPattern pattern : patterns ) {
+      String first = pattern.getLiteralFirstSegment();
+      if( first != null && !patternsByFirstSegment.containsKey(first) ) {
+        // patterns starting with this segment and patterns starting with a wildcard, keeping the order
+        List<CompiledPattern> candidates = new ArrayList<CompiledPattern>();
+        for( CompiledPattern candidate : patterns ) {
+          if( candidate.getLiteralFirstSegment() == null || first.equals(candidate.getLiteralFirstSegment()) ) {
+            candidates.add(candidate);
+          }
+        }
+        patternsByFirstSegment.put(first, candidates.toArray(NONE));
+      }
+    }
+  }
+
+  /**
+   * @param uri the sample label
+   *
+   * @return name of the first request group whose pattern matches or null if none matches
+   */
+  public String getGroupName(String uri) {
+
+    String[] segments = tokenize(uri);
+
+    CompiledPattern[] candidates = segments.length > 0 ? patternsByFirstSegment.get(segments[0]) : null;
+    if( candidates == null ) {
+      candidates = otherPatterns;
+    }
+
+    boolean absolute = uri.startsWith(SEPARATOR);
+    boolean trailingSeparator = uri.endsWith(SEPARATOR);
+    for( CompiledPattern pattern : candidates ) {
+      if( pattern.matches(segments, absolute, trailingSeparator) ) {
+        return pattern.getName();
+      }
+    }
+    return null;
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Split a path into trimmed, non-empty segments
+   */
+  private static String[] tokenize(String path) {
+    StringTokenizer tokenizer = new StringTokenizer(path, SEPARATOR);
+    List<String> tokens = new ArrayList<String>();
+    while( tokenizer.hasMoreTokens() ) {
+      String token = tokenizer.nextToken().trim();
+      if( token.length() > 0 ) {
+        tokens.add(token);
+      }
+    }
+    return tokens.toArray(new String[tokens.size()]);
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * A single segment of a pattern
+   */
+  private static final class Segment {
+
+    final String value;
+    final boolean doubleWildcard;
+    final boolean wildcard;
+
+    // null for segments without wildcards
+    final Pattern regex;
+
+    Segment(String value) {
+      this.value = value;
+      this.doubleWildcard = DOUBLE_WILDCARD.equals(value);
+      this.wildcard = WILDCARD.equals(value);
+      this.regex = value.indexOf('*') < 0 && value.indexOf('?') < 0 && value.indexOf('{') < 0 ? null : compile(value);
+    }
+
+    boolean matches(String segment) {
+      return regex == null ? value.equals(segment) : regex.matcher(segment).matches();
+    }
+
+    /**
+     * Translate wildcards and URI template variables into a regular expression
+     */
+    private static Pattern compile(String value) {
+      StringBuilder regex = new StringBuilder();
+      Matcher matcher = GLOB_PATTERN.matcher(value);
+      int end = 0;
+      while( matcher.find() ) {
+        regex.append(quote(value, end, matcher.start()));
+        String match = matcher.group();
+        if( "?".equals(match) ) {
+          regex.append('.');
+        }
+        else if( "*".equals(match) ) {
+          regex.append(".*");
+        }
+        else if( match.startsWith("{") && match.endsWith("}") ) {
+          int colon = match.indexOf(':');
+          if( colon == -1 ) {
+            regex.append(DEFAULT_VARIABLE_PATTERN);
+          }
+          else {
+            regex.append('(').append(match.substring(colon + 1, match.length() - 1)).append(')');
+          }
+        }
+        end = matcher.end();
+      }
+      regex.append(quote(value, end, value.length()));
+      return Pattern.compile(regex.toString());
+    }
+
+    private static String quote(String s, int start, int end) {
+      return start == end ? "" : Pattern.quote(s.substring(start, end));
+    }
+  }
+
+  /**
+   * A pattern split into segments
+   */
+  private static final class CompiledPattern {
+
+    private final String name;
+    private final boolean absolute;
+    private final boolean trailingSeparator;
+    private final Segment[] segments;
+
+    CompiledPattern(String name, String pattern) {
+      this.name = name;
+      this.absolute = pattern.startsWith(SEPARATOR);
+      this.trailingSeparator = pattern.endsWith(SEPARATOR);
+      String[] tokens = tokenize(pattern);
+      this.segments = new Segment[tokens.length];
+      for( int i = 0; i < tokens.length; i++ ) {
+        segments[i] = new Segment(tokens[i]);
+      }
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /**
+     * @return the first segment if it must be equal to the first segment of a matching path, null otherwise
+     */
+    String getLiteralFirstSegment() {
+      return segments.length > 0 && segments[0].regex == null && !segments[0].doubleWildcard ? segments[0].value : null;
+    }
+
+    /**
+     * Full match of a tokenized path, same algorithm as AntPathMatcher
+     */
+    boolean matches(String[] path, boolean pathAbsolute, boolean pathTrailingSeparator) {
+
+      if( absolute != pathAbsolute ) {
+        return false;
+      }
+
+      int patternStart = 0;
+      int patternEnd = segments.length - 1;
+      int pathStart = 0;
+      int pathEnd = path.length - 1;
+
+      // match all segments up to the first **
+      while( patternStart <= patternEnd && pathStart <= pathEnd ) {
+        Segment segment = segments[patternStart];
+        if( segment.doubleWildcard ) {
+          break;
+        }
+        if( !segment.matches(path[pathStart]) ) {
+          return false;
+        }
+        patternStart++;
+        pathStart++;
+      }
+
+      if( pathStart > pathEnd ) {
+        // path is exhausted, only match if the rest of the pattern is * or **
+        if( patternStart > patternEnd ) {
+          return trailingSeparator == pathTrailingSeparator;
+        }
+        if( patternStart == patternEnd && segments[patternStart].wildcard && pathTrailingSeparator ) {
+          return true;
+        }
+        return onlyDoubleWildcards(patternStart, patternEnd);
+      }
+      else if( patternStart > patternEnd ) {
+        // path is not exhausted, but the pattern is
+        return false;
+      }
+
+      // match all segments after the last **
+      while( patternStart <= patternEnd && pathStart <= pathEnd ) {
+        Segment segment = segments[patternEnd];
+        if( segment.doubleWildcard ) {
+          break;
+        }
+        if( !segment.matches(path[pathEnd]) ) {
+          return false;
+        }
+        patternEnd--;
+        pathEnd--;
+      }
+
+      if( pathStart > pathEnd ) {
+        return onlyDoubleWildcards(patternStart, patternEnd);
+      }
+
+      // find the segments between two ** in the remaining path
+      while( patternStart != patternEnd && pathStart <= pathEnd ) {
+
+        int next = -1;
+        for( int i = patternStart + 1; i <= patternEnd; i++ ) {
+          if( segments[i].doubleWildcard ) {
+            next = i;
+            break;
+          }
+        }
+        if( next == patternStart + 1 ) {
+          // '**/**' situation, skip one
+          patternStart++;
+          continue;
+        }
+
+        int patternLength = next - patternStart - 1;
+        int pathLength = pathEnd - pathStart + 1;
+        int found = -1;
+
+        candidates:
+        for( int i = 0; i <= pathLength - patternLength; i++ ) {
+          for( int j = 0; j < patternLength; j++ ) {
+            if( !segments[patternStart + j + 1].matches(path[pathStart + i + j]) ) {
+              continue candidates;
+            }
+          }
+          found = pathStart + i;
+          break;
+        }
+
+        if( found == -1 ) {
+          return false;
+        }
+
+        patternStart = next;
+        pathStart = found + patternLength;
+      }
+
+      return onlyDoubleWildcards(patternStart, patternEnd);
+    }
+
+    private boolean onlyDoubleWildcards(int start, int end) {
+      for( int i = start; i <= end; i++ ) {
+        if( !segments[i].doubleWildcard ) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,552 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
+import static com.lazerycode.jmeter.analyzer.parser.StatusCodes.HTTPCODE_CONNECTIONERROR;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.lazerycode.jmeter.analyzer.RequestGroup;
+import com.lazerycode.jmeter.analyzer.statistics.SampleRetention;
+import com.lazerycode.jmeter.analyzer.statistics.Samples;
+import com.lazerycode.jmeter.analyzer.statistics.Throughput;
+
+/**
+ * Aggregates single samples into {@link AggregatedResponses}.
+ * Shared by all result file formats so that every format yields the same results.
+ */
+class ResultAggregator implements SampleListener {
+
+  /**
+   * number of parsed items after which a log message is written
+   */
+  private static final int LOGMESSAGE_ITEMS = 10000;
+
+  private final int maxSamples;
+  private final int histogramDigits;
+  private final SampleRetention retention;
+  private final long throughputResolution;
+  private final List<RequestGroup> pathPatterns;
+  private final GroupKeyResolver keyResolver;
+  private final boolean sizeByUris;
+  private final boolean durationByUris;
+  private final LabelDictionary labels;
+
+  // null for the log of the Environment
+  private final Log log;
+
+  // true, if this aggregator collects the samples of a part of a result file only
+  private final boolean partial;
+
+  private long parsedCount = 0;
+
+  private Map<String, AggregatedResponses> results = new LinkedHashMap<String, AggregatedResponses>();
+
+  /**
+   * Constructor.
+   * Fields configured from Environment
+   */
+  public ResultAggregator() {
+    this(new LabelDictionary());
+  }
+
+  /**
+   * Constructor.
+   * Fields configured from Environment
+   *
+   * @param labels dictionary for the uris, may be shared with other aggregators
+   */
+  public ResultAggregator(LabelDictionary labels) {
+    this(labels, null);
+  }
+
+  /**
+   * Constructor.
+   * Fields configured from Environment
+   *
+   * @param labels dictionary for the uris, may be shared with other aggregators
+   * @param log the log for progress messages, null for the log of the Environment
+   */
+  public ResultAggregator(LabelDictionary labels, Log log) {
+    this(ENVIRONMENT.getMaxSamples(),
+         ENVIRONMENT.getHistogramSignificantDigits(),
+         ENVIRONMENT.getSampleRetention(),
+         ENVIRONMENT.getThroughputResolution(),
+         ENVIRONMENT.getRequestGroups(),
+         ENVIRONMENT.isGenerateDetails(),
+         ENVIRONMENT.isGenerateDetails(),
+         false,
+         labels,
+         log);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSamples The maximum number of samples that be stored internally for every metric
+   * @param pathPatterns A number of ANT patterns. If set then the resulting {@link AggregatedResponses} will be
+   *        grouped by uris matching these patterns. If not set then the threadgroup is used
+   * @param sizeByUris true, if the response size shall be counted for each uri separately
+   * @param durationByUris true, if the response duration shall be counted for each uri separately
+   */
+  public ResultAggregator(int maxSamples, List<RequestGroup> pathPatterns, boolean sizeByUris, boolean durationByUris) {
+    this(maxSamples, 0, SampleRetention.AVERAGE, Throughput.DEFAULT_RESOLUTION, pathPatterns, sizeByUris,
+         durationByUris, false, new LabelDictionary(), null);
+  }
+
+  private ResultAggregator(int maxSamples, int histogramDigits, SampleRetention retention, long throughputResolution,
+                           List<RequestGroup> pathPatterns, boolean sizeByUris, boolean durationByUris, boolean partial,
+                           LabelDictionary labels, Log log) {
+    this.maxSamples = maxSamples;
+    this.histogramDigits = histogramDigits;
+    this.retention = retention;
+    this.throughputResolution = throughputResolution;
+    this.pathPatterns = pathPatterns;
+    this.keyResolver = new GroupKeyResolver(pathPatterns);
+    this.sizeByUris = sizeByUris;
+    this.durationByUris = durationByUris;
+    this.partial = partial;
+    this.labels = labels;
+    this.log = log;
+  }
+
+  /**
+   * Creates an aggregator with the same configuration for a part of the result file.
+   * All samples are stored uncompressed, so that the partial results can be {@link #append(ResultAggregator) appended}
+   * to this aggregator without changing the results.
+   *
+   * @return the new aggregator
+   */
+  public ResultAggregator newPartial() {
+    return new ResultAggregator(-1, histogramDigits, retention, throughputResolution, pathPatterns, sizeByUris,
+                                durationByUris, true, labels, log);
+  }
+
+  /**
+   * @return the dictionary for the uris
+   */
+  public LabelDictionary getLabels() {
+    return labels;
+  }
+
+  /**
+   * @return the log for progress messages
+   */
+  @Override
+  public Log getLog() {
+    return log != null ? log : ENVIRONMENT.getLog();
+  }
+
+  /**
+   * @return a mapping from identifier to aggregatedResult
+   */
+  public Map<String, AggregatedResponses> getResults() {
+    return results;
+  }
+
+  @Override
+  public boolean isGroupedByThreadName() {
+    return keyResolver.isGroupedByThreadName();
+  }
+
+  @Override
+  public void add(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+                  int responseCode, boolean success) {
+
+    aggregate(keyResolver.getKey(uri, threadName), uri, timestamp, bytes, duration, activeThreads, responseCode, success);
+
+    // write a log message every 10000 entries
+    if( !partial && parsedCount % LOGMESSAGE_ITEMS == 0 ) {
+      getLog().info("Parsed "+parsedCount+" entries ...");
+    }
+  }
+
+  /**
+   * Add a single sample whose key is already known
+   *
+   * @param key the {@link GroupKeyResolver#getKey(String, String) key} of the sample
+   * @param uri sample label
+   * @param timestamp sample timestamp
+   * @param bytes sample bytes
+   * @param duration sample duration
+   * @param activeThreads number of active threads in all groups
+   * @param responseCode sample responseCode
+   * @param success sample success
+   */
+  public void aggregate(String key, String uri, long timestamp, long bytes, long duration, long activeThreads,
+                  int responseCode, boolean success) {
+
+    // --- create / provide result container
+    AggregatedResponses resultContainer = getResult(key);
+
+    // ==== add data to the resultContainer
+    addData(resultContainer, uri, timestamp, bytes, duration, activeThreads, responseCode, success);
+
+    parsedCount++;
+  }
+
+  /**
+   * @return number of samples added to this aggregator
+   */
+  public long getParsedCount() {
+    return parsedCount;
+  }
+
+  /**
+   * Add the results of a {@link #newPartial() partial aggregator}, as if its samples had been added to this
+   * aggregator after all samples that have already been added.
+   *
+   * @param other the partial aggregator, must not be used afterwards
+   */
+  public void append(ResultAggregator other) {
+
+    if( !other.partial || other.labels != labels ) {
+      throw new IllegalArgumentException("Only partial results of this aggregator can be appended");
+    }
+
+    for( Map.Entry<String, AggregatedResponses> entry : other.results.entrySet() ) {
+
+      AggregatedResponses resultContainer = getResult(entry.getKey());
+      AggregatedResponses otherContainer = entry.getValue();
+
+      resultContainer.getStatusCodes().add(otherContainer.getStatusCodes());
+
+      for( Map.Entry<Integer, BitSet> uris : otherContainer.getUriIdsByStatusCode().entrySet() ) {
+        getUriIds(resultContainer.getUriIdsByStatusCode(), uris.getKey()).or(uris.getValue());
+      }
+
+      resultContainer.getActiveThreads().append(otherContainer.getActiveThreads());
+      resultContainer.getThroughput().addAll(otherContainer.getThroughput());
+      resultContainer.getDuration().append(otherContainer.getDuration());
+      resultContainer.getSize().append(otherContainer.getSize());
+
+      append(resultContainer.getSizeByUriId(), otherContainer.getSizeByUriId());
+      append(resultContainer.getDurationByUriId(), otherContainer.getDurationByUriId());
+
+      if( resultContainer.getStart() == 0 ) {
+        resultContainer.setStart(otherContainer.getStart());
+      }
+      resultContainer.setEnd(otherContainer.getEnd());
+    }
+
+    long previousCount = parsedCount;
+    parsedCount += other.parsedCount;
+
+    if( parsedCount / LOGMESSAGE_ITEMS > previousCount / LOGMESSAGE_ITEMS ) {
+      getLog().info("Parsed "+parsedCount+" entries ...");
+    }
+  }
+
+  /**
+   * Merge the results of another {@link #newPartial() partial aggregator} into this partial aggregator, e.g. the
+   * results of another load generator of a distributed test. The merged results are ordered by their start.
+   * See {@link AggregatedResponses#merge(AggregatedResponses)}. The merged results can be
+   * {@link #append(ResultAggregator) appended} to the aggregator the partial aggregators have been created by.
+   *
+   * @param other the partial aggregator, must not be used afterwards
+   */
+  public void merge(ResultAggregator other) {
+
+    if( !partial || !other.partial || other.labels != labels ) {
+      throw new IllegalArgumentException("Only partial results of the same aggregator can be merged");
+    }
+
+    for( Map.Entry<String, AggregatedResponses> entry : other.results.entrySet() ) {
+      AggregatedResponses resultContainer = results.get(entry.getKey());
+      if( resultContainer == null ) {
+        results.put(entry.getKey(), entry.getValue());
+      }
+      else {
+        resultContainer.merge(entry.getValue());
+      }
+    }
+
+    // in order of first appearance of the keys in the merged samples, the sort is stable
+    List<Map.Entry<String, AggregatedResponses>> entries = new ArrayList<Map.Entry<String, AggregatedResponses>>(results.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, AggregatedResponses>>() {
+      @Override
+      public int compare(Map.Entry<String, AggregatedResponses> o1, Map.Entry<String, AggregatedResponses> o2) {
+        long start1 = o1.getValue().getStart();
+        long start2 = o2.getValue().getStart();
+        return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
+      }
+    });
+    results = new LinkedHashMap<String, AggregatedResponses>();
+    for( Map.Entry<String, AggregatedResponses> entry : entries ) {
+      results.put(entry.getKey(), entry.getValue());
+    }
+
+    parsedCount += other.parsedCount;
+  }
+
+  /**
+   * Continue aggregating from results that have been restored from a {@link Checkpoint}.
+   * The results must use the dictionary of this aggregator.
+   *
+   * @param results the unfinished results
+   * @param parsedCount number of samples added to the results
+   */
+  public void restore(Map<String, AggregatedResponses> results, long parsedCount) {
+    for( AggregatedResponses responses : results.values() ) {
+      if( responses.getLabels() != labels ) {
+        throw new IllegalArgumentException("Results must use the label dictionary of this aggregator");
+      }
+    }
+    this.results = new LinkedHashMap<String, AggregatedResponses>(results);
+    this.parsedCount = parsedCount;
+  }
+
+  /**
+   * Creates finished copies of the results aggregated so far, e.g. to report intermediate results.
+   * This aggregator may aggregate more samples.
+   *
+   * @return a mapping from identifier to a copy of the aggregatedResult
+   */
+  public Map<String, AggregatedResponses> snapshot() {
+    Map<String, AggregatedResponses> snapshot = new LinkedHashMap<String, AggregatedResponses>();
+    for( Map.Entry<String, AggregatedResponses> entry : results.entrySet() ) {
+      snapshot.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshot;
+  }
+
+  /**
+   * Mark collecting of samples as "finished"
+   */
+  public void finish() {
+    //finish collection of responses/samples
+    for( Map.Entry<String, AggregatedResponses> entry : results.entrySet() ) {
+      entry.getValue().finish();
+      long resolution = entry.getValue().getThroughput().getResolution();
+      if( resolution > throughputResolution ) {
+        getLog().warn("Throughput of '" + entry.getKey() + "' is counted per " + resolution + "ms instead of per " +
+                      throughputResolution + "ms, because its requests span more than " +
+                      Throughput.DEFAULT_MAX_INTERVALS + " intervals. Check for stray timestamps.");
+      }
+    }
+    getLog().info("Finished Parsing "+parsedCount+" entries.");
+    labels.log(getLog());
+  }
+
+  /**
+   * Get the response code from its String representation.
+   * Response code in <httpSample> element may not be an Integer, this is a safeguard against that.
+   *
+   * @param responseCodeString the response code
+   * @param log the log for the warning if the response code is not a number
+   * @return a valid response code
+   */
+  static int parseResponseCode(String responseCodeString, Log log) {
+
+    int responseCode;
+    try {
+
+      responseCode = Integer.valueOf(responseCodeString);
+    }
+    catch (Exception e) {
+      log.warn("Error parsing response code '"+responseCodeString+"'");
+      responseCode = HTTPCODE_CONNECTIONERROR;
+    }
+
+    return responseCode;
+  }
+
+  /**
+   * Parse a numeric value
+   *
+   * @param valueString the value, may be null
+   * @param log the log for the warning if the value is not a number
+   * @return the value or -1 if valueString is null or not a number
+   */
+  static long parseLong(String valueString, Log log) {
+    long result = -1;
+    if (null != valueString) {
+      try {
+        result = Long.parseLong(valueString);
+      } catch (Exception e) {
+        log.warn("Error parsing bytes: '" + valueString + "'");
+      }
+    }
+    return result;
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Add data from httpSample to {@link AggregatedResponses the resultContainer}
+   *
+   * @param resultContainer container to add data to
+   * @param uri uri identifying the resultContainer
+   * @param timestamp httpSample timestamp
+   * @param bytes httpSample bytes
+   * @param duration httpSample duration
+   * @param responseCode httpSample responseCode
+   * @param success httpSample success
+   */
+  private void addData(AggregatedResponses resultContainer, String uri,
+                       long timestamp, long bytes, long duration, long activeThreads, int responseCode, boolean success) {
+
+
+    StatusCodes statusCodes = resultContainer.getStatusCodes();
+    statusCodes.increment(responseCode);
+
+    Integer uriId = labels.getId(uri);
+    getUriIds(resultContainer.getUriIdsByStatusCode(), responseCode).set(uriId);
+
+    Samples activeThreadResult = resultContainer.getActiveThreads();
+    activeThreadResult.addSample(timestamp + duration, activeThreads);
+    // counted when the request has ended, like the active threads
+    resultContainer.getThroughput().add(timestamp + duration, success);
+
+    // -- register data
+    Samples requestResult = resultContainer.getDuration();
+    Samples bytesResult = resultContainer.getSize();
+    if( !success ) {
+      // || bytes == -1 || duration == -1 || responseCode >= HTTPCODE_ERROR || responseCode == HTTPCODE_CONNECTIONERROR ) {
+      // httpSample is not okay
+      // 4xx (client error) or 5xx (server error)
+      // are ignored, because they often are wanted as test results
+
+      requestResult.addError(timestamp);
+      bytesResult.addError(timestamp);
+    }
+    else {
+
+      // httpSample is okay
+      requestResult.addSample(timestamp, duration);
+      bytesResult.addSample(timestamp, bytes);
+    }
+
+
+    Map<Integer, Samples> sizeByUriMapping = resultContainer.getSizeByUriId();
+    Map<Integer, Samples> durationByUriMapping = resultContainer.getDurationByUriId();
+
+    add(sizeByUriMapping, uriId, timestamp, bytes, success);
+    add(durationByUriMapping, uriId, timestamp, duration, success);
+
+    //set start and end time
+    if( resultContainer.getStart() == 0 ) {
+      resultContainer.setStart(timestamp);
+    }
+    resultContainer.setEnd(timestamp);
+
+  }
+
+  /**
+   * Create / provide {@link AggregatedResponses result container}
+   *
+   * @param key identifier
+   *
+   * @return the aggregated response matching the key
+   */
+  private AggregatedResponses getResult(String key) {
+
+    AggregatedResponses resultContainer = results.get(key);
+    if(resultContainer == null) {
+
+      //initialize new AggregatedResponses
+      resultContainer = new AggregatedResponses();
+      resultContainer.setLabels(labels);
+      resultContainer.setActiveThreads(new Samples(maxSamples, true, histogramDigits, retention));
+      resultContainer.setThroughput(new Throughput(throughputResolution));
+      resultContainer.setDuration(new Samples(maxSamples, true, histogramDigits, retention));
+      resultContainer.setSize(new Samples(maxSamples, false, 0, retention));
+      resultContainer.setStatusCodes(new StatusCodes());
+      resultContainer.setUriIdsByStatusCode(new HashMap<Integer, BitSet>());
+      if( sizeByUris ) {
+        resultContainer.setSizeByUriId(new HashMap<Integer, Samples>());
+      }
+      if( durationByUris ) {
+        resultContainer.setDurationByUriId(new HashMap<Integer, Samples>());
+      }
+
+      results.put(key,resultContainer);
+    }
+
+    return resultContainer;
+  }
+
+  /**
+   * Add #timestamp and matching #value to (new) Samples object matching the given #uriId to given Map #uriSamples.
+   * If #success is false, only an error is added to the Sample.
+   *
+   * @param uriSamples map to add the Samples to
+   * @param uriId the id of the uri identifying the Samples object
+   * @param timestamp the timestamp
+   * @param value the value
+   * @param success indicates whether the sample was successful of failed
+   */
+  private void add(Map<Integer, Samples> uriSamples, Integer uriId, long timestamp, long value, boolean success) {
+
+    if( uriSamples != null ) {
+
+      Samples samples = uriSamples.get(uriId);
+
+      if( samples == null ) {
+        // no Sample was previously stored for the uri.
+        samples = newUriSamples();
+
+        uriSamples.put(uriId, samples);
+      }
+
+      if(success) {
+        samples.addSample(timestamp, value);
+      }
+      else {
+        samples.addError(timestamp);
+      }
+    }
+  }
+
+  /**
+   * Append the Samples of a partial result to the Samples for the same uri
+   */
+  private void append(Map<Integer, Samples> uriSamples, Map<Integer, Samples> otherUriSamples) {
+
+    if( uriSamples != null ) {
+
+      for( Map.Entry<Integer, Samples> entry : otherUriSamples.entrySet() ) {
+
+        Samples samples = uriSamples.get(entry.getKey());
+        if( samples == null ) {
+          samples = newUriSamples();
+          uriSamples.put(entry.getKey(), samples);
+        }
+        samples.append(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return a new Samples object for a single uri
+   */
+  private Samples newUriSamples() {
+    // 0 = don't collect samples. This is important, otherwise a OOM may occur if the result set is big.
+    // quantiles are estimated by a sketch of bounded size instead
+    return new Samples(partial ? -1 : 0, Samples.DEFAULT_SKETCH_BINS);
+  }
+
+  /**
+   * @return the (new) set of uri ids for the status code
+   */
+  private BitSet getUriIds(Map<Integer, BitSet> uriByStatusCode, Integer code){
+
+    BitSet uriIds = uriByStatusCode.get(code);
+
+    if(uriIds == null){
+      uriIds = new BitSet();
+      uriByStatusCode.put(code, uriIds);
+    }
+
+    return uriIds;
+  }
+
+}
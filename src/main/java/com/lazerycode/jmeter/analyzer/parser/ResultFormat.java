@@ -0,0 +1,152 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Supported formats of JMeter result files
+ */
+public enum ResultFormat {
+
+  /**
+   * JMeter XML result file (jmeter.save.saveservice.output_format=xml)
+   */
+  XML,
+
+  /**
+   * JMeter CSV result file with a header line (jmeter.save.saveservice.output_format=csv, the JMeter default)
+   */
+  CSV;
+
+  private static final String GZIP_EXTENSION = ".gz";
+  private static final int BYTE_ORDER_MARK = '\uFEFF';
+  private static final int[] UTF8_BYTE_ORDER_MARK = { 0xEF, 0xBB, 0xBF };
+  private static final int SNIFF_LIMIT = 1024;
+
+  /**
+   * Determine the format of a result file from its file name and, if the file name is not conclusive, from its content.
+   * Files ending with ".xml" are considered to be XML, files ending with ".csv" are considered to be CSV.
+   * A trailing ".gz" is ignored. For all other files, content starting with '&lt;' is considered to be XML.
+   *
+   * @param fileName the name of the result file
+   * @param reader reader for the content of the result file. Must support {@link Reader#mark(int)}, will be reset.
+   *
+   * @return the format
+   *
+   * @throws IOException if reading fails
+   */
+  public static ResultFormat detect(String fileName, Reader reader) throws IOException {
+    ResultFormat format = detect(fileName);
+    return format != null ? format : detect(reader);
+  }
+
+  /**
+   * Same as {@link #detect(String, Reader)}, but inspects the raw bytes of the result file.
+   *
+   * @param fileName the name of the result file
+   * @param in the content of the result file. Must support {@link InputStream#mark(int)}, will be reset.
+   *
+   * @return the format
+   *
+   * @throws IOException if reading fails
+   */
+  public static ResultFormat detect(String fileName, InputStream in) throws IOException {
+    ResultFormat format = detect(fileName);
+    return format != null ? format : detect(in);
+  }
+
+  /**
+   * Determine the format of a result from its content. Content starting with '&lt;' is considered to be XML.
+   *
+   * @param reader reader for the content of the result file. Must support {@link Reader#mark(int)}, will be reset.
+   *
+   * @return the format
+   *
+   * @throws IOException if reading fails
+   */
+  public static ResultFormat detect(Reader reader) throws IOException {
+
+    if (!reader.markSupported()) {
+      throw new IllegalArgumentException("Reader must support mark()");
+    }
+
+    reader.mark(SNIFF_LIMIT);
+    try {
+      int c;
+      int read = 0;
+      while ((c = reader.read()) != -1 && read++ < SNIFF_LIMIT) {
+        if (c != BYTE_ORDER_MARK && !Character.isWhitespace(c)) {
+          return c == '<' ? XML : CSV;
+        }
+      }
+      // empty content. Keep the old default.
+      return XML;
+    }
+    finally {
+      reader.reset();
+    }
+  }
+
+  /**
+   * Determine the format of a result from its raw content. Content starting with '&lt;' is considered to be XML.
+   * Only ASCII compatible encodings are recognized, everything else is considered to be XML.
+   *
+   * @param in the content of the result file. Must support {@link InputStream#mark(int)}, will be reset.
+   *
+   * @return the format
+   *
+   * @throws IOException if reading fails
+   */
+  public static ResultFormat detect(InputStream in) throws IOException {
+
+    if (!in.markSupported()) {
+      throw new IllegalArgumentException("InputStream must support mark()");
+    }
+
+    in.mark(SNIFF_LIMIT);
+    try {
+      int b;
+      int read = 0;
+      while ((b = in.read()) != -1 && read++ < SNIFF_LIMIT) {
+        if (read <= UTF8_BYTE_ORDER_MARK.length && b == UTF8_BYTE_ORDER_MARK[read - 1]) {
+          continue;
+        }
+        if (b >= 0x80) {
+          // other byte order marks or non-ASCII content
+          return XML;
+        }
+        if (!Character.isWhitespace(b)) {
+          return b == '<' ? XML : CSV;
+        }
+      }
+      // empty content. Keep the old default.
+      return XML;
+    }
+    finally {
+      in.reset();
+    }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * @return the format for the given file name or null if the file name is not conclusive
+   */
+  private static ResultFormat detect(String fileName) {
+
+    String name = fileName.toLowerCase();
+    if (name.endsWith(GZIP_EXTENSION)) {
+      name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+    }
+
+    if (name.endsWith(".xml")) {
+      return XML;
+    }
+    if (name.endsWith(".csv")) {
+      return CSV;
+    }
+    return null;
+  }
+
+}
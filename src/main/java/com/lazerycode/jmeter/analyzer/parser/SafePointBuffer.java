@@ -0,0 +1,108 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Holds back the samples read since the last safe point and hands them to the listener at the next safe point.
+ * If a result file ends inside a sample, e.g. because JMeter stopped while writing it, the samples of the incomplete
+ * tail are still pending and can be dropped instead of being counted.
+ * Not thread safe.
+ */
+class SafePointBuffer implements SampleListener, CheckpointListener {
+
+  private final SampleListener listener;
+  private final List<Sample> pending = new ArrayList<Sample>();
+
+  private long lastSafePoint;
+
+  /**
+   * Constructor
+   *
+   * @param listener receives the samples at every safe point
+   */
+  SafePointBuffer(SampleListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public boolean isGroupedByThreadName() {
+    return listener.isGroupedByThreadName();
+  }
+
+  @Override
+  public Log getLog() {
+    return listener.getLog();
+  }
+
+  @Override
+  public void add(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+                  int responseCode, boolean success) {
+    pending.add(new Sample(uri, threadName, timestamp, bytes, duration, activeThreads, responseCode, success));
+  }
+
+  /**
+   * @return true, every safe point is used
+   */
+  @Override
+  public boolean isDue() {
+    return true;
+  }
+
+  /**
+   * Hand the pending samples to the listener
+   *
+   * @param position byte offset of the safe point
+   */
+  @Override
+  public void checkpoint(long position) {
+    for( Sample s : pending ) {
+      listener.add(s.uri, s.threadName, s.timestamp, s.bytes, s.duration, s.activeThreads, s.responseCode, s.success);
+    }
+    pending.clear();
+    lastSafePoint = position;
+  }
+
+  /**
+   * @return number of samples read after the last safe point
+   */
+  int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * @return byte offset of the last safe point, 0 if there has been none
+   */
+  long getLastSafePoint() {
+    return lastSafePoint;
+  }
+
+  //====================================================================================================================
+
+  private static final class Sample {
+
+    private final String uri;
+    private final String threadName;
+    private final long timestamp;
+    private final long bytes;
+    private final long duration;
+    private final long activeThreads;
+    private final int responseCode;
+    private final boolean success;
+
+    Sample(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+           int responseCode, boolean success) {
+      this.uri = uri;
+      this.threadName = threadName;
+      this.timestamp = timestamp;
+      this.bytes = bytes;
+      this.duration = duration;
+      this.activeThreads = activeThreads;
+      this.responseCode = responseCode;
+      this.success = success;
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Receives the samples read from a JMeter result file
+ */
+interface SampleListener {
+
+  /**
+   * @return true, if samples are grouped by thread group name and the thread name must be provided
+   */
+  boolean isGroupedByThreadName();
+
+  /**
+   * @return the log for warnings about invalid values of the samples, e.g. of the analyzed file
+   */
+  Log getLog();
+
+  /**
+   * Add a single sample
+   *
+   * @param uri sample label
+   * @param threadName sample thread name, may be null if not {@link #isGroupedByThreadName() needed}
+   * @param timestamp sample timestamp
+   * @param bytes sample bytes
+   * @param duration sample duration
+   * @param activeThreads number of active threads in all groups
+   * @param responseCode sample responseCode
+   * @param success sample success
+   */
+  void add(String uri, String threadName, long timestamp, long bytes, long duration, long activeThreads,
+           int responseCode, boolean success);
+
+}
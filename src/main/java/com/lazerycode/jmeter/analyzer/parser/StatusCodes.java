@@ -1,5 +1,6 @@
 package com.lazerycode.jmeter.analyzer.parser;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -9,7 +10,9 @@ import java.util.Map;
  *
  * @author Arne Franken, Peter Kaul
  */
-public class StatusCodes {
+public class StatusCodes implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   /**
    * Http status code that is the first error status
@@ -39,6 +42,28 @@ public class StatusCodes {
     }
   }
 
+  /**
+   * Add the counts of other status codes
+   *
+   * @param other the status codes to add
+   */
+  void add(StatusCodes other) {
+
+    for( Map.Entry<Integer, Long> entry : other.statusCodes.entrySet() ) {
+      Long result = statusCodes.get(entry.getKey());
+      statusCodes.put(entry.getKey(), result == null ? entry.getValue() : result + entry.getValue());
+    }
+  }
+
+  /**
+   * @return a copy of the current counts
+   */
+  StatusCodes copy() {
+    StatusCodes copy = new StatusCodes();
+    copy.add(this);
+    return copy;
+  }
+
   /**
    * @return a mapping from statusCode to count
    */
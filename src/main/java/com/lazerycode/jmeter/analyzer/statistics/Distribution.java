@@ -0,0 +1,137 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+/**
+ * Sorted distinct values of a {@link Histogram} (or {@link QuantileSketch}) and their cumulative counts.
+ *
+ * Immutable, so that a single instance can be shared by all {@link Quantile quantiles} of a finished {@link Samples}
+ * instance, no matter which grade they have.
+ */
+class Distribution {
+
+  // distinct values in ascending order and the number of values up to and including each value
+  private final long[] values;
+  private final long[] cumulativeCounts;
+  // lowest value counted as each value, null if the values are exact
+  private final long[] lowest;
+  private final long totalCount;
+
+  /**
+   * Sorts the values of the histogram
+   *
+   * @param histogram the values
+   */
+  public Distribution(Histogram histogram) {
+
+    int size = histogram.getDistinctValues();
+    this.values = new long[size];
+    this.cumulativeCounts = new long[size];
+    histogram.toSortedArrays(values, cumulativeCounts);
+
+    long count = 0;
+    for( int j = 0; j < size; j++ ) {
+      count += cumulativeCounts[j];
+      cumulativeCounts[j] = count;
+    }
+    this.totalCount = count;
+
+    if( histogram.getSignificantDigits() > 0 ) {
+      this.lowest = new long[size];
+      for( int j = 0; j < size; j++ ) {
+        lowest[j] = histogram.lowestEquivalentValue(values[j]);
+      }
+    }
+    else {
+      this.lowest = null;
+    }
+  }
+
+  /**
+   * Uses the given values
+   *
+   * @param values distinct values in ascending order
+   * @param counts count of each value, replaced by the cumulative counts
+   * @param lowest lowest value counted as each value, null if the values are exact
+   */
+  Distribution(long[] values, long[] counts, long[] lowest) {
+
+    this.values = values;
+    this.cumulativeCounts = counts;
+    this.lowest = lowest;
+
+    long count = 0;
+    for( int j = 0; j < counts.length; j++ ) {
+      count += counts[j];
+      counts[j] = count;
+    }
+    this.totalCount = count;
+  }
+
+  /**
+   * @return number of distinct values
+   */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * @return total number of values
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @param index index of a distinct value
+   *
+   * @return the distinct value, the highest value of its bucket if bucketed
+   */
+  public long getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * @param index index of a distinct value
+   *
+   * @return the lowest value counted as the distinct value
+   */
+  public long getLowestValue(int index) {
+    return lowest == null ? values[index] : lowest[index];
+  }
+
+  /**
+   * @param index index of a distinct value
+   *
+   * @return number of values up to and including the distinct value
+   */
+  public long getCumulativeCount(int index) {
+    return cumulativeCounts[index];
+  }
+
+  /**
+   * @return true, if all values are exact, false if the values have been bucketed
+   */
+  public boolean isExact() {
+    return lowest == null;
+  }
+
+  /**
+   * @param n a number of values, 1 to {@link #getTotalCount()}
+   *
+   * @return index of the first distinct value whose cumulative count reaches n (binary search)
+   */
+  public int indexOfCount(long n) {
+    int low = 0;
+    int high = values.length - 1;
+    while( low < high ) {
+      int middle = (low + high) >>> 1;
+      if( cumulativeCounts[middle] < n ) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+}
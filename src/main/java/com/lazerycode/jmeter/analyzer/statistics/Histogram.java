@@ -0,0 +1,366 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Count of every distinct long value, without boxing and without an object per value.
+ *
+ * By default values are counted exactly. Optionally, values are bucketed log-linearly (like HdrHistogram): values
+ * are exact up to 2 * 10^d (rounded to a power of 2) for d significant digits, larger values share a bucket with
+ * values that differ in less than d significant digits. The number of buckets is fixed then, so is the memory used,
+ * no matter how many samples are counted. A bucket is represented by its highest value.
+ *
+ * Buckets (values if exact) from 0 to {@link #DENSE_LIMIT} (e.g. response durations in ms) are counted in an array
+ * indexed by bucket, that grows with the largest bucket seen. All other buckets (e.g. negative values or response
+ * sizes in bytes) spill over into an open addressing hash table of primitive keys and counts.
+ * Not thread safe.
+ */
+class Histogram implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Buckets below this limit are counted in the dense array (at most 512KB)
+   */
+  static final int DENSE_LIMIT = 1 << 16;
+
+  /**
+   * Maximal number of significant digits of a bucketed histogram
+   */
+  static final int MAX_SIGNIFICANT_DIGITS = 5;
+
+  private static final int INITIAL_DENSE_SIZE = 64;
+  private static final int INITIAL_SPILL_SIZE = 16;
+
+  // number of significant digits, 0 if values are counted exactly
+  private final int significantDigits;
+  // log2 of the number of buckets per power of 2, values below twice that number are exact
+  private final int subBucketMagnitude;
+
+  // counts of the buckets 0..dense.length-1
+  private long[] dense = new long[0];
+
+  // open addressing table of all other values, a slot is empty if its count is 0
+  private long[] spillValues;
+  private long[] spillCounts;
+  private int spillSize;
+
+  // number of buckets with a count > 0
+  private int distinctValues;
+
+  /**
+   * Creates a histogram that counts values exactly
+   */
+  public Histogram() {
+    this(0);
+  }
+
+  /**
+   * Creates a histogram that buckets values log-linearly
+   *
+   * @param significantDigits number of significant digits of the values, 1 to {@link #MAX_SIGNIFICANT_DIGITS}.
+   *        0 to count values exactly.
+   */
+  public Histogram(int significantDigits) {
+    if( significantDigits < 0 || significantDigits > MAX_SIGNIFICANT_DIGITS ) {
+      throw new IllegalArgumentException("significant digits must be between 0 and " + MAX_SIGNIFICANT_DIGITS);
+    }
+    this.significantDigits = significantDigits;
+
+    // smallest power of 2 that resolves a value with the given number of significant digits
+    int magnitude = 0;
+    long resolution = (long) Math.pow(10, significantDigits);
+    while( (1L << magnitude) < resolution ) {
+      magnitude++;
+    }
+    this.subBucketMagnitude = magnitude;
+  }
+
+  /**
+   * Count a value once
+   *
+   * @param value the value
+   */
+  public void increment(long value) {
+    add(value, 1);
+  }
+
+  /**
+   * Count a value
+   *
+   * @param value the value
+   * @param count the number of occurrences to add, must be positive
+   */
+  public void add(long value, long count) {
+
+    long key = toKey(value);
+    if( key >= 0 && key < DENSE_LIMIT ) {
+      int index = (int) key;
+      if( index >= dense.length ) {
+        growDense(index);
+      }
+      if( dense[index] == 0 ) {
+        distinctValues++;
+      }
+      dense[index] += count;
+    }
+    else {
+      addSpill(key, count);
+    }
+  }
+
+  /**
+   * Add all counts of another histogram
+   *
+   * @param other the histogram to add
+   */
+  public void addAll(Histogram other) {
+
+    if( other.significantDigits != significantDigits ) {
+      throw new IllegalArgumentException("Histograms with different precision can't be added");
+    }
+
+    if( other.dense.length > dense.length ) {
+      growDense(other.dense.length - 1);
+    }
+    for( int i = 0; i < other.dense.length; i++ ) {
+      long count = other.dense[i];
+      if( count != 0 ) {
+        if( dense[i] == 0 ) {
+          distinctValues++;
+        }
+        dense[i] += count;
+      }
+    }
+
+    if( other.spillCounts != null ) {
+      for( int i = 0; i < other.spillCounts.length; i++ ) {
+        if( other.spillCounts[i] != 0 ) {
+          addSpill(other.spillValues[i], other.spillCounts[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return an independent copy of this histogram
+   */
+  public Histogram copy() {
+    Histogram copy = new Histogram(significantDigits);
+    copy.dense = dense.clone();
+    if( spillCounts != null ) {
+      copy.spillValues = spillValues.clone();
+      copy.spillCounts = spillCounts.clone();
+    }
+    copy.spillSize = spillSize;
+    copy.distinctValues = distinctValues;
+    return copy;
+  }
+
+  /**
+   * @return number of significant digits, 0 if values are counted exactly
+   */
+  public int getSignificantDigits() {
+    return significantDigits;
+  }
+
+  /**
+   * @return number of distinct values (buckets if bucketed) counted
+   */
+  public int getDistinctValues() {
+    return distinctValues;
+  }
+
+  /**
+   * @param value the value
+   *
+   * @return number of occurrences of the value (of all values in its bucket if bucketed)
+   */
+  public long getCount(long value) {
+    return getKeyCount(toKey(value));
+  }
+
+  /**
+   * @param value the value
+   *
+   * @return lowest value that is counted in the same bucket as the value, the value itself if counted exactly
+   */
+  public long lowestEquivalentValue(long value) {
+    if( significantDigits == 0 ) {
+      return value;
+    }
+    return value < 0 ? -toHighest(toKey(-value)) : toLowest(toKey(value));
+  }
+
+  /**
+   * Copy the distinct values in ascending order and their counts into the given arrays.
+   * A bucket is represented by its highest value.
+   *
+   * @param values receives the values, length must be at least {@link #getDistinctValues()}
+   * @param counts receives the count of each value, length must be at least {@link #getDistinctValues()}
+   */
+  public void toSortedArrays(long[] values, long[] counts) {
+
+    long[] spilled = new long[spillSize];
+    if( spillCounts != null ) {
+      int n = 0;
+      for( int i = 0; i < spillCounts.length; i++ ) {
+        if( spillCounts[i] != 0 ) {
+          spilled[n++] = spillValues[i];
+        }
+      }
+      Arrays.sort(spilled);
+    }
+
+    // negative spilled values, dense values, spilled values above the dense limit
+    int n = 0;
+    int s = 0;
+    while( s < spilled.length && spilled[s] < 0 ) {
+      values[n] = toValue(spilled[s]);
+      counts[n++] = getKeyCount(spilled[s++]);
+    }
+    for( int i = 0; i < dense.length; i++ ) {
+      if( dense[i] != 0 ) {
+        values[n] = toValue(i);
+        counts[n++] = dense[i];
+      }
+    }
+    while( s < spilled.length ) {
+      values[n] = toValue(spilled[s]);
+      counts[n++] = getKeyCount(spilled[s++]);
+    }
+  }
+
+  //====================================================================================================================
+
+  private long getKeyCount(long key) {
+    if( key >= 0 && key < DENSE_LIMIT ) {
+      return key < dense.length ? dense[(int) key] : 0;
+    }
+    if( spillCounts == null ) {
+      return 0;
+    }
+    return spillCounts[findSlot(spillValues, spillCounts, key)];
+  }
+
+  /**
+   * Map a value to its bucket, the key of the counts. Keys are in the same order as the values.
+   * Negative values are mapped to negative keys by their absolute value.
+   */
+  private long toKey(long value) {
+    if( significantDigits == 0 ) {
+      return value;
+    }
+    if( value < 0 ) {
+      return -toKey(-value) - 1;
+    }
+    if( value < (2L << subBucketMagnitude) ) {
+      return value;
+    }
+    // value = mantissa * 2^shift with mantissa having subBucketMagnitude + 1 bits
+    int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketMagnitude;
+    long mantissa = value >>> shift;
+    return ((long) shift << subBucketMagnitude) + mantissa;
+  }
+
+  /**
+   * @return the value that represents the bucket: the highest value in the bucket
+   */
+  private long toValue(long key) {
+    if( significantDigits == 0 ) {
+      return key;
+    }
+    return key < 0 ? -toLowest(-key - 1) : toHighest(key);
+  }
+
+  /**
+   * @return the lowest non negative value of a bucket
+   */
+  private long toLowest(long key) {
+    if( significantDigits == 0 || key < (2L << subBucketMagnitude) ) {
+      return key;
+    }
+    int shift = (int) (key >>> subBucketMagnitude) - 1;
+    long mantissa = key - ((long) shift << subBucketMagnitude);
+    return mantissa << shift;
+  }
+
+  /**
+   * @return the highest non negative value of a bucket
+   */
+  private long toHighest(long key) {
+    if( significantDigits == 0 || key < (2L << subBucketMagnitude) ) {
+      return key;
+    }
+    int shift = (int) (key >>> subBucketMagnitude) - 1;
+    long mantissa = key - ((long) shift << subBucketMagnitude);
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  private void growDense(int index) {
+    int size = Math.max(INITIAL_DENSE_SIZE, dense.length);
+    while( size <= index ) {
+      size *= 2;
+    }
+    dense = Arrays.copyOf(dense, Math.min(size, DENSE_LIMIT));
+  }
+
+  private void addSpill(long value, long count) {
+
+    if( spillCounts == null ) {
+      spillValues = new long[INITIAL_SPILL_SIZE];
+      spillCounts = new long[INITIAL_SPILL_SIZE];
+    }
+
+    int slot = findSlot(spillValues, spillCounts, value);
+    if( spillCounts[slot] == 0 ) {
+      spillValues[slot] = value;
+      spillSize++;
+      distinctValues++;
+    }
+    spillCounts[slot] += count;
+
+    // keep the load factor below 0.5
+    if( spillSize * 2 > spillCounts.length ) {
+      rehash();
+    }
+  }
+
+  private void rehash() {
+
+    long[] oldValues = spillValues;
+    long[] oldCounts = spillCounts;
+    spillValues = new long[oldCounts.length * 2];
+    spillCounts = new long[oldCounts.length * 2];
+
+    for( int i = 0; i < oldCounts.length; i++ ) {
+      if( oldCounts[i] != 0 ) {
+        int slot = findSlot(spillValues, spillCounts, oldValues[i]);
+        spillValues[slot] = oldValues[i];
+        spillCounts[slot] = oldCounts[i];
+      }
+    }
+  }
+
+  /**
+   * @return the slot of the value or the empty slot where it is to be inserted (linear probing)
+   */
+  private static int findSlot(long[] values, long[] counts, long value) {
+    int mask = counts.length - 1;
+    int slot = hash(value) & mask;
+    while( counts[slot] != 0 && values[slot] != value ) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Spread the bits of the value, so that values with a common stride don't collide (multiplicative hashing)
+   */
+  private static int hash(long value) {
+    long h = value * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+}
@@ -1,10 +1,5 @@
 package com.lazerycode.jmeter.analyzer.statistics;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * A Q-Quantile
  * see http://en.wikipedia.org/wiki/Quantile
@@ -15,9 +10,9 @@ public class Quantile {
 
   private static final int QUANTILE_MAX = 10000;
   
-  private List<ValueCount> counts;
+  // sorted values, shared by all quantiles of the same samples
+  private final Distribution distribution;
   private int q;
-  private long totalCount;
 
   /**
    * Creates a Quantile with the grade/resolution q using counts as values
@@ -30,23 +25,16 @@ public class Quantile {
    * </ul>
    *
    * @param q the grade/resolution
-   * @param counts the values
+   * @param distribution the sorted values
    */
-  protected Quantile(int q, Collection<ValueCount> counts) {
+  protected Quantile(int q, Distribution distribution) {
 
     if (q < 2 || q > QUANTILE_MAX) {
       throw new IllegalArgumentException(q + " is not a valid q value to create q-quantiles");
     }
 
-    // sort the values for internal reasons
-    ArrayList<ValueCount> sorted = new ArrayList<ValueCount>(counts);
-    Collections.sort(sorted, new ValueCountComparator());
+    this.distribution = distribution;
     this.q = q;
-    this.counts = sorted;
-
-    for (ValueCount count : sorted) {
-      totalCount += count.getCount();
-    }
   }
 
   /**
@@ -58,24 +46,66 @@ public class Quantile {
    * @return the value matching the population
    */
   public long getQuantile(int k) {
+    int j = indexOf(k);
+    return j < 0 ? 0 : distribution.getValue(j);
+  }
 
-    if (k <= 0 || k > q) {
-      throw new IllegalArgumentException("k must be a positive integer less than " + q);
-    }
-
-    int i = 0;
-    long n = totalCount * k / q;
-    long v = 0;
+  /**
+   * Get the counts for many Quantile populations in a single pass over the values.
+   *
+   * @param k the populations in ascending order
+   *
+   * @return the values matching the populations, in the order of the populations
+   */
+  public long[] getQuantiles(int[] k) {
 
-    for (ValueCount count : counts) {
-      if (i >= n) {
-        return v;
+    long[] result = new long[k.length];
+    int size = distribution.size();
+    int j = 0;
+    for (int i = 0; i < k.length; i++) {
+      if (i > 0 && k[i] < k[i - 1]) {
+        throw new IllegalArgumentException("populations must be in ascending order");
+      }
+      long n = population(k[i]);
+      if (n == 0 || size == 0) {
+        continue;
+      }
+      // the index only moves forward since the populations are ascending
+      while (j < size - 1 && distribution.getCumulativeCount(j) < n) {
+        j++;
       }
-      v = count.getValue();
-      i += count.getCount();
+      result[i] = distribution.getValue(j);
     }
+    return result;
+  }
 
-    return v;
+  /**
+   * Get the maximum relative error of the value for the given Quantile population.
+   * The value of a bucketed histogram is the highest value of its bucket, the actual value may be as low as the lowest
+   * value of the bucket.
+   *
+   * @param k the population
+   *
+   * @return the maximum relative error, e.g. 0.01 for 1%. 0 if the value is exact.
+   */
+  public double getMaxRelativeError(int k) {
+    int j = indexOf(k);
+    if (j < 0) {
+      return 0;
+    }
+    long value = distribution.getValue(j);
+    long lowest = distribution.getLowestValue(j);
+    if (lowest == value) {
+      return 0;
+    }
+    return (double) Math.abs(value - lowest) / Math.min(Math.abs(value), Math.abs(lowest));
+  }
+
+  /**
+   * @return true, if all values are exact, false if the values have been bucketed
+   */
+  public boolean isExact() {
+    return distribution.isExact();
   }
 
   /**
@@ -85,4 +115,32 @@ public class Quantile {
     return q;
   }
 
+  //====================================================================================================================
+
+  /**
+   * @return index of the value matching the population, -1 if there are no values
+   */
+  private int indexOf(int k) {
+
+    long n = population(k);
+    if (n == 0 || distribution.size() == 0) {
+      return -1;
+    }
+
+    // first value whose cumulative count reaches the population
+    return distribution.indexOfCount(n);
+  }
+
+  /**
+   * @return number of values up to the given Quantile population
+   */
+  private long population(int k) {
+
+    if (k <= 0 || k > q) {
+      throw new IllegalArgumentException("k must be a positive integer less than " + q);
+    }
+
+    return distribution.getTotalCount() * k / q;
+  }
+
 }
@@ -0,0 +1,210 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of bounded size (like DDSketch), for quantiles of many small groups of samples, e.g. the
+ * response durations of every single uri.
+ *
+ * Values are counted in logarithmic bins: bin i counts the values from gamma^(i-1) (exclusive) to gamma^i (inclusive),
+ * so every value of a bin is within {@link #RELATIVE_ACCURACY} of the middle of the bin. Only the bins from the lowest
+ * to the highest bin used are stored, at most {@link #DEFAULT_MAX_BINS}. If more bins would be needed, the lowest bins
+ * are collapsed into one, so that the high quantiles (e.g. 95% and 99%) stay accurate.
+ * Values below 1 are counted as 0.
+ * Not thread safe.
+ */
+class QuantileSketch implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Relative accuracy of the quantiles
+   */
+  static final double RELATIVE_ACCURACY = 0.02;
+
+  /**
+   * Maximum number of bins (at most 2KB), the values of a group may then span a factor of about 25000 (e.g. 2ms to 60s)
+   * before the lowest bins are collapsed
+   */
+  static final int DEFAULT_MAX_BINS = 256;
+
+  private static final int INITIAL_BINS = 8;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+
+  private final int maxBins;
+
+  // number of values below 1
+  private long zeroCount;
+
+  // counts of the bins from lowIndex to highIndex, bins[i - lowIndex]. Grown up to maxBins.
+  private long[] bins = new long[0];
+  private int lowIndex;
+  private int highIndex = -1;
+
+  /**
+   * Creates a sketch of at most {@link #DEFAULT_MAX_BINS} bins
+   */
+  public QuantileSketch() {
+    this(DEFAULT_MAX_BINS);
+  }
+
+  /**
+   * Creates a sketch
+   *
+   * @param maxBins maximum number of bins, at least 1
+   */
+  public QuantileSketch(int maxBins) {
+    this.maxBins = Math.max(1, maxBins);
+  }
+
+  /**
+   * Count a value once
+   *
+   * @param value the value
+   */
+  public void add(long value) {
+    if( value < 1 ) {
+      zeroCount++;
+    }
+    else {
+      addToBin((int) Math.ceil(Math.log(value) / LOG_GAMMA), 1);
+    }
+  }
+
+  /**
+   * Add all counts of another sketch
+   *
+   * @param other the sketch to add
+   */
+  public void addAll(QuantileSketch other) {
+    zeroCount += other.zeroCount;
+    // highest bins first, so that collapsing affects the lowest bins only
+    for( int index = other.highIndex; index >= other.lowIndex; index-- ) {
+      long count = other.bins[index - other.lowIndex];
+      if( count != 0 ) {
+        addToBin(index, count);
+      }
+    }
+  }
+
+  /**
+   * @return an independent copy of this sketch
+   */
+  public QuantileSketch copy() {
+    QuantileSketch copy = new QuantileSketch(maxBins);
+    copy.zeroCount = zeroCount;
+    copy.bins = bins.clone();
+    copy.lowIndex = lowIndex;
+    copy.highIndex = highIndex;
+    return copy;
+  }
+
+  /**
+   * @return the counted values as a distribution. A bin is represented by the value in its middle.
+   */
+  public Distribution toDistribution() {
+
+    int size = zeroCount > 0 ? 1 : 0;
+    for( int index = lowIndex; index <= highIndex; index++ ) {
+      if( bins[index - lowIndex] != 0 ) {
+        size++;
+      }
+    }
+
+    long[] values = new long[size];
+    long[] counts = new long[size];
+    long[] lowest = new long[size];
+    int n = 0;
+    if( zeroCount > 0 ) {
+      counts[n++] = zeroCount;
+    }
+    for( int index = lowIndex; index <= highIndex; index++ ) {
+      long count = bins[index - lowIndex];
+      if( count != 0 ) {
+        // integer values of the bin, at least 1
+        long low = Math.max(1, (long) Math.floor(Math.pow(GAMMA, index - 1)) + 1);
+        long high = Math.max(low, (long) Math.floor(Math.pow(GAMMA, index)));
+        long middle = Math.round(2 * Math.pow(GAMMA, index) / (GAMMA + 1));
+        values[n] = Math.min(high, Math.max(low, middle));
+        lowest[n] = low;
+        counts[n++] = count;
+      }
+    }
+    return new Distribution(values, counts, lowest);
+  }
+
+  //====================================================================================================================
+
+  private void addToBin(int index, long count) {
+
+    if( highIndex < lowIndex ) {
+      // first bin
+      ensureCapacity(1);
+      lowIndex = index;
+      highIndex = index;
+    }
+    else if( index > highIndex ) {
+      if( index - lowIndex >= maxBins ) {
+        collapse(index - maxBins + 1);
+      }
+      ensureCapacity(index - lowIndex + 1);
+      highIndex = index;
+    }
+    else if( index < lowIndex ) {
+      if( highIndex - index >= maxBins ) {
+        // below the lowest bin of a full sketch: count it in the lowest bin
+        index = lowIndex;
+      }
+      else {
+        int shift = lowIndex - index;
+        ensureCapacity(highIndex - index + 1);
+        System.arraycopy(bins, 0, bins, shift, highIndex - lowIndex + 1);
+        Arrays.fill(bins, 0, shift, 0);
+        lowIndex = index;
+      }
+    }
+
+    bins[index - lowIndex] += count;
+  }
+
+  /**
+   * Collapse all bins below the given index into the bin of the index, which becomes the lowest bin
+   */
+  private void collapse(int newLowIndex) {
+
+    int shift = newLowIndex - lowIndex;
+    if( newLowIndex > highIndex ) {
+      // all bins are collapsed into the new lowest bin
+      long total = 0;
+      for( int i = 0; i <= highIndex - lowIndex; i++ ) {
+        total += bins[i];
+      }
+      Arrays.fill(bins, 0);
+      bins[0] = total;
+      lowIndex = newLowIndex;
+      highIndex = newLowIndex;
+      return;
+    }
+
+    long collapsed = 0;
+    for( int i = 0; i < shift; i++ ) {
+      collapsed += bins[i];
+    }
+    int size = highIndex - newLowIndex + 1;
+    System.arraycopy(bins, shift, bins, 0, size);
+    Arrays.fill(bins, size, bins.length, 0);
+    bins[0] += collapsed;
+    lowIndex = newLowIndex;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if( capacity > bins.length ) {
+      int length = Math.min(maxBins, Math.max(capacity, Math.max(INITIAL_BINS, bins.length * 2)));
+      bins = Arrays.copyOf(bins, length);
+    }
+  }
+
+}
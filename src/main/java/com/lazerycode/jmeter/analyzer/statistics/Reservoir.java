@@ -0,0 +1,271 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Time stratified reservoir of real samples, see {@link SampleRetention#RESERVOIR}.
+ *
+ * Samples are divided into strata of consecutive samples. Of each stratum the sample with the minimum value, the
+ * sample with the maximum value and a uniformly chosen sample are kept, so adding a sample takes constant time.
+ * When the maximum number of strata is reached, neighbouring strata are combined pairwise and the number of samples
+ * per stratum doubles. Combining keeps the extremes of both strata and chooses one of the chosen samples weighted by
+ * the size of the strata, so the chosen sample is still uniformly distributed over the combined stratum.
+ *
+ * Random choices are reproducible, the same samples always yield the same reservoir.
+ * Not thread safe.
+ */
+class Reservoir implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Samples kept per stratum: minimum, maximum and chosen sample
+   */
+  private static final int SAMPLES_PER_STRATUM = 3;
+
+  private static final long SEED = 0x2545F4914F6CDD1DL;
+
+  private static final int INITIAL_STRATA = 16;
+
+  private final int maxStrata;
+
+  // completed strata: number of samples, timestamps and values of the kept samples. Grown up to maxStrata.
+  private long[] counts = new long[0];
+  private long[] minTimestamps = new long[0];
+  private long[] minValues = new long[0];
+  private long[] maxTimestamps = new long[0];
+  private long[] maxValues = new long[0];
+  private long[] chosenTimestamps = new long[0];
+  private long[] chosenValues = new long[0];
+  private int strata;
+
+  // number of samples per completed stratum
+  private long stratumSize = 1;
+
+  // the current stratum
+  private long count;
+  private long minTimestamp;
+  private long minValue;
+  private long maxTimestamp;
+  private long maxValue;
+  private long chosenTimestamp;
+  private long chosenValue;
+
+  // state of the random number generator
+  private long random = SEED;
+
+  /**
+   * Constructor
+   *
+   * @param maxSamples maximum number of samples to keep, at least 3
+   */
+  public Reservoir(int maxSamples) {
+    maxStrata = Math.max(2, maxSamples / SAMPLES_PER_STRATUM);
+  }
+
+  /**
+   * Add a sample
+   *
+   * @param timestamp timestamp of the sample
+   * @param value value of the sample
+   */
+  public void add(long timestamp, long value) {
+
+    count++;
+    if( count == 1 || value < minValue ) {
+      minTimestamp = timestamp;
+      minValue = value;
+    }
+    if( count == 1 || value > maxValue ) {
+      maxTimestamp = timestamp;
+      maxValue = value;
+    }
+    // the n-th sample replaces the chosen sample with a probability of 1/n
+    if( nextRandom(count) == 0 ) {
+      chosenTimestamp = timestamp;
+      chosenValue = value;
+    }
+
+    if( count == stratumSize ) {
+      completeStratum();
+    }
+  }
+
+  /**
+   * @return an independent copy of this reservoir
+   */
+  public Reservoir copy() {
+    Reservoir copy = new Reservoir(maxStrata * SAMPLES_PER_STRATUM);
+    copy.counts = counts.clone();
+    copy.minTimestamps = minTimestamps.clone();
+    copy.minValues = minValues.clone();
+    copy.maxTimestamps = maxTimestamps.clone();
+    copy.maxValues = maxValues.clone();
+    copy.chosenTimestamps = chosenTimestamps.clone();
+    copy.chosenValues = chosenValues.clone();
+    copy.strata = strata;
+    copy.stratumSize = stratumSize;
+    copy.count = count;
+    copy.minTimestamp = minTimestamp;
+    copy.minValue = minValue;
+    copy.maxTimestamp = maxTimestamp;
+    copy.maxValue = maxValue;
+    copy.chosenTimestamp = chosenTimestamp;
+    copy.chosenValue = chosenValue;
+    copy.random = random;
+    return copy;
+  }
+
+  /**
+   * @return number of samples per stratum
+   */
+  public long getStratumSize() {
+    return stratumSize;
+  }
+
+  /**
+   * Provide the kept samples in order of their strata, the samples of a stratum in order of their timestamps.
+   * Samples kept more than once (e.g. the minimum of a stratum that is also the chosen sample) are provided once.
+   * The reservoir is not changed.
+   *
+   * @param timestamps receives the timestamps, length must be at least {@link #getMaxSize()}
+   * @param values receives the values, length must be at least {@link #getMaxSize()}
+   *
+   * @return number of samples provided
+   */
+  public int toArrays(long[] timestamps, long[] values) {
+    int n = 0;
+    for( int i = 0; i < strata; i++ ) {
+      n = addStratum(timestamps, values, n, minTimestamps[i], minValues[i], maxTimestamps[i], maxValues[i],
+                     chosenTimestamps[i], chosenValues[i]);
+    }
+    if( count > 0 ) {
+      n = addStratum(timestamps, values, n, minTimestamp, minValue, maxTimestamp, maxValue, chosenTimestamp, chosenValue);
+    }
+    return n;
+  }
+
+  /**
+   * @return maximum number of samples currently provided by {@link #toArrays(long[], long[])}
+   */
+  public int getMaxSize() {
+    return (strata + 1) * SAMPLES_PER_STRATUM;
+  }
+
+  //====================================================================================================================
+
+  private void completeStratum() {
+
+    if( strata == counts.length ) {
+      int length = Math.min(maxStrata, Math.max(INITIAL_STRATA, strata * 2));
+      counts = Arrays.copyOf(counts, length);
+      minTimestamps = Arrays.copyOf(minTimestamps, length);
+      minValues = Arrays.copyOf(minValues, length);
+      maxTimestamps = Arrays.copyOf(maxTimestamps, length);
+      maxValues = Arrays.copyOf(maxValues, length);
+      chosenTimestamps = Arrays.copyOf(chosenTimestamps, length);
+      chosenValues = Arrays.copyOf(chosenValues, length);
+    }
+
+    counts[strata] = count;
+    minTimestamps[strata] = minTimestamp;
+    minValues[strata] = minValue;
+    maxTimestamps[strata] = maxTimestamp;
+    maxValues[strata] = maxValue;
+    chosenTimestamps[strata] = chosenTimestamp;
+    chosenValues[strata] = chosenValue;
+    strata++;
+    count = 0;
+
+    if( strata == maxStrata ) {
+      combineStrata();
+      stratumSize *= 2;
+    }
+  }
+
+  /**
+   * Combine neighbouring strata pairwise, in place
+   */
+  private void combineStrata() {
+
+    int n = 0;
+    for( int i = 0; i < strata; i += 2 ) {
+      int j = i + 1;
+      if( j == strata ) {
+        // there is no second stratum. thus, keep the last stratum as it is
+        copyStratum(i, n++);
+        continue;
+      }
+
+      long combinedCount = counts[i] + counts[j];
+
+      // extremes of the earlier stratum win ties
+      int min = minValues[j] < minValues[i] ? j : i;
+      int max = maxValues[j] > maxValues[i] ? j : i;
+      int chosen = nextRandom(combinedCount) < counts[i] ? i : j;
+
+      counts[n] = combinedCount;
+      minTimestamps[n] = minTimestamps[min];
+      minValues[n] = minValues[min];
+      maxTimestamps[n] = maxTimestamps[max];
+      maxValues[n] = maxValues[max];
+      chosenTimestamps[n] = chosenTimestamps[chosen];
+      chosenValues[n] = chosenValues[chosen];
+      n++;
+    }
+    strata = n;
+  }
+
+  private void copyStratum(int from, int to) {
+    counts[to] = counts[from];
+    minTimestamps[to] = minTimestamps[from];
+    minValues[to] = minValues[from];
+    maxTimestamps[to] = maxTimestamps[from];
+    maxValues[to] = maxValues[from];
+    chosenTimestamps[to] = chosenTimestamps[from];
+    chosenValues[to] = chosenValues[from];
+  }
+
+  /**
+   * Add the distinct samples of a stratum in order of their timestamps
+   */
+  private static int addStratum(long[] timestamps, long[] values, int n, long minTimestamp, long minValue,
+                                long maxTimestamp, long maxValue, long chosenTimestamp, long chosenValue) {
+
+    int start = n;
+    n = insert(timestamps, values, start, n, minTimestamp, minValue);
+    n = insert(timestamps, values, start, n, maxTimestamp, maxValue);
+    return insert(timestamps, values, start, n, chosenTimestamp, chosenValue);
+  }
+
+  /**
+   * Insert a sample into the samples of a stratum from start to n - 1, sorted by timestamp, unless it is contained
+   */
+  private static int insert(long[] timestamps, long[] values, int start, int n, long timestamp, long value) {
+
+    int i = n;
+    while( i > start && timestamps[i - 1] >= timestamp ) {
+      if( timestamps[i - 1] == timestamp && values[i - 1] == value ) {
+        return n;
+      }
+      i--;
+    }
+    System.arraycopy(timestamps, i, timestamps, i + 1, n - i);
+    System.arraycopy(values, i, values, i + 1, n - i);
+    timestamps[i] = timestamp;
+    values[i] = value;
+    return n + 1;
+  }
+
+  /**
+   * @return a pseudo random number from 0 to bound - 1 (xorshift)
+   */
+  private long nextRandom(long bound) {
+    random ^= random << 13;
+    random ^= random >>> 7;
+    random ^= random << 17;
+    return (random >>> 1) % bound;
+  }
+
+}
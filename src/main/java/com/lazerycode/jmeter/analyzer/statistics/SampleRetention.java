@@ -0,0 +1,27 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+/**
+ * How {@link Samples} keeps the number of stored samples below the maximum number of samples.
+ */
+public enum SampleRetention {
+
+  /**
+   * Neighbouring samples are averaged pairwise whenever the maximum is reached. The stored samples are averages,
+   * short spikes are smoothed.
+   */
+  AVERAGE,
+
+  /**
+   * The samples are divided into strata of consecutive samples. Of each stratum, the sample with the minimum value,
+   * the sample with the maximum value and a uniformly chosen sample are kept. The stored samples are real samples,
+   * spikes remain visible.
+   */
+  RESERVOIR,
+
+  /**
+   * Samples are aggregated into buckets of a fixed time interval, count, sum, minimum and maximum are kept per bucket.
+   * Whenever the maximum number of buckets is reached, the interval is doubled by merging adjacent buckets. The stored
+   * samples are the averages of the buckets, minimum and maximum of each bucket remain available.
+   */
+  TIME_BUCKETS
+}
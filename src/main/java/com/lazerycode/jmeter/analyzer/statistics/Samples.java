@@ -1,5 +1,6 @@
 package com.lazerycode.jmeter.analyzer.statistics;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
@@ -16,10 +17,19 @@ import java.util.*;
  *
  * @author Dennis Homann, Arne Franken, Peter Kaul
  */
-public class Samples {
+public class Samples implements Serializable {
+
+  private static final long serialVersionUID = 6L;
+
+  /**
+   * Default maximum number of bins of a quantile sketch, see {@link #Samples(int, int)}
+   */
+  public static final int DEFAULT_SKETCH_BINS = QuantileSketch.DEFAULT_MAX_BINS;
 
   private static final float SECOND = 1000f;
 
+  private static final int INITIAL_CAPACITY = 16;
+
   // number or error samples
   private long errors = 0;
 
@@ -27,9 +37,11 @@ public class Samples {
   private long success = 0;
 
   // collected samples
-  private List<Long> samples = new ArrayList<Long>();
+  private long[] samples = new long[0];
   // timestamps corresponding to samples
-  private List<Long> timestamps = new ArrayList<Long>();
+  private long[] timestamps = new long[0];
+  // number of collected samples
+  private int size = 0;
 
   // minimum sample timestamp
   private long minTimestamp = Long.MAX_VALUE;
@@ -48,8 +60,10 @@ public class Samples {
   // maximum number of samples to store
   private final int maxSamplesCount;
 
-  private List<Long> samplesBuffer = new ArrayList<Long>();
-  private List<Long> timestampsBuffer = new ArrayList<Long>();
+  // samples to be aggregated into a single sample
+  private long[] samplesBuffer = new long[0];
+  private long[] timestampsBuffer = new long[0];
+  private int bufferSize = 0;
 
 
   private double total = 0;
@@ -58,7 +72,22 @@ public class Samples {
   private long standardDeviation;
 
   // The value histogram
-  private Map<Long, ValueCount> histogram;
+  private Histogram histogram;
+  // bounded estimate of the value distribution, instead of the histogram
+  private QuantileSketch sketch;
+  // the sorted histogram (or sketch), computed once after finish() and shared by all quantiles
+  private transient volatile Distribution distribution;
+
+  // real samples kept instead of averaged samples, null for SampleRetention.AVERAGE
+  private Reservoir reservoir;
+
+  // fixed interval buckets instead of stored samples, null unless SampleRetention.TIME_BUCKETS
+  private TimeBuckets timeBuckets;
+  // minimum, maximum and number of samples of each bucket, set by finish()
+  private long[] bucketMinimums = new long[0];
+  private long[] bucketMaximums = new long[0];
+  private long[] bucketCounts = new long[0];
+  private long bucketInterval = 0;
 
 
   // ----------------------
@@ -71,9 +100,57 @@ public class Samples {
    * @param histogram If set to true the a value histogram should be counted as well.
    */
   public Samples(int maxSamples, boolean histogram) {
+    this(maxSamples, histogram, 0);
+  }
+
+  /**
+   * Creates a new instance where a limited number of samples is stored internally.
+   * If more samples are added, existing samples will be compressed internally.
+   *
+   * @param maxSamples The maximum number of samples. 0=store no samples
+   * @param histogram If set to true the a value histogram should be counted as well.
+   * @param significantDigits number of significant digits of the values in the histogram (1 to 5). The histogram then
+   *        buckets the values log-linearly and uses a fixed amount of memory, quantiles have a relative error below
+   *        10^-significantDigits. 0 to count every distinct value exactly.
+   */
+  public Samples(int maxSamples, boolean histogram, int significantDigits) {
+    this(maxSamples, histogram, significantDigits, SampleRetention.AVERAGE);
+  }
+
+  /**
+   * Creates a new instance without a histogram, that estimates quantiles by a sketch of bounded size instead.
+   * The quantiles have a relative error of at most 2%, the sketch uses at most 8 bytes per bin. Suitable for many
+   * instances, e.g. one per uri.
+   *
+   * @param maxSamples The maximum number of samples. 0=store no samples, -1=store all samples
+   * @param sketchBins maximum number of bins of the sketch. If the values span more bins, the lowest bins are collapsed,
+   *        so that low quantiles lose accuracy first.
+   */
+  public Samples(int maxSamples, int sketchBins) {
+    this(maxSamples, false);
+    this.sketch = new QuantileSketch(sketchBins);
+  }
+
+  /**
+   * Creates a new instance where a limited number of samples is stored internally.
+   * If more samples are added, the stored samples are reduced according to the retention.
+   *
+   * @param maxSamples The maximum number of samples. 0=store no samples, -1=store all samples
+   * @param histogram If set to true the a value histogram should be counted as well.
+   * @param significantDigits number of significant digits of the values in the histogram, see
+   *        {@link #Samples(int, boolean, int)}
+   * @param retention how to reduce the stored samples if more than maxSamples samples are added
+   */
+  public Samples(int maxSamples, boolean histogram, int significantDigits, SampleRetention retention) {
     this.maxSamplesCount = maxSamples;
     if( histogram ) {
-      this.histogram = new HashMap<Long, ValueCount>();
+      this.histogram = new Histogram(significantDigits);
+    }
+    if( retention == SampleRetention.RESERVOIR && maxSamples > 0 ) {
+      this.reservoir = new Reservoir(maxSamples);
+    }
+    if( retention == SampleRetention.TIME_BUCKETS && maxSamples > 0 ) {
+      this.timeBuckets = new TimeBuckets(maxSamples);
     }
   }
 
@@ -122,20 +199,138 @@ public class Samples {
 
     //collect the value
     if( histogram != null ) {
+      histogram.increment(value);
+    }
+    if( sketch != null ) {
+      sketch.add(value);
+    }
+
+    // store sample
+    add(timestamp, value);
+  }
+
+  /**
+   * Adds all samples of another instance, as if they had been added to this instance one by one after all samples
+   * that have already been added. The result is identical to adding all samples to this instance directly.
+   *
+   * @param other samples to add. Must have been created with maxSamples=-1, so that all samples are available.
+   */
+  public void append(Samples other) {
+
+    assertNotFinished();
+    if( other.maxSamplesCount >= 0 ) {
+      throw new IllegalArgumentException("Only samples without compression can be appended");
+    }
+    if( (histogram != null && other.histogram == null) || (sketch != null && other.sketch == null) ) {
+      throw new IllegalArgumentException("No histogram available");
+    }
+
+    addCounts(other);
+
+    // sums are computed in the original order so that floating point results are the same
+    for( int i = 0; i < other.size; i++ ) {
+
+      long value = other.samples[i];
+      total += value;
+      totalPowered2 += Math.pow(value, 2);
+
+      add(other.timestamps[i], value);
+    }
+  }
+
+  /**
+   * Merges the samples of another instance, e.g. the samples of another load generator of a distributed test.
+   * Counts, sums, min / max and the histogram are combined, the stored samples are interleaved by timestamp (samples
+   * of this instance first if timestamps are equal). Samples that haven't been added in order of their timestamps are
+   * sorted first, so the result is the same as adding the samples of both instances in order of their timestamps.
+   *
+   * @param other samples to merge. Both instances must have been created with maxSamples=-1, so that all samples are
+   *        available. The result can be compressed by {@link #append(Samples) appending} it to a new instance.
+   */
+  public void merge(Samples other) {
 
-      ValueCount count = histogram.get(value);
-      if( count == null ) {
-        //there was no other request with the same response value, collect
-        count = new ValueCount(value);
-        histogram.put(value, count);
+    assertNotFinished();
+    if( maxSamplesCount >= 0 || other.maxSamplesCount >= 0 ) {
+      throw new IllegalArgumentException("Only samples without compression can be merged");
+    }
+    if( (histogram != null && other.histogram == null) || (sketch != null && other.sketch == null) ) {
+      throw new IllegalArgumentException("No histogram available");
+    }
+
+    addCounts(other);
+    sortByTimestamp();
+    other.sortByTimestamp();
+
+    int mergedSize = size + other.size;
+    long[] mergedSamples = new long[Math.max(INITIAL_CAPACITY, mergedSize)];
+    long[] mergedTimestamps = new long[mergedSamples.length];
+    int i = 0;
+    int j = 0;
+    for( int n = 0; n < mergedSize; n++ ) {
+      if( j == other.size || (i < size && timestamps[i] <= other.timestamps[j]) ) {
+        mergedSamples[n] = samples[i];
+        mergedTimestamps[n] = timestamps[i++];
+      }
+      else {
+        mergedSamples[n] = other.samples[j];
+        mergedTimestamps[n] = other.timestamps[j++];
       }
+    }
+    samples = mergedSamples;
+    timestamps = mergedTimestamps;
+    size = mergedSize;
+
+    // sums are computed in the merged order so that floating point results are the same
+    total = 0;
+    totalPowered2 = 0;
+    for( int n = 0; n < size; n++ ) {
+      total += samples[n];
+      totalPowered2 += Math.pow(samples[n], 2);
+    }
+  }
+
+  /**
+   * Creates a finished copy of the samples collected so far, e.g. to report intermediate results.
+   * This instance is not changed and may collect more samples.
+   *
+   * @return the finished copy
+   */
+  public Samples snapshot() {
+
+    assertNotFinished();
 
-      //there already was another request with the same response value, increment
-      count.increment();
+    Samples copy = new Samples(maxSamplesCount, false);
+    copy.errors = errors;
+    copy.success = success;
+    copy.samples = Arrays.copyOf(samples, size);
+    copy.timestamps = Arrays.copyOf(timestamps, size);
+    copy.size = size;
+    copy.minTimestamp = minTimestamp;
+    copy.maxTimestamp = maxTimestamp;
+    copy.min = min;
+    copy.max = max;
+    copy.compression = compression;
+    copy.samplesBuffer = Arrays.copyOf(samplesBuffer, bufferSize);
+    copy.timestampsBuffer = Arrays.copyOf(timestampsBuffer, bufferSize);
+    copy.bufferSize = bufferSize;
+    copy.total = total;
+    copy.totalPowered2 = totalPowered2;
+
+    if( histogram != null ) {
+      copy.histogram = histogram.copy();
+    }
+    if( sketch != null ) {
+      copy.sketch = sketch.copy();
+    }
+    if( reservoir != null ) {
+      copy.reservoir = reservoir.copy();
+    }
+    if( timeBuckets != null ) {
+      copy.timeBuckets = timeBuckets.copy();
     }
 
-    // store sample
-    add(timestamp, value);
+    copy.finish();
+    return copy;
   }
 
   /**
@@ -146,11 +341,28 @@ public class Samples {
     finished = true;
 
     // flush buffer by adding remaining items
-    if( samplesBuffer.size() > 0 ) {
+    if( bufferSize > 0 ) {
+
+      addAggregated();
+    }
 
-      addAggregated(samplesBuffer, timestampsBuffer);
-      samplesBuffer.clear();
-      timestampsBuffer.clear();
+    // samples kept by the reservoir
+    if( reservoir != null ) {
+      samples = new long[reservoir.getMaxSize()];
+      timestamps = new long[samples.length];
+      size = reservoir.toArrays(timestamps, samples);
+    }
+
+    // average of each bucket, at the middle of its interval
+    if( timeBuckets != null ) {
+      size = timeBuckets.getBucketCount();
+      samples = new long[size];
+      timestamps = new long[size];
+      bucketMinimums = new long[size];
+      bucketMaximums = new long[size];
+      bucketCounts = new long[size];
+      timeBuckets.toArrays(timestamps, samples, bucketMinimums, bucketMaximums, bucketCounts);
+      bucketInterval = timeBuckets.getInterval();
     }
 
     // adjust some statistics
@@ -161,9 +373,11 @@ public class Samples {
     standardDeviation = (long) (Math.sqrt(totalPowered0 * totalPowered2 - Math.pow(totalPowered1, 2)) /  totalPowered0);
 
 
-    // protect collected data against modification
-    samples = Collections.unmodifiableList(samples);
-    timestamps = Collections.unmodifiableList(timestamps);
+    // release unused capacity
+    samples = Arrays.copyOf(samples, size);
+    timestamps = Arrays.copyOf(timestamps, size);
+    samplesBuffer = new long[0];
+    timestampsBuffer = new long[0];
   }
 
   /**
@@ -174,19 +388,75 @@ public class Samples {
   }
 
 
+  /**
+   * @return The stored samples, a read only view of {@link #getSampleValues()}
+   */
   public List<Long> getSamples() {
     assertFinished();
-    return samples;
+    return new LongList(samples);
   }
 
   /**
-   * @return The sample's timestamp.
+   * @return The sample's timestamp, a read only view of {@link #getTimestampValues()}
    */
   public List<Long> getTimestamps() {
+    assertFinished();
+    return new LongList(timestamps);
+  }
+
+  /**
+   * @return The stored samples without boxing. The array is not copied and must not be modified.
+   */
+  public long[] getSampleValues() {
+    assertFinished();
+    return samples;
+  }
+
+  /**
+   * @return The sample's timestamp without boxing. The array is not copied and must not be modified.
+   */
+  public long[] getTimestampValues() {
     assertFinished();
     return timestamps;
   }
 
+  /**
+   * @return Length of the interval of a bucket in ms if the samples are aggregated into
+   *         {@link SampleRetention#TIME_BUCKETS time buckets}, 0 otherwise. The stored samples are then the averages of
+   *         the buckets that contain samples, the timestamps are the middle of their intervals.
+   */
+  public long getBucketInterval() {
+    assertFinished();
+    return bucketInterval;
+  }
+
+  /**
+   * @return The minimum value of each bucket, see {@link #getBucketInterval()}. Empty if not aggregated into buckets.
+   *         The array is not copied and must not be modified.
+   */
+  public long[] getBucketMinimums() {
+    assertFinished();
+    return bucketMinimums;
+  }
+
+  /**
+   * @return The maximum value of each bucket, see {@link #getBucketInterval()}. Empty if not aggregated into buckets.
+   *         The array is not copied and must not be modified.
+   */
+  public long[] getBucketMaximums() {
+    assertFinished();
+    return bucketMaximums;
+  }
+
+  /**
+   * @return The number of samples of each bucket, see {@link #getBucketInterval()}. Empty if not aggregated into
+   *         buckets. The array is not copied and must not be modified.
+   */
+  public long[] getBucketCounts() {
+    assertFinished();
+    return bucketCounts;
+  }
+
 
   /**
    * @return Total number of stored samples
@@ -194,7 +464,7 @@ public class Samples {
    */
   public long getStoredSamplesCount() {
     assertFinished();
-    return samples.size();
+    return size;
   }
 
   /**
@@ -283,7 +553,15 @@ public class Samples {
   }
 
   /**
-   * Returns a Quantile with the grade/resolution q using counts as values
+   * @return true, if quantiles are available, either from a histogram or a sketch
+   */
+  public boolean hasQuantiles() {
+    return histogram != null || sketch != null;
+  }
+
+  /**
+   * Returns a Quantile with the grade/resolution q using counts as values.
+   * The histogram is sorted once on first use, all quantiles of any grade share it.
    *
    * @param q the grade
    *
@@ -292,17 +570,60 @@ public class Samples {
   public Quantile getQuantiles(int q) {
     assertFinished();
 
-    if( histogram == null ) {
+    if( !hasQuantiles() ) {
+      throw new IllegalStateException("No histogram available");
+    }
+
+    return new Quantile(q, getDistribution());
+  }
+
+  /**
+   * Counts the values in bins of equal width from {@link #getMin()} to {@link #getMax()}: bin i counts the values from
+   * min + i * (max - min) / bins (inclusive) to min + (i + 1) * (max - min) / bins (exclusive), the last bin also
+   * counts max. Computed from the counts of the histogram, not from the (compressed) samples.
+   *
+   * @param bins number of bins, at least 1
+   *
+   * @return count of values of each bin
+   */
+  public long[] getValueCounts(int bins) {
+    assertFinished();
+
+    if( !hasQuantiles() ) {
       throw new IllegalStateException("No histogram available");
     }
 
-    return new Quantile(q, histogram.values());
+    long[] counts = new long[bins];
+    Distribution sorted = getDistribution();
+    double width = (double) (max - min) / bins;
+    long previous = 0;
+    for( int j = 0; j < sorted.size(); j++ ) {
+      long cumulativeCount = sorted.getCumulativeCount(j);
+      // bucketed values may lie slightly outside min and max
+      int bin = width > 0 ? (int) ((sorted.getValue(j) - min) / width) : 0;
+      counts[Math.max(0, Math.min(bins - 1, bin))] += cumulativeCount - previous;
+      previous = cumulativeCount;
+    }
+    return counts;
   }
 
   //====================================================================================================================
 
 
 
+  /**
+   * @return the sorted histogram, shared by all quantiles
+   */
+  private Distribution getDistribution() {
+    // the histogram doesn't change after finish(). computing it twice concurrently is harmless
+    Distribution sorted = distribution;
+    if( sorted == null ) {
+      sorted = histogram != null ? new Distribution(histogram) : sketch.toDistribution();
+      distribution = sorted;
+    }
+    return sorted;
+  }
+
   private void assertNotFinished() {
     if( finished ) {
       throw new IllegalStateException("Already finished");
@@ -315,6 +636,71 @@ public class Samples {
     }
   }
 
+  /**
+   * Add counters, min / max and histogram of another instance
+   */
+  private void addCounts(Samples other) {
+
+    errors += other.errors;
+    success += other.success;
+
+    if( other.max > max ) {
+      max = other.max;
+    }
+    if( other.min < min ) {
+      min = other.min;
+    }
+
+    if( other.minTimestamp <= other.maxTimestamp ) {
+      setTimestamp(other.minTimestamp);
+      setTimestamp(other.maxTimestamp);
+    }
+
+    if( histogram != null ) {
+      histogram.addAll(other.histogram);
+    }
+    if( sketch != null ) {
+      sketch.addAll(other.sketch);
+    }
+  }
+
+  /**
+   * Sort the stored samples by timestamp, samples with equal timestamps keep their order
+   */
+  private void sortByTimestamp() {
+
+    boolean sorted = true;
+    for( int n = 1; n < size && sorted; n++ ) {
+      sorted = timestamps[n - 1] <= timestamps[n];
+    }
+    if( sorted ) {
+      return;
+    }
+
+    Integer[] order = new Integer[size];
+    for( int n = 0; n < size; n++ ) {
+      order[n] = n;
+    }
+    // the sort of objects is stable
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long timestamp1 = timestamps[o1];
+        long timestamp2 = timestamps[o2];
+        return timestamp1 < timestamp2 ? -1 : (timestamp1 == timestamp2 ? 0 : 1);
+      }
+    });
+
+    long[] sortedSamples = new long[samples.length];
+    long[] sortedTimestamps = new long[samples.length];
+    for( int n = 0; n < size; n++ ) {
+      sortedSamples[n] = samples[order[n]];
+      sortedTimestamps[n] = timestamps[order[n]];
+    }
+    samples = sortedSamples;
+    timestamps = sortedTimestamps;
+  }
+
   /**
    * set min / max timestamp
    * @param timestamp the timestamp
@@ -340,10 +726,20 @@ public class Samples {
       return;
     }
 
+    if( reservoir != null ) {
+      reservoir.add(timestamp, value);
+      return;
+    }
+
+    if( timeBuckets != null ) {
+      timeBuckets.add(timestamp, value);
+      return;
+    }
+
     // Disabling the compression if maxSamplesCount < 0
     if (maxSamplesCount > 0) {
       // check whether the maximum of samples is reached and reduce number of samples if necessary
-      if( samples.size() >= maxSamplesCount ) {
+      if( size >= maxSamplesCount ) {
 
         // compress
         halve();
@@ -355,86 +751,119 @@ public class Samples {
     if( compression == 1 ) {
 
       // store samples
-      samples.add(value);
-      timestamps.add(timestamp);
+      store(timestamp, value);
     }
     else {
 
       // buffer samples for aggregation
-      samplesBuffer.add(value);
-      timestampsBuffer.add(timestamp);
-      if( samplesBuffer.size() >= compression ) {
+      if( bufferSize == samplesBuffer.length ) {
+        samplesBuffer = Arrays.copyOf(samplesBuffer, compression);
+        timestampsBuffer = Arrays.copyOf(timestampsBuffer, compression);
+      }
+      samplesBuffer[bufferSize] = value;
+      timestampsBuffer[bufferSize++] = timestamp;
+      if( bufferSize >= compression ) {
 
         // we have collected enough items
-        addAggregated(samplesBuffer, timestampsBuffer);
-        samplesBuffer.clear();
-        timestampsBuffer.clear();
+        addAggregated();
       }
     }
   }
 
   /**
-   * Aggregates samples and timestamps and add them as a single item to samples/timestamp
-   *
-   * @param samplesBuffer  samples to be aggregated. will be cleared
-   * @param timestampsBuffer timestamps to be aggregated
+   * Append a sample to samples/timestamps, growing the arrays if necessary
+   */
+  private void store(long timestamp, long value) {
+
+    if( size == samples.length ) {
+      int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+      if( maxSamplesCount > 0 ) {
+        // at most one aggregated sample more than maxSamplesCount is stored
+        capacity = Math.min(capacity, maxSamplesCount + 1);
+      }
+      samples = Arrays.copyOf(samples, Math.max(capacity, size + 1));
+      timestamps = Arrays.copyOf(timestamps, samples.length);
+    }
+    samples[size] = value;
+    timestamps[size++] = timestamp;
+  }
+
+  /**
+   * Aggregates the buffered samples and timestamps and add them as a single item to samples/timestamp.
+   * The buffer is cleared.
    */
-  private void addAggregated(List<Long> samplesBuffer, List<Long> timestampsBuffer) {
+  private void addAggregated() {
 
-    long firstTimestamp = timestampsBuffer.get(0);
-    long lastTimestamp = timestampsBuffer.get(timestampsBuffer.size()-1);
+    long firstTimestamp = timestampsBuffer[0];
+    long lastTimestamp = timestampsBuffer[bufferSize-1];
     long aggregatedTimestamp = firstTimestamp + (lastTimestamp-firstTimestamp) / 2;
 
 
     long aggregatedSample = 0;
-    for( long sample : samplesBuffer ) {
-      aggregatedSample += sample;
+    for( int i = 0; i < bufferSize; i++ ) {
+      aggregatedSample += samplesBuffer[i];
     }
-    aggregatedSample = aggregatedSample / samplesBuffer.size();
+    aggregatedSample = aggregatedSample / bufferSize;
 
-    samples.add(aggregatedSample);
-    timestamps.add(aggregatedTimestamp);
+    store(aggregatedTimestamp, aggregatedSample);
+    bufferSize = 0;
   }
 
   /**
-   * Cuts a list of samples in half by aggregating pairs a samples
+   * Cuts the samples in half by aggregating pairs a samples, in place
    */
   private void halve() {
 
-    List<Long> newSamples = new ArrayList<Long>();
-    List<Long> newTimestamps = new ArrayList<Long>();
-
-    Iterator<Long> si = samples.iterator();
-    Iterator<Long> ti = timestamps.iterator();
-
-    while( si.hasNext() ) {
-
-      long sample = si.next();
-      long timestamp = ti.next();
+    int newSize = 0;
+    for( int i = 0; i < size; i += 2 ) {
 
+      long sample = samples[i];
+      long timestamp = timestamps[i];
 
-      if( !si.hasNext() ) {
+      if( i + 1 == size ) {
 
         // there is no second sample. thus, don't aggregate this last element
-        newSamples.add(sample);
-        newTimestamps.add(timestamp);
+        samples[newSize] = sample;
+        timestamps[newSize++] = timestamp;
       }
       else {
 
-        long secondTimestamp = ti.next();
-        long secondSample = si.next();
+        long secondTimestamp = timestamps[i + 1];
+        long secondSample = samples[i + 1];
 
         long aggregatedSample = (sample+secondSample) / 2;
         long aggregatedTimestamp = (timestamp+(secondTimestamp-timestamp) / 2);
 
-        newSamples.add(aggregatedSample);
-        newTimestamps.add(aggregatedTimestamp);
+        samples[newSize] = aggregatedSample;
+        timestamps[newSize++] = aggregatedTimestamp;
       }
     }
 
+    size = newSize;
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Read only view of a long[] as list
+   */
+  private static class LongList extends AbstractList<Long> implements RandomAccess {
+
+    private final long[] values;
 
-    samples = newSamples;
-    timestamps = newTimestamps;
+    LongList(long[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public Long get(int index) {
+      return values[index];
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
   }
 
 }
@@ -0,0 +1,282 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.io.Serializable;
+
+/**
+ * Exact number of requests and failed requests per interval, for throughput charts and the peak throughput. Unlike
+ * {@link Samples}, no request is ever dropped or averaged: every request is counted in the interval of its timestamp
+ * (timestamp / resolution).
+ *
+ * The intervals from the first to the last request are stored in a ring of primitive arrays, so that requests
+ * before the first interval (e.g. requests that ended early) are prepended without moving the other intervals.
+ * The number of intervals is bounded: when the requests would span more than the maximum number of intervals (a long
+ * soak test, or a stray timestamp like 0), the resolution is doubled by merging adjacent intervals, like
+ * {@link TimeBuckets} does. Counts stay exact, only their resolution gets coarser.
+ * Adding a request takes constant time apart from growing the ring and the merges.
+ * Not thread safe.
+ */
+public class Throughput implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Default length of an interval in ms
+   */
+  public static final long DEFAULT_RESOLUTION = 1000L;
+
+  /**
+   * Default maximum number of intervals (2MB), e.g. 36 hours at the default resolution
+   */
+  public static final int DEFAULT_MAX_INTERVALS = 1 << 17;
+
+  private static final long SECOND = 1000L;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int maxIntervals;
+
+  // length of an interval in ms, the configured resolution doubled as often as needed
+  private long resolution;
+
+  // index of the first interval, the interval of a timestamp is timestamp / resolution
+  private long origin;
+  // position of the first interval in the ring
+  private int head;
+  // number of intervals from the first to the last interval, including empty intervals
+  private int size;
+
+  // number of requests and of failed requests of each interval, interval i at (head + i) % capacity.
+  // Positions outside of the used intervals are always 0.
+  private long[] requests = new long[0];
+  private long[] errors = new long[0];
+
+  /**
+   * Creates counts of at most {@link #DEFAULT_MAX_INTERVALS} intervals
+   *
+   * @param resolution length of an interval in ms, at least 1
+   */
+  public Throughput(long resolution) {
+    this(resolution, DEFAULT_MAX_INTERVALS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param resolution length of an interval in ms, at least 1
+   * @param maxIntervals maximum number of intervals, at least 2
+   */
+  public Throughput(long resolution, int maxIntervals) {
+    if( resolution < 1 ) {
+      throw new IllegalArgumentException("Resolution must be at least 1ms");
+    }
+    this.resolution = resolution;
+    this.maxIntervals = Math.max(2, maxIntervals);
+  }
+
+  /**
+   * Count a request
+   *
+   * @param timestamp timestamp of the request
+   * @param success false, if the request failed
+   */
+  public void add(long timestamp, boolean success) {
+    addCounts(timestamp, 1, success ? 0 : 1);
+  }
+
+  /**
+   * Add all counts of another instance, e.g. of another part of the result file or of another load generator
+   *
+   * @param other the counts to add, must have been created with the same resolution
+   */
+  public void addAll(Throughput other) {
+
+    long low = Math.min(resolution, other.resolution);
+    long high = Math.max(resolution, other.resolution);
+    if( high % low != 0 || Long.bitCount(high / low) != 1 ) {
+      throw new IllegalArgumentException("Only counts of the same resolution can be added");
+    }
+
+    while( resolution < other.resolution ) {
+      widen();
+    }
+
+    int capacity = other.requests.length;
+    for( int i = 0; i < other.size; i++ ) {
+      int position = (other.head + i) % capacity;
+      if( other.requests[position] != 0 ) {
+        addCounts((other.origin + i) * other.resolution, other.requests[position], other.errors[position]);
+      }
+    }
+  }
+
+  /**
+   * @return an independent copy of this instance
+   */
+  public Throughput copy() {
+    Throughput copy = new Throughput(resolution, maxIntervals);
+    copy.origin = origin;
+    copy.head = head;
+    copy.size = size;
+    copy.requests = requests.clone();
+    copy.errors = errors.clone();
+    return copy;
+  }
+
+  /**
+   * @return length of an interval in ms, more than the configured resolution if the intervals have been merged
+   */
+  public long getResolution() {
+    return resolution;
+  }
+
+  /**
+   * @return number of intervals from the first to the last request, including intervals without requests
+   */
+  public int getIntervalCount() {
+    return size;
+  }
+
+  /**
+   * @return the start of every interval in order of time
+   */
+  public long[] getTimestamps() {
+    long[] timestamps = new long[size];
+    for( int i = 0; i < size; i++ ) {
+      timestamps[i] = (origin + i) * resolution;
+    }
+    return timestamps;
+  }
+
+  /**
+   * @return number of requests of every interval in order of time
+   */
+  public long[] getRequestCounts() {
+    return unroll(requests);
+  }
+
+  /**
+   * @return number of failed requests of every interval in order of time
+   */
+  public long[] getErrorCounts() {
+    return unroll(errors);
+  }
+
+  /**
+   * @return total number of requests
+   */
+  public long getTotalRequests() {
+    long total = 0;
+    for( long count : requests ) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * @return the highest number of requests of an interval, per second
+   */
+  public long getPeakRequestsPerSecond() {
+    long peak = 0;
+    for( long count : requests ) {
+      peak = Math.max(peak, count);
+    }
+    return peak * SECOND / resolution;
+  }
+
+  //====================================================================================================================
+
+  private void addCounts(long timestamp, long requestCount, long errorCount) {
+
+    long interval = floorDiv(timestamp, resolution);
+    if( size == 0 ) {
+      origin = interval;
+    }
+    while( span(interval) > maxIntervals ) {
+      widen();
+      interval = floorDiv(timestamp, resolution);
+    }
+
+    long index = interval - origin;
+    if( index < 0 ) {
+      // an interval before the first interval: the ring grows backwards
+      ensureCapacity((int) (size - index));
+      int capacity = requests.length;
+      head = (int) ((head + index + capacity) % capacity);
+      origin = interval;
+      size -= index;
+      index = 0;
+    }
+    else if( index >= size ) {
+      ensureCapacity((int) index + 1);
+      size = (int) index + 1;
+    }
+
+    int position = (int) ((head + index) % requests.length);
+    requests[position] += requestCount;
+    errors[position] += errorCount;
+  }
+
+  /**
+   * @return number of intervals needed to include the interval
+   */
+  private long span(long interval) {
+    if( interval < origin ) {
+      return origin - interval + size;
+    }
+    return Math.max(size, interval - origin + 1);
+  }
+
+  /**
+   * Double the resolution by merging adjacent intervals
+   */
+  private void widen() {
+
+    long newOrigin = floorDiv(origin, 2);
+    int newSize = size == 0 ? 0 : (int) (floorDiv(origin + size - 1, 2) - newOrigin + 1);
+    long[] newRequests = new long[requests.length];
+    long[] newErrors = new long[errors.length];
+    for( int i = 0; i < size; i++ ) {
+      int position = (head + i) % requests.length;
+      int j = (int) (floorDiv(origin + i, 2) - newOrigin);
+      newRequests[j] += requests[position];
+      newErrors[j] += errors[position];
+    }
+
+    requests = newRequests;
+    errors = newErrors;
+    resolution *= 2;
+    origin = newOrigin;
+    head = 0;
+    size = newSize;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if( capacity > requests.length ) {
+      int length = Math.min(maxIntervals, Math.max(capacity, Math.max(INITIAL_CAPACITY, requests.length * 2)));
+      requests = grow(requests, length);
+      errors = grow(errors, length);
+      head = 0;
+    }
+  }
+
+  /**
+   * @return the used intervals of the ring in order of time, starting at position 0 of an array of the given length
+   */
+  private long[] grow(long[] ring, int length) {
+    long[] result = new long[length];
+    int first = Math.min(size, ring.length - head);
+    System.arraycopy(ring, head, result, 0, first);
+    System.arraycopy(ring, 0, result, first, size - first);
+    return result;
+  }
+
+  private long[] unroll(long[] ring) {
+    return grow(ring, size);
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+
+}
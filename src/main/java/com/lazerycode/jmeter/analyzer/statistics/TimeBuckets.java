@@ -0,0 +1,211 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Time series of fixed intervals, see {@link SampleRetention#TIME_BUCKETS}.
+ *
+ * Every sample updates count, sum, minimum and maximum of the bucket of its interval (timestamp / interval). The
+ * interval starts at 1ms. When the buckets from the first to the last sample would exceed the maximum number of
+ * buckets, the interval is doubled by merging adjacent buckets. Memory is bounded by the maximum number of buckets,
+ * adding a sample takes constant time apart from the merges.
+ * Not thread safe.
+ */
+class TimeBuckets implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int INITIAL_BUCKETS = 64;
+
+  private final int maxBuckets;
+
+  // length of a bucket in ms
+  private long interval = 1;
+  // index of the first bucket, the bucket of a timestamp is timestamp / interval
+  private long origin;
+  // number of buckets from the first to the last bucket, including empty buckets
+  private int size;
+
+  // count, sum, minimum and maximum of the samples of each bucket. Grown up to maxBuckets.
+  private long[] counts = new long[0];
+  private long[] sums = new long[0];
+  private long[] mins = new long[0];
+  private long[] maxs = new long[0];
+
+  /**
+   * Constructor
+   *
+   * @param maxBuckets maximum number of buckets, at least 2
+   */
+  public TimeBuckets(int maxBuckets) {
+    this.maxBuckets = Math.max(2, maxBuckets);
+  }
+
+  /**
+   * Add a sample
+   *
+   * @param timestamp timestamp of the sample
+   * @param value value of the sample
+   */
+  public void add(long timestamp, long value) {
+
+    if( size == 0 ) {
+      origin = floorDiv(timestamp, interval);
+    }
+
+    long index = floorDiv(timestamp, interval) - origin;
+    while( index < 0 ? size - index > maxBuckets : index >= maxBuckets ) {
+      widen();
+      index = floorDiv(timestamp, interval) - origin;
+    }
+
+    if( index < 0 ) {
+      // a sample before the first bucket, e.g. the end of a request that started early
+      prepend((int) -index);
+      index = 0;
+    }
+    int i = (int) index;
+    if( i >= size ) {
+      ensureCapacity(i + 1);
+      size = i + 1;
+    }
+
+    if( counts[i] == 0 || value < mins[i] ) {
+      mins[i] = value;
+    }
+    if( counts[i] == 0 || value > maxs[i] ) {
+      maxs[i] = value;
+    }
+    counts[i]++;
+    sums[i] += value;
+  }
+
+  /**
+   * @return an independent copy of this series
+   */
+  public TimeBuckets copy() {
+    TimeBuckets copy = new TimeBuckets(maxBuckets);
+    copy.interval = interval;
+    copy.origin = origin;
+    copy.size = size;
+    copy.counts = counts.clone();
+    copy.sums = sums.clone();
+    copy.mins = mins.clone();
+    copy.maxs = maxs.clone();
+    return copy;
+  }
+
+  /**
+   * @return length of a bucket in ms
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * @return number of buckets that contain samples
+   */
+  public int getBucketCount() {
+    int n = 0;
+    for( int i = 0; i < size; i++ ) {
+      if( counts[i] > 0 ) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Provide the buckets that contain samples in order of time.
+   * All arrays must have a length of at least {@link #getBucketCount()}.
+   *
+   * @param timestamps receives the middle of the interval of each bucket
+   * @param averages receives the average value of each bucket
+   * @param minimums receives the minimum value of each bucket
+   * @param maximums receives the maximum value of each bucket
+   * @param bucketCounts receives the number of samples of each bucket
+   */
+  public void toArrays(long[] timestamps, long[] averages, long[] minimums, long[] maximums, long[] bucketCounts) {
+    int n = 0;
+    for( int i = 0; i < size; i++ ) {
+      if( counts[i] > 0 ) {
+        timestamps[n] = (origin + i) * interval + interval / 2;
+        averages[n] = sums[i] / counts[i];
+        minimums[n] = mins[i];
+        maximums[n] = maxs[i];
+        bucketCounts[n++] = counts[i];
+      }
+    }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Double the interval by merging adjacent buckets, in place
+   */
+  private void widen() {
+
+    long newOrigin = floorDiv(origin, 2);
+    int newSize = 0;
+    for( int i = 0; i < size; i++ ) {
+
+      long count = counts[i];
+      long sum = sums[i];
+      long min = mins[i];
+      long max = maxs[i];
+      counts[i] = 0;
+      sums[i] = 0;
+
+      // j <= i, buckets before j are final
+      int j = (int) (floorDiv(origin + i, 2) - newOrigin);
+      newSize = j + 1;
+      if( count == 0 ) {
+        continue;
+      }
+      if( counts[j] == 0 || min < mins[j] ) {
+        mins[j] = min;
+      }
+      if( counts[j] == 0 || max > maxs[j] ) {
+        maxs[j] = max;
+      }
+      counts[j] += count;
+      sums[j] += sum;
+    }
+
+    interval *= 2;
+    origin = newOrigin;
+    size = newSize;
+  }
+
+  /**
+   * Insert empty buckets before the first bucket
+   */
+  private void prepend(int buckets) {
+    ensureCapacity(size + buckets);
+    System.arraycopy(counts, 0, counts, buckets, size);
+    System.arraycopy(sums, 0, sums, buckets, size);
+    System.arraycopy(mins, 0, mins, buckets, size);
+    System.arraycopy(maxs, 0, maxs, buckets, size);
+    Arrays.fill(counts, 0, buckets, 0);
+    Arrays.fill(sums, 0, buckets, 0);
+    origin -= buckets;
+    size += buckets;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if( capacity > counts.length ) {
+      int length = Math.min(maxBuckets, Math.max(capacity, Math.max(INITIAL_BUCKETS, counts.length * 2)));
+      counts = Arrays.copyOf(counts, length);
+      sums = Arrays.copyOf(sums, length);
+      mins = Arrays.copyOf(mins, length);
+      maxs = Arrays.copyOf(maxs, length);
+    }
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+
+}
@@ -88,8 +88,20 @@ public class FileUtil {
                                    Collection<AggregatedResponses> testResults, String fromuntilDateFormat) throws IOException {
 
     long[] startEnd = getStartEnd(testResults);
-    long start = startEnd[0];
-    long end = startEnd[1];
+    readResources(remoteResources, targetDir, resultDataFileRelativePath, startEnd[0], startEnd[1], fromuntilDateFormat);
+  }
+
+  /**
+   * Reads in a set of remote resources for a time span
+   *
+   * @param remoteResources The resources as mapping URL to file name
+   * @param targetDir       The dir to store the resources
+   * @param start           start of the time span
+   * @param end             end of the time span
+   * @throws IOException If reading fails
+   */
+  public static void readResources(Properties remoteResources, File targetDir, String resultDataFileRelativePath,
+                                   long start, long end, String fromuntilDateFormat) throws IOException {
 
     SimpleDateFormat dateFormat = new SimpleDateFormat(fromuntilDateFormat);
     String fromString = urlEncode(dateFormat.format(new Date(start)));
@@ -116,7 +128,7 @@ public class FileUtil {
    * @param testResults The results
    * @return an array containing 2 elements: [startTimeStamp, endTimeStamp]
    */
-  private static long[] getStartEnd(Collection<AggregatedResponses> testResults) {
+  public static long[] getStartEnd(Collection<AggregatedResponses> testResults) {
 
     // compute min max
     long from = Long.MAX_VALUE;
@@ -0,0 +1,145 @@
+package com.lazerycode.jmeter.analyzer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads a file that is still being written, like "tail -f".
+ *
+ * When all available data has been read, reading blocks until the file grows. The end of the stream is reached
+ * when the file hasn't grown for a given time. Every read continues at the last consumed offset, so the cost of
+ * reading is proportional to the appended data.
+ * Not thread safe.
+ */
+public class FollowInputStream extends InputStream {
+
+  /**
+   * Notified on the reading thread whenever all available data has been read
+   */
+  public interface Listener {
+
+    /**
+     * All data available in the file has been read. Reading continues when this method returns.
+     *
+     * @throws IOException to abort reading
+     */
+    void caughtUp() throws IOException;
+  }
+
+  private static final long MAX_POLL_MILLIS = 500;
+  private static final long MIN_POLL_MILLIS = 10;
+
+  private final RandomAccessFile file;
+  private final long idleTimeout;
+  private final long pollMillis;
+  private final Listener listener;
+
+  private long position;
+  private long lastGrowth;
+  private boolean eof;
+
+  /**
+   * Constructor
+   *
+   * @param file the file to read
+   * @param idleTimeout time in ms after which the end of the stream is reached if the file doesn't grow
+   * @param listener notified whenever all available data has been read, may be null
+   *
+   * @throws IOException if the file can't be opened
+   */
+  public FollowInputStream(File file, long idleTimeout, Listener listener) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.idleTimeout = idleTimeout;
+    this.pollMillis = Math.max(MIN_POLL_MILLIS, Math.min(MAX_POLL_MILLIS, idleTimeout / 10));
+    this.listener = listener;
+    this.lastGrowth = System.currentTimeMillis();
+  }
+
+  /**
+   * @return number of bytes read so far
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * @return true, if the end of the stream has been reached because the file hasn't grown for the idle timeout
+   */
+  public boolean isIdle() {
+    return eof;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+
+    if( len == 0 ) {
+      return 0;
+    }
+
+    while( !eof ) {
+
+      long available = getAvailable();
+      if( available > 0 ) {
+        int read = file.read(b, off, (int) Math.min(len, available));
+        if( read > 0 ) {
+          position += read;
+          lastGrowth = System.currentTimeMillis();
+          return read;
+        }
+      }
+
+      if( listener != null ) {
+        listener.caughtUp();
+      }
+
+      if( getAvailable() == 0 ) {
+        if( System.currentTimeMillis() - lastGrowth >= idleTimeout ) {
+          eof = true;
+        }
+        else {
+          sleep();
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return eof ? 0 : (int) Math.min(Integer.MAX_VALUE, getAvailable());
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  //====================================================================================================================
+
+  private long getAvailable() throws IOException {
+    long length = file.length();
+    if( length < position ) {
+      throw new IOException("File has been truncated while reading");
+    }
+    return length - position;
+  }
+
+  private void sleep() throws IOException {
+    try {
+      Thread.sleep(pollMillis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for data");
+    }
+  }
+
+}
@@ -0,0 +1,533 @@
+package com.lazerycode.jmeter.analyzer.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a GZiped file with several threads.
+ *
+ * A GZiped file may consist of several members, e.g. if it was written by bgzip or if several GZiped files have
+ * been concatenated. Members are inflated in parallel and read in file order. As member boundaries are not known
+ * in advance, every occurrence of the GZIP magic bytes is a candidate for a member. A candidate that turns out to be
+ * within another member is discarded. Candidates are searched lazily, only a bounded distance past the start of the
+ * member being read, so that reading starts without scanning the file and a large member isn't scanned ahead.
+ *
+ * Files with a single member are inflated by a background thread, so that inflating overlaps with reading.
+ *
+ * Behaves like {@link java.util.zip.GZIPInputStream}: Data after the last member that doesn't start with a valid
+ * GZIP header is ignored. Not thread safe.
+ */
+public class ParallelGZIPInputStream extends InputStream {
+
+  private static final int CHUNK_SIZE = 256 * 1024;
+  private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+  private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Distance scanned for candidates past the start of the current member, per candidate inflated in advance.
+   * Members written by bgzip are at most 64KB.
+   */
+  private static final long SCAN_DISTANCE = 128 * 1024;
+
+  private static final int MAGIC_LENGTH = 4;
+
+  /**
+   * Number of chunks of a member that are inflated in advance
+   */
+  private static final int QUEUE_CAPACITY = 16;
+
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  private static final int MAGIC_1 = 0x1f;
+  private static final int MAGIC_2 = 0x8b;
+  private static final int DEFLATE = 8;
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int FRESERVED = 0xe0;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long length;
+  private final ExecutorService executor;
+  private final int window;
+  private final long scanAhead;
+
+  // candidates for members that are inflated in advance, in file order
+  private final LinkedList<Member> pending = new LinkedList<Member>();
+  private long scanPosition = 0;
+
+  // bytes of the file from scanStart on, reused for every candidate
+  private final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+  private long scanStart = 0;
+  private int scanLength = 0;
+
+  private Member current;
+  private long memberPosition = 0;
+  private Chunk chunk;
+  private int chunkPosition;
+  private boolean eof;
+
+  /**
+   * Constructor
+   *
+   * @param file GZiped file
+   * @param threads number of threads used for inflating
+   *
+   * @throws IOException if the file can't be opened
+   */
+  public ParallelGZIPInputStream(File file, int threads) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.length = channel.size();
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.window = 2 * threads;
+    this.scanAhead = window * SCAN_DISTANCE;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if( len == 0 ) {
+      return 0;
+    }
+    while( chunk == null || chunkPosition == chunk.length ) {
+      if( !nextChunk() ) {
+        return -1;
+      }
+    }
+    int count = Math.min(len, chunk.length - chunkPosition);
+    System.arraycopy(chunk.data, chunkPosition, b, off, count);
+    chunkPosition += count;
+    return count;
+  }
+
+  /**
+   * @return number of bytes of the file that have been searched for candidates
+   */
+  long getScannedBytes() {
+    return scanPosition;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for( Member member : pending ) {
+      member.cancel();
+    }
+    pending.clear();
+    if( current != null ) {
+      current.cancel();
+    }
+    executor.shutdown();
+    file.close();
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Take the next chunk of inflated data
+   *
+   * @return false at the end of the data
+   */
+  private boolean nextChunk() throws IOException {
+
+    while( !eof ) {
+
+      if( current == null ) {
+        current = getMember(memberPosition);
+        if( current == null ) {
+          if( memberPosition == 0 ) {
+            throw new ZipException("Not in GZIP format");
+          }
+          eof = true;
+          return false;
+        }
+      }
+
+      Chunk next = current.take();
+      if( next.error == null && next.data != null ) {
+        chunk = next;
+        chunkPosition = 0;
+        return true;
+      }
+
+      if( next.error != null ) {
+        eof = true;
+        if( next.invalidHeader && memberPosition > 0 ) {
+          // trailing garbage is ignored, as GZIPInputStream does
+          return false;
+        }
+        throw next.error;
+      }
+
+      // end of member
+      memberPosition = current.end;
+      current = null;
+      if( memberPosition >= length ) {
+        eof = true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Provide the member starting at the given position. Candidates before this position are discarded.
+   *
+   * @return the member or null if there is no GZIP header at the position
+   */
+  private Member getMember(long position) throws IOException {
+
+    while( !pending.isEmpty() && pending.getFirst().position < position ) {
+      pending.removeFirst().cancel();
+    }
+    if( pending.isEmpty() && scanPosition < position ) {
+      scanPosition = position;
+    }
+
+    long limit = position + scanAhead;
+    fillWindow(limit);
+
+    if( pending.isEmpty() || pending.getFirst().position != position ) {
+      return null;
+    }
+
+    Member member = pending.removeFirst();
+    fillWindow(limit);
+    return member;
+  }
+
+  /**
+   * Start inflating candidates before the limit until the window is full
+   */
+  private void fillWindow(long limit) throws IOException {
+    while( pending.size() < window ) {
+      long candidate = nextCandidate(limit);
+      if( candidate < 0 ) {
+        return;
+      }
+      Member member = new Member(candidate);
+      member.future = executor.submit(member);
+      pending.add(member);
+    }
+  }
+
+  /**
+   * Find the next position before the limit that may be the start of a member
+   *
+   * @return the position or -1 if there is none
+   */
+  private long nextCandidate(long limit) throws IOException {
+
+    long end = Math.min(limit, length);
+    while( scanPosition < end ) {
+
+      int from = (int) (scanPosition - scanStart);
+      if( scanPosition < scanStart || from + MAGIC_LENGTH > scanLength ) {
+        // read only what is scanned, plus the rest of a header starting just before the limit
+        scanBuffer.clear();
+        scanBuffer.limit((int) Math.min(SCAN_BUFFER_SIZE, end - scanPosition + MAGIC_LENGTH - 1));
+        scanStart = scanPosition;
+        scanLength = read(scanPosition, scanBuffer);
+        from = 0;
+        if( scanLength < MAGIC_LENGTH ) {
+          // too close to the end of the file for a header
+          scanPosition = length;
+          return -1;
+        }
+      }
+
+      byte[] b = scanBuffer.array();
+      int last = (int) Math.min(scanLength - MAGIC_LENGTH + 1, end - scanStart);
+      for( int i = from; i < last; i++ ) {
+        if( (b[i] & 0xFF) == MAGIC_1 && (b[i + 1] & 0xFF) == MAGIC_2 && b[i + 2] == DEFLATE
+                && (b[i + 3] & FRESERVED) == 0 ) {
+          long candidate = scanStart + i;
+          scanPosition = candidate + 1;
+          return candidate;
+        }
+      }
+      scanPosition = scanStart + last;
+    }
+    return -1;
+  }
+
+  /**
+   * Read from the file at the given position until the buffer is full or the end of the file has been reached
+   *
+   * @return number of bytes read
+   */
+  private int read(long position, ByteBuffer buffer) throws IOException {
+    int count = 0;
+    int read;
+    while( buffer.hasRemaining() && (read = channel.read(buffer, position + count)) > 0 ) {
+      count += read;
+    }
+    return count;
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * Inflated data, end of member or error
+   */
+  private static final class Chunk {
+
+    static final Chunk END = new Chunk(null, 0, null, false);
+
+    final byte[] data;
+    final int length;
+    final IOException error;
+    final boolean invalidHeader;
+
+    Chunk(byte[] data, int length, IOException error, boolean invalidHeader) {
+      this.data = data;
+      this.length = length;
+      this.error = error;
+      this.invalidHeader = invalidHeader;
+    }
+  }
+
+  /**
+   * Inflates a member candidate into a bounded queue of chunks
+   */
+  private final class Member implements Runnable {
+
+    final long position;
+    final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUE_CAPACITY);
+    volatile long end;
+    volatile boolean discarded;
+    Future<?> future;
+
+    // position of the next compressed byte to read
+    private long input;
+    private final ByteBuffer inputBuffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+    Member(long position) {
+      this.position = position;
+    }
+
+    Chunk take() throws IOException {
+      try {
+        return queue.take();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while inflating");
+      }
+    }
+
+    /**
+     * Stop inflating. Doesn't interrupt the thread, as that would close the shared channel.
+     */
+    void cancel() {
+      discarded = true;
+      future.cancel(false);
+    }
+
+    @Override
+    public void run() {
+      Inflater inflater = new Inflater(true);
+      try {
+        input = position;
+        try {
+          readHeader();
+        }
+        catch (IOException e) {
+          put(new Chunk(null, 0, e, true));
+          return;
+        }
+
+        inflate(inflater);
+        put(Chunk.END);
+      }
+      catch (IOException e) {
+        fail(e);
+      }
+      catch (DataFormatException e) {
+        fail(new ZipException(e.getMessage()));
+      }
+      catch (InterruptedException e) {
+        // candidate has been discarded
+      }
+      catch (RuntimeException e) {
+        fail(new IOException("Inflating failed: " + e));
+      }
+      finally {
+        inflater.end();
+      }
+    }
+
+    private void fail(IOException e) {
+      try {
+        put(new Chunk(null, 0, e, false));
+      }
+      catch (InterruptedException discarded) {
+        // nobody is interested
+      }
+    }
+
+    /**
+     * Hand a chunk to the reader. Blocks while the queue is full.
+     *
+     * @throws InterruptedException if the candidate has been discarded
+     */
+    private void put(Chunk chunk) throws InterruptedException {
+      while( !queue.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) ) {
+        if( discarded ) {
+          throw new InterruptedException();
+        }
+      }
+    }
+
+    private void inflate(Inflater inflater) throws IOException, DataFormatException, InterruptedException {
+
+      CRC32 crc = new CRC32();
+      long size = 0;
+
+      byte[] out = new byte[CHUNK_SIZE];
+      int outLength = 0;
+      byte[] in = new byte[INPUT_BUFFER_SIZE];
+
+      while( !inflater.finished() ) {
+
+        if( discarded ) {
+          throw new InterruptedException();
+        }
+
+        if( inflater.needsInput() ) {
+          int read = readInput(in, in.length);
+          if( read <= 0 ) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+          }
+          inflater.setInput(in, 0, read);
+        }
+
+        int inflated = inflater.inflate(out, outLength, out.length - outLength);
+        if( inflated == 0 && inflater.needsDictionary() ) {
+          throw new ZipException("Preset dictionary not supported");
+        }
+        outLength += inflated;
+
+        if( outLength == out.length ) {
+          crc.update(out, 0, outLength);
+          size += outLength;
+          put(new Chunk(out, outLength, null, false));
+          out = new byte[CHUNK_SIZE];
+          outLength = 0;
+        }
+      }
+
+      if( outLength > 0 ) {
+        crc.update(out, 0, outLength);
+        size += outLength;
+        put(new Chunk(out, outLength, null, false));
+      }
+
+      // trailer follows the compressed data
+      input -= inflater.getRemaining();
+      byte[] trailer = new byte[8];
+      if( readInput(trailer, trailer.length) != trailer.length ) {
+        throw new EOFException("Unexpected end of GZIP trailer");
+      }
+      if( getInt(trailer, 0) != crc.getValue() || getInt(trailer, 4) != (size & 0xffffffffL) ) {
+        throw new ZipException("Corrupt GZIP trailer");
+      }
+      end = input;
+    }
+
+    private void readHeader() throws IOException {
+
+      byte[] header = new byte[10];
+      if( readInput(header, header.length) != header.length ) {
+        throw new EOFException("Incomplete GZIP header");
+      }
+      if( (header[0] & 0xFF) != MAGIC_1 || (header[1] & 0xFF) != MAGIC_2 ) {
+        throw new ZipException("Not in GZIP format");
+      }
+      if( header[2] != DEFLATE ) {
+        throw new ZipException("Unsupported compression method");
+      }
+      int flags = header[3] & 0xFF;
+      if( (flags & FRESERVED) != 0 ) {
+        throw new ZipException("Invalid GZIP header flags");
+      }
+
+      if( (flags & FEXTRA) != 0 ) {
+        byte[] extraLength = new byte[2];
+        if( readInput(extraLength, 2) != 2 ) {
+          throw new EOFException("Incomplete GZIP header");
+        }
+        input += (extraLength[0] & 0xFF) | ((extraLength[1] & 0xFF) << 8);
+      }
+      if( (flags & FNAME) != 0 ) {
+        skipString();
+      }
+      if( (flags & FCOMMENT) != 0 ) {
+        skipString();
+      }
+      if( (flags & FHCRC) != 0 ) {
+        input += 2;
+      }
+      if( input >= length ) {
+        throw new EOFException("Incomplete GZIP header");
+      }
+    }
+
+    /**
+     * Skip a zero terminated string
+     */
+    private void skipString() throws IOException {
+      byte[] b = new byte[1];
+      do {
+        if( readInput(b, 1) != 1 ) {
+          throw new EOFException("Incomplete GZIP header");
+        }
+      }
+      while( b[0] != 0 );
+    }
+
+    /**
+     * Read compressed input
+     *
+     * @return number of bytes read
+     */
+    private int readInput(byte[] b, int len) throws IOException {
+      ByteBuffer buffer = len == inputBuffer.capacity() ? inputBuffer : ByteBuffer.allocate(len);
+      buffer.clear();
+      int count = read(input, buffer);
+      buffer.flip();
+      buffer.get(b, 0, count);
+      input += count;
+      return count;
+    }
+
+    private long getInt(byte[] b, int offset) {
+      return (b[offset] & 0xFFL) | ((b[offset + 1] & 0xFFL) << 8) | ((b[offset + 2] & 0xFFL) << 16)
+              | ((b[offset + 3] & 0xFFL) << 24);
+    }
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.lazerycode.jmeter.analyzer.util;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Prefixes all messages written to a log, e.g. with the name of the analyzed file, so that the messages of files that
+ * are analyzed concurrently can be told apart.
+ * Thread safe if the wrapped log is thread safe.
+ */
+public class PrefixedLog implements Log {
+
+  private final Log log;
+  private final String prefix;
+
+  /**
+   * Constructor
+   *
+   * @param log the log to write to
+   * @param prefix the prefix of all messages
+   */
+  public PrefixedLog(Log log, String prefix) {
+    this.log = log;
+    this.prefix = prefix;
+  }
+
+  @Override
+  public boolean isDebugEnabled() {
+    return log.isDebugEnabled();
+  }
+
+  @Override
+  public void debug(CharSequence content) {
+    log.debug(prefix(content));
+  }
+
+  @Override
+  public void debug(CharSequence content, Throwable error) {
+    log.debug(prefix(content), error);
+  }
+
+  @Override
+  public void debug(Throwable error) {
+    log.debug(prefix(error.toString()), error);
+  }
+
+  @Override
+  public boolean isInfoEnabled() {
+    return log.isInfoEnabled();
+  }
+
+  @Override
+  public void info(CharSequence content) {
+    log.info(prefix(content));
+  }
+
+  @Override
+  public void info(CharSequence content, Throwable error) {
+    log.info(prefix(content), error);
+  }
+
+  @Override
+  public void info(Throwable error) {
+    log.info(prefix(error.toString()), error);
+  }
+
+  @Override
+  public boolean isWarnEnabled() {
+    return log.isWarnEnabled();
+  }
+
+  @Override
+  public void warn(CharSequence content) {
+    log.warn(prefix(content));
+  }
+
+  @Override
+  public void warn(CharSequence content, Throwable error) {
+    log.warn(prefix(content), error);
+  }
+
+  @Override
+  public void warn(Throwable error) {
+    log.warn(prefix(error.toString()), error);
+  }
+
+  @Override
+  public boolean isErrorEnabled() {
+    return log.isErrorEnabled();
+  }
+
+  @Override
+  public void error(CharSequence content) {
+    log.error(prefix(content));
+  }
+
+  @Override
+  public void error(CharSequence content, Throwable error) {
+    log.error(prefix(content), error);
+  }
+
+  @Override
+  public void error(Throwable error) {
+    log.error(prefix(error.toString()), error);
+  }
+
+  //====================================================================================================================
+
+  private String prefix(CharSequence content) {
+    return prefix + content;
+  }
+
+}
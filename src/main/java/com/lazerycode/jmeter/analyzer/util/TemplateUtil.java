@@ -1,10 +1,7 @@
 package com.lazerycode.jmeter.analyzer.util;
 
-import com.lazerycode.jmeter.analyzer.AnalyzeMojo;
-import freemarker.template.Configuration;
 import freemarker.template.Template;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -56,8 +53,9 @@ public class TemplateUtil {
   }
 
   /**
-   * Try to load template from custom location.
-   * Load bundled template from classpath in case no custom template is available or an error occurs
+   * Load template from custom location.
+   * Load bundled template from classpath in case no custom template is available.
+   * Thread safe, see {@link com.lazerycode.jmeter.analyzer.config.Environment#initializeFreemarkerConfiguration()}
    *
    * @param templateName name of the template
    *
@@ -66,26 +64,7 @@ public class TemplateUtil {
    * @throws IOException
    */
   public static Template getTemplate(String templateName) throws IOException {
-
-    Template template = null;
-    File templateDirectory = ENVIRONMENT.getTemplateDirectory();
-    Configuration configuration = ENVIRONMENT.getConfiguration();
-
-    if(templateDirectory != null && templateDirectory.isDirectory()) {
-      if(new File(templateDirectory,templateName).exists()) {
-        //load template from custom location
-        configuration.setDirectoryForTemplateLoading(templateDirectory);
-        template = configuration.getTemplate(templateName);
-      }
-    }
-
-    if(template == null) {
-      //custom location not configured. Load from classpath.
-      configuration.setClassForTemplateLoading(AnalyzeMojo.class, "templates");
-      template = configuration.getTemplate(templateName);
-    }
-
-    return template;
+    return ENVIRONMENT.getConfiguration().getTemplate(templateName);
   }
 
 }
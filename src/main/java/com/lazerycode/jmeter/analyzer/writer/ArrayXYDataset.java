@@ -0,0 +1,196 @@
+package com.lazerycode.jmeter.analyzer.writer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.data.DomainOrder;
+import org.jfree.data.xy.AbstractIntervalXYDataset;
+import org.jfree.data.xy.IntervalXYDelegate;
+
+/**
+ * Dataset backed directly by primitive arrays, for charts of many points.
+ * Unlike {@link org.jfree.data.xy.XYSeries}, adding a point neither boxes its values nor sorts the series nor fires a
+ * change event: a series is added as a whole and the dataset fires a single event per series.
+ *
+ * x intervals are either given (e.g. histogram bins) or derived from the spacing of the x values like
+ * {@link org.jfree.data.xy.XYSeriesCollection} does, so that bar renderers draw the same bars.
+ * y intervals are either given (e.g. minimum and maximum of a time bucket) or the y value itself.
+ * The arrays are not copied and must not be changed after the series has been added.
+ */
+class ArrayXYDataset extends AbstractIntervalXYDataset {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<Series> series = new ArrayList<Series>();
+  private final IntervalXYDelegate intervalDelegate;
+
+  ArrayXYDataset() {
+    this.intervalDelegate = new IntervalXYDelegate(this, false);
+    addChangeListener(intervalDelegate);
+  }
+
+  /**
+   * Adds a series of points
+   *
+   * @param key name of the series
+   * @param x   x values in ascending order
+   * @param y   y values
+   * @return this dataset
+   */
+  ArrayXYDataset addSeries(Comparable<?> key, double[] x, double[] y) {
+    return addSeries(new Series(key, x, y, null, null, null, null));
+  }
+
+  /**
+   * Adds a series of points, each within a y interval
+   *
+   * @param key   name of the series
+   * @param x     x values in ascending order
+   * @param y     y values
+   * @param start lowest y value of each point
+   * @param end   highest y value of each point
+   * @return this dataset
+   */
+  ArrayXYDataset addSeries(Comparable<?> key, double[] x, double[] y, double[] start, double[] end) {
+    return addSeries(new Series(key, x, y, null, null, start, end));
+  }
+
+  /**
+   * Adds a series of bins, e.g. of a histogram
+   *
+   * @param key   name of the series
+   * @param start lowest x value of each bin in ascending order
+   * @param end   highest x value of each bin
+   * @param y     y value of each bin
+   * @return this dataset
+   */
+  ArrayXYDataset addBinSeries(Comparable<?> key, double[] start, double[] end, double[] y) {
+    double[] x = new double[y.length];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = (start[i] + end[i]) / 2;
+    }
+    return addSeries(new Series(key, x, y, start, end, null, null));
+  }
+
+  //====================================================================================================================
+
+  @Override
+  public int getSeriesCount() {
+    return series.size();
+  }
+
+  @Override
+  public Comparable<?> getSeriesKey(int series) {
+    return this.series.get(series).key;
+  }
+
+  @Override
+  public DomainOrder getDomainOrder() {
+    return DomainOrder.ASCENDING;
+  }
+
+  @Override
+  public int getItemCount(int series) {
+    return this.series.get(series).y.length;
+  }
+
+  @Override
+  public Number getX(int series, int item) {
+    return getXValue(series, item);
+  }
+
+  @Override
+  public double getXValue(int series, int item) {
+    return this.series.get(series).x[item];
+  }
+
+  @Override
+  public Number getY(int series, int item) {
+    return getYValue(series, item);
+  }
+
+  @Override
+  public double getYValue(int series, int item) {
+    return this.series.get(series).y[item];
+  }
+
+  @Override
+  public Number getStartX(int series, int item) {
+    return getStartXValue(series, item);
+  }
+
+  @Override
+  public double getStartXValue(int series, int item) {
+    double[] start = this.series.get(series).startX;
+    return start != null ? start[item] : intervalDelegate.getStartXValue(series, item);
+  }
+
+  @Override
+  public Number getEndX(int series, int item) {
+    return getEndXValue(series, item);
+  }
+
+  @Override
+  public double getEndXValue(int series, int item) {
+    double[] end = this.series.get(series).endX;
+    return end != null ? end[item] : intervalDelegate.getEndXValue(series, item);
+  }
+
+  @Override
+  public Number getStartY(int series, int item) {
+    return getStartYValue(series, item);
+  }
+
+  @Override
+  public double getStartYValue(int series, int item) {
+    Series s = this.series.get(series);
+    return s.startY != null ? s.startY[item] : s.y[item];
+  }
+
+  @Override
+  public Number getEndY(int series, int item) {
+    return getEndYValue(series, item);
+  }
+
+  @Override
+  public double getEndYValue(int series, int item) {
+    Series s = this.series.get(series);
+    return s.endY != null ? s.endY[item] : s.y[item];
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  private ArrayXYDataset addSeries(Series s) {
+    series.add(s);
+    // a single event per series, it also lets the interval delegate compute the width of the x intervals
+    fireDatasetChanged();
+    return this;
+  }
+
+  /**
+   * Values of a series, the intervals are null if not given
+   */
+  private static final class Series implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Comparable<?> key;
+    private final double[] x;
+    private final double[] y;
+    private final double[] startX;
+    private final double[] endX;
+    private final double[] startY;
+    private final double[] endY;
+
+    Series(Comparable<?> key, double[] x, double[] y, double[] startX, double[] endX, double[] startY, double[] endY) {
+      this.key = key;
+      this.x = x;
+      this.y = y;
+      this.startX = startX;
+      this.endX = endX;
+      this.startY = startY;
+      this.endY = endY;
+    }
+  }
+}
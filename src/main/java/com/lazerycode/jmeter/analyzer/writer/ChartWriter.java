@@ -14,20 +14,22 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.jfree.chart.plot.CombinedDomainXYPlot;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.statistics.HistogramDataset;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.lazerycode.jmeter.analyzer.ConfigurationCharts;
 import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
 import com.lazerycode.jmeter.analyzer.statistics.Quantile;
 import com.lazerycode.jmeter.analyzer.statistics.Samples;
+import com.lazerycode.jmeter.analyzer.statistics.Throughput;
 
 import freemarker.template.TemplateException;
 
@@ -38,8 +40,11 @@ public class ChartWriter extends WriterBase {
 
   // QUANTILE use for percentiles chart
   private static final int Q = 1000;
-  // Must be > 0
-  private final static long SECONDS_ROUND = 10L;
+  // number of bins of the response times histogram
+  private static final int BINS = 40;
+  // bytes of an image per pixel while it is rendered: ARGB image and its PNG encoding
+  private static final long BYTES_PER_PIXEL = 8L;
+  private static final long MB = 1024L * 1024L;
 
   /**
    * Needed to check if an Instance of ChartWriter is already in the {@link com.lazerycode.jmeter.analyzer.AnalyzeMojo#writers}
@@ -57,12 +62,23 @@ public class ChartWriter extends WriterBase {
   public void write(Map<String, AggregatedResponses> testResults) throws IOException, TemplateException {
 
     // Process every AggregatedResponse
+    List<Chart> charts = new ArrayList<Chart>();
     for (Map.Entry<String, AggregatedResponses> entry : testResults.entrySet()) {
 
       String name = entry.getKey();
       AggregatedResponses aggregatedResponses = entry.getValue();
 
-      writeCharts(aggregatedResponses, name);
+      addCharts(charts, aggregatedResponses, name);
+    }
+
+    int threads = Math.min(ENVIRONMENT.getConfigurationCharts().getThreads(), charts.size());
+    if (threads > 1) {
+      renderConcurrently(charts, threads);
+    }
+    else {
+      for (Chart chart : charts) {
+        renderChart(chart.title, chart.createPlot(), chart.file);
+      }
     }
   }
 
@@ -76,160 +92,298 @@ public class ChartWriter extends WriterBase {
   //====================================================================================================================
 
   /**
-   * Generate Charts
+   * Describe the charts of a request group. The plots are created when the charts are rendered.
    *
+   * @param charts              receives the charts
+   * @param aggregatedResponses results to generate charts from
    * @param name                identifier used as part of the name
-   * @param aggregatedResponses results to generate CSV from
    * @throws IOException
    */
-  private void writeCharts(AggregatedResponses aggregatedResponses, String name) throws IOException, TemplateException {
-
-    File requestChartFile;
-    String chartName;
-
-    // Create Plot
-    XYPlot durationPlot = createDurationPlot(aggregatedResponses);
-    XYPlot sizePlot = createSizePlot(aggregatedResponses);
-    XYPlot activeThreadsPlot = createActiveThreadsPlot(aggregatedResponses);
-    XYPlot throughputPlot = createThroughputPlot(aggregatedResponses);
-    XYPlot responseTimesPlot = createResponseTimesPlot(aggregatedResponses);
-
-    // Create Combined Plot
-    CombinedDomainXYPlot combinedThroughputActiveThreadsPlot = ChartUtil.createCombinedDomainDatePlot();
-    combinedThroughputActiveThreadsPlot.add( throughputPlot, 2 );
-    combinedThroughputActiveThreadsPlot.add( activeThreadsPlot, 1 );
+  private void addCharts(List<Chart> charts, final AggregatedResponses aggregatedResponses, String name) throws IOException {
 
     //throughput chart
-    requestChartFile = getFile(chartFileName(name, THROUGHPUT));
-    chartName = "Throughput (" + name + ")";
-    renderChart(chartName, combinedThroughputActiveThreadsPlot, requestChartFile);
+    charts.add(new Chart("Throughput (" + name + ")", getFile(chartFileName(name, THROUGHPUT))) {
+      @Override
+      XYPlot createPlot() {
+        // Create Combined Plot
+        CombinedDomainXYPlot combinedThroughputActiveThreadsPlot = ChartUtil.createCombinedDomainDatePlot();
+        combinedThroughputActiveThreadsPlot.add( createThroughputPlot(aggregatedResponses), 2 );
+        combinedThroughputActiveThreadsPlot.add( createActiveThreadsPlot(aggregatedResponses), 1 );
+        return combinedThroughputActiveThreadsPlot;
+      }
+    });
 
     //response times chart
-    requestChartFile = getFile(chartFileName(name, RESPONSE_TIMES));
-    chartName = "Response times (" + name + ")";
-    renderChart(chartName, responseTimesPlot, requestChartFile);
+    charts.add(new Chart("Response times (" + name + ")", getFile(chartFileName(name, RESPONSE_TIMES))) {
+      @Override
+      XYPlot createPlot() {
+        return createResponseTimesPlot(aggregatedResponses);
+      }
+    });
 
     //durations chart
-    requestChartFile = getFile(chartFileName(name, DURATIONS));
-    chartName = "Requests Duration (" + name + ")";
-    renderChart(chartName, durationPlot, requestChartFile);
+    charts.add(new Chart("Requests Duration (" + name + ")", getFile(chartFileName(name, DURATIONS))) {
+      @Override
+      XYPlot createPlot() {
+        return createDurationPlot(aggregatedResponses);
+      }
+    });
 
     //sizes chart
-    requestChartFile = getFile(chartFileName(name, SIZES));
-    chartName = "Requests Size (" + name + ")";
-    renderChart(chartName, sizePlot, requestChartFile);
+    charts.add(new Chart("Requests Size (" + name + ")", getFile(chartFileName(name, SIZES))) {
+      @Override
+      XYPlot createPlot() {
+        return createSizePlot(aggregatedResponses);
+      }
+    });
+  }
+
+  /**
+   * Renders the charts with several threads. Every chart is written to its own file, so the files are the same as if
+   * rendered one after another. Charts wait until the memory of their images is available, see
+   * {@link ConfigurationCharts#getMaxRenderingMemory()}. All charts are waited for, then the first failure (in the
+   * order of the charts) is thrown.
+   *
+   * @param charts  the charts
+   * @param threads number of charts to render at the same time
+   */
+  private void renderConcurrently(List<Chart> charts, int threads) throws IOException {
+
+    ConfigurationCharts configurationCharts = ENVIRONMENT.getConfigurationCharts();
+    final int totalMemory = Math.max(1, configurationCharts.getMaxRenderingMemory());
+    long imageBytes = (long) configurationCharts.getWidth() * configurationCharts.getHeight() * BYTES_PER_PIXEL;
+    // a chart larger than the total memory is rendered alone
+    final int chartMemory = (int) Math.min(totalMemory, Math.max(1, (imageBytes + MB - 1) / MB));
+    final Semaphore memory = new Semaphore(totalMemory, true);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (final Chart chart : charts) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            memory.acquire(chartMemory);
+            try {
+              renderChart(chart.title, chart.createPlot(), chart.file);
+            } finally {
+              memory.release(chartMemory);
+            }
+            return null;
+          }
+        }));
+      }
+
+      Throwable failure = null;
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while rendering charts");
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure != null) {
+        throw new IllegalStateException("Rendering charts failed", failure);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
   private XYPlot createDurationPlot(AggregatedResponses aggregatedResponses) {
       XYPlot plot = ChartUtil.createDatePlot("Duration (ms)");
-      Samples durations = aggregatedResponses.getDuration();
-      ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createAverageValuesSeries(AVERAGE, durations.getTimestamps(),
-              durations.getSamples(), durations.getMinTimestamp())), ChartUtil.createLineAndShapeRenderer());
-      return ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createValuesSeries("Duration", durations.getTimestamps(),
-              durations.getSamples(), durations.getMinTimestamp())), ChartUtil.createBarRenderer());
+      return addValuesDatasets(plot, "Duration", aggregatedResponses.getDuration());
   }
 
   private XYPlot createSizePlot(AggregatedResponses aggregatedResponses) {
       XYPlot plot = ChartUtil.createDatePlot("Size (bytes)");
-      Samples durations = aggregatedResponses.getSize();
-      ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createAverageValuesSeries(AVERAGE, durations.getTimestamps(),
-              durations.getSamples(), durations.getMinTimestamp())), ChartUtil.createLineAndShapeRenderer());
-      return ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createValuesSeries("Size", durations.getTimestamps(),
-              durations.getSamples(), durations.getMinTimestamp())), ChartUtil.createBarRenderer());
+      return addValuesDatasets(plot, "Size", aggregatedResponses.getSize());
+  }
+
+  /**
+   * Adds the running average and the values of the samples to the plot. Samples aggregated into time buckets are
+   * plotted as the average of each bucket within a band from its minimum to its maximum.
+   */
+  private XYPlot addValuesDatasets(XYPlot plot, String seriesName, Samples samples) {
+      if (samples.getBucketInterval() > 0) {
+          ChartUtil.addDatasetRender(plot,
+                  createAverageValuesSeries(AVERAGE, samples.getTimestampValues(), samples.getSampleValues(),
+                  samples.getBucketCounts(), samples.getMinTimestamp()), ChartUtil.createLineAndShapeRenderer());
+          return ChartUtil.addDatasetRender(plot,
+                  createIntervalSeries(seriesName, samples, samples.getMinTimestamp()), ChartUtil.createDeviationRenderer());
+      }
+      ChartUtil.addDatasetRender(plot,
+              createAverageValuesSeries(AVERAGE, samples.getTimestampValues(),
+              samples.getSampleValues(), samples.getMinTimestamp()), ChartUtil.createLineAndShapeRenderer());
+      return ChartUtil.addDatasetRender(plot,
+              createValuesSeries(seriesName, samples.getTimestampValues(),
+              samples.getSampleValues(), samples.getMinTimestamp()), ChartUtil.createBarRenderer());
   }
 
   private XYPlot createActiveThreadsPlot(AggregatedResponses aggregatedResponses) {
       XYPlot plot = ChartUtil.createDatePlot("Thread Count");
       Samples activeThreads = aggregatedResponses.getActiveThreads();
-      return ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createValuesSeries("Threads", activeThreads.getTimestamps(),
-              activeThreads.getSamples(), activeThreads.getMinTimestamp())), ChartUtil.createSecondaryLineAndShapeRenderer());
+      return ChartUtil.addDatasetRender(plot,
+              createValuesSeries("Threads", activeThreads.getTimestampValues(),
+              activeThreads.getSampleValues(), activeThreads.getMinTimestamp()), ChartUtil.createSecondaryLineAndShapeRenderer());
   }
 
   private XYPlot createThroughputPlot(AggregatedResponses aggregatedResponses) {
-      SortedMap<Long, Long> throughput = new TreeMap<Long, Long>();
-      for (long timestamp : aggregatedResponses.getActiveThreads().getTimestamps()) {
-          long timestampRound = convert(timestamp);
-          Long throughputResult = throughput.get(timestampRound);
-          // Add SECONDS_ROUND to get request by second.
-          if (null == throughputResult) {
-              throughput.put(timestampRound, SECONDS_ROUND);
-          } else {
-              throughputResult += SECONDS_ROUND;
-              throughput.put(timestampRound, throughputResult);
-          }
+      // exact counts per interval, independent of the compression of the samples
+      Throughput throughput = aggregatedResponses.getThroughput();
+      long resolution = throughput.getResolution();
+      long[] timestamps = throughput.getTimestamps();
+      long[] counts = throughput.getRequestCounts();
+      long[] samples = new long[counts.length];
+      for (int i = 0; i < counts.length; i++) {
+          samples[i] = counts[i] * 1000 / resolution;
       }
-      List<Long> timestamps = new ArrayList<Long>(throughput.keySet());
-      List<Long> samples = new ArrayList<Long>(throughput.values());
 
-      long minTimestamp = convert(aggregatedResponses.getActiveThreads().getMinTimestamp());
+      // same origin as the active threads plot below
+      long minTimestamp = aggregatedResponses.getActiveThreads().getMinTimestamp();
 
       XYPlot plot = ChartUtil.createDatePlot("Requests (req/s)");
-      ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createAverageValuesSeries(AVERAGE, timestamps, samples, minTimestamp)), ChartUtil.createLineAndShapeRenderer());
-      return ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-              createValuesSeries("Throughput", timestamps, samples, minTimestamp)), ChartUtil.createLineAndShapeRenderer());
+      ChartUtil.addDatasetRender(plot,
+              createAverageValuesSeries(AVERAGE, timestamps, samples, minTimestamp), ChartUtil.createLineAndShapeRenderer());
+      return ChartUtil.addDatasetRender(plot,
+              createValuesSeries("Throughput", timestamps, samples, minTimestamp), ChartUtil.createLineAndShapeRenderer());
   }
 
   private XYPlot createResponseTimesPlot(AggregatedResponses aggregatedResponses) {
       Samples durations = aggregatedResponses.getDuration();
 
-      // Distribution
-      double[] values = new double[durations.getSamples().size()];
-      for (int i = 0; i < durations.getSamples().size(); i++) {
-          values[i] = durations.getSamples().get(i);
+      // Distribution, from the counts of the histogram
+      long[] counts = durations.getValueCounts(BINS);
+      double min = durations.getMin();
+      double width = (durations.getMax() - min) / BINS;
+      double[] start = new double[BINS];
+      double[] end = new double[BINS];
+      double[] requests = new double[BINS];
+      for (int i = 0; i < BINS; i++) {
+          start[i] = min + i * width;
+          end[i] = min + (i + 1) * width;
+          requests[i] = counts[i];
       }
 
-      HistogramDataset histogramdataset = new HistogramDataset();
-      histogramdataset.addSeries("Request Count", values, 40);
-
       // Percentiles
-      List<Double> y = new ArrayList<Double>(Q + 1);
-      List<Long> x = new ArrayList<Long>(Q + 1);
+      double[] y = new double[Q + 1];
+      double[] x = new double[Q + 1];
       Quantile quantile = durations.getQuantiles(Q);
-      // Add zero value
-      y.add(0D);
-      x.add(0L);
+      int[] populations = new int[Q - 1];
+      for (int i = 1; i < Q; i++) {
+          populations[i - 1] = i;
+      }
+      long[] percentiles = quantile.getQuantiles(populations);
+      // index 0 is the zero value
       for (int i = 1; i < Q; i++) {
-          y.add(((double) i) / 10);
-          x.add(quantile.getQuantile(i));
+          y[i] = ((double) i) / 10;
+          x[i] = percentiles[i - 1];
       }
       // Add max value
-      y.add(100D);
-      x.add(durations.getMax());
+      y[Q] = 100D;
+      x[Q] = durations.getMax();
 
       XYPlot plot = ChartUtil.createResponseTimesPlot("Response Times (ms)");
-      ChartUtil.addDatasetRender(plot, new XYSeriesCollection(
-                  createValuesSeries("Percentiles", x, y, 0)), ChartUtil.createLineAndShapeRenderer());
-      ChartUtil.addDatasetRender(plot, histogramdataset, ChartUtil.createBarRenderer());
+      ChartUtil.addDatasetRender(plot,
+                  new ArrayXYDataset().addSeries("Percentiles", x, y), ChartUtil.createLineAndShapeRenderer());
+      ChartUtil.addDatasetRender(plot,
+                  new ArrayXYDataset().addBinSeries("Request Count", start, end, requests), ChartUtil.createBarRenderer());
       plot.mapDatasetToRangeAxis(1, 1);
       return plot;
   }
 
+  private ArrayXYDataset createValuesSeries(String seriesName, long[] x, long[] y, long minimumTimestamp) {
+      return createSeries(seriesName, x, Downsampling.toDoubles(y), minimumTimestamp);
+  }
 
-  private XYSeries createValuesSeries(String seriesName, List<? extends Number> x, List<? extends Number> y, long minimumTimestamp) {
-      XYSeries series = new XYSeries(seriesName);
-      for (int i = 0; i < y.size(); i++) {
-          series.add((x.get(i).doubleValue() - minimumTimestamp), y.get(i));
+  private ArrayXYDataset createAverageValuesSeries(String seriesName, long[] x, long[] y, long minimumTimestamp) {
+      double[] averages = new double[y.length];
+      long total = 0;
+      for (int i = 0; i < y.length; i++) {
+        total += y[i];
+        averages[i] = total / (i + 1.0);
       }
-      return series;
+      return createSeries(seriesName, x, averages, minimumTimestamp);
   }
 
-  private XYSeries createAverageValuesSeries(String seriesName, List<Long> x, List<Long> y, long minimumTimestamp) {
-      XYSeries series = new XYSeries(seriesName);
-      long total = 0;
-      for (int i = 0; i < y.size(); i++) {
-        long current = y.get(i);
-        long timestamp = x.get(i);
+  private ArrayXYDataset createAverageValuesSeries(String seriesName, long[] x, long[] y, long[] weights, long minimumTimestamp) {
+      double[] averages = new double[y.length];
+      double total = 0;
+      long count = 0;
+      for (int i = 0; i < y.length; i++) {
+        total += (double) y[i] * weights[i];
+        count += weights[i];
+        averages[i] = total / count;
+      }
+      return createSeries(seriesName, x, averages, minimumTimestamp);
+  }
 
-        total += current;
-        series.add((timestamp - minimumTimestamp), (total / (i + 1.0)));
+  /**
+   * Creates a series of at most {@link #getMaxPoints()} points, see {@link Downsampling}
+   */
+  private ArrayXYDataset createSeries(String seriesName, long[] x, double[] y, long minimumTimestamp) {
+      int[] selected = Downsampling.largestTriangleThreeBuckets(x, y, getMaxPoints());
+      double[] xValues = new double[selected.length];
+      double[] yValues = new double[selected.length];
+      for (int s = 0; s < selected.length; s++) {
+          xValues[s] = x[selected[s]] - minimumTimestamp;
+          yValues[s] = y[selected[s]];
+      }
+      return new ArrayXYDataset().addSeries(seriesName, xValues, yValues);
+  }
+
+  /**
+   * Creates a series of at most {@link #getMaxPoints()} averages, see {@link Downsampling}. The band of a selected
+   * average spans all minimums and maximums up to the next selected average, so that no extreme value is lost.
+   */
+  private ArrayXYDataset createIntervalSeries(String seriesName, Samples samples, long minimumTimestamp) {
+      long[] x = samples.getTimestampValues();
+      long[] y = samples.getSampleValues();
+      long[] low = samples.getBucketMinimums();
+      long[] high = samples.getBucketMaximums();
+      int[] selected = Downsampling.largestTriangleThreeBuckets(x, Downsampling.toDoubles(y), getMaxPoints());
+      double[] xValues = new double[selected.length];
+      double[] yValues = new double[selected.length];
+      double[] lowValues = new double[selected.length];
+      double[] highValues = new double[selected.length];
+      for (int s = 0; s < selected.length; s++) {
+          int i = selected[s];
+          int end = s + 1 < selected.length ? selected[s + 1] : y.length;
+          long min = low[i];
+          long max = high[i];
+          for (int j = i + 1; j < end; j++) {
+              min = Math.min(min, low[j]);
+              max = Math.max(max, high[j]);
+          }
+          xValues[s] = x[i] - minimumTimestamp;
+          yValues[s] = y[i];
+          lowValues[s] = min;
+          highValues[s] = max;
       }
-      return series;
+      return new ArrayXYDataset().addSeries(seriesName, xValues, yValues, lowValues, highValues);
+  }
+
+  /**
+   * @return maximum number of points of a series, 0 if series are not downsampled
+   */
+  private int getMaxPoints() {
+      ConfigurationCharts configurationCharts = ENVIRONMENT.getConfigurationCharts();
+      return configurationCharts.getWidth() * configurationCharts.getPointsPerPixel();
   }
 
   /**
@@ -252,13 +406,26 @@ public class ChartWriter extends WriterBase {
     }
   }
 
-  private String chartFileName(String name, String type) throws UnsupportedEncodingException {
-      return new StringBuilder(urlEncode(name)).append(type).append(super.getFileName()).append(PNG_EXT).toString();
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * A chart to render: title, target file and how to create its plot
+   */
+  private abstract static class Chart {
+
+    private final String title;
+    private final File file;
+
+    Chart(String title, File file) {
+      this.title = title;
+      this.file = file;
+    }
+
+    abstract XYPlot createPlot();
   }
 
-  private long convert(long timestamp) {
-      long ratio = 1000 / SECONDS_ROUND;
-      return (timestamp / ratio ) * ratio;
+  private String chartFileName(String name, String type) throws UnsupportedEncodingException {
+      return new StringBuilder(urlEncode(name)).append(type).append(super.getFileName()).append(PNG_EXT).toString();
   }
 
 }
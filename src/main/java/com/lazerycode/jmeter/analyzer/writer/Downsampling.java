@@ -0,0 +1,87 @@
+package com.lazerycode.jmeter.analyzer.writer;
+
+/**
+ * Reduces the points of a series to the number of points a chart can show, keeping its visual shape.
+ * Uses Largest-Triangle-Three-Buckets (Sveinn Steinarsson, 2013): the points are divided into buckets of equal size,
+ * of every bucket the point that forms the largest triangle with the point selected of the previous bucket and the
+ * average of the next bucket is selected. Peaks and valleys are preserved, first and last point are always selected.
+ */
+final class Downsampling {
+
+    private Downsampling() {
+
+    }
+
+    /**
+     * Select the points to keep
+     *
+     * @param x         x values in ascending order
+     * @param y         y values
+     * @param threshold maximum number of points to keep, less than 3 to keep all points
+     * @return indices of the selected points in ascending order
+     */
+    static int[] largestTriangleThreeBuckets(long[] x, double[] y, int threshold) {
+
+        int n = y.length;
+        if (threshold < 3 || threshold >= n) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] selected = new int[threshold];
+        int count = 0;
+        // the first point is always selected, the inner points are divided into threshold - 2 buckets
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        selected[count++] = a;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+
+            // average of the next bucket, the last point for the last bucket
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, n);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+
+            // point of this bucket that forms the largest triangle
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int next = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((x[a] - averageX) * (y[i] - y[a]) - (x[a] - x[i]) * (averageY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+
+            selected[count++] = next;
+            a = next;
+        }
+
+        selected[count] = n - 1;
+        return selected;
+    }
+
+    /**
+     * @param values long values
+     * @return the values as doubles
+     */
+    static double[] toDoubles(long[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+}
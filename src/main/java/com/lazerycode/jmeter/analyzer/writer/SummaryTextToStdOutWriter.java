@@ -17,7 +17,7 @@ public class SummaryTextToStdOutWriter extends TextWriterBase {
   private static final String ROOT_TEMPLATE = "text/main.ftl";
 
   /**
-   * Render results as text to System.out
+   * Render results as text to System.out, or the console of the current analysis
    *
    * @param testResults Map to generate output from
    * @throws IOException
@@ -42,7 +42,7 @@ public class SummaryTextToStdOutWriter extends TextWriterBase {
 
   @VisibleForTesting
   protected java.io.Writer getWriter() throws IOException {
-    return new PrintWriter(System.out, true);
+    return new PrintWriter(getConsole(), true);
   }
 
 }
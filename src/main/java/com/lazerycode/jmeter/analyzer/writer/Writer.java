@@ -13,6 +13,14 @@ import java.util.Map;
  * each discovered results file.
  *
  * Custom implementations should extend {@link WriterBase} to make use of it's convenience methods.
+ * Writers that don't extend {@link WriterBase} are called by one analysis at a time, if several result files are
+ * analyzed concurrently.
+ *
+ * Thread safety: the writers of an analysis may be called at the same time, see
+ * {@link com.lazerycode.jmeter.analyzer.config.Environment#getWriterThreads()}. Implementations must only read the
+ * test results, which are not changed anymore, and must not share mutable state with other writers. The state set by
+ * {@link #setFileName(String)} and {@link #setResultDataFileRelativePath(String)} belongs to the analysis:
+ * {@link WriterBase} writers are copied for every analysis, other writers are locked while they write.
  */
 public interface Writer {
 
@@ -2,8 +2,11 @@ package com.lazerycode.jmeter.analyzer.writer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
+
 import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 import static com.lazerycode.jmeter.analyzer.util.FileUtil.initializeFile;
 import static com.lazerycode.jmeter.analyzer.util.FileUtil.urlEncode;
@@ -11,8 +14,11 @@ import static com.lazerycode.jmeter.analyzer.util.FileUtil.urlEncode;
 /**
  * Abstract implementation of a writer providing convenience methods.
  * Custom {@link Writer} implementations should extend this class.
+ *
+ * Several result files may be analyzed concurrently. Every analysis uses its own copy of the writer, see
+ * {@link #forContext(AnalysisContext)}, so subclasses must not share mutable state between copies.
  */
-public abstract class WriterBase implements Writer {
+public abstract class WriterBase implements Writer, Cloneable {
 
   protected static final String CSV_EXT = ".csv";
   protected static final String TXT_EXT = ".txt";
@@ -28,6 +34,28 @@ public abstract class WriterBase implements Writer {
 
   private String resultDataFileRelativePath;
 
+  // null if the writer is not used for a specific analysis
+  private AnalysisContext context;
+
+  /**
+   * Create a copy of this writer that writes the results of the analysis described by the context
+   *
+   * @param context the analysis
+   * @return the copy, with file name and relative path of the context
+   */
+  public WriterBase forContext(AnalysisContext context) {
+    try {
+      WriterBase copy = (WriterBase) clone();
+      copy.context = context;
+      copy.fileName = context.getFileName();
+      copy.resultDataFileRelativePath = context.getResultDataFileRelativePath();
+      return copy;
+    }
+    catch (CloneNotSupportedException e) {
+      throw new IllegalStateException("Writer can't be copied", e);
+    }
+  }
+
   @Override
   public String getFileName() {
     try {
@@ -54,6 +82,14 @@ public abstract class WriterBase implements Writer {
   }
 
   //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * @return the stream for console output of the current analysis
+   */
+  protected PrintStream getConsole() {
+    return context != null ? context.getConsole() : System.out;
+  }
+
   protected File getFile(String name) throws IOException {
     return initializeFile(ENVIRONMENT.getTargetDirectory(), name, resultDataFileRelativePath);
   }
@@ -8,10 +8,12 @@ import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 import java.util.Map;
 
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 
 import com.lazerycode.jmeter.analyzer.Check;
 import com.lazerycode.jmeter.analyzer.CheckResult;
 import com.lazerycode.jmeter.analyzer.RequestGroup;
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
 import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
 
 /**
@@ -20,6 +22,21 @@ import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
 public class ResultChecker {
 
     public void check(Map<String, AggregatedResponses> jmeterResults) throws MojoFailureException {
+        check(ENVIRONMENT.getLog(), jmeterResults);
+    }
+
+    /**
+     * Check the results of an analysis, messages are written to the log of the analysis
+     *
+     * @param context the analysis of the checked results
+     * @param jmeterResults the results
+     * @throws MojoFailureException if a check fails
+     */
+    public void check(AnalysisContext context, Map<String, AggregatedResponses> jmeterResults) throws MojoFailureException {
+        check(context.getLog(), jmeterResults);
+    }
+
+    private void check(Log log, Map<String, AggregatedResponses> jmeterResults) throws MojoFailureException {
         boolean check = true;
 
         for (String key : jmeterResults.keySet()) {
@@ -29,13 +46,13 @@ public class ResultChecker {
             // Check throughput
             check &= checkValue(checkResult.getThroughput(),
                     aggregatedResponses.getDuration().getSuccessPerSecond(),
-                    key, "throughput");
+                    key, "throughput", log);
 
             // Check errors
             double percentErrors = (((double) aggregatedResponses.getDuration().getErrorsCount()) /
                     (aggregatedResponses.getDuration().getErrorsCount() + aggregatedResponses.getDuration().getSuccessCount())) * 100;
             check &= checkValue(checkResult.getErrors(), percentErrors,
-                    key, "errors");
+                    key, "errors", log);
         }
 
         if (!check) {
@@ -64,22 +81,22 @@ public class ResultChecker {
         return result;
     }
 
-    private boolean checkValue(Check check, double value, String key, String valueDescription) {
+    private boolean checkValue(Check check, double value, String key, String valueDescription, Log log) {
         Boolean valid = check.valid(value);
         if (null == valid) {
             valid = true;
-            ENVIRONMENT.getLog().info(new StringBuilder(key)
+            log.info(new StringBuilder(key)
                     .append(" : Check ").append(valueDescription)
                     .append(" disabling : ").append(value).toString());
         } else if (!valid) {
-            ENVIRONMENT.getLog().error(new StringBuilder(key)
+            log.error(new StringBuilder(key)
                     .append(" : Check ").append(valueDescription)
                     .append(" is incorrect : ").append(value)
                     .append(" (minValue : ").append(check.getMinValue())
                     .append(", maxValue : ").append(check.getMaxValue())
                     .append(")").toString());
         } else {
-            ENVIRONMENT.getLog().info(new StringBuilder(key)
+            log.info(new StringBuilder(key)
                     .append(" : Check ").append(valueDescription)
                     .append(" is correct : ").append(value)
                     .append(" (minValue : ").append(check.getMinValue())
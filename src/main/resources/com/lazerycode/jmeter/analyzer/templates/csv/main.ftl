@@ -1,6 +1,6 @@
 <#ftl/>
 <#-- @ftlvariable name="self" type="java.util.Map<java.lang.String, com.lazerycode.jmeter.analyzer.statistics.Samples>" -->
-uri;count;total;min;average;max;standarddeviation;persecond;success;errors
+uri;count;total;min;average;max;standarddeviation;persecond;success;errors;p50;p90;p95;p99
 <#list self?keys as key>
   <#assign samples=self(key)/>
   <#include "samples.ftl" />
@@ -1,4 +1,4 @@
 <#ftl/>
 <#-- @ftlvariable name="key" type="java.lang.String" -->
 <#-- @ftlvariable name="samples" type="com.lazerycode.jmeter.analyzer.statistics.Samples" -->
-"${key}";${samples.successCount + samples.errorsCount};${samples.total};${samples.min};${samples.average};${samples.max};${samples.standardDeviation};${samples.successPerSecond};${samples.successCount};${samples.errorsCount}
+"${key}";${samples.successCount + samples.errorsCount};${samples.total};${samples.min};${samples.average};${samples.max};${samples.standardDeviation};${samples.successPerSecond};${samples.successCount};${samples.errorsCount}<#if samples.hasQuantiles()><#assign quantiles=samples.getQuantiles(1000)/>;${quantiles.getQuantile(500)};${quantiles.getQuantile(900)};${quantiles.getQuantile(950)};${quantiles.getQuantile(990)}<#else>;;;;</#if>
@@ -70,6 +70,10 @@
       <th>persecond</th>
       <th>success</th>
       <th>errors</th>
+      <th>p50</th>
+      <th>p90</th>
+      <th>p95</th>
+      <th>p99</th>
     </tr>
     <#list self?keys as key>
     <tr>
@@ -1,4 +1,4 @@
 <#ftl/>
 <#-- @ftlvariable name="key" type="java.lang.String" -->
 <#-- @ftlvariable name="samples" type="com.lazerycode.jmeter.analyzer.statistics.Samples" -->
-<td>"${key}"</td><td>${samples.successCount + samples.errorsCount}</td><td>${samples.total}</td><td>${samples.min}</td><td>${samples.average}</td><td>${samples.max}</td><td>${samples.standardDeviation}</td><td>${samples.successPerSecond}</td><td>${samples.successCount}</td><td>${samples.errorsCount}</td>
+<td>"${key}"</td><td>${samples.successCount + samples.errorsCount}</td><td>${samples.total}</td><td>${samples.min}</td><td>${samples.average}</td><td>${samples.max}</td><td>${samples.standardDeviation}</td><td>${samples.successPerSecond}</td><td>${samples.successCount}</td><td>${samples.errorsCount}</td><#if samples.hasQuantiles()><#assign quantiles=samples.getQuantiles(1000)/><td>${quantiles.getQuantile(500)}</td><td>${quantiles.getQuantile(900)}</td><td>${quantiles.getQuantile(950)}</td><td>${quantiles.getQuantile(990)}</td><#else><td></td><td></td><td></td><td></td></#if>
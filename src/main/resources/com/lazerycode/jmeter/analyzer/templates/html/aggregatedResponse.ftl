@@ -35,6 +35,10 @@
           <td>Requests per second</td>
           <td>${requests.successPerSecond}</td>
         </tr>
+        <tr>
+          <td>Peak requests per second</td>
+          <td>${aggregatedResponses.throughput.peakRequestsPerSecond}</td>
+        </tr>
         <tr>
           <td>Failed requests</td>
           <td>${requests.errorsCount}</td>
@@ -3,6 +3,8 @@
 <#-- @ftlvariable name="Q_QUANTILES" type="java.lang.Integer" -->
 <#-- @ftlvariable name="K_99_PERCENT" type="java.lang.Integer" -->
 <#-- @ftlvariable name="K_99_PONT_9_PERCENT" type="java.lang.Integer" -->
+<#-- maximum relative error of a quantile, if the values have been bucketed -->
+<#macro error k><#if !quantiles.exact> (&plusmn;${(quantiles.getMaxRelativeError(k) * 100)?string("0.##")}%)</#if></#macro>
         <tr>
           <th colspan="2">Response duration quantiles (ms)</th>
         </tr>
@@ -12,19 +14,19 @@
           <#if i % 10 == 0>
         <tr>
           <td> ${i}%</td>
-          <td>${quantiles.getQuantile(i*10)?string?left_pad(7)}</td>
+          <td>${quantiles.getQuantile(i*10)?string?left_pad(7)}<@error i*10/></td>
         </tr>
           </#if>
         </#list>
         <tr>
           <td> 99%</td>
-          <td>${quantiles.getQuantile(K_99_PERCENT)?string?left_pad(7)}</td>
+          <td>${quantiles.getQuantile(K_99_PERCENT)?string?left_pad(7)}<@error K_99_PERCENT/></td>
         </tr>
         <tr>
           <td>99.9%</td>
-          <td>${quantiles.getQuantile(K_99_PONT_9_PERCENT)?string?left_pad(7)}</td>
+          <td>${quantiles.getQuantile(K_99_PONT_9_PERCENT)?string?left_pad(7)}<@error K_99_PONT_9_PERCENT/></td>
         </tr>
         <tr>
           <td>100% (max. value)</td>
-          <td>${quantiles.getQuantile(Q_QUANTILES)?string?left_pad(7)}</td>
+          <td>${quantiles.getQuantile(Q_QUANTILES)?string?left_pad(7)}<@error Q_QUANTILES/></td>
         </tr>
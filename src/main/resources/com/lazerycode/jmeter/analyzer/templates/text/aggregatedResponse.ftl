@@ -13,6 +13,7 @@ Group: ${key}
   total duration:       ${requests.duration}
   requests:             ${requests.successCount + requests.errorsCount}
   requests per second:  ${requests.successPerSecond}
+  peak per second:      ${aggregatedResponses.throughput.peakRequestsPerSecond}
   failed requests:      ${requests.errorsCount}
   <#if (requests.successCount > 0) >
   response duration (ms)
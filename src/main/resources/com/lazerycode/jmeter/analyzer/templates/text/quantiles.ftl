@@ -3,14 +3,16 @@
 <#-- @ftlvariable name="Q_QUANTILES" type="java.lang.Integer" -->
 <#-- @ftlvariable name="K_99_PERCENT" type="java.lang.Integer" -->
 <#-- @ftlvariable name="K_99_PONT_9_PERCENT" type="java.lang.Integer" -->
+<#-- maximum relative error of a quantile, if the values have been bucketed -->
+<#macro error k><#if !quantiles.exact> (max. error ${(quantiles.getMaxRelativeError(k) * 100)?string("0.##")}%)</#if></#macro>
     quantiles (ms)
     <#assign quantiles=requests.getQuantiles(Q_QUANTILES)/>
     <#assign x=90/>
     <#list 1..x as i>
       <#if i % 10 == 0>
-         ${i}%  ${quantiles.getQuantile(i*10)?string?left_pad(7)}
+         ${i}%  ${quantiles.getQuantile(i*10)?string?left_pad(7)}<@error i*10/>
       </#if>
     </#list>
-         99%  ${quantiles.getQuantile(K_99_PERCENT)?string?left_pad(7)}
-       99.9%  ${quantiles.getQuantile(K_99_PONT_9_PERCENT)?string?left_pad(7)}
-      100.0%  ${quantiles.getQuantile(Q_QUANTILES)?string?left_pad(7)} (max. value)
+         99%  ${quantiles.getQuantile(K_99_PERCENT)?string?left_pad(7)}<@error K_99_PERCENT/>
+       99.9%  ${quantiles.getQuantile(K_99_PONT_9_PERCENT)?string?left_pad(7)}<@error K_99_PONT_9_PERCENT/>
+      100.0%  ${quantiles.getQuantile(Q_QUANTILES)?string?left_pad(7)} (max. value)<@error Q_QUANTILES/>
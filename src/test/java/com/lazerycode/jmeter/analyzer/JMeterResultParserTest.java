@@ -1,21 +1,46 @@
 package com.lazerycode.jmeter.analyzer;
 
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
 import com.lazerycode.jmeter.analyzer.config.Environment;
 import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
 import com.lazerycode.jmeter.analyzer.parser.JMeterResultParser;
+import com.lazerycode.jmeter.analyzer.parser.MergeStrategy;
+import com.lazerycode.jmeter.analyzer.parser.NestedSamples;
+import com.lazerycode.jmeter.analyzer.parser.PipelineStatistics;
+import com.lazerycode.jmeter.analyzer.parser.ResultFormat;
 
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
 
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * Tests {@link JMeterResultParser}
@@ -127,6 +152,727 @@ public class JMeterResultParserTest extends TestCase {
     assertEquals("failure", 0, r.getDuration().getErrorsCount());
   }
 
+  public void testCsvSuccess() throws Exception {
+
+    JMeterResultParser a = new JMeterResultParser();
+    Map<String, AggregatedResponses> xml = a.aggregate(new InputStreamReader(getClass().getResourceAsStream("JMeterResultParserTest-success.xml")));
+    Map<String, AggregatedResponses> csv = a.aggregate(new InputStreamReader(getClass().getResourceAsStream("JMeterResultParserTest-success.csv")), ResultFormat.CSV);
+
+    assertEquals("size", 1, csv.size());
+
+    AggregatedResponses x = xml.get("warmup");
+    AggregatedResponses c = csv.get("warmup");
+
+    assertEquals("samples", x.getDuration().getSamples(), c.getDuration().getSamples());
+    assertEquals("timestamps", x.getDuration().getTimestamps(), c.getDuration().getTimestamps());
+    assertEquals("success", x.getDuration().getSuccessCount(), c.getDuration().getSuccessCount());
+    assertEquals("failure", x.getDuration().getErrorsCount(), c.getDuration().getErrorsCount());
+    assertEquals("bytes", x.getSize().getTotal(), c.getSize().getTotal());
+    assertEquals("quantile", x.getDuration().getQuantiles(10).getQuantile(9), c.getDuration().getQuantiles(10).getQuantile(9));
+    assertEquals("status codes", x.getStatusCodes().getCodes(), c.getStatusCodes().getCodes());
+    assertEquals("uri by status code", x.getUriByStatusCode(), c.getUriByStatusCode());
+    assertEquals("start", x.getStart(), c.getStart());
+    assertEquals("end", x.getEnd(), c.getEnd());
+  }
+
+  /**
+   * Quoted values may contain delimiters, quotes and line breaks
+   */
+  public void testCsvQuotedValues() throws Exception {
+
+    JMeterResultParser a = new JMeterResultParser();
+    Map<String, AggregatedResponses> result = a.aggregate(new InputStreamReader(getClass().getResourceAsStream("JMeterResultParserTest-someErrors.csv")), ResultFormat.CSV);
+
+    assertEquals("size", 1, result.size());
+
+    AggregatedResponses r = result.get("warmup");
+
+    assertEquals("success", 1, r.getDuration().getSuccessCount());
+    assertEquals("failure", 2, r.getDuration().getErrorsCount());
+    assertEquals("status codes", 2, r.getStatusCodes().getCodes().get(200).longValue());
+    assertEquals("connection error", 1, r.getStatusCodes().getCodes().get(599).longValue());
+    assertTrue("quoted label", r.getUriByStatusCode().get(200).contains("/main/10/data"));
+  }
+
+  public void testDetectFormat() throws Exception {
+
+    assertEquals(ResultFormat.CSV, ResultFormat.detect("result.csv.gz", (Reader) null));
+    assertEquals(ResultFormat.XML, ResultFormat.detect("result.xml", (Reader) null));
+    assertEquals(ResultFormat.CSV, ResultFormat.detect("result.jtl",
+            new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("JMeterResultParserTest-success.csv")))));
+    assertEquals(ResultFormat.XML, ResultFormat.detect("result.jtl",
+            new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("JMeterResultParserTest-success.xml")))));
+  }
+
+  /**
+   * Reading the raw bytes uses the specialized scanner, which must yield the same results as SAX
+   */
+  public void testScannerSameAsSax() throws Exception {
+
+    String[] resources = { "success", "differentNodeNames", "someErrors", "onlyErrors", "empty", "tricky" };
+    for (String resource : resources) {
+      String name = "JMeterResultParserTest-" + resource + ".xml";
+      JMeterResultParser a = new JMeterResultParser();
+      Map<String, AggregatedResponses> sax = a.aggregate(new InputStreamReader(getClass().getResourceAsStream(name), "UTF-8"));
+      Map<String, AggregatedResponses> scanner = a.aggregate(getClass().getResourceAsStream(name), ResultFormat.XML);
+
+      assertSameResults(name, sax, scanner);
+    }
+  }
+
+  public void testScannerSpecialValues() throws Exception {
+
+    JMeterResultParser a = new JMeterResultParser();
+    Map<String, AggregatedResponses> result = a.aggregate(getClass().getResourceAsStream("JMeterResultParserTest-tricky.xml"), ResultFormat.XML);
+
+    assertEquals("size", 1, result.size());
+
+    AggregatedResponses r = result.get("warmup");
+
+    assertEquals("success", 4, r.getDuration().getSuccessCount());
+    assertEquals("failure", 1, r.getDuration().getErrorsCount());
+    assertTrue("entities", r.getUriByStatusCode().get(200).contains("/main?a=1&b=<2>"));
+    assertTrue("quotes", r.getUriByStatusCode().get(200).contains("/main/6/data \"quoted\" > gt"));
+    assertTrue("character references", r.getUriByStatusCode().get(599).contains("/main/\u00e4\u20ac/\u00fcmlaut"));
+    assertTrue("normalized whitespace", r.getUriByStatusCode().get(404).contains("/multi line label"));
+  }
+
+  /**
+   * Documents with a DOCTYPE are handed to SAX
+   */
+  public void testScannerFallback() throws Exception {
+
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE testResults [<!ENTITY main \"/main\">]>\n"
+            + "<testResults version=\"1.2\">\n"
+            + "<httpSample t=\"1\" ts=\"1316697692340\" s=\"true\" lb=\"&main;\" rc=\"200\" tn=\"warmup 3-1\" by=\"1\"/>\n"
+            + "</testResults>";
+
+    JMeterResultParser a = new JMeterResultParser();
+    Map<String, AggregatedResponses> result = a.aggregate(new ByteArrayInputStream(xml.getBytes("UTF-8")), ResultFormat.XML);
+
+    assertTrue("entity", result.get("warmup").getUriByStatusCode().get(200).contains("/main"));
+  }
+
+  public void testNestedSamples() throws Exception {
+
+    String name = "JMeterResultParserTest-nested.xml";
+    try {
+      NestedSamples[] modes = { NestedSamples.ALL, NestedSamples.TOP_LEVEL, NestedSamples.LEAF };
+      String[][] expectedUris = {
+              { "/transaction", "/main/1", "/main/1/image.png", "/main/1/style.css", "/main/2", "/main/3", "/main/4" },
+              { "/transaction", "/main/3", "/main/4" },
+              { "/main/1/image.png", "/main/1/style.css", "/main/2", "/main/3", "/main/4" } };
+
+      for (int i = 0; i < modes.length; i++) {
+        ENVIRONMENT.setNestedSamples(modes[i]);
+
+        JMeterResultParser a = new JMeterResultParser();
+        Map<String, AggregatedResponses> sax = a.aggregate(new InputStreamReader(getClass().getResourceAsStream(name), "UTF-8"));
+        Map<String, AggregatedResponses> scanner = a.aggregate(getClass().getResourceAsStream(name), ResultFormat.XML);
+        assertSameResults(modes[i] + " " + name, sax, scanner);
+
+        AggregatedResponses r = scanner.get("warmup");
+        Set<String> uris = new HashSet<String>();
+        for (Set<String> u : r.getUriByStatusCode().values()) {
+          uris.addAll(u);
+        }
+        assertEquals(modes[i] + " uris", new HashSet<String>(Arrays.asList(expectedUris[i])), uris);
+        assertEquals(modes[i] + " samples", expectedUris[i].length,
+                     r.getDuration().getSuccessCount() + r.getDuration().getErrorsCount());
+      }
+    }
+    finally {
+      ENVIRONMENT.setNestedSamples(NestedSamples.ALL);
+    }
+  }
+
+  /**
+   * A file that is still being written is parsed incrementally, a partially written sample is parsed once complete
+   */
+  public void testFollow() throws Exception {
+
+    String header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n";
+    StringBuilder content = new StringBuilder(header);
+    for (int i = 0; i < 6; i++) {
+      content.append("<httpSample t=\"").append(i + 1).append("\" ts=\"131669769234").append(i)
+             .append("\" s=\"true\" lb=\"/main/").append(i).append("\" rc=\"200\" tn=\"warmup 3-1\" by=\"10\"/>\n");
+    }
+    content.append("</testResults>\n");
+    final String xml = content.toString();
+
+    // split within the 2nd, 4th and 6th sample
+    final int[] splits = { xml.indexOf("/main/1") , xml.indexOf("/main/3"), xml.indexOf("/main/5"), xml.length() };
+
+    final File file = File.createTempFile("JMeterResultParserTest", ".jtl");
+    file.deleteOnExit();
+    append(file, xml.substring(0, splits[0]));
+
+    ENVIRONMENT.setFollowInterval(0);
+    ENVIRONMENT.setFollowTimeout(300);
+    try {
+      final List<Long> intermediateCounts = new ArrayList<Long>();
+      JMeterResultParser.IntermediateResultsListener listener = new JMeterResultParser.IntermediateResultsListener() {
+        @Override
+        public void update(Map<String, AggregatedResponses> results) throws IOException {
+          intermediateCounts.add(results.get("warmup").getDuration().getSuccessCount());
+          int next = intermediateCounts.size();
+          if (next < splits.length) {
+            append(file, xml.substring(splits[next - 1], splits[next]));
+          }
+        }
+      };
+
+      Map<String, AggregatedResponses> followed = new JMeterResultParser().follow(file, ResultFormat.XML, listener);
+      Map<String, AggregatedResponses> complete = new JMeterResultParser().aggregate(new StringReader(xml));
+
+      // the last update is sent while waiting for the file to grow after the last sample
+      assertEquals("intermediate results", Arrays.asList(1L, 3L, 5L, 6L), intermediateCounts);
+      assertSameResults("followed", complete, followed);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * A followed file that ends inside a sample, e.g. because JMeter died while writing it, yields the complete samples
+   */
+  public void testFollowTruncated() throws Exception {
+
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+    StringBuilder csv = new StringBuilder("timeStamp,elapsed,label,responseCode,threadName,success,bytes\n");
+    for (int i = 0; i < 3; i++) {
+      xml.append("<httpSample t=\"").append(i + 1).append("\" ts=\"131669769234").append(i)
+         .append("\" s=\"true\" lb=\"/main/").append(i).append("\" rc=\"200\" tn=\"warmup 3-1\" by=\"10\"/>\n");
+      csv.append("131669769234").append(i).append(',').append(i + 1).append(",/main/").append(i)
+         .append(",200,warmup 3-1,true,10\n");
+    }
+    xml.append("<httpSample t=\"4\" ts=\"1316697692343\" s=\"tr");
+    csv.append("1316697692343,4,/main/3,200,war");
+
+    ENVIRONMENT.setFollowInterval(0);
+    ENVIRONMENT.setFollowTimeout(100);
+    String[] contents = { xml.toString(), csv.toString() };
+    ResultFormat[] formats = { ResultFormat.XML, ResultFormat.CSV };
+    JMeterResultParser.IntermediateResultsListener listener = new JMeterResultParser.IntermediateResultsListener() {
+      @Override
+      public void update(Map<String, AggregatedResponses> results) {
+        // not needed
+      }
+    };
+    for (int i = 0; i < formats.length; i++) {
+      File file = File.createTempFile("JMeterResultParserTest", ".jtl");
+      file.deleteOnExit();
+      try {
+        append(file, contents[i]);
+        AggregatedResponses warmup = new JMeterResultParser().follow(file, formats[i], listener).get("warmup");
+        assertEquals(formats[i] + " samples", 3,
+                     warmup.getDuration().getSuccessCount() + warmup.getDuration().getErrorsCount());
+      }
+      finally {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * The format of a followed file that is still empty when following starts is detected once JMeter writes to it
+   */
+  public void testFollowEmptyCsv() throws Exception {
+
+    final String csv = "timeStamp,elapsed,label,responseCode,threadName,success,bytes\n" +
+                       "1316697692340,1,/main/0,200,warmup 3-1,true,10\n" +
+                       "1316697692341,2,/main/1,200,warmup 3-1,true,10\n";
+
+    final File file = File.createTempFile("JMeterResultParserTest", ".jtl");
+    file.deleteOnExit();
+
+    ENVIRONMENT.setFollowInterval(0);
+    ENVIRONMENT.setFollowTimeout(1000);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+          append(file, csv);
+        }
+        catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    try {
+      writer.start();
+      Map<String, AggregatedResponses> followed = new JMeterResultParser().follow(file, null,
+          new JMeterResultParser.IntermediateResultsListener() {
+            @Override
+            public void update(Map<String, AggregatedResponses> results) {
+              // not needed
+            }
+          });
+      writer.join();
+
+      assertEquals(2, followed.get("warmup").getDuration().getSuccessCount());
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Warnings about invalid values are written to the log of the analyzed file, so that they carry its prefix
+   */
+  public void testWarningsUseContextLog() throws Exception {
+
+    String csv = "timeStamp,elapsed,label,responseCode,threadName,success,bytes\n" +
+                 "1316697692340,1,/main/0,abc,warmup 3-1,true,xyz\n";
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n" +
+                 "<httpSample t=\"1\" ts=\"1316697692340\" s=\"true\" lb=\"/main/0\" rc=\"abc\" tn=\"warmup 3-1\" by=\"xyz\"/>\n" +
+                 "</testResults>\n";
+
+    Log log = mock(Log.class);
+    AnalysisContext context = new AnalysisContext("file", null, log, null);
+    new JMeterResultParser(context).aggregate(new StringReader(csv), ResultFormat.CSV);
+    new JMeterResultParser(context).aggregate(new ByteArrayInputStream(xml.getBytes("UTF-8")), ResultFormat.XML);
+
+    verify(log, times(2)).warn("Error parsing response code 'abc'");
+    verify(log, times(2)).warn("Error parsing bytes: 'xyz'");
+  }
+
+  public void testDetectFormatFromBytes() throws Exception {
+
+    assertEquals(ResultFormat.CSV, ResultFormat.detect("result.jtl",
+            new BufferedInputStream(getClass().getResourceAsStream("JMeterResultParserTest-success.csv"))));
+    assertEquals(ResultFormat.XML, ResultFormat.detect("result.jtl",
+            new BufferedInputStream(getClass().getResourceAsStream("JMeterResultParserTest-success.xml"))));
+    assertEquals(ResultFormat.XML, ResultFormat.detect("result.jtl",
+            new BufferedInputStream(new ByteArrayInputStream(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '<', 'a', '/', '>' }))));
+  }
+
+  /**
+   * Files split into segments must yield the same results as parsing them with a single thread
+   */
+  public void testParallelSameAsSequential() throws Exception {
+
+    ENVIRONMENT.setMaxSamples(1000);
+    ENVIRONMENT.setGenerateDetails(true);
+
+    File xml = createResultFile(false, false);
+    File tricky = createResultFile(false, true);
+    File csv = createResultFile(true, false);
+    try {
+      for (File file : new File[] { xml, tricky, csv }) {
+        ResultFormat format = file == csv ? ResultFormat.CSV : ResultFormat.XML;
+
+        ENVIRONMENT.setParserThreads(1);
+        Map<String, AggregatedResponses> sequential = new JMeterResultParser().aggregate(file, format);
+
+        ENVIRONMENT.setParserThreads(4);
+        Map<String, AggregatedResponses> parallel = new JMeterResultParser().aggregate(file, format);
+
+        assertSameResults(file.getName(), sequential, parallel);
+
+        for (String key : sequential.keySet()) {
+          assertEquals("duration by uri", sequential.get(key).getDurationByUri().keySet(), parallel.get(key).getDurationByUri().keySet());
+          for (String uri : sequential.get(key).getDurationByUri().keySet()) {
+            assertEquals("average by uri", sequential.get(key).getDurationByUri().get(uri).getAverage(),
+                    parallel.get(key).getDurationByUri().get(uri).getAverage());
+            assertEquals("standard deviation by uri", sequential.get(key).getDurationByUri().get(uri).getStandardDeviation(),
+                    parallel.get(key).getDurationByUri().get(uri).getStandardDeviation());
+          }
+        }
+      }
+    }
+    finally {
+      ENVIRONMENT.setGenerateDetails(false);
+      xml.delete();
+      tricky.delete();
+      csv.delete();
+    }
+  }
+
+  /**
+   * Aggregating on pipeline workers must yield the same results as aggregating on the reading thread
+   */
+  public void testPipelineSameAsSequential() throws Exception {
+
+    ENVIRONMENT.setMaxSamples(1000);
+
+    File xml = createResultFile(false, false);
+    File csv = createResultFile(true, false);
+    try {
+      for (File file : new File[] { xml, csv }) {
+        ResultFormat format = file == csv ? ResultFormat.CSV : ResultFormat.XML;
+
+        ENVIRONMENT.setPipelineWorkers(0);
+        Map<String, AggregatedResponses> sequential = new JMeterResultParser().aggregate(new FileInputStream(file), format);
+
+        ENVIRONMENT.setPipelineWorkers(3);
+        JMeterResultParser parser = new JMeterResultParser();
+        Map<String, AggregatedResponses> pipelined = parser.aggregate(new FileInputStream(file), format);
+
+        assertSameResults(file.getName(), sequential, pipelined);
+
+        PipelineStatistics statistics = parser.getPipelineStatistics();
+        assertEquals("stages", 4, statistics.getStages().size());
+        assertEquals("bytes", file.length(), statistics.getStages().get(0).getBytes());
+        long aggregated = 0;
+        for (PipelineStatistics.Stage stage : statistics.getStages().subList(1, 4)) {
+          aggregated += stage.getRecords();
+        }
+        assertEquals("records", statistics.getStages().get(0).getRecords(), aggregated);
+        assertEquals("records", 40000, aggregated);
+      }
+    }
+    finally {
+      xml.delete();
+      csv.delete();
+    }
+  }
+
+  /**
+   * Parsing must continue at the checkpoint of a previous run, if samples have been appended to the result file
+   */
+  public void testCheckpoints() throws Exception {
+
+    ENVIRONMENT.setMaxSamples(1000);
+    ENVIRONMENT.setGenerateDetails(true);
+    ENVIRONMENT.setCheckpointInterval(3600000);
+
+    final List<String> messages = new ArrayList<String>();
+    ENVIRONMENT.setLog(new SystemStreamLog() {
+      @Override
+      public void info(CharSequence content) {
+        messages.add(content.toString());
+      }
+    });
+
+    File xml = createResultFile(false, false);
+    File csv = createResultFile(true, false);
+    File checkpoint = File.createTempFile("JMeterResultParserTest", ".checkpoint");
+    try {
+      for (File file : new File[] { xml, csv }) {
+        ResultFormat format = file == csv ? ResultFormat.CSV : ResultFormat.XML;
+        String content = read(file);
+
+        ENVIRONMENT.setParserThreads(1);
+        Map<String, AggregatedResponses> expected = new JMeterResultParser().aggregate(file, format);
+
+        // first half of the samples, JMeter overwrites the end of the root element when appending samples
+        int split = file == csv ? content.indexOf("\n1", content.length() / 2) + 1 : content.indexOf("<httpSample", content.length() / 2);
+        String first = content.substring(0, split) + (file == csv ? "" : "</testResults>\n");
+
+        for (int threads : new int[] { 1, 4 }) {
+          ENVIRONMENT.setParserThreads(threads);
+          checkpoint.delete();
+
+          write(file, first);
+          new JMeterResultParser().aggregate(file, format, checkpoint);
+          assertTrue("checkpoint written", checkpoint.isFile());
+
+          write(file, content);
+          messages.clear();
+          Map<String, AggregatedResponses> resumed = new JMeterResultParser().aggregate(file, format, checkpoint);
+
+          assertTrue("resumed " + messages, messages.get(0).startsWith("Resuming at byte"));
+          assertSameResults(file.getName() + " with " + threads + " threads", expected, resumed);
+          for (String key : expected.keySet()) {
+            assertEquals("duration by uri", expected.get(key).getDurationByUri().keySet(), resumed.get(key).getDurationByUri().keySet());
+          }
+        }
+
+        // a changed file is parsed from the beginning
+        write(file, content.replaceFirst("/main/0/data", "/main/x/data"));
+        messages.clear();
+        Map<String, AggregatedResponses> changed = new JMeterResultParser().aggregate(file, format, checkpoint);
+        assertTrue("ignored " + messages, messages.get(0).startsWith("Ignoring checkpoint"));
+        assertTrue("changed uri", changed.get("warmup").getDurationByUri().containsKey("/main/x/data"));
+      }
+    }
+    finally {
+      ENVIRONMENT.setGenerateDetails(false);
+      ENVIRONMENT.setCheckpointInterval(0);
+      xml.delete();
+      csv.delete();
+      checkpoint.delete();
+    }
+  }
+
+  /**
+   * Merging the results of the files of several load generators must yield the same results as parsing a single file
+   * containing all samples in order of their timestamps, with every merge strategy. Fewer samples are kept than every
+   * file contains, so that the samples are compressed while they are merged.
+   */
+  public void testMerge() throws Exception {
+
+    ENVIRONMENT.setMaxSamples(1000);
+    ENVIRONMENT.setGenerateDetails(true);
+
+    // generator g writes a sample in every (g+1)th slot, samples in the same slot have the same timestamp
+    int generators = 3;
+    StringBuilder combined = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+    StringBuilder[] parts = new StringBuilder[generators];
+    for (int g = 0; g < generators; g++) {
+      parts[g] = new StringBuilder(g == 1 ? "timeStamp,elapsed,label,responseCode,responseMessage,threadName,dataType,success,bytes,allThreads\n"
+                                          : "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+    }
+    for (int slot = 0; slot < 20000; slot++) {
+      for (int g = 0; g < generators; g++) {
+        if (slot % (g + 1) == 0) {
+          combined.append(generatorSample(false, g, "gen" + g, slot));
+          parts[g].append(generatorSample(g == 1, g, "gen" + g, slot));
+        }
+      }
+    }
+    combined.append("</testResults>\n");
+    parts[0].append("</testResults>\n");
+    parts[2].append("</testResults>\n");
+
+    File file = File.createTempFile("JMeterResultParserTest", ".xml");
+    List<File> files = new ArrayList<File>();
+    files.add(File.createTempFile("JMeterResultParserTest", ".xml"));
+    files.add(File.createTempFile("JMeterResultParserTest", ".csv"));
+    files.add(File.createTempFile("JMeterResultParserTest", ".xml.gz"));
+    try {
+      write(file, combined.toString());
+      write(files.get(0), parts[0].toString());
+      write(files.get(1), parts[1].toString());
+      OutputStream out = new GZIPOutputStream(new FileOutputStream(files.get(2)));
+      try {
+        out.write(parts[2].toString().getBytes("UTF-8"));
+      }
+      finally {
+        out.close();
+      }
+
+      Map<String, AggregatedResponses> expected = new JMeterResultParser().aggregate(file, ResultFormat.XML);
+      assertEquals("keys", Arrays.asList("gen0", "gen1", "gen2"), new ArrayList<String>(expected.keySet()));
+
+      for (MergeStrategy strategy : MergeStrategy.values()) {
+        ENVIRONMENT.setMergeStrategy(strategy);
+        Map<String, AggregatedResponses> merged = new JMeterResultParser().merge(files, 2);
+        assertSameMergedResults(strategy.name(), expected, merged);
+      }
+    }
+    finally {
+      ENVIRONMENT.setGenerateDetails(false);
+      ENVIRONMENT.setMergeStrategy(MergeStrategy.STREAM);
+      file.delete();
+      for (File part : files) {
+        part.delete();
+      }
+    }
+  }
+
+  /**
+   * Folding the results of files whose samples are not in order of their timestamps must yield the same results as
+   * parsing a single file containing all samples in order of their timestamps. The thread groups of the generators
+   * are the same, so that the results of every group are merged.
+   */
+  public void testFoldUnorderedFiles() throws Exception {
+
+    ENVIRONMENT.setMaxSamples(1000);
+    ENVIRONMENT.setGenerateDetails(true);
+    ENVIRONMENT.setMergeStrategy(MergeStrategy.FOLD);
+
+    int generators = 2;
+    StringBuilder combined = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+    List<List<String>> parts = new ArrayList<List<String>>();
+    for (int g = 0; g < generators; g++) {
+      parts.add(new ArrayList<String>());
+    }
+    for (int slot = 0; slot < 10000; slot++) {
+      for (int g = 0; g < generators; g++) {
+        if (slot % (g + 1) == 0) {
+          String threadGroup = slot % 3 == 0 ? "warmup" : "load";
+          combined.append(generatorSample(false, g, threadGroup, slot));
+          parts.get(g).add(generatorSample(false, g, threadGroup, slot));
+        }
+      }
+    }
+    combined.append("</testResults>\n");
+
+    File file = File.createTempFile("JMeterResultParserTest", ".xml");
+    List<File> files = new ArrayList<File>();
+    try {
+      write(file, combined.toString());
+      for (List<String> part : parts) {
+        // every third sample is of the same thread group. Samples of a group are swapped, the first and the last
+        // sample of every group stay in place
+        for (int i = 3; i + 6 < part.size(); i += 6) {
+          Collections.swap(part, i, i + 3);
+          Collections.swap(part, i + 1, i + 4);
+          Collections.swap(part, i + 2, i + 5);
+        }
+        StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+        for (String sample : part) {
+          content.append(sample);
+        }
+        content.append("</testResults>\n");
+        File partFile = File.createTempFile("JMeterResultParserTest", ".xml");
+        files.add(partFile);
+        write(partFile, content.toString());
+      }
+
+      Map<String, AggregatedResponses> expected = new JMeterResultParser().aggregate(file, ResultFormat.XML);
+      Map<String, AggregatedResponses> merged = new JMeterResultParser().merge(files, 2);
+
+      assertEquals("keys", Arrays.asList("warmup", "load"), new ArrayList<String>(expected.keySet()));
+      assertSameMergedResults("fold", expected, merged);
+    }
+    finally {
+      ENVIRONMENT.setGenerateDetails(false);
+      ENVIRONMENT.setMergeStrategy(MergeStrategy.STREAM);
+      file.delete();
+      for (File part : files) {
+        part.delete();
+      }
+    }
+  }
+
+  //====================================================================================================================
+
+  /**
+   * Create a result file that is big enough to be split into several segments
+   *
+   * @param csv true for a CSV file, false for an XML file
+   * @param tricky true, if the XML file should contain sample elements and line breaks inside of CDATA sections
+   */
+  private File createResultFile(boolean csv, boolean tricky) throws Exception {
+
+    File file = File.createTempFile("JMeterResultParserTest", csv ? ".csv" : ".xml");
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      if (csv) {
+        out.write("timeStamp,elapsed,label,responseCode,responseMessage,threadName,dataType,success,bytes,allThreads\n");
+      }
+      else {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testResults version=\"1.2\">\n");
+      }
+
+      long timestamp = 1316697692340L;
+      for (int i = 0; i < 40000; i++) {
+        timestamp += i % 3;
+        long duration = (i * 7919L) % 997;
+        String label = "/main/" + (i % 37) + "/data";
+        String threadName = (i % 5 == 0 ? "warmup" : "load") + " 3-" + (i % 7);
+        int code = i % 11 == 0 ? 404 : 200;
+        boolean success = i % 13 != 0;
+
+        if (csv) {
+          String message = i % 500 == 0 ? "\"message, with\nline break\"" : "OK";
+          out.write(timestamp + "," + duration + "," + label + "," + code + "," + message + "," + threadName
+                  + ",text," + success + "," + (i % 1000) + "," + (i % 50) + "\n");
+        }
+        else {
+          out.write("<httpSample t=\"" + duration + "\" ts=\"" + timestamp + "\" s=\"" + success + "\" lb=\"" + label
+                  + "\" rc=\"" + code + "\" tn=\"" + threadName + "\" by=\"" + (i % 1000) + "\" na=\"" + (i % 50) + "\">\n");
+          if (tricky) {
+            out.write("  <responseData class=\"java.lang.String\"><![CDATA[\n<httpSample t=\"1\" ts=\"1\"/>\n]]></responseData>\n");
+          }
+          out.write("</httpSample>\n");
+        }
+      }
+
+      if (!csv) {
+        out.write("</testResults>\n");
+      }
+    }
+    finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * A sample of a load generator of {@link #testMerge()}.
+   * The duration only depends on the slot, so that samples end in the same order as they start.
+   */
+  private static String generatorSample(boolean csv, int generator, String threadGroup, int slot) {
+    long timestamp = 1316697692340L + 1000L * slot;
+    long duration = (slot * 7919L) % 997 % 100;
+    String label = "/main/" + (slot % 37) + "/data";
+    String threadName = threadGroup + " 3-" + (slot % 7);
+    int code = (slot + generator) % 11 == 0 ? 404 : 200;
+    boolean success = (slot + generator) % 13 != 0;
+    int bytes = (slot * (generator + 1)) % 1000;
+    int threads = (slot + generator) % 50;
+
+    if (csv) {
+      return timestamp + "," + duration + "," + label + "," + code + ",OK," + threadName + ",text," + success + ","
+              + bytes + "," + threads + "\n";
+    }
+    return "<httpSample t=\"" + duration + "\" ts=\"" + timestamp + "\" s=\"" + success + "\" lb=\"" + label
+            + "\" rc=\"" + code + "\" tn=\"" + threadName + "\" by=\"" + bytes + "\" na=\"" + threads + "\"/>\n";
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(FileUtils.readFileToByteArray(file), "UTF-8");
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileUtils.writeByteArrayToFile(file, content.getBytes("UTF-8"));
+  }
+
+  private static void append(File file, String content) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+    try {
+      writer.write(content);
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  private void assertSameResults(String name, Map<String, AggregatedResponses> expected, Map<String, AggregatedResponses> actual) {
+
+    assertEquals(name + " keys", new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+
+    for (String key : expected.keySet()) {
+      AggregatedResponses x = expected.get(key);
+      AggregatedResponses y = actual.get(key);
+
+      assertEquals(name + " samples", x.getDuration().getSamples(), y.getDuration().getSamples());
+      assertEquals(name + " timestamps", x.getDuration().getTimestamps(), y.getDuration().getTimestamps());
+      assertEquals(name + " failure", x.getDuration().getErrorsCount(), y.getDuration().getErrorsCount());
+      assertEquals(name + " bytes", x.getSize().getSamples(), y.getSize().getSamples());
+      assertEquals(name + " active threads", x.getActiveThreads().getSamples(), y.getActiveThreads().getSamples());
+      assertTrue(name + " throughput timestamps",
+                 Arrays.equals(x.getThroughput().getTimestamps(), y.getThroughput().getTimestamps()));
+      assertTrue(name + " throughput", Arrays.equals(x.getThroughput().getRequestCounts(), y.getThroughput().getRequestCounts()));
+      assertTrue(name + " throughput errors", Arrays.equals(x.getThroughput().getErrorCounts(), y.getThroughput().getErrorCounts()));
+      assertEquals(name + " status codes", x.getStatusCodes().getCodes(), y.getStatusCodes().getCodes());
+      assertEquals(name + " uri by status code", x.getUriByStatusCode(), y.getUriByStatusCode());
+      assertEquals(name + " start", x.getStart(), y.getStart());
+      assertEquals(name + " end", x.getEnd(), y.getEnd());
+    }
+  }
+
+  /**
+   * Merged results must be the {@link #assertSameResults same} as the expected results, including the statistics of
+   * every uri, and keep at most 1000 samples
+   */
+  private void assertSameMergedResults(String name, Map<String, AggregatedResponses> expected, Map<String, AggregatedResponses> merged) {
+
+    assertSameResults(name, expected, merged);
+
+    for (String key : expected.keySet()) {
+      AggregatedResponses e = expected.get(key);
+      AggregatedResponses m = merged.get(key);
+      assertTrue(name + " kept samples", m.getDuration().getSamples().size() <= 1000);
+      assertEquals(name + " success", e.getDuration().getSuccessCount(), m.getDuration().getSuccessCount());
+      assertEquals(name + " total", e.getDuration().getTotal(), m.getDuration().getTotal());
+      assertEquals(name + " standard deviation", e.getDuration().getStandardDeviation(), m.getDuration().getStandardDeviation());
+      assertEquals(name + " quantile", e.getDuration().getQuantiles(1000).getQuantile(990), m.getDuration().getQuantiles(1000).getQuantile(990));
+      assertEquals(name + " duration by uri", e.getDurationByUri().keySet(), m.getDurationByUri().keySet());
+      for (String uri : e.getDurationByUri().keySet()) {
+        assertEquals(name + " success by uri", e.getDurationByUri().get(uri).getSuccessCount(), m.getDurationByUri().get(uri).getSuccessCount());
+        assertEquals(name + " average by uri", e.getDurationByUri().get(uri).getAverage(), m.getDurationByUri().get(uri).getAverage());
+      }
+    }
+  }
+
   // TODO: more tests
 
 
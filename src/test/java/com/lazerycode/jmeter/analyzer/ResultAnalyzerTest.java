@@ -1,33 +1,48 @@
 package com.lazerycode.jmeter.analyzer;
 
+import com.lazerycode.jmeter.analyzer.config.AnalysisContext;
 import com.lazerycode.jmeter.analyzer.config.Environment;
+import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
+import com.lazerycode.jmeter.analyzer.util.PrefixedLog;
 import com.lazerycode.jmeter.analyzer.writer.ChartWriter;
 import com.lazerycode.jmeter.analyzer.writer.DetailsToCsvWriter;
 import com.lazerycode.jmeter.analyzer.writer.DetailsToHtmlWriter;
 import com.lazerycode.jmeter.analyzer.writer.HtmlWriter;
 import com.lazerycode.jmeter.analyzer.writer.SummaryTextToFileWriter;
+import com.lazerycode.jmeter.analyzer.writer.SummaryTextToStdOutWriter;
 import com.lazerycode.jmeter.analyzer.writer.Writer;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.logging.SystemStreamLog;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 import static com.lazerycode.jmeter.analyzer.writer.WriterTestHelper.normalizeFileContents;
@@ -139,6 +154,94 @@ public class ResultAnalyzerTest extends TestCase {
             FileUtils.contentEquals(downloadableFile, downloadedFile));
   }
 
+  /**
+   * Analyses of several files on concurrent threads yield the same files and console output as sequential analyses
+   */
+  public void testConcurrentAnalyses() throws Exception {
+
+    setUpEnvironment(true, false, null, null);
+    ENVIRONMENT.getWriters().add(new SummaryTextToStdOutWriter());
+
+    final String jtl = IOUtils.toString(getClass().getResourceAsStream(PACKAGE_PATH + "download/test.jtl"));
+    final int files = 6;
+
+    Map<String, String> sequentialConsole = new HashMap<String, String>();
+    for( int i = 0; i < files; i++ ) {
+      ByteArrayOutputStream console = new ByteArrayOutputStream();
+      AnalysisContext context = new AnalysisContext("file" + i, null, ENVIRONMENT.getLog(), new PrintStream(console));
+      new ResultAnalyzer(context, true).analyze(new StringReader(jtl));
+      sequentialConsole.put(context.getFileName(), console.toString());
+    }
+    Map<String, String> sequential = readFiles(workDir);
+    cleanDir(workDir);
+
+    ExecutorService executor = Executors.newFixedThreadPool(files);
+    try {
+      List<Future<String>> consoles = new ArrayList<Future<String>>();
+      for( int i = 0; i < files; i++ ) {
+        final String fileName = "file" + i;
+        consoles.add(executor.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            ByteArrayOutputStream console = new ByteArrayOutputStream();
+            AnalysisContext context = new AnalysisContext(fileName, null,
+                new PrefixedLog(ENVIRONMENT.getLog(), "[" + fileName + "] "), new PrintStream(console));
+            new ResultAnalyzer(context, true).analyze(new StringReader(jtl));
+            return console.toString();
+          }
+        }));
+      }
+      for( int i = 0; i < files; i++ ) {
+        assertEquals("console output of file" + i, sequentialConsole.get("file" + i), consoles.get(i).get());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(sequential, readFiles(workDir));
+  }
+
+  /**
+   * Concurrent writers yield the same files as sequential writers, a failure of a writer is propagated
+   */
+  public void testConcurrentWriters() throws Exception {
+
+    setUpEnvironment(true, true, null, null);
+    String jtl = IOUtils.toString(getClass().getResourceAsStream(PACKAGE_PATH + "download/test.jtl"));
+
+    new ResultAnalyzer(null, "test").analyze(new StringReader(jtl));
+    Map<String, String> sequential = readFiles(workDir);
+    cleanDir(workDir);
+
+    ENVIRONMENT.setWriterThreads(4);
+    new ResultAnalyzer(null, "test").analyze(new StringReader(jtl));
+    Map<String, String> concurrent = readFiles(workDir);
+
+    assertEquals(sequential.keySet(), concurrent.keySet());
+    for( Map.Entry<String, String> entry : sequential.entrySet() ) {
+      // charts are not compared, their rendering may differ in details
+      if( !entry.getKey().endsWith(".png") ) {
+        assertEquals(entry.getKey(), entry.getValue(), concurrent.get(entry.getKey()));
+      }
+    }
+
+    final IOException failure = new IOException("disk full");
+    ENVIRONMENT.getWriters().add(1, new SummaryTextToFileWriter() {
+      @Override
+      public void write(Map<String, AggregatedResponses> testResults) throws IOException {
+        throw failure;
+      }
+    });
+    try {
+      new ResultAnalyzer(null, "test").analyze(new StringReader(jtl));
+      fail("failure of a writer must be propagated");
+    }
+    catch (IOException e) {
+      assertSame(failure, e);
+    }
+  }
+
   //--------------------------------------------------------------------------------------------------------------------
 
   private void setUpEnvironment(boolean generateCSVs, boolean generateCharts, List<RequestGroup> patterns, File templateDirectory) {
@@ -230,6 +333,19 @@ public class ResultAnalyzerTest extends TestCase {
     }
   }
 
+  /**
+   * @return contents of all files in the given directory by file name
+   */
+  private Map<String, String> readFiles(File dir) throws IOException {
+    Map<String, String> contents = new TreeMap<String, String>();
+    for( File file : dir.listFiles() ) {
+      if( file.isFile() ) {
+        contents.put(file.getName(), FileUtils.readFileToString(file));
+      }
+    }
+    return contents;
+  }
+
   /**
    * Create and return file of given name in given directory
    */
@@ -0,0 +1,105 @@
+package com.lazerycode.jmeter.analyzer.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.springframework.util.AntPathMatcher;
+
+import com.lazerycode.jmeter.analyzer.RequestGroup;
+
+/**
+ * Tests {@link RequestGroupMatcher}
+ */
+public class RequestGroupMatcherTest extends TestCase {
+
+  private static final String[] PATTERNS = {
+          "/main", "/main/", "main", "/main/*", "/main/**", "/main/**/data", "/**/data", "/**", "**", "*",
+          "/main/*/data", "/main/?/data", "/ma?n/**", "/*/*", "/**/*.jsp", "/main/**/sub/**/data", "/**/**/data",
+          "/main/{id}/data", "/main/{id:[0-9]+}/data", "/main/a*b/data", "/main /x", "/user/**/*", "/main/**/",
+          "/main/*/", "/Main/**", "/main/x.y", "/main/*.{ext}", "/a{b", "/", ""
+  };
+
+  private static final String[] PATHS = {
+          "/main", "/main/", "main", "/main/1", "/main/1/data", "/main/12/data", "/main/x/sub/y/data", "/main/x/y",
+          "/main/1/data/", "/other/data", "/main/abb/data", "/main/ab/data", "/main/a/b/data", "/", "", "//main",
+          "/main//1", "/ main / 1 ", "/main /x", "/index.jsp", "/a/b/index.jsp", "/main/x.y", "/main/xzy",
+          "/main/file.txt", "/user/a", "/user", "/Main/1", "/a{b", "/main/sub/data", "/x/data/data"
+  };
+
+  public void testSameAsAntPathMatcher() {
+
+    AntPathMatcher antPathMatcher = new AntPathMatcher();
+    for( String pattern : PATTERNS ) {
+      RequestGroupMatcher matcher = new RequestGroupMatcher(Collections.singletonList(newRequestGroup(pattern, pattern)));
+      for( String path : PATHS ) {
+        boolean expected = antPathMatcher.match(pattern, path);
+        assertEquals("'" + pattern + "' matches '" + path + "'", expected ? pattern : null, matcher.getGroupName(path));
+      }
+    }
+
+    // all patterns at once, the first matching pattern wins
+    List<RequestGroup> requestGroups = new ArrayList<RequestGroup>();
+    for( String pattern : PATTERNS ) {
+      requestGroups.add(newRequestGroup(pattern, pattern));
+    }
+    RequestGroupMatcher matcher = new RequestGroupMatcher(requestGroups);
+    for( String path : PATHS ) {
+      String expected = null;
+      for( String pattern : PATTERNS ) {
+        if( antPathMatcher.match(pattern, path) ) {
+          expected = pattern;
+          break;
+        }
+      }
+      assertEquals("first match for '" + path + "'", expected, matcher.getGroupName(path));
+    }
+  }
+
+  public void testFirstMatchWins() {
+
+    List<RequestGroup> requestGroups = new ArrayList<RequestGroup>();
+    requestGroups.add(newRequestGroup("data", "/main/*/data"));
+    requestGroups.add(newRequestGroup("main", "/main/**"));
+    requestGroups.add(newRequestGroup("all", "/**"));
+    requestGroups.add(newRequestGroup("images", "/main/images/**"));
+
+    RequestGroupMatcher matcher = new RequestGroupMatcher(requestGroups);
+
+    assertEquals("data", matcher.getGroupName("/main/1/data"));
+    assertEquals("main", matcher.getGroupName("/main/images/1.png"));
+    assertEquals("main", matcher.getGroupName("/main"));
+    assertEquals("all", matcher.getGroupName("/other"));
+    assertNull(matcher.getGroupName("relative"));
+  }
+
+  public void testGroupKeyResolver() {
+
+    List<RequestGroup> requestGroups = new ArrayList<RequestGroup>();
+    requestGroups.add(newRequestGroup("main", "/main/**"));
+    GroupKeyResolver resolver = new GroupKeyResolver(requestGroups);
+
+    for( int i = 0; i < 2; i++ ) {
+      // second iteration is answered from the cache
+      assertEquals("main", resolver.getKey("/main/1", "Group 1-1"));
+      assertEquals("default", resolver.getKey("/other", "Group 1-1"));
+    }
+
+    GroupKeyResolver threadGroups = new GroupKeyResolver(Collections.<RequestGroup>emptyList());
+    for( int i = 0; i < 2; i++ ) {
+      assertEquals("Group", threadGroups.getKey("/main/1", "Group 1-1"));
+      assertEquals("Other", threadGroups.getKey("/main/1", "Other"));
+    }
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  private RequestGroup newRequestGroup(String name, String pattern) {
+    RequestGroup requestGroup = new RequestGroup();
+    requestGroup.setName(name);
+    requestGroup.setPattern(pattern);
+    return requestGroup;
+  }
+
+}
@@ -0,0 +1,119 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link Histogram}.
+ */
+public class HistogramTest {
+
+  @Test
+  public void testIncrement() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getCount(11));
+    assertEquals(0, histogram.getDistinctValues());
+
+    histogram.increment(11);
+    histogram.increment(11);
+    histogram.increment(-3);
+    histogram.increment(Histogram.DENSE_LIMIT);
+    assertEquals(2, histogram.getCount(11));
+    assertEquals(1, histogram.getCount(-3));
+    assertEquals(1, histogram.getCount(Histogram.DENSE_LIMIT));
+    assertEquals(3, histogram.getDistinctValues());
+  }
+
+  /**
+   * Values in the dense range and spilled values must be counted exactly and sorted
+   */
+  @Test
+  public void testSameAsMap() {
+    Random random = new Random(42);
+    Histogram histogram = new Histogram();
+    Histogram other = new Histogram();
+    Map<Long, Long> expected = new TreeMap<Long, Long>();
+
+    for (int i = 0; i < 100000; i++) {
+      long value;
+      switch (i % 4) {
+        case 0: value = random.nextInt(2000); break;
+        case 1: value = random.nextInt(5000000); break;
+        case 2: value = -random.nextInt(100); break;
+        default: value = (random.nextInt(50) + 1) * 1024L;
+      }
+      (i % 3 == 0 ? other : histogram).increment(value);
+      Long count = expected.get(value);
+      expected.put(value, count == null ? 1 : count + 1);
+    }
+    histogram.addAll(other);
+
+    long[] values = new long[histogram.getDistinctValues()];
+    long[] counts = new long[histogram.getDistinctValues()];
+    histogram.toSortedArrays(values, counts);
+
+    long[] expectedValues = new long[expected.size()];
+    long[] expectedCounts = new long[expected.size()];
+    int i = 0;
+    for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+      expectedValues[i] = entry.getKey();
+      expectedCounts[i++] = entry.getValue();
+    }
+
+    assertArrayEquals(expectedValues, values);
+    assertArrayEquals(expectedCounts, counts);
+
+    // copies are independent
+    Histogram copy = histogram.copy();
+    copy.increment(-1000);
+    assertEquals(0, histogram.getCount(-1000));
+    assertEquals(1, copy.getCount(-1000));
+  }
+
+  /**
+   * Bucketed values must be within the relative error of the significant digits, the number of buckets is bounded
+   */
+  @Test
+  public void testBucketed() {
+    Random random = new Random(42);
+    Histogram histogram = new Histogram(2);
+
+    for (int i = 0; i < 100000; i++) {
+      long value = i % 10 == 0 ? -random.nextInt(1000000) : (long) Math.pow(10, random.nextDouble() * 12);
+      histogram.increment(value);
+
+      long lowest = histogram.lowestEquivalentValue(value);
+      assertTrue("lowest " + lowest + " of " + value, Math.abs(lowest) <= Math.abs(value) || value < 0);
+      assertTrue("error of " + value, Math.abs(value - lowest) <= Math.abs(value) / 100.0);
+      if (Math.abs(value) < 256) {
+        assertEquals("exact", value, lowest);
+      }
+    }
+
+    long[] values = new long[histogram.getDistinctValues()];
+    long[] counts = new long[histogram.getDistinctValues()];
+    histogram.toSortedArrays(values, counts);
+
+    long total = 0;
+    for (int i = 0; i < values.length; i++) {
+      total += counts[i];
+      if (i > 0) {
+        assertTrue("sorted", values[i - 1] < values[i]);
+      }
+      // a bucket is represented by its highest value
+      assertTrue("bucket of " + values[i], histogram.lowestEquivalentValue(values[i]) <= values[i]);
+      assertEquals("representative of " + values[i], histogram.getCount(values[i]), counts[i]);
+    }
+    assertEquals("total", 100000, total);
+    // 128 buckets per power of 2 for 40 powers of 2 of positive and 20 powers of 2 of negative values
+    assertTrue("buckets " + values.length, values.length < 60 * 128 + 2 * 256);
+  }
+
+}
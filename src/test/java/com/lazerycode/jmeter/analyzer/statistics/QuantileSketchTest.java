@@ -0,0 +1,105 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link QuantileSketch}.
+ */
+public class QuantileSketchTest {
+
+  /**
+   * Quantiles of the sketch must be within the relative accuracy of the exact quantiles
+   */
+  @Test
+  public void testAccuracy() {
+    Random random = new Random(42);
+    long[] values = new long[20000];
+    Samples samples = new Samples(0, Samples.DEFAULT_SKETCH_BINS);
+    for( int i = 0; i < values.length; i++ ) {
+      // log normal durations around 200ms
+      values[i] = Math.round(Math.exp(5.3 + random.nextGaussian()));
+      samples.addSample(i, values[i]);
+    }
+    samples.finish();
+    Arrays.sort(values);
+
+    Quantile quantile = samples.getQuantiles(100);
+    assertTrue(!quantile.isExact());
+    for( int k = 1; k <= 100; k++ ) {
+      long exact = values[values.length * k / 100 - 1];
+      long estimate = quantile.getQuantile(k);
+      assertTrue("k=" + k + " exact=" + exact + " estimate=" + estimate,
+                 Math.abs(estimate - exact) <= exact * QuantileSketch.RELATIVE_ACCURACY + 1);
+    }
+  }
+
+  /**
+   * Small values are exact
+   */
+  @Test
+  public void testSmallValues() {
+    Samples samples = new Samples(0, Samples.DEFAULT_SKETCH_BINS);
+    for( int value : new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9} ) {
+      samples.addSample(0, value);
+    }
+    samples.finish();
+    Quantile quantile = samples.getQuantiles(10);
+    for( int k = 1; k <= 10; k++ ) {
+      assertEquals(k - 1, quantile.getQuantile(k));
+    }
+  }
+
+  /**
+   * The number of bins is bounded, the lowest bins are collapsed
+   */
+  @Test
+  public void testBoundedBins() {
+    QuantileSketch sketch = new QuantileSketch(16);
+    for( int i = 0; i < 1000; i++ ) {
+      sketch.add(1L << (i % 40));
+    }
+    Distribution distribution = sketch.toDistribution();
+    assertTrue("bins " + distribution.size(), distribution.size() <= 16);
+    assertEquals(1000, distribution.getTotalCount());
+
+    // the highest value is still accurate
+    long highest = distribution.getValue(distribution.size() - 1);
+    assertTrue(Math.abs(highest - (1L << 39)) <= (1L << 39) * QuantileSketch.RELATIVE_ACCURACY);
+  }
+
+  /**
+   * Merged sketches must be the same as a single sketch of all values
+   */
+  @Test
+  public void testMerge() {
+    Random random = new Random(7);
+    QuantileSketch all = new QuantileSketch(32);
+    QuantileSketch first = new QuantileSketch(32);
+    QuantileSketch second = new QuantileSketch(32);
+    for( int i = 0; i < 5000; i++ ) {
+      long value = random.nextInt(100);
+      all.add(value);
+      first.add(value);
+      value = 1000 + random.nextInt(100000);
+      all.add(value);
+      second.add(value);
+    }
+    first.addAll(second);
+
+    Distribution expected = all.toDistribution();
+    Distribution merged = first.toDistribution();
+    assertEquals(expected.getTotalCount(), merged.getTotalCount());
+    // the highest bins don't depend on the order of the values
+    for( int i = 1; i <= 16; i++ ) {
+      assertEquals(expected.getValue(expected.size() - i), merged.getValue(merged.size() - i));
+      assertEquals(expected.getCumulativeCount(expected.size() - i), merged.getCumulativeCount(merged.size() - i));
+    }
+  }
+
+}
@@ -35,6 +35,8 @@ public class SamplesTest extends TestCase {
 
     assertEquals("samples", Arrays.asList(3L, 7L, 11L, 15L), samples.getSamples());
     assertEquals("timestamps", Arrays.asList(15L, 35L, 55L, 75L), samples.getTimestamps());
+    assertTrue("sample values", Arrays.equals(new long[] { 3L, 7L, 11L, 15L }, samples.getSampleValues()));
+    assertTrue("timestamp values", Arrays.equals(new long[] { 15L, 35L, 55L, 75L }, samples.getTimestampValues()));
   }
 
   public void testAggregate2() {
@@ -93,6 +95,64 @@ public class SamplesTest extends TestCase {
         }
     }
 
+    public void testBatchQuantiles() {
+
+        int[] values = new int[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 7919) % 613;
+        }
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        Quantile quantiles = createWithSamples(values).getQuantiles(1000);
+
+        int[] populations = new int[1000];
+        for (int k = 1; k <= 1000; k++) {
+            populations[k - 1] = k;
+        }
+        long[] batch = quantiles.getQuantiles(populations);
+
+        for (int k = 1; k <= 1000; k++) {
+            // smallest value with at least values.length * k / 1000 values up to and including it
+            long expected = sorted[(int) ((long) values.length * k / 1000) - 1];
+            assertEquals("k=" + k, expected, quantiles.getQuantile(k));
+            assertEquals("batch k=" + k, expected, batch[k - 1]);
+        }
+
+        // quantiles of any grade share the sorted values
+        Samples samples = createWithSamples(values);
+        assertEquals(samples.getQuantiles(10).getQuantile(5), samples.getQuantiles(1000).getQuantile(500));
+        assertEquals(samples.getQuantiles(100).getQuantile(50), samples.getQuantiles(1000).getQuantile(500));
+
+        assertTrue(Arrays.equals(new long[3], createWithSamples(new int[] {}).getQuantiles(10).getQuantiles(new int[] {1, 5, 10})));
+        try {
+            quantiles.getQuantiles(new int[] {5, 4});
+            fail("populations must be ascending");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testValueCounts() {
+
+        int[] values = new int[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 10 + (i * 7919) % 613;
+        }
+        Samples samples = createWithSamples(values);
+        long[] counts = samples.getValueCounts(40);
+
+        // the same bins as a histogram of the raw values
+        long[] expected = new long[40];
+        double width = (samples.getMax() - samples.getMin()) / 40.0;
+        for (int value : values) {
+            expected[Math.min(39, (int) ((value - samples.getMin()) / width))]++;
+        }
+        assertTrue(Arrays.toString(counts), Arrays.equals(expected, counts));
+
+        // all values equal
+        assertTrue(Arrays.equals(new long[] {3, 0}, createWithSamples(new int[] {5, 5, 5}).getValueCounts(2)));
+    }
 
     public void test99Point9Quantile() {
         
@@ -133,4 +193,233 @@ public class SamplesTest extends TestCase {
         return result;
     }    
 
+  /**
+   * Appending partial samples must yield the same results as adding all samples to a single instance
+   */
+  public void testAppend() {
+
+    Samples expected = new Samples(5, true);
+    Samples actual = new Samples(5, true);
+    Samples first = new Samples(-1, true);
+    Samples second = new Samples(-1, true);
+
+    for( int i = 0; i < 50; i++ ) {
+      long timestamp = 1000 + i * 10;
+      long value = (i * 7919) % 113;
+      Samples partial = i < 23 ? first : second;
+      if( i % 9 == 4 ) {
+        expected.addError(timestamp);
+        partial.addError(timestamp);
+      }
+      else {
+        expected.addSample(timestamp, value);
+        partial.addSample(timestamp, value);
+      }
+    }
+
+    actual.append(first);
+    actual.append(second);
+
+    expected.finish();
+    actual.finish();
+
+    assertEquals("samples", expected.getSamples(), actual.getSamples());
+    assertEquals("timestamps", expected.getTimestamps(), actual.getTimestamps());
+    assertEquals("success", expected.getSuccessCount(), actual.getSuccessCount());
+    assertEquals("errors", expected.getErrorsCount(), actual.getErrorsCount());
+    assertEquals("min", expected.getMin(), actual.getMin());
+    assertEquals("max", expected.getMax(), actual.getMax());
+    assertEquals("total", expected.getTotal(), actual.getTotal());
+    assertEquals("standard deviation", expected.getStandardDeviation(), actual.getStandardDeviation());
+    assertEquals("min timestamp", expected.getMinTimestamp(), actual.getMinTimestamp());
+    assertEquals("max timestamp", expected.getMaxTimestamp(), actual.getMaxTimestamp());
+    for( int k = 1; k < 10; k++ ) {
+      assertEquals("quantile " + k, expected.getQuantiles(10).getQuantile(k), actual.getQuantiles(10).getQuantile(k));
+    }
+  }
+
+  /**
+   * Merging samples with interleaved timestamps must yield the same results as adding all samples in order of their
+   * timestamps to a single instance, even if the samples of an instance have not been added in that order
+   */
+  public void testMerge() {
+
+    Samples expected = new Samples(5, true);
+    Samples actual = new Samples(5, true);
+    Samples first = new Samples(-1, true);
+    Samples second = new Samples(-1, true);
+
+    long[] secondTimestamps = new long[25];
+    long[] secondValues = new long[25];
+    for( int i = 0; i < 50; i++ ) {
+      long timestamp = 1000 + (i / 2) * 10;
+      long value = (i * 7919) % 113;
+      if( i % 2 == 1 ) {
+        // added to the second instance in reverse order below
+        secondTimestamps[i / 2] = timestamp;
+        secondValues[i / 2] = i % 9 == 4 ? -1 : value;
+      }
+      if( i % 9 == 4 ) {
+        expected.addError(timestamp);
+        if( i % 2 == 0 ) {
+          first.addError(timestamp);
+        }
+      }
+      else {
+        expected.addSample(timestamp, value);
+        if( i % 2 == 0 ) {
+          first.addSample(timestamp, value);
+        }
+      }
+    }
+    for( int i = secondTimestamps.length - 1; i >= 0; i-- ) {
+      if( secondValues[i] < 0 ) {
+        second.addError(secondTimestamps[i]);
+      }
+      else {
+        second.addSample(secondTimestamps[i], secondValues[i]);
+      }
+    }
+
+    first.merge(second);
+    actual.append(first);
+
+    expected.finish();
+    actual.finish();
+
+    assertEquals("samples", expected.getSamples(), actual.getSamples());
+    assertEquals("timestamps", expected.getTimestamps(), actual.getTimestamps());
+    assertEquals("success", expected.getSuccessCount(), actual.getSuccessCount());
+    assertEquals("errors", expected.getErrorsCount(), actual.getErrorsCount());
+    assertEquals("total", expected.getTotal(), actual.getTotal());
+    assertEquals("standard deviation", expected.getStandardDeviation(), actual.getStandardDeviation());
+    for( int k = 1; k < 10; k++ ) {
+      assertEquals("quantile " + k, expected.getQuantiles(10).getQuantile(k), actual.getQuantiles(10).getQuantile(k));
+    }
+
+    try {
+      new Samples(5, true).merge(second);
+      fail("compressed samples can't be merged");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Quantiles of bucketed values must be within the reported relative error of the exact quantiles
+   */
+  public void testBucketedQuantiles() {
+
+    Samples exact = new Samples(0, true);
+    Samples bucketed = new Samples(0, true, 2);
+
+    for( int i = 0; i < 10000; i++ ) {
+      long value = (i * 7919L) % 100003;
+      exact.addSample(i, value);
+      bucketed.addSample(i, value);
+    }
+    exact.finish();
+    bucketed.finish();
+
+    Quantile exactQuantiles = exact.getQuantiles(1000);
+    Quantile bucketedQuantiles = bucketed.getQuantiles(1000);
+    assertTrue("exact", exactQuantiles.isExact());
+    assertFalse("bucketed", bucketedQuantiles.isExact());
+
+    for( int k = 1; k <= 1000; k++ ) {
+      long expected = exactQuantiles.getQuantile(k);
+      long actual = bucketedQuantiles.getQuantile(k);
+      double error = bucketedQuantiles.getMaxRelativeError(k);
+
+      assertEquals("no error", 0d, exactQuantiles.getMaxRelativeError(k));
+      assertTrue("error " + error, error < 0.01);
+      assertTrue("quantile " + k + ": " + expected + " " + actual, actual >= expected);
+      assertTrue("quantile " + k + ": " + expected + " " + actual, (double) (actual - expected) / expected <= error + 1e-9);
+    }
+  }
+
+  /**
+   * A reservoir must keep real samples in order of their timestamps, including the spikes
+   */
+  public void testReservoir() {
+
+    Samples samples = new Samples(300, false, 0, SampleRetention.RESERVOIR);
+    for( int i = 0; i < 100000; i++ ) {
+      samples.addSample(1000 + i, reservoirValue(i));
+    }
+    samples.finish();
+
+    long[] values = samples.getSampleValues();
+    long[] timestamps = samples.getTimestampValues();
+    assertTrue("stored " + values.length, values.length > 100 && values.length <= 303);
+
+    int spikes = 0;
+    for( int i = 0; i < values.length; i++ ) {
+      assertEquals("real sample", reservoirValue((int) timestamps[i] - 1000), values[i]);
+      if( i > 0 ) {
+        assertTrue("in order", timestamps[i - 1] < timestamps[i]);
+      }
+      if( values[i] == 10000 ) {
+        spikes++;
+      }
+    }
+    assertEquals("spikes", 100000 / 9973 + 1, spikes);
+    assertEquals("success", 100000, samples.getSuccessCount());
+
+    // same samples, same reservoir
+    Samples again = new Samples(300, false, 0, SampleRetention.RESERVOIR);
+    for( int i = 0; i < 100000; i++ ) {
+      again.addSample(1000 + i, reservoirValue(i));
+    }
+    assertTrue("reproducible", Arrays.equals(values, again.snapshot().getSampleValues()));
+  }
+
+  public void testTimeBuckets() {
+
+    Samples samples = new Samples(100, false, 0, SampleRetention.TIME_BUCKETS);
+    for( int i = 0; i < 100000; i++ ) {
+      samples.addSample(1000 + i, i % 100);
+    }
+    // a sample before the first bucket
+    samples.addSample(500, 1000);
+
+    Samples snapshot = samples.snapshot();
+    samples.finish();
+
+    long interval = samples.getBucketInterval();
+    assertTrue("interval " + interval, interval == 1024 || interval == 2048);
+    assertEquals("power of 2", 0, interval & (interval - 1));
+
+    long[] timestamps = samples.getTimestampValues();
+    long[] averages = samples.getSampleValues();
+    long[] minimums = samples.getBucketMinimums();
+    long[] maximums = samples.getBucketMaximums();
+    long[] counts = samples.getBucketCounts();
+    assertTrue("buckets " + counts.length, counts.length > 40 && counts.length <= 100);
+    assertEquals(counts.length, samples.getStoredSamplesCount());
+
+    long total = 0;
+    for( int i = 0; i < counts.length; i++ ) {
+      total += counts[i];
+      assertEquals("middle of interval", interval / 2, timestamps[i] % interval);
+      assertTrue("min <= avg <= max", minimums[i] <= averages[i] && averages[i] <= maximums[i]);
+      if( i > 0 ) {
+        assertTrue("in order", timestamps[i - 1] < timestamps[i]);
+      }
+    }
+    assertEquals("counts", 100001, total);
+    assertEquals("first bucket", 1000, maximums[0]);
+    assertEquals(0, minimums[1]);
+    assertEquals(99, maximums[1]);
+
+    assertTrue("snapshot", Arrays.equals(counts, snapshot.getBucketCounts()));
+    assertTrue("snapshot", Arrays.equals(maximums, snapshot.getBucketMaximums()));
+    assertEquals(0, new Samples(100, false).snapshot().getBucketInterval());
+  }
+
+  private static long reservoirValue(int i) {
+    return i % 9973 == 0 ? 10000 : (i * 7919L) % 100;
+  }
+
 }
@@ -0,0 +1,113 @@
+package com.lazerycode.jmeter.analyzer.statistics;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for {@link Throughput}.
+ */
+public class ThroughputTest {
+
+  /**
+   * Every request is counted in its interval, intervals without requests are kept
+   */
+  @Test
+  public void testCounts() {
+    Throughput throughput = new Throughput(100);
+    throughput.add(1050, true);
+    throughput.add(1099, false);
+    throughput.add(1300, true);
+    // before the first interval
+    throughput.add(820, true);
+
+    assertEquals(6, throughput.getIntervalCount());
+    assertArrayEquals(new long[] {800, 900, 1000, 1100, 1200, 1300}, throughput.getTimestamps());
+    assertArrayEquals(new long[] {1, 0, 2, 0, 0, 1}, throughput.getRequestCounts());
+    assertArrayEquals(new long[] {0, 0, 1, 0, 0, 0}, throughput.getErrorCounts());
+    assertEquals(4, throughput.getTotalRequests());
+    assertEquals(20, throughput.getPeakRequestsPerSecond());
+  }
+
+  /**
+   * Requests in random order and split into parts must yield the same counts as requests in order
+   */
+  @Test
+  public void testOrderAndParts() {
+    Random random = new Random(3);
+    long[] timestamps = new long[5000];
+    for( int i = 0; i < timestamps.length; i++ ) {
+      timestamps[i] = 1324043709785L + random.nextInt(600000);
+    }
+
+    Throughput expected = new Throughput(Throughput.DEFAULT_RESOLUTION);
+    // 600s starting within a second span up to 601 intervals
+    long[] counts = new long[601];
+    long firstInterval = Long.MAX_VALUE;
+    for( long timestamp : timestamps ) {
+      firstInterval = Math.min(firstInterval, timestamp / 1000);
+    }
+    for( long timestamp : timestamps ) {
+      counts[(int) (timestamp / 1000 - firstInterval)]++;
+    }
+
+    Throughput firstPart = new Throughput(Throughput.DEFAULT_RESOLUTION);
+    Throughput secondPart = new Throughput(Throughput.DEFAULT_RESOLUTION);
+    for( int i = 0; i < timestamps.length; i++ ) {
+      expected.add(timestamps[i], i % 7 != 0);
+      (i % 3 == 0 ? firstPart : secondPart).add(timestamps[i], i % 7 != 0);
+    }
+    Throughput copy = firstPart.copy();
+    firstPart.addAll(secondPart);
+
+    long[] actualCounts = expected.getRequestCounts();
+    for( int i = 0; i < actualCounts.length; i++ ) {
+      assertEquals("interval " + i, counts[i], actualCounts[i]);
+    }
+    assertArrayEquals(expected.getTimestamps(), firstPart.getTimestamps());
+    assertArrayEquals(expected.getRequestCounts(), firstPart.getRequestCounts());
+    assertArrayEquals(expected.getErrorCounts(), firstPart.getErrorCounts());
+    assertEquals(5000, firstPart.getTotalRequests());
+    // the copy is independent
+    assertEquals(5000 - secondPart.getTotalRequests(), copy.getTotalRequests());
+  }
+
+  /**
+   * The number of intervals is bounded, a stray timestamp widens the resolution instead of allocating an interval for
+   * every second since 1970
+   */
+  @Test
+  public void testBoundedIntervals() {
+    Throughput throughput = new Throughput(1000, 1024);
+    for( int i = 0; i < 100; i++ ) {
+      throughput.add(1324043709785L + i * 1000L, true);
+    }
+    throughput.add(0, false);
+
+    assertTrue("intervals " + throughput.getIntervalCount(), throughput.getIntervalCount() <= 1024);
+    assertEquals(0, throughput.getResolution() % 1000);
+    assertEquals(1, Long.bitCount(throughput.getResolution() / 1000));
+    assertEquals(101, throughput.getTotalRequests());
+    long[] timestamps = throughput.getTimestamps();
+    assertEquals(0, timestamps[0]);
+    assertTrue(timestamps[timestamps.length - 1] <= 1324043709785L + 99000L);
+    assertEquals(1, throughput.getErrorCounts()[0]);
+
+    // counts of a finer resolution are added to the wider intervals
+    Throughput fine = new Throughput(1000, 1024);
+    fine.add(1324043709785L, true);
+    throughput.addAll(fine);
+    assertEquals(102, throughput.getTotalRequests());
+    assertTrue(throughput.getIntervalCount() <= 1024);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDifferentResolution() {
+    new Throughput(100).addAll(new Throughput(1000));
+  }
+
+}
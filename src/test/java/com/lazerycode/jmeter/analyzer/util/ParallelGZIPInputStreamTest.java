@@ -0,0 +1,189 @@
+package com.lazerycode.jmeter.analyzer.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ParallelGZIPInputStream}
+ */
+public class ParallelGZIPInputStreamTest extends TestCase {
+
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = File.createTempFile("ParallelGZIPInputStreamTest", ".gz");
+    file.deleteOnExit();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  public void testSingleMember() throws Exception {
+
+    byte[] data = createData(0, 3000000);
+    write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+
+    assertTrue(Arrays.equals(data, inflate(4)));
+  }
+
+  public void testSingleMemberScannedLazily() throws Exception {
+
+    // random data doesn't compress, the member is as large as the data
+    byte[] data = new byte[8 * 1024 * 1024];
+    new Random(0).nextBytes(data);
+    write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+
+    ParallelGZIPInputStream in = new ParallelGZIPInputStream(file, 2);
+    try {
+      assertTrue(in.read() >= 0);
+      assertTrue("scanned " + in.getScannedBytes(), in.getScannedBytes() < 1024 * 1024);
+    }
+    finally {
+      in.close();
+    }
+    assertTrue(Arrays.equals(data, inflate(2)));
+  }
+
+  public void testMultipleMembers() throws Exception {
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    for( int i = 0; i < 20; i++ ) {
+      byte[] data = createData(i, 100000 + i * 10000);
+      expected.write(data);
+      compressed.write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+    }
+    // empty member
+    compressed.write(gzip(new byte[0], Deflater.DEFAULT_COMPRESSION));
+    write(compressed.toByteArray());
+
+    assertTrue(Arrays.equals(expected.toByteArray(), inflate(1)));
+    assertTrue(Arrays.equals(expected.toByteArray(), inflate(3)));
+  }
+
+  public void testHeaderWithinMember() throws Exception {
+
+    // stored (uncompressed) data containing GZIP headers must not be mistaken for members
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    for( int i = 0; i < 5; i++ ) {
+      byte[] data = createData(i, 500000);
+      byte[] nested = gzip(createData(i + 10, 1000), Deflater.DEFAULT_COMPRESSION);
+      for( int position = 1000 * i; position + nested.length < data.length; position += 50000 ) {
+        System.arraycopy(nested, 0, data, position, nested.length);
+      }
+      expected.write(data);
+      compressed.write(gzip(data, Deflater.NO_COMPRESSION));
+    }
+    write(compressed.toByteArray());
+
+    assertTrue(Arrays.equals(expected.toByteArray(), inflate(4)));
+  }
+
+  public void testTrailingGarbage() throws Exception {
+
+    byte[] data = createData(0, 10000);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    compressed.write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+    compressed.write(new byte[] { 0, 0, 0, 0, 0, 0 });
+    write(compressed.toByteArray());
+
+    assertTrue(Arrays.equals(data, inflate(2)));
+  }
+
+  public void testCorruptMember() throws Exception {
+
+    byte[] compressed = gzip(createData(0, 100000), Deflater.DEFAULT_COMPRESSION);
+    // break the CRC
+    compressed[compressed.length - 8] ^= 1;
+    write(compressed);
+
+    try {
+      inflate(2);
+      fail("corrupt member must not be accepted");
+    }
+    catch (ZipException e) {
+      // expected
+    }
+  }
+
+  public void testNotGZiped() throws Exception {
+
+    write(createData(0, 1000));
+
+    try {
+      inflate(2);
+      fail("uncompressed file must not be accepted");
+    }
+    catch (ZipException e) {
+      // expected
+    }
+  }
+
+  //--------------------------------------------------------------------------------------------------------------------
+
+  /**
+   * @return text like data that compresses well but not perfectly
+   */
+  private byte[] createData(long seed, int length) {
+    Random random = new Random(seed);
+    byte[] data = new byte[length];
+    for( int i = 0; i < length; i++ ) {
+      data[i] = (byte) (random.nextInt(4) == 0 ? 'a' + random.nextInt(26) : 'a' + i % 7);
+    }
+    return data;
+  }
+
+  private byte[] gzip(byte[] data, final int level) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(result) {
+      {
+        def.setLevel(level);
+      }
+    };
+    out.write(data);
+    out.close();
+    return result.toByteArray();
+  }
+
+  private void write(byte[] data) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private byte[] inflate(int threads) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    InputStream in = new ParallelGZIPInputStream(file, threads);
+    try {
+      byte[] buffer = new byte[12345];
+      int read;
+      while( (read = in.read(buffer)) >= 0 ) {
+        result.write(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return result.toByteArray();
+  }
+
+}
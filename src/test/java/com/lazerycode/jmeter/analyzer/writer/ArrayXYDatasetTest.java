@@ -0,0 +1,61 @@
+package com.lazerycode.jmeter.analyzer.writer;
+
+import org.jfree.data.general.DatasetUtilities;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ArrayXYDataset}
+ */
+public class ArrayXYDatasetTest {
+
+  /**
+   * Points and bar intervals are the same as those of an {@link XYSeriesCollection}
+   */
+  @Test
+  public void testSameAsSeriesCollection() {
+    double[] x = {0, 5, 7, 20};
+    double[] y = {3, 1, 4, 1};
+    XYSeries series = new XYSeries("Values");
+    for (int i = 0; i < x.length; i++) {
+      series.add(x[i], y[i]);
+    }
+    XYSeriesCollection expected = new XYSeriesCollection(series);
+    ArrayXYDataset actual = new ArrayXYDataset().addSeries("Values", x, y);
+
+    assertEquals(1, actual.getSeriesCount());
+    assertEquals("Values", actual.getSeriesKey(0));
+    assertEquals(expected.getItemCount(0), actual.getItemCount(0));
+    for (int i = 0; i < x.length; i++) {
+      assertEquals(expected.getXValue(0, i), actual.getXValue(0, i), 0);
+      assertEquals(expected.getYValue(0, i), actual.getYValue(0, i), 0);
+      assertEquals(expected.getStartXValue(0, i), actual.getStartXValue(0, i), 0);
+      assertEquals(expected.getEndXValue(0, i), actual.getEndXValue(0, i), 0);
+      assertEquals(expected.getStartYValue(0, i), actual.getStartYValue(0, i), 0);
+      assertEquals(expected.getEndYValue(0, i), actual.getEndYValue(0, i), 0);
+    }
+    assertEquals(DatasetUtilities.findDomainBounds(expected, true), DatasetUtilities.findDomainBounds(actual, true));
+    assertEquals(DatasetUtilities.findRangeBounds(expected, true), DatasetUtilities.findRangeBounds(actual, true));
+  }
+
+  /**
+   * Given intervals are used as they are
+   */
+  @Test
+  public void testIntervals() {
+    ArrayXYDataset dataset = new ArrayXYDataset()
+        .addSeries("Band", new double[] {1, 2}, new double[] {5, 6}, new double[] {4, 3}, new double[] {8, 9})
+        .addBinSeries("Bins", new double[] {0, 10}, new double[] {10, 20}, new double[] {7, 2});
+
+    assertEquals(2, dataset.getSeriesCount());
+    assertEquals(3, dataset.getStartYValue(0, 1), 0);
+    assertEquals(9, dataset.getEndYValue(0, 1), 0);
+    assertEquals(10, dataset.getStartXValue(1, 1), 0);
+    assertEquals(20, dataset.getEndXValue(1, 1), 0);
+    assertEquals(15, dataset.getXValue(1, 1), 0);
+    assertEquals(2, dataset.getYValue(1, 1), 0);
+  }
+}
@@ -19,11 +19,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
 import static com.lazerycode.jmeter.analyzer.writer.WriterTestHelper.getMockedTestResults;
+import static com.lazerycode.jmeter.analyzer.config.Environment.ENVIRONMENT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -64,6 +67,38 @@ public class ChartWriterTest {
   }
 
 
+  /**
+   * Charts rendered concurrently are the same as charts rendered one after another
+   */
+  @Test
+  public void testWriteConcurrently() throws Exception {
+
+    testling.write(getMockedTestResults());
+    Map<String, byte[]> sequential = new HashMap<String, byte[]>();
+    for (Map.Entry<String, ByteArrayOutputStream> entry : streamMap.entrySet()) {
+      sequential.put(entry.getKey(), entry.getValue().toByteArray());
+      entry.getValue().reset();
+    }
+
+    ConfigurationCharts configurationCharts = new ConfigurationCharts();
+    configurationCharts.setThreads(4);
+    // 4MB per chart of the default size: at most two charts at the same time
+    configurationCharts.setMaxRenderingMemory(8);
+    ENVIRONMENT.setConfigurationCharts(configurationCharts);
+    try {
+      testling.write(getMockedTestResults());
+    }
+    finally {
+      ENVIRONMENT.setConfigurationCharts(new ConfigurationCharts());
+    }
+
+    for (Map.Entry<String, ByteArrayOutputStream> entry : streamMap.entrySet()) {
+      byte[] expected = sequential.get(entry.getKey());
+      assertTrue(entry.getKey(), expected.length > 0);
+      compareStreams("image/png", expected, entry.getValue().toByteArray());
+    }
+  }
+
   //====================================================================================================================
 
   private void compareStreams(String contentType, byte[] expected, byte[] actual) throws Exception {
@@ -0,0 +1,51 @@
+package com.lazerycode.jmeter.analyzer.writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Downsampling}
+ */
+public class DownsamplingTest {
+
+  @Test
+  public void testShortSeries() {
+    long[] x = {1, 2, 3, 4};
+    double[] y = {5, 1, 7, 2};
+    assertArrayEquals(new int[] {0, 1, 2, 3}, Downsampling.largestTriangleThreeBuckets(x, y, 4));
+    assertArrayEquals(new int[] {0, 1, 2, 3}, Downsampling.largestTriangleThreeBuckets(x, y, 0));
+  }
+
+  @Test
+  public void testPeaksAreKept() {
+    int n = 50000;
+    long[] x = new long[n];
+    double[] y = new double[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = 1000L + i * 10;
+      y[i] = 100 + i % 7;
+    }
+    y[12345] = 10000;
+    y[40000] = -5000;
+
+    int[] selected = Downsampling.largestTriangleThreeBuckets(x, y, 1900);
+    assertEquals(1900, selected.length);
+    assertEquals(0, selected[0]);
+    assertEquals(n - 1, selected[selected.length - 1]);
+
+    boolean peak = false;
+    boolean valley = false;
+    for (int i = 0; i < selected.length; i++) {
+      if (i > 0) {
+        assertTrue("ascending", selected[i - 1] < selected[i]);
+      }
+      peak |= selected[i] == 12345;
+      valley |= selected[i] == 40000;
+    }
+    assertTrue("peak", peak);
+    assertTrue("valley", valley);
+  }
+}
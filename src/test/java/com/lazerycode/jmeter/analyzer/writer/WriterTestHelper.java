@@ -6,6 +6,7 @@ import com.lazerycode.jmeter.analyzer.parser.AggregatedResponses;
 import com.lazerycode.jmeter.analyzer.parser.StatusCodes;
 import com.lazerycode.jmeter.analyzer.statistics.Quantile;
 import com.lazerycode.jmeter.analyzer.statistics.Samples;
+import com.lazerycode.jmeter.analyzer.statistics.Throughput;
 
 import org.apache.commons.io.FileUtils;
 
@@ -22,6 +23,7 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -52,9 +54,12 @@ public final class WriterTestHelper {
     when(quantile.getQuantile(700)).thenReturn(1L);
     when(quantile.getQuantile(800)).thenReturn(1L);
     when(quantile.getQuantile(900)).thenReturn(1L);
+    when(quantile.getQuantile(950)).thenReturn(2L);
     when(quantile.getQuantile(990)).thenReturn(6L);
     when(quantile.getQuantile(999)).thenReturn(19L);
     when(quantile.getQuantile(1000)).thenReturn(1352L);
+    when(quantile.getQuantiles(any(int[].class))).thenReturn(new long[999]);
+    when(quantile.isExact()).thenReturn(true);
 
     //duration
     Samples duration = mock(Samples.class);
@@ -68,6 +73,9 @@ public final class WriterTestHelper {
     when(duration.getStandardDeviation()).thenReturn(7L);
 
     when(duration.getQuantiles(1000)).thenReturn(quantile);
+    when(duration.hasQuantiles()).thenReturn(true);
+    when(duration.getValueCounts(40)).thenReturn(new long[] { 30000L, 5000L, 1000L, 49L, 0L, 0L, 0L, 0L, 0L, 0L,
+        0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 1L });
 
     List<Long> samples = new ArrayList<Long>();
     samples.add(12L);
@@ -84,6 +92,8 @@ public final class WriterTestHelper {
     timestamps.add(1324043709788L);
     timestamps.add(1324043709789L);
     when(duration.getTimestamps()).thenReturn(timestamps);
+    when(duration.getSampleValues()).thenReturn(new long[] { 12L, 15L, 231L, 231L, 2312L });
+    when(duration.getTimestampValues()).thenReturn(new long[] { 1324043709785L, 1324043709786L, 1324043709787L, 1324043709788L, 1324043709789L });
 
     //size
     Samples size = mock(Samples.class);
@@ -92,6 +102,8 @@ public final class WriterTestHelper {
     when(size.getAverage()).thenReturn(20810L);
     when(size.getMax()).thenReturn(53890L);
     when(size.getStandardDeviation()).thenReturn(3308L);
+    when(size.getSampleValues()).thenReturn(new long[0]);
+    when(size.getTimestampValues()).thenReturn(new long[0]);
 
 
     //duration
@@ -106,6 +118,16 @@ public final class WriterTestHelper {
     when(activeThreads.getStandardDeviation()).thenReturn(7L);
 
     when(activeThreads.getQuantiles(1000)).thenReturn(quantile);
+    when(activeThreads.getSampleValues()).thenReturn(new long[0]);
+    when(activeThreads.getTimestampValues()).thenReturn(new long[0]);
+
+    //throughput: 1201 requests per second, 1352 in the 13th second
+    Throughput throughput = new Throughput(Throughput.DEFAULT_RESOLUTION);
+    for (int second = 0; second < 30; second++) {
+      for (int request = 0; request < (second == 12 ? 1352 : 1201); request++) {
+        throughput.add(1324043709785L + second * 1000L, request % 100 != 0);
+      }
+    }
 
     //aggregatedResponse
     AggregatedResponses value = mock(AggregatedResponses.class);
@@ -117,6 +139,7 @@ public final class WriterTestHelper {
     when(value.getSizeByUri()).thenReturn(ImmutableMap.of(key, size));
     when(value.getDuration()).thenReturn(duration);
     when(value.getActiveThreads()).thenReturn(activeThreads);
+    when(value.getThroughput()).thenReturn(throughput);
     when(value.getDurationByUri()).thenReturn(ImmutableMap.of(key, duration));
     when(value.getUriByStatusCode()).thenReturn(ImmutableMap.<Integer, Set<String>>of(200, ImmutableSet.of("http://success.com", "http://anotherSuccess.com"), 403, ImmutableSet.<String>of("http://forbidden.com"), 404, ImmutableSet.<String>of("http://notFound.com","http://againNotFound.com")));
 